@@ -2,7 +2,8 @@ CREATE TABLE IF NOT EXISTS monitoring (
   index integer,
   signature text,
   lastRan bigint,
-  duration bigint
+  duration bigint,
+  compiled bytea
 );
 
 CREATE TABLE IF NOT EXISTS migrationstats (
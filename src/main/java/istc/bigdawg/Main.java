@@ -11,6 +11,7 @@ import org.glassfish.jersey.server.ResourceConfig;
 
 import istc.bigdawg.catalog.CatalogInstance;
 import istc.bigdawg.migration.MigratorTask;
+import istc.bigdawg.monitoring.Monitor;
 import istc.bigdawg.monitoring.MonitoringTask;
 import istc.bigdawg.postgresql.PostgreSQLHandler;
 import istc.bigdawg.properties.BigDawgConfigProperties;
@@ -106,6 +107,7 @@ public class Main {
 
         synchronized (Main.class) {
             // Monitor
+            Monitor.loadSignatureIndex();
             relationalTask = new MonitoringTask();
             relationalTask.run();
 
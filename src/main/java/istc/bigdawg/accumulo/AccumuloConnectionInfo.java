@@ -3,10 +3,19 @@ package istc.bigdawg.accumulo;
 import java.text.ParseException;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.DoubleSummaryStatistics;
 import java.util.List;
+import java.util.Map.Entry;
+import java.util.function.DoubleConsumer;
 
 import org.apache.accumulo.core.client.AccumuloException;
 import org.apache.accumulo.core.client.AccumuloSecurityException;
+import org.apache.accumulo.core.client.Scanner;
+import org.apache.accumulo.core.client.TableNotFoundException;
+import org.apache.accumulo.core.data.Key;
+import org.apache.accumulo.core.data.Value;
+import org.apache.accumulo.core.security.Authorizations;
+import org.apache.commons.lang3.tuple.ImmutablePair;
 import org.apache.commons.lang3.tuple.Pair;
 
 import istc.bigdawg.exceptions.BigDawgException;
@@ -76,17 +85,83 @@ public class AccumuloConnectionInfo implements ConnectionInfo {
 		return cleanupStrings;
 	}
 
+	/**
+	 * Scan the table and pass the numerical values of the attribute to the
+	 * consumer.
+	 * 
+	 * @param attribute
+	 *            one of {@link AccumuloInstance#fullSchema} (a part of the
+	 *            key or the value) or the column qualifier whose values are
+	 *            read
+	 */
+	private void scanValues(String object, String attribute,
+			DoubleConsumer consumer) throws LocalQueryExecutionException {
+		int part = AccumuloInstance.fullSchema.indexOf(attribute);
+		try {
+			Scanner scanner = AccumuloInstance.getFullInstance(this).getConn()
+					.createScanner(object, new Authorizations());
+			for (Entry<Key, Value> entry : scanner) {
+				Key key = entry.getKey();
+				String value;
+				switch (part) {
+				case 0:
+					value = key.getRow().toString();
+					break;
+				case 1:
+					value = key.getColumnFamily().toString();
+					break;
+				case 2:
+					value = key.getColumnQualifier().toString();
+					break;
+				case 3:
+					value = key.getColumnVisibility().toString();
+					break;
+				case 4:
+					value = entry.getValue().toString();
+					break;
+				default:
+					if (!key.getColumnQualifier().toString().equals(attribute)) {
+						continue;
+					}
+					value = entry.getValue().toString();
+				}
+				try {
+					consumer.accept(Double.parseDouble(value.trim()));
+				} catch (NumberFormatException e) {
+					/* only the numerical values are counted */
+				}
+			}
+		} catch (AccumuloException | AccumuloSecurityException
+				| TableNotFoundException e) {
+			throw new LocalQueryExecutionException(
+					"Cannot scan the table " + object + " in Accumulo", e);
+		}
+	}
+
 	@Override
 	public long[] computeHistogram(String object, String attribute,
 			double start, double end, int numBuckets)
 					throws LocalQueryExecutionException {
-		return null;
+		long[] result = new long[numBuckets];
+		double step = (end - start) / numBuckets;
+		scanValues(object, attribute, value -> {
+			int bucket = step <= 0 ? 0
+					: (int) Math.max(0, Math.min(numBuckets - 1,
+							Math.floor((value - start) / step)));
+			result[bucket]++;
+		});
+		return result;
 	}
 
 	@Override
 	public Pair<Number, Number> getMinMax(String object, String attribute)
 			throws LocalQueryExecutionException, ParseException {
-		return null;
+		DoubleSummaryStatistics statistics = new DoubleSummaryStatistics();
+		scanValues(object, attribute, statistics);
+		if (statistics.getCount() == 0) {
+			return null;
+		}
+		return new ImmutablePair<>(statistics.getMin(), statistics.getMax());
 	}
 
 	@Override
@@ -1,13 +1,17 @@
 package istc.bigdawg.accumulo;
 
+import java.math.BigDecimal;
 import java.sql.Connection;
 import java.sql.SQLException;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.TreeMap;
 
 import javax.ws.rs.core.Response;
 
@@ -16,6 +20,9 @@ import org.apache.accumulo.core.client.AccumuloSecurityException;
 import org.apache.accumulo.core.client.BatchScanner;
 import org.apache.accumulo.core.client.ClientConfiguration;
 import org.apache.accumulo.core.client.Connector;
+import org.apache.accumulo.core.client.IteratorSetting;
+import org.apache.accumulo.core.client.Scanner;
+import org.apache.accumulo.core.client.ScannerBase;
 import org.apache.accumulo.core.client.TableExistsException;
 import org.apache.accumulo.core.client.TableNotFoundException;
 import org.apache.accumulo.core.client.ZooKeeperInstance;
@@ -23,7 +30,9 @@ import org.apache.accumulo.core.client.security.tokens.PasswordToken;
 import org.apache.accumulo.core.data.Key;
 import org.apache.accumulo.core.data.Range;
 import org.apache.accumulo.core.data.Value;
+import org.apache.accumulo.core.iterators.user.RegExFilter;
 import org.apache.accumulo.core.security.Authorizations;
+import org.apache.hadoop.io.Text;
 import org.apache.log4j.Level;
 import org.apache.log4j.Logger;
 
@@ -37,6 +46,7 @@ import istc.bigdawg.executor.QueryResult;
 import istc.bigdawg.islands.operators.Operator;
 import istc.bigdawg.islands.text.operators.TextOperator;
 import istc.bigdawg.islands.text.operators.TextScan;
+import istc.bigdawg.properties.BigDawgConfigProperties;
 import istc.bigdawg.query.ConnectionInfo;
 import istc.bigdawg.query.DBHandler;
 import istc.bigdawg.query.QueryClient;
@@ -48,6 +58,10 @@ public class AccumuloExecutionEngine implements ExecutorEngine, DBHandler {
 			.getLogger(AccumuloExecutionEngine.class.getName());
 	
 	private static Map<String, Operator> execution = new HashMap<>();
+	
+	/* the iterators with lower priorities are applied first, after the system ones (e.g. versioning: 20) */
+	private static final int FILTER_ITERATOR_PRIORITY = 30;
+	private static final int AGGREGATE_ITERATOR_PRIORITY = 40;
 	private ZooKeeperInstance zkInstance;
 	private Connector conn;
 	
@@ -102,6 +116,15 @@ public class AccumuloExecutionEngine implements ExecutorEngine, DBHandler {
 //		conn.tableOperations().delete(tableName);
 	};
 	
+	/**
+	 * Execute the queries through an existing connector (e.g. to a
+	 * MiniAccumuloCluster or a MockInstance).
+	 */
+	public AccumuloExecutionEngine(Connector connector, ConnectionInfo connectionInfo) {
+		this.ci = connectionInfo;
+		this.conn = connector;
+	}
+	
 	public static void addExecutionTree(String queryIdentifier, Operator queryRootOperator) {
 		execution.put(queryIdentifier, queryRootOperator);
 	}
@@ -145,32 +168,24 @@ public class AccumuloExecutionEngine implements ExecutorEngine, DBHandler {
 				throw new LocalQueryExecutionException("Unsupported Accumulo Operator Type: "+op.getClass().getName());
 			
 			TextScan scan = (TextScan) op;
-			String tableName = scan.getSourceTableName();
-			Range r = scan.getRange();
-			
-			BatchScanner scanner = conn.createBatchScanner(tableName, Authorizations.EMPTY, 1);
+			List<Range> ranges = getTabletRanges(scan);
 	      
-			List<List<String>> result = new ArrayList<>();			
-			
-			scanner.setRanges(Collections.singleton(r));
-			for (Map.Entry<Key, Value> entry : scanner) {
-				List<String> row = new ArrayList<>();
-				row.add(entry.getKey().getRow().toString());
-
-				String column = "";
-				if (entry.getKey().getColumnFamily() != null) {
-					column += entry.getKey().getColumnFamily().toString();
+			List<List<String>> result = new ArrayList<>();
+			if (scan.getAggregate() != null) {
+				/* the partial aggregates are merged in the order of the rows */
+				BatchScanner scanner = createScanner(scan, ranges);
+				try {
+					result = mergeAggregates(scanner, scan.isGroupByRow());
+				} finally {
+					scanner.close();
 				}
-				column += ":";
-				if (entry.getKey().getColumnQualifier() != null) {
-					column += entry.getKey().getColumnQualifier().toString();
+			} else {
+				try (OrderedTabletScan scanner = createOrderedScan(scan, ranges)) {
+					for (Map.Entry<Key, Value> entry : scanner) {
+						result.add(getRow(entry));
+					}
 				}
-				if (column.length() > 1) row.add(column);
-				
-				row.add(entry.getValue().toString());
-				result.add(row);
 			}
-			scanner.close();
 			if (result.isEmpty()) result.add(new ArrayList<>());
 			
 			return Optional.of(new ConstructedQueryResult(result, ci));
@@ -203,6 +218,198 @@ public class AccumuloExecutionEngine implements ExecutorEngine, DBHandler {
 		}
 	}
 	
+	/**
+	 * Execute the scan and return a result which writes the rows while the
+	 * batches of key/value pairs arrive from the tablet servers, instead of
+	 * collecting the whole table in memory. The tablets are read in parallel
+	 * but the rows are written in the order of the keys (see
+	 * {@link OrderedTabletScan}). The scan is closed when the returned result
+	 * is closed.
+	 * 
+	 * Accumulo sends the entries in batches of the scanner's own size, so
+	 * fetchSize is ignored. The commands (create, delete, temp) are executed
+	 * as in {@link #execute(String)}.
+	 */
+	@Override
+	public Optional<QueryResult> executeStreaming(final String query, int fetchSize) throws LocalQueryExecutionException {
+		Operator op = execution.get(query);
+		if (!(op instanceof TextScan) || ((TextScan) op).getAggregate() != null) {
+			/* the aggregates are merged in memory (and they are small) */
+			return execute(query);
+		}
+		try {
+			log.debug("AccumuloExecutionEngine is streaming query: " + LogUtils.replace(query));
+			TextScan scan = (TextScan) op;
+			List<Range> ranges = getTabletRanges(scan);
+			return Optional.of(new AccumuloStreamingQueryResult(createOrderedScan(scan, ranges), getScanThreads(ranges), ci));
+		} catch (Exception ex) {
+			log.error(ex.getMessage() + "; query: " + LogUtils.replace(query), ex);
+			throw new LocalQueryExecutionException(ex);
+		}
+	}
+	
+	/**
+	 * Create a batch scanner which reads the given ranges (see
+	 * {@link #getTabletRanges(TextScan)}) in parallel. The columns, the
+	 * filter and the aggregation of the scan are pushed down to the tablet
+	 * servers.
+	 */
+	private BatchScanner createScanner(TextScan scan, List<Range> ranges) throws TableNotFoundException {
+		BatchScanner scanner = conn.createBatchScanner(scan.getSourceTableName(), Authorizations.EMPTY, getScanThreads(ranges));
+		scanner.setRanges(ranges);
+		pushDown(scan, scanner);
+		return scanner;
+	}
+	
+	/**
+	 * Create a scan which reads the given ranges in parallel, one scanner per
+	 * range, and returns the entries in the order of the keys (a batch
+	 * scanner returns them in the order in which the tablets answer).
+	 */
+	private OrderedTabletScan createOrderedScan(TextScan scan, List<Range> ranges) {
+		return new OrderedTabletScan(ranges, getScanThreads(ranges), range -> {
+			Scanner scanner = conn.createScanner(scan.getSourceTableName(), Authorizations.EMPTY);
+			scanner.setRange(range);
+			pushDown(scan, scanner);
+			return scanner;
+		});
+	}
+	
+	/**
+	 * Push the columns, the filter and the aggregation of the scan down to the
+	 * tablet servers.
+	 */
+	public static void pushDown(TextScan scan, ScannerBase scanner) {
+		for (IteratorSetting setting : getIteratorSettings(scan)) {
+			scanner.addScanIterator(setting);
+		}
+		for (String column : scan.getColumns()) {
+			int separator = column.indexOf(':');
+			if (separator < 0) {
+				scanner.fetchColumnFamily(new Text(column));
+			} else {
+				scanner.fetchColumn(new Text(column.substring(0, separator)), new Text(column.substring(separator + 1)));
+			}
+		}
+	}
+	
+	/**
+	 * @return the scan-time iterators of the scan: the regular expressions of
+	 *         the filter are matched first, then the remaining entries are
+	 *         aggregated
+	 */
+	static List<IteratorSetting> getIteratorSettings(TextScan scan) {
+		List<IteratorSetting> settings = new ArrayList<>();
+		Map<String, String> filter = scan.getFilter();
+		if (!filter.isEmpty()) {
+			IteratorSetting setting = new IteratorSetting(FILTER_ITERATOR_PRIORITY, "bigdawgFilter", RegExFilter.class);
+			RegExFilter.setRegexs(setting, filter.get("row"), filter.get("cf"), filter.get("cq"), filter.get("value"), false);
+			settings.add(setting);
+		}
+		if (scan.getAggregate() != null) {
+			IteratorSetting setting = new IteratorSetting(AGGREGATE_ITERATOR_PRIORITY, "bigdawgAggregate", AggregatingIterator.class);
+			AggregatingIterator.setOptions(setting, scan.getAggregate(), scan.isGroupByRow());
+			settings.add(setting);
+		}
+		return settings;
+	}
+	
+	/**
+	 * Add up the partial aggregates returned by the
+	 * {@link AggregatingIterator} from the tablets.
+	 * 
+	 * @return the rows of the result: the row id and its aggregate for each
+	 *         row (in the order of the rows), or the single aggregate of the
+	 *         range
+	 */
+	static List<List<String>> mergeAggregates(Iterable<Map.Entry<Key, Value>> partials, boolean groupByRow) {
+		Map<String, BigDecimal> groups = new TreeMap<>();
+		for (Map.Entry<Key, Value> entry : partials) {
+			String group = groupByRow ? entry.getKey().getRow().toString() : "";
+			groups.merge(group, new BigDecimal(entry.getValue().toString()), BigDecimal::add);
+		}
+		List<List<String>> result = new ArrayList<>();
+		if (!groupByRow) {
+			result.add(Collections.singletonList(groups.getOrDefault("", BigDecimal.ZERO).toPlainString()));
+			return result;
+		}
+		for (Map.Entry<String, BigDecimal> group : groups.entrySet()) {
+			result.add(Arrays.asList(group.getKey(), group.getValue().toPlainString()));
+		}
+		return result;
+	}
+	
+	/**
+	 * @return the range of the scan split at the boundaries of the tablets of
+	 *         the scanned table
+	 */
+	private List<Range> getTabletRanges(TextScan scan) throws TableNotFoundException, AccumuloException, AccumuloSecurityException {
+		return splitRange(scan.getRange(), conn.tableOperations().listSplits(scan.getSourceTableName()));
+	}
+	
+	/**
+	 * @return the number of query threads: one per tablet, at most the
+	 *         configured number
+	 */
+	private static int getScanThreads(List<Range> ranges) {
+		return Math.max(1, Math.min(BigDawgConfigProperties.INSTANCE.getAccumuloScanThreads(), ranges.size()));
+	}
+	
+	/**
+	 * Split the range at the boundaries of the tablets, so that the query
+	 * threads of a batch scanner read different tablets at the same time (a
+	 * single range is read by a single thread).
+	 * 
+	 * @param range
+	 *            the scanned range (null for the whole table)
+	 * @param splits
+	 *            the split points of the table in the sorted order; the
+	 *            tablet of a split point ends with the split point
+	 *            (inclusive)
+	 * @return the non-empty parts of the range, one per tablet
+	 */
+	public static List<Range> splitRange(Range range, Collection<Text> splits) {
+		if (range == null) {
+			range = new Range();
+		}
+		List<Range> ranges = new ArrayList<>();
+		Text previous = null;
+		for (Text split : splits) {
+			Range part = range.clip(new Range(previous, false, split, true), true);
+			if (part != null) {
+				ranges.add(part);
+			}
+			previous = split;
+		}
+		Range part = range.clip(new Range(previous, false, null, true), true);
+		if (part != null) {
+			ranges.add(part);
+		}
+		return ranges;
+	}
+	
+	/**
+	 * @return the row of the result for the entry: the row id, the column
+	 *         (family:qualifier, if any) and the value
+	 */
+	static List<String> getRow(Map.Entry<Key, Value> entry) {
+		List<String> row = new ArrayList<>();
+		row.add(entry.getKey().getRow().toString());
+
+		String column = "";
+		if (entry.getKey().getColumnFamily() != null) {
+			column += entry.getKey().getColumnFamily().toString();
+		}
+		column += ":";
+		if (entry.getKey().getColumnQualifier() != null) {
+			column += entry.getKey().getColumnQualifier().toString();
+		}
+		if (column.length() > 1) row.add(column);
+		
+		row.add(entry.getValue().toString());
+		return row;
+	}
+	
 	public void createTable(String tableName) throws AccumuloException, AccumuloSecurityException, TableExistsException {
 		conn.tableOperations().create(tableName);
 	};
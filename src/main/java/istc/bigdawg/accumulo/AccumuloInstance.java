@@ -233,6 +233,13 @@ public class AccumuloInstance {
 		conn = inst.getConnector(userName, new PasswordToken(password));
 	}
 
+	/**
+	 * Use the given connector (e.g. of a {@link MockInstance}).
+	 */
+	public AccumuloInstance(Connector conn) {
+		this.conn = conn;
+	}
+
 	public Connector getConnector() {
 		return conn;
 	}
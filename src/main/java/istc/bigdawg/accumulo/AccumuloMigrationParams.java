@@ -1,7 +1,10 @@
 package istc.bigdawg.accumulo;
 
+import java.util.Optional;
+
 import org.apache.accumulo.core.data.Range;
 
+import istc.bigdawg.islands.text.operators.TextScan;
 import istc.bigdawg.migration.MigrationParams;
 
 public class AccumuloMigrationParams extends MigrationParams {
@@ -11,6 +14,8 @@ public class AccumuloMigrationParams extends MigrationParams {
 	 */
 	private static final long serialVersionUID = -5420157002948174313L;
 	private Range sourceTableRange = null;
+	/** see: {@link #getSourceScan()} */
+	transient private TextScan sourceScan = null;
 
 	/**
 	 * Create migration params for Accumulo as a source database.
@@ -27,8 +32,31 @@ public class AccumuloMigrationParams extends MigrationParams {
 		this.sourceTableRange = sourceTableRange;
 	}
 
+	/**
+	 * Create migration params for a scan of the text island as the source.
+	 * 
+	 * @param queryString
+	 *            The query string to be executed in the destination database
+	 *            which creates the target object/table/array, etc.
+	 * @param sourceScan
+	 *            The scan of the table in Accumulo: its range, columns and
+	 *            filter are applied to the migrated entries.
+	 */
+	public AccumuloMigrationParams(String queryString, TextScan sourceScan) {
+		this(queryString, sourceScan.getRange());
+		this.sourceScan = sourceScan;
+	}
+
 	public Range getSourceTableRange() {
 		return sourceTableRange;
 	}
 
+	/**
+	 * @return the scan whose columns and filter are pushed down to the tablet
+	 *         servers when the table is migrated
+	 */
+	public Optional<TextScan> getSourceScan() {
+		return Optional.ofNullable(sourceScan);
+	}
+
 }
@@ -0,0 +1,161 @@
+package istc.bigdawg.accumulo;
+
+import java.io.BufferedWriter;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.UnsupportedEncodingException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.accumulo.core.data.Key;
+import org.apache.accumulo.core.data.Value;
+import org.apache.log4j.Logger;
+
+import istc.bigdawg.executor.ConstructedQueryResult;
+import istc.bigdawg.executor.StreamingQueryResult;
+import istc.bigdawg.query.ConnectionInfo;
+
+/**
+ * Result of a scan of an Accumulo table. The rows are written to the output
+ * while the batches of key/value pairs arrive from the tablet servers, so
+ * the heap holds only the entries buffered by the scan instead of the whole
+ * table. The rows are written in the order of the keys.
+ *
+ * The result owns the scan and closes it after the rows were written (see
+ * {@link #close()}). The output format is the same as
+ * {@link ConstructedQueryResult#toPrettyString()} of the scan.
+ */
+public class AccumuloStreamingQueryResult implements StreamingQueryResult {
+
+	private static Logger log = Logger
+			.getLogger(AccumuloStreamingQueryResult.class.getName());
+
+	/** How many rows are written between two flushes of the output. */
+	private static final int FLUSH_ROWS = 1000;
+
+	private final OrderedTabletScan scanner;
+	private final ConnectionInfo connectionInfo;
+	private final int threads;
+
+	private final List<Runnable> closeHooks = new ArrayList<>();
+	private final long createdTime = System.currentTimeMillis();
+	private boolean closed = false;
+
+	/**
+	 * @param scanner
+	 *            the scan of the tablet ranges (closed with the result)
+	 * @param threads
+	 *            number of tablets read at a time (for the logs)
+	 * @param conn
+	 *            information about the Accumulo instance
+	 */
+	public AccumuloStreamingQueryResult(OrderedTabletScan scanner, int threads,
+			ConnectionInfo conn) {
+		this.scanner = scanner;
+		this.threads = threads;
+		this.connectionInfo = conn;
+	}
+
+	@Override
+	public ConnectionInfo getConnectionInfo() {
+		return connectionInfo;
+	}
+
+	@Override
+	public void writeTo(OutputStream output) throws IOException {
+		long rowCounter = 0;
+		long firstByteTime = -1;
+		try {
+			Writer writer = new BufferedWriter(
+					new OutputStreamWriter(output, StandardCharsets.UTF_8));
+			for (Map.Entry<Key, Value> entry : scanner) {
+				writer.write(String.join("\t",
+						AccumuloExecutionEngine.getRow(entry)));
+				writer.write('\n');
+				++rowCounter;
+				/* Send the first row right away, then in batches. */
+				if (rowCounter == 1 || rowCounter % FLUSH_ROWS == 0) {
+					writer.flush();
+					if (firstByteTime < 0) {
+						firstByteTime = System.currentTimeMillis();
+					}
+				}
+			}
+			if (rowCounter == 0) {
+				/* an empty scan is a single empty row */
+				writer.write('\n');
+			}
+			writer.flush();
+			if (firstByteTime < 0) {
+				firstByteTime = System.currentTimeMillis();
+			}
+		} catch (RuntimeException ex) {
+			/* the scanner throws unchecked exceptions when a scan fails */
+			log.error("Could not read the streamed scan from "
+					+ connectionInfo.toSimpleString() + ": " + ex.getMessage(),
+					ex);
+			throw new IOException(ex);
+		} finally {
+			close();
+		}
+		long totalTime = System.currentTimeMillis() - createdTime;
+		log.info(String.format(
+				"Streamed %d entries from %s with %d threads; time to first "
+						+ "byte: %d ms; total time: %d ms (%.0f entries/s)",
+				rowCounter, connectionInfo.toSimpleString(), threads,
+				firstByteTime - createdTime, totalTime,
+				rowCounter * 1000.0 / Math.max(totalTime, 1)));
+	}
+
+	/**
+	 * Drain the whole scan into a string. This defeats the purpose of
+	 * streaming and is only provided to fulfill the contract of
+	 * {@link istc.bigdawg.executor.QueryResult} (e.g. for logging small
+	 * results).
+	 */
+	@Override
+	public String toPrettyString() {
+		ByteArrayOutputStream output = new ByteArrayOutputStream();
+		try {
+			writeTo(output);
+			return output.toString(StandardCharsets.UTF_8.name());
+		} catch (UnsupportedEncodingException e) {
+			throw new IllegalStateException(e);
+		} catch (IOException e) {
+			throw new IllegalStateException(
+					"Could not read the streamed scan: " + e.getMessage(), e);
+		}
+	}
+
+	@Override
+	public synchronized void addCloseHook(Runnable hook) {
+		if (closed) {
+			hook.run();
+		} else {
+			closeHooks.add(hook);
+		}
+	}
+
+	@Override
+	public synchronized void close() {
+		if (closed) {
+			return;
+		}
+		closed = true;
+		scanner.close();
+		for (Runnable hook : closeHooks) {
+			try {
+				hook.run();
+			} catch (RuntimeException ex) {
+				log.error("Close hook of the streamed scan failed. "
+						+ ex.getMessage(), ex);
+			}
+		}
+		closeHooks.clear();
+	}
+}
@@ -0,0 +1,151 @@
+/**
+ *
+ */
+package istc.bigdawg.accumulo;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+import java.util.Map;
+
+import org.apache.accumulo.core.client.IteratorSetting;
+import org.apache.accumulo.core.data.ByteSequence;
+import org.apache.accumulo.core.data.Key;
+import org.apache.accumulo.core.data.Range;
+import org.apache.accumulo.core.data.Value;
+import org.apache.accumulo.core.iterators.IteratorEnvironment;
+import org.apache.accumulo.core.iterators.SortedKeyValueIterator;
+
+import istc.bigdawg.islands.text.operators.TextScan.Aggregate;
+
+/**
+ * Scan-time iterator which counts or sums the values of the entries on the
+ * tablet servers, so that only the partial aggregates are sent to BigDAWG
+ * instead of every entry in the range.
+ *
+ * The iterator returns one entry for each group (the whole range or a row): the
+ * key is the last key of the group (so that a scan which is interrupted and
+ * seeks again after the returned key continues with the next entries) and the
+ * value is the partial aggregate. Ranges of different tablets (or a range
+ * seeked again) give several partial aggregates of a group, which are added up
+ * by {@link AccumuloExecutionEngine#mergeAggregates(Iterable, boolean)}.
+ *
+ * Values which are not numbers are skipped by the sum (and counted by the
+ * count).
+ *
+ * The tablet servers load the iterator from the BigDAWG jar (e.g. in lib/ext of
+ * the Accumulo installation).
+ */
+public class AggregatingIterator implements SortedKeyValueIterator<Key, Value> {
+
+	/** Option: the name of the {@link Aggregate} function. */
+	public static final String FUNCTION = "function";
+
+	/** Option: true if the values are aggregated for each row. */
+	public static final String GROUP_BY_ROW = "groupByRow";
+
+	private SortedKeyValueIterator<Key, Value> source;
+	private Aggregate function;
+	private boolean groupByRow;
+
+	private Key topKey = null;
+	private Value topValue = null;
+
+	/**
+	 * Set the options of the iterator.
+	 */
+	public static void setOptions(IteratorSetting setting, Aggregate function,
+			boolean groupByRow) {
+		setting.addOption(FUNCTION, function.name());
+		setting.addOption(GROUP_BY_ROW, Boolean.toString(groupByRow));
+	}
+
+	@Override
+	public void init(SortedKeyValueIterator<Key, Value> source,
+			Map<String, String> options, IteratorEnvironment env)
+			throws IOException {
+		this.source = source;
+		if (!options.containsKey(FUNCTION)) {
+			throw new IllegalArgumentException(
+					"The option " + FUNCTION + " is not set.");
+		}
+		this.function = Aggregate.valueOf(options.get(FUNCTION));
+		this.groupByRow = Boolean.parseBoolean(options.get(GROUP_BY_ROW));
+	}
+
+	@Override
+	public boolean hasTop() {
+		return topKey != null;
+	}
+
+	@Override
+	public void next() throws IOException {
+		aggregate();
+	}
+
+	@Override
+	public void seek(Range range, Collection<ByteSequence> columnFamilies,
+			boolean inclusive) throws IOException {
+		source.seek(range, columnFamilies, inclusive);
+		aggregate();
+	}
+
+	/**
+	 * Consume the entries of the next group from the source.
+	 */
+	private void aggregate() throws IOException {
+		topKey = null;
+		topValue = null;
+		if (!source.hasTop()) {
+			return;
+		}
+		Key last = new Key();
+		ByteSequence row = groupByRow
+				? new Key(source.getTopKey()).getRowData() : null;
+		long count = 0;
+		BigDecimal sum = BigDecimal.ZERO;
+		while (source.hasTop()) {
+			Key key = source.getTopKey();
+			if (row != null && !row.equals(key.getRowData())) {
+				break;
+			}
+			if (function == Aggregate.sum) {
+				try {
+					sum = sum.add(new BigDecimal(new String(
+							source.getTopValue().get(), StandardCharsets.UTF_8)));
+				} catch (NumberFormatException e) {
+					/* not a number */
+				}
+			}
+			++count;
+			/* the source may reuse the key */
+			last.set(key);
+			source.next();
+		}
+		topKey = last;
+		topValue = new Value((function == Aggregate.count
+				? Long.toString(count) : sum.toPlainString())
+						.getBytes(StandardCharsets.UTF_8));
+	}
+
+	@Override
+	public Key getTopKey() {
+		return topKey;
+	}
+
+	@Override
+	public Value getTopValue() {
+		return topValue;
+	}
+
+	@Override
+	public SortedKeyValueIterator<Key, Value> deepCopy(
+			IteratorEnvironment env) {
+		AggregatingIterator copy = new AggregatingIterator();
+		copy.source = source.deepCopy(env);
+		copy.function = function;
+		copy.groupByRow = groupByRow;
+		return copy;
+	}
+}
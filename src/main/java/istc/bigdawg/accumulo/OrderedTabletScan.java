@@ -0,0 +1,165 @@
+package istc.bigdawg.accumulo;
+
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.apache.accumulo.core.client.Scanner;
+import org.apache.accumulo.core.data.Key;
+import org.apache.accumulo.core.data.Range;
+import org.apache.accumulo.core.data.Value;
+import org.apache.log4j.Logger;
+
+/**
+ * Scan of the tablet ranges of a table (see
+ * {@link AccumuloExecutionEngine#splitRange(Range, java.util.Collection)})
+ * which reads the tablets in parallel but returns the entries in the order of
+ * their keys, as a single scanner would.
+ *
+ * Each range is read by its own {@link Scanner} (which returns the entries in
+ * order) into a bounded buffer, and the buffers are drained in the order of
+ * the ranges, which are disjoint and sorted. At most the given number of
+ * tablets are read at a time, so the heap holds at most that many buffers.
+ */
+public class OrderedTabletScan
+		implements Iterable<Map.Entry<Key, Value>>, AutoCloseable {
+
+	private static Logger log = Logger
+			.getLogger(OrderedTabletScan.class.getName());
+
+	/** How many entries of a tablet are read ahead. */
+	static final int BUFFER_ENTRIES = 10000;
+
+	/** Marks the end of the entries of a tablet. */
+	private static final Map.Entry<Key, Value> END = new AbstractMap.SimpleImmutableEntry<>(
+			null, null);
+
+	/** Creates the scanner of a tablet range. */
+	public interface ScannerFactory {
+		Scanner create(Range range) throws Exception;
+	}
+
+	private final List<BlockingQueue<Map.Entry<Key, Value>>> buffers = new ArrayList<>();
+	private final ExecutorService readers;
+	private final AtomicReference<Exception> failure = new AtomicReference<>();
+	private volatile boolean closed = false;
+
+	/**
+	 * Start reading the ranges.
+	 *
+	 * @param ranges
+	 *            the disjoint ranges in the sorted order
+	 * @param threads
+	 *            how many ranges are read at the same time
+	 * @param factory
+	 *            creates the scanner of a range
+	 */
+	public OrderedTabletScan(List<Range> ranges, int threads,
+			ScannerFactory factory) {
+		readers = Executors.newFixedThreadPool(Math.max(1, threads), r -> {
+			Thread thread = new Thread(r, "accumulo-tablet-scan");
+			thread.setDaemon(true);
+			return thread;
+		});
+		/* the readers start in the order of the ranges */
+		for (Range range : ranges) {
+			BlockingQueue<Map.Entry<Key, Value>> buffer = new ArrayBlockingQueue<>(
+					BUFFER_ENTRIES);
+			buffers.add(buffer);
+			readers.execute(() -> read(factory, range, buffer));
+		}
+		readers.shutdown();
+	}
+
+	private void read(ScannerFactory factory, Range range,
+			BlockingQueue<Map.Entry<Key, Value>> buffer) {
+		try {
+			try {
+				for (Map.Entry<Key, Value> entry : factory.create(range)) {
+					if (closed) {
+						return;
+					}
+					buffer.put(new AbstractMap.SimpleImmutableEntry<>(
+							entry.getKey(), entry.getValue()));
+				}
+			} catch (InterruptedException e) {
+				throw e;
+			} catch (Exception e) {
+				/* the scanner throws unchecked exceptions when a scan fails */
+				log.error("Could not scan the range " + range + ": "
+						+ e.getMessage(), e);
+				failure.compareAndSet(null, e);
+			}
+			buffer.put(END);
+		} catch (InterruptedException e) {
+			/* the scan was closed */
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * The entries can be iterated only once. The iterator throws an
+	 * {@link IllegalStateException} if the scan of a range failed.
+	 */
+	@Override
+	public Iterator<Map.Entry<Key, Value>> iterator() {
+		return new Iterator<Map.Entry<Key, Value>>() {
+			private int tablet = 0;
+			private Map.Entry<Key, Value> next = null;
+
+			@Override
+			public boolean hasNext() {
+				while (next == null && tablet < buffers.size()) {
+					Map.Entry<Key, Value> entry;
+					try {
+						entry = buffers.get(tablet).take();
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+						throw new IllegalStateException(
+								"Interrupted while scanning the tablets", e);
+					}
+					if (entry == END) {
+						buffers.set(tablet, null);
+						++tablet;
+						if (failure.get() != null) {
+							throw new IllegalStateException(
+									"Could not scan a tablet: "
+											+ failure.get().getMessage(),
+									failure.get());
+						}
+					} else {
+						next = entry;
+					}
+				}
+				return next != null;
+			}
+
+			@Override
+			public Map.Entry<Key, Value> next() {
+				if (!hasNext()) {
+					throw new NoSuchElementException();
+				}
+				Map.Entry<Key, Value> entry = next;
+				next = null;
+				return entry;
+			}
+		};
+	}
+
+	/**
+	 * Stop the readers of the tablets which were not read to the end.
+	 */
+	@Override
+	public void close() {
+		closed = true;
+		readers.shutdownNow();
+	}
+}
@@ -3,8 +3,10 @@ package istc.bigdawg.cast;
 import java.sql.SQLException;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashSet;
 import java.util.Map;
+import java.util.TreeMap;
 
 import istc.bigdawg.utils.StackTrace;
 import org.apache.log4j.Logger;
@@ -21,8 +23,11 @@ import istc.bigdawg.islands.CrossIslandQueryNode;
 import istc.bigdawg.islands.IntraIslandQuery;
 import istc.bigdawg.islands.IslandAndCastResolver.Scope;
 import istc.bigdawg.islands.text.operators.TextScan;
+import istc.bigdawg.migration.MigratedCopyCache;
 import istc.bigdawg.migration.MigrationParams;
+import istc.bigdawg.migration.MigrationResult;
 import istc.bigdawg.migration.Migrator;
+import istc.bigdawg.planner.QueryResultCache;
 import istc.bigdawg.query.ConnectionInfo;
 
 public class CastOverseer {
@@ -88,30 +93,72 @@ public class CastOverseer {
 		logger.debug(String.format("CAST query string: %s", cast.getQueryString()));
 		
 		// migrate
-		if (!tempTableInfo.containsKey(targetConnInfo)) {
-			tempTableInfo.put(targetConnInfo, new HashSet<>());
-		}
-		tempTableInfo.get(targetConnInfo).add(remoteName);
-		if (connectionInfoMap.get(source) instanceof AccumuloConnectionInfo) {
+		ConnectionInfo sourceConnInfo = connectionInfoMap.get(source);
+		String copySource = null;
+		Collection<String> copySourceObjects = null;
+		if (sourceConnInfo instanceof AccumuloConnectionInfo) {
 			TextScan ts = ((TextScan) source.getRemainder(0));
-			logger.debug(String.format("Migrate from Accumulo: srcTbl: %s, rmtNm: %s, queryStr: %s, range: %s", 
-					ts.getSourceTableName(), remoteName, cast.getQueryString(), ts.getRange()));
-			try {
-				Migrator.migrate(connectionInfoMap.get(source), ts.getSourceTableName(), //source.getName(), 
-						targetConnInfo, remoteName, new AccumuloMigrationParams(cast.getQueryString(), ts.getRange()));
-			} catch (MigrationException e) {
-				throw new CastException(e.getMessage(), e);
+			if (ts.getAggregate() != null) {
+				// the tablets return partial aggregates, which the migration cannot merge
+				throw new CastException(String.format("Cannot cast the aggregate %s of the text scan of %s",
+						ts.getAggregate(), ts.getSourceTableName()));
 			}
+			copySource = String.format("%s|%s|%s|%s|%s|%s", MigratedCopyCache.getEngineKey(sourceConnInfo),
+					ts.getSourceTableName(), cast.getQueryString(), ts.getRange(), ts.getColumns(),
+					new TreeMap<>(ts.getFilter()));
+			copySourceObjects = Collections.singleton(ts.getSourceTableName());
 		} else {
-			if (!tempTableInfo.containsKey(connectionInfoMap.get(source))) {
-				tempTableInfo.put(connectionInfoMap.get(source), new HashSet<>());
+			addTempTable(tempTableInfo, sourceConnInfo, source.getName());
+			if (source.getChildren().isEmpty()) {
+				try {
+					copySource = String.format("%s|%s|%s|%s", MigratedCopyCache.getEngineKey(sourceConnInfo),
+							source.getSourceScope(), QueryResultCache.normalize(source.getQueryString()),
+							cast.getQueryString());
+					copySourceObjects = source.getInitialRoot().getDataObjectAliasesOrNames().values();
+				} catch (Exception e) {
+					// the objects of the source are unknown, the copy cannot be kept
+					copySource = null;
+				}
 			}
-			tempTableInfo.get(connectionInfoMap.get(source)).add(source.getName());
-			try {
-				Migrator.migrate(connectionInfoMap.get(source), source.getName(), targetConnInfo, remoteName, new MigrationParams(cast.getName(), cast.getQueryString(), source, target));
-			} catch (MigrationException e) {
-				logger.error(StackTrace.getFullStackTrace(e));
-				throw new CastException(e.getMessage(), e);
+		}
+		
+		// the data were migrated to the target by a previous query
+		String tableName = remoteName;
+		if (copySource != null && MigratedCopyCache.INSTANCE.acquire(targetConnInfo, remoteName, copySource)) {
+			logger.debug(String.format("Reuse the migrated copy %s", remoteName));
+			addTempTable(tempTableInfo, targetConnInfo, tableName);
+		} else {
+			long beganAt = MigratedCopyCache.INSTANCE.begin();
+			if (!MigratedCopyCache.INSTANCE.prepare(targetConnInfo, remoteName)) {
+				// another query uses the copy with this name, the target reads a table of this query only
+				tableName = MigratedCopyCache.getPrivateName(remoteName);
+				target.renameInput(remoteName, tableName);
+				copySource = null;
+			}
+			addTempTable(tempTableInfo, targetConnInfo, tableName);
+			MigrationResult result;
+			if (sourceConnInfo instanceof AccumuloConnectionInfo) {
+				TextScan ts = ((TextScan) source.getRemainder(0));
+				logger.debug(String.format("Migrate from Accumulo: srcTbl: %s, rmtNm: %s, queryStr: %s, range: %s, columns: %s, filter: %s", 
+						ts.getSourceTableName(), remoteName, cast.getQueryString(), ts.getRange(), ts.getColumns(),
+						ts.getFilter()));
+				try {
+					result = Migrator.migrate(sourceConnInfo, ts.getSourceTableName(), //source.getName(), 
+							targetConnInfo, tableName, new AccumuloMigrationParams(cast.getQueryString(), ts));
+				} catch (MigrationException e) {
+					throw new CastException(e.getMessage(), e);
+				}
+			} else {
+				try {
+					result = Migrator.migrate(sourceConnInfo, source.getName(), targetConnInfo, tableName, new MigrationParams(cast.getName(), cast.getQueryString(), source, target));
+				} catch (MigrationException e) {
+					logger.error(StackTrace.getFullStackTrace(e));
+					throw new CastException(e.getMessage(), e);
+				}
+			}
+			if (copySource != null && result != null && !result.isError() && result.getCountLoadedElements() != null) {
+				MigratedCopyCache.INSTANCE.register(targetConnInfo, remoteName, copySource, sourceConnInfo,
+						copySourceObjects, result.getCountLoadedElements(), beganAt);
 			}
 		}
 		
@@ -123,6 +170,17 @@ public class CastOverseer {
 		}
 	}
 	
+	/**
+	 * Record a temporary table to be dropped after the query. Casts of one
+	 * query may run concurrently and share tempTableInfo.
+	 */
+	private static void addTempTable(Map<ConnectionInfo, Collection<String>> tempTableInfo,
+			ConnectionInfo connectionInfo, String table) {
+		synchronized (tempTableInfo) {
+			tempTableInfo.computeIfAbsent(connectionInfo, c -> new HashSet<>()).add(table);
+		}
+	}
+	
 private static String processRemoteName(Scope sourceScope, Scope destinationScope, String originalString) {
 		
 		if (sourceScope.equals(destinationScope)) 
@@ -0,0 +1,283 @@
+/**
+ *
+ */
+package istc.bigdawg.catalog;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.log4j.Logger;
+
+import istc.bigdawg.exceptions.BigDawgCatalogException;
+import istc.bigdawg.islands.IslandAndCastResolver.Engine;
+import istc.bigdawg.properties.BigDawgConfigProperties;
+import istc.bigdawg.query.ConnectionInfo;
+
+/**
+ * Read-through cache of the catalog lookups done for each query: the engine and
+ * connection info of a database (dbid), the placement of objects (object name
+ * -> dbids within an island) and the objects found in a list of terms (used by
+ * the signature builders).
+ *
+ * The catalog is modified only through {@link CatalogModifier}, which
+ * invalidates the whole cache after each commit. Optionally, the entries expire
+ * after a time to live, so changes done directly in the catalog database are
+ * eventually visible.
+ *
+ * The object placements and the object lists are keyed by the names and terms
+ * of the queries (which may not be in the catalog at all), so they keep at most
+ * the configured number of entries each and evict the least recently used ones.
+ */
+public class CatalogCache {
+
+	private static Logger logger = Logger
+			.getLogger(CatalogCache.class.getName());
+
+	public static final CatalogCache INSTANCE = new CatalogCache(
+			BigDawgConfigProperties.INSTANCE.isCatalogCacheEnabled(),
+			BigDawgConfigProperties.INSTANCE.getCatalogCacheTtl(),
+			BigDawgConfigProperties.INSTANCE.getCatalogCacheMaxEntries());
+
+	/**
+	 * Load the value from the catalog on a cache miss.
+	 */
+	@FunctionalInterface
+	public interface Loader<K, V> {
+		V load(K key) throws SQLException, BigDawgCatalogException;
+	}
+
+	private static final class Entry<V> {
+		private final V value;
+		private final long loadedAt;
+
+		private Entry(V value) {
+			this.value = value;
+			this.loadedAt = System.currentTimeMillis();
+		}
+	}
+
+	private final boolean enabled;
+	private final long ttl;
+	private final int maxEntries;
+
+	private final Map<Integer, Entry<Engine>> engines = new ConcurrentHashMap<>();
+	private final Map<Integer, Entry<ConnectionInfo>> connectionInfos = new ConcurrentHashMap<>();
+	/** key: scope + lower case name of the object; value: name -> dbids */
+	private final Map<String, Entry<Map<String, List<String>>>> objectPlacements;
+	/** key: the list of terms; value: the objects found in the list */
+	private final Map<String, Entry<String>> objectLists;
+
+	/** Incremented by each invalidation, guards against caching stale loads. */
+	private final AtomicLong generation = new AtomicLong();
+
+	private final AtomicLong hits = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+	private final AtomicLong invalidations = new AtomicLong();
+
+	/**
+	 * @param enabled
+	 *            if false then each lookup goes to the catalog
+	 * @param ttl
+	 *            time to live of an entry in ms, 0 - no expiry
+	 * @param maxEntries
+	 *            the maximum number of object placements and of object lists
+	 *            kept in the cache
+	 */
+	CatalogCache(boolean enabled, long ttl, int maxEntries) {
+		this.enabled = enabled;
+		this.ttl = ttl;
+		this.maxEntries = maxEntries;
+		this.objectPlacements = createLru(maxEntries);
+		this.objectLists = createLru(maxEntries);
+		logger.info("Catalog cache enabled: " + enabled + ", ttl (ms): " + ttl
+				+ ", max entries: " + maxEntries);
+	}
+
+	/**
+	 * @return a synchronized map which evicts the least recently used entry
+	 *         when it grows beyond maxEntries
+	 */
+	private static <K, V> Map<K, V> createLru(final int maxEntries) {
+		return Collections.synchronizedMap(new LinkedHashMap<K, V>(16, 0.75f,
+				true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<K, V> eldest) {
+				return size() > maxEntries;
+			}
+		});
+	}
+
+	public Engine getEngine(int dbid, Loader<Integer, Engine> loader)
+			throws SQLException, BigDawgCatalogException {
+		return get(engines, dbid, loader);
+	}
+
+	public ConnectionInfo getConnectionInfo(int dbid,
+			Loader<Integer, ConnectionInfo> loader)
+			throws SQLException, BigDawgCatalogException {
+		return get(connectionInfos, dbid, loader);
+	}
+
+	public String getObjectsFromList(String csvstr,
+			Loader<String, String> loader)
+			throws SQLException, BigDawgCatalogException {
+		return get(objectLists, csvstr, loader);
+	}
+
+	/**
+	 * Find the databases which hold the objects. Only the objects that are
+	 * not cached are passed to the loader, in a single call.
+	 *
+	 * @param inputs
+	 *            names of the objects
+	 * @param scope
+	 *            name of the island (as stored in the catalog)
+	 * @param loader
+	 *            takes the list of the missing objects and returns the
+	 *            mapping: name of the object (as stored in the catalog) ->
+	 *            dbids of the databases which hold the object
+	 * @return the mapping from the name of an object to dbids
+	 */
+	public HashMap<String, List<String>> getDBMappingByObj(List<String> inputs,
+			String scope, Loader<List<String>, Map<String, List<String>>> loader)
+			throws SQLException, BigDawgCatalogException {
+		HashMap<String, List<String>> extraction = new HashMap<>();
+		List<String> missing = new ArrayList<>();
+		for (String input : inputs) {
+			Map<String, List<String>> placement = lookup(objectPlacements,
+					placementKey(scope, input));
+			if (placement == null) {
+				missing.add(input);
+			} else {
+				copyInto(placement, extraction);
+			}
+		}
+		if (missing.isEmpty()) {
+			return extraction;
+		}
+		long loadGeneration = generation.get();
+		Map<String, List<String>> loaded = loader.load(missing);
+		/* group the rows by the input which they match (case insensitive) */
+		Map<String, Map<String, List<String>>> byKey = new HashMap<>();
+		for (String input : missing) {
+			byKey.put(placementKey(scope, input), new HashMap<>());
+		}
+		for (Map.Entry<String, List<String>> row : loaded.entrySet()) {
+			Map<String, List<String>> placement = byKey
+					.get(placementKey(scope, row.getKey()));
+			if (placement != null) {
+				placement.put(row.getKey(), new ArrayList<>(row.getValue()));
+			}
+		}
+		for (Map.Entry<String, Map<String, List<String>>> entry : byKey
+				.entrySet()) {
+			store(objectPlacements, entry.getKey(), entry.getValue(),
+					loadGeneration);
+		}
+		copyInto(loaded, extraction);
+		return extraction;
+	}
+
+	/**
+	 * Drop all the cached entries. Called after each modification of the
+	 * catalog.
+	 */
+	public void invalidate() {
+		generation.incrementAndGet();
+		invalidations.incrementAndGet();
+		engines.clear();
+		connectionInfos.clear();
+		objectPlacements.clear();
+		objectLists.clear();
+		logger.debug("Catalog cache invalidated. " + this);
+	}
+
+	public long getHitCount() {
+		return hits.get();
+	}
+
+	public long getMissCount() {
+		return misses.get();
+	}
+
+	public long getInvalidationCount() {
+		return invalidations.get();
+	}
+
+	public int size() {
+		return engines.size() + connectionInfos.size()
+				+ objectPlacements.size() + objectLists.size();
+	}
+
+	@Override
+	public String toString() {
+		return "CatalogCache [enabled=" + enabled + ", ttl=" + ttl
+				+ ", maxEntries=" + maxEntries + ", size="
+				+ size() + ", hits=" + hits + ", misses=" + misses
+				+ ", invalidations=" + invalidations + "]";
+	}
+
+	private <K, V> V get(Map<K, Entry<V>> cache, K key,
+			Loader<K, V> loader) throws SQLException, BigDawgCatalogException {
+		V value = lookup(cache, key);
+		if (value != null) {
+			return value;
+		}
+		long loadGeneration = generation.get();
+		value = loader.load(key);
+		store(cache, key, value, loadGeneration);
+		return value;
+	}
+
+	private <K, V> V lookup(Map<K, Entry<V>> cache, K key) {
+		if (!enabled) {
+			return null;
+		}
+		Entry<V> entry = cache.get(key);
+		if (entry != null && ttl > 0
+				&& System.currentTimeMillis() - entry.loadedAt > ttl) {
+			cache.remove(key, entry);
+			entry = null;
+		}
+		if (entry == null) {
+			misses.incrementAndGet();
+			return null;
+		}
+		hits.incrementAndGet();
+		return entry.value;
+	}
+
+	private <K, V> void store(Map<K, Entry<V>> cache, K key,
+			V value, long loadGeneration) {
+		if (!enabled || value == null
+				|| generation.get() != loadGeneration) {
+			return;
+		}
+		Entry<V> entry = new Entry<>(value);
+		cache.put(key, entry);
+		/* the catalog was modified while we were loading the value */
+		if (generation.get() != loadGeneration) {
+			cache.remove(key, entry);
+		}
+	}
+
+	private static String placementKey(String scope, String name) {
+		return scope + ":" + name.toLowerCase();
+	}
+
+	private static void copyInto(Map<String, List<String>> from,
+			Map<String, List<String>> to) {
+		for (Map.Entry<String, List<String>> entry : from.entrySet()) {
+			to.put(entry.getKey(), new ArrayList<>(entry.getValue()));
+		}
+	}
+}
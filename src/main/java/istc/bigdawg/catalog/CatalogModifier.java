@@ -6,6 +6,8 @@ import java.util.Objects;
 import java.util.Set;
 
 import istc.bigdawg.exceptions.BigDawgCatalogException;
+import istc.bigdawg.migration.MigratedCopyCache;
+import istc.bigdawg.planner.QueryResultCache;
 
 /**
  * 
@@ -15,6 +17,10 @@ import istc.bigdawg.exceptions.BigDawgCatalogException;
  * I'll add updates, deletes, etc. when needs arise.
  * 
  * Also, I assume that engines and databases have distinct names
+ * 
+ * Each change holds the lock of the shared Catalog (its single statement and
+ * the max(oid) + 1 allocation are not safe for concurrent use) and
+ * invalidates the {@link CatalogCache}.
  *  
  */
 public class CatalogModifier {
@@ -30,6 +36,7 @@ public class CatalogModifier {
 	public static void addIsland(String newIsland, String newAccessMethod) throws Exception {
 		
 		Catalog cc = CatalogInstance.INSTANCE.getCatalog();
+		synchronized (cc) {
 		
 		// check if cc is connected and length are correct 
 		CatalogUtilities.checkConnection(cc);
@@ -62,7 +69,9 @@ public class CatalogModifier {
 		
         // commit
 		cc.commit();
+		CatalogCache.INSTANCE.invalidate();
 
+		}
 	}
 	
 	/**
@@ -78,6 +87,7 @@ public class CatalogModifier {
 	public static void addEngine(String newEngine, String newHost, int newPort, String newProperty) throws Exception {
 		
 		Catalog cc = CatalogInstance.INSTANCE.getCatalog();
+		synchronized (cc) {
 		
 		// check if cc is connected and length are correct 
 		CatalogUtilities.checkConnection(cc);
@@ -109,12 +119,15 @@ public class CatalogModifier {
 
         // commit
 		cc.commit();
+		CatalogCache.INSTANCE.invalidate();
 
+		}
 	}
 	
 	public static void addShim(int newIslandId, int newEngineId, String newAccessMethod) throws Exception {
 		
 		Catalog cc = CatalogInstance.INSTANCE.getCatalog();
+		synchronized (cc) {
 		
 		// check if cc is connected and length are correct 
 		CatalogUtilities.checkConnection(cc);
@@ -141,12 +154,15 @@ public class CatalogModifier {
 
         // commit
 		cc.commit();
+		CatalogCache.INSTANCE.invalidate();
 			
+		}
 	}
 	
 	public static void addCast(int newSrcEid, int newDstEid, String newAccessMethod) throws Exception {
 		
 		Catalog cc = CatalogInstance.INSTANCE.getCatalog();
+		synchronized (cc) {
 		
 		// check if cc is connected and length are correct 
 		CatalogUtilities.checkConnection(cc);
@@ -168,12 +184,15 @@ public class CatalogModifier {
 
         // commit
 		cc.commit();
+		CatalogCache.INSTANCE.invalidate();
 			
+		}
 	}
 	
 	public static void addDatabase(int newEngineId, String newName, String newUserid, String newPassword) throws Exception {
 		
 		Catalog cc = CatalogInstance.INSTANCE.getCatalog();
+		synchronized (cc) {
 		
 		// check if cc is connected and length are correct 
 		CatalogUtilities.checkConnection(cc);
@@ -204,11 +223,14 @@ public class CatalogModifier {
 
         // commit
 		cc.commit();
+		CatalogCache.INSTANCE.invalidate();
+		}
 	}
 	
 	public static int addObject(String newName, String newFields, int newLogDB, int newPhyDB) throws SQLException, BigDawgCatalogException {
 		
 		Catalog cc = CatalogInstance.INSTANCE.getCatalog();
+		synchronized (cc) {
 		
 		// check if cc is connected and length are correct 
 		CatalogUtilities.checkConnection(cc);
@@ -239,24 +261,40 @@ public class CatalogModifier {
 
         // commit
 		cc.commit();
+		CatalogCache.INSTANCE.invalidate();
+		QueryResultCache.INSTANCE.invalidate(newName);
+		MigratedCopyCache.INSTANCE.invalidate(newName);
 		
 		return newpos;
+		}
 	}
 	
 	public static void deleteObject(int oid) throws Exception {
 		Catalog cc = CatalogInstance.INSTANCE.getCatalog();
+		synchronized (cc) {
 		
 		// check if cc is connected and length are correct 
 		CatalogUtilities.checkConnection(cc);
 		
+		// the cached results of the queries and the copies of the object are stale
+		ResultSet rs = cc.execRet("SELECT name FROM catalog.objects WHERE oid = "+oid);
+		while (rs.next()) {
+			QueryResultCache.INSTANCE.invalidate(rs.getString(1));
+			MigratedCopyCache.INSTANCE.invalidate(rs.getString(1));
+		}
+		rs.close();
+		
     	cc.execNoRet("DELETE FROM catalog.objects WHERE oid = "+oid);
 
         // commit
 		cc.commit();
+		CatalogCache.INSTANCE.invalidate();
+		}
 	}
 	
 	public static void deleteMultipleObjects(Set<Integer> oids) throws Exception {
 		Catalog cc = CatalogInstance.INSTANCE.getCatalog();
+		synchronized (cc) {
 		
 		// check if cc is connected and length are correct 
 		CatalogUtilities.checkConnection(cc);
@@ -271,6 +309,8 @@ public class CatalogModifier {
 
         // commit
 		cc.commit();
+		CatalogCache.INSTANCE.invalidate();
+		}
 	}
 
 	/**
@@ -308,6 +348,7 @@ public class CatalogModifier {
 //			addObject("LINEITEM","L_ORDERKEY,L_PARTKEY,L_SUPPKEY,L_LINENUMBER,L_QUANTITY,L_EXTENDEDPRICE,L_DISCOUNT,L_TAX,L_RETURNFLAG,L_LINESTATUS,L_SHIPDATE,L_COMMITDATE,L_RECEIPTDATE,L_SHIPINSTRUCT,L_SHIPMODE,L_COMMENT",10,10);
 			
 			cc.commit();
+			CatalogCache.INSTANCE.invalidate();
 			System.out.println("Update complete!");
 			
 		} catch (Exception e) {
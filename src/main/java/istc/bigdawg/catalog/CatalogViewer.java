@@ -21,7 +21,12 @@ import org.apache.avro.generic.GenericData;
 public class CatalogViewer {
 
 	public static Engine getEngineOfDB(int dbid) throws BigDawgCatalogException, SQLException {
+		return CatalogCache.INSTANCE.getEngine(dbid, CatalogViewer::loadEngineOfDB);
+	}
+
+	private static Engine loadEngineOfDB(int dbid) throws BigDawgCatalogException, SQLException {
 		Catalog cc = CatalogInstance.INSTANCE.getCatalog();
+		synchronized (cc) {
 		// input check
 		CatalogUtilities.checkConnection(cc);
 
@@ -47,6 +52,7 @@ public class CatalogViewer {
 		}
 		throw new BigDawgCatalogException("Cannot find engine name for dbid "+dbid);
 	
+		}
 	} 
 	
 	/**
@@ -60,10 +66,14 @@ public class CatalogViewer {
 	 */
 	public static ConnectionInfo getConnectionInfo(int dbid) throws BigDawgCatalogException, SQLException {
 		
-		Catalog cc = CatalogInstance.INSTANCE.getCatalog();
-		Engine e = getEngineOfDB(dbid);
-		
-		return IslandAndCastResolver.getQConnectionInfo(cc, e, dbid);
+		return CatalogCache.INSTANCE.getConnectionInfo(dbid, id -> {
+			Catalog cc = CatalogInstance.INSTANCE.getCatalog();
+			Engine e = getEngineOfDB(id);
+			
+			synchronized (cc) {
+			return IslandAndCastResolver.getQConnectionInfo(cc, e, id);
+			}
+		});
 	}
 	
 	/**
@@ -113,10 +123,23 @@ public class CatalogViewer {
 	 * @throws SQLException 
 	 */
 	public static HashMap<String,List<String>> getDBMappingByObj (List<String> inputs, Scope scope) throws BigDawgCatalogException, UnsupportedIslandException, SQLException {
+		if (inputs.size() == 0) throw new BigDawgCatalogException("Empty inputs from getDBMapping");
+		
+		String islandName = IslandAndCastResolver.getCatalogIslandSelectionPredicate(scope);
+		
+		HashMap<String, List<String>> extraction = CatalogCache.INSTANCE.getDBMappingByObj(inputs, islandName,
+				missing -> loadDBMappingByObj(missing, islandName));
+		
+		if (extraction.isEmpty()) throw new BigDawgCatalogException("Cannot find inputs: "+inputs+"; in scope: "+scope.name()+"\n");
+		
+		return extraction;
+	};
+	
+	private static HashMap<String,List<String>> loadDBMappingByObj (List<String> inputs, String islandName) throws BigDawgCatalogException, SQLException {
 		Catalog cc = CatalogInstance.INSTANCE.getCatalog();
+		synchronized (cc) {
 		
 		CatalogUtilities.checkConnection(cc);
-		if (inputs.size() == 0) throw new BigDawgCatalogException("Empty inputs from getDBMapping");
 		
 		int len = inputs.size();
 		HashMap<String, List<String>> extraction = new HashMap<>();
@@ -127,8 +150,6 @@ public class CatalogViewer {
 		}
 		wherePred += ")";
 		
-		String islandName = IslandAndCastResolver.getCatalogIslandSelectionPredicate(scope); 
-		
 		ResultSet rs = null;
 		try {
 			rs = cc.execRet("select o.name obj, string_agg(cast(physical_db as varchar), ',') db, count(o.name) c, scope_name island "
@@ -150,9 +171,8 @@ public class CatalogViewer {
 			if (rs != null) rs.close();
 		}
 		
-		if (extraction.isEmpty()) throw new BigDawgCatalogException("Cannot find inputs: "+inputs+"; in scope: "+scope.name()+"\n");
-		
 		return extraction;
+		}
 	};
 	
 	/**
@@ -165,7 +185,12 @@ public class CatalogViewer {
 	 * @throws SQLException 
 	 */
 	public static String getObjectsFromList(String csvstr) throws BigDawgCatalogException, SQLException {
+		return CatalogCache.INSTANCE.getObjectsFromList(csvstr, CatalogViewer::loadObjectsFromList);
+	}
+	
+	private static String loadObjectsFromList(String csvstr) throws BigDawgCatalogException, SQLException {
 		Catalog cc = CatalogInstance.INSTANCE.getCatalog();
+		synchronized (cc) {
 		
 		// input check
 		CatalogUtilities.checkConnection(cc);
@@ -197,6 +222,7 @@ public class CatalogViewer {
 			if (rs != null) rs.close();
 		}
 		return extraction;
+		}
 	}
 	
 	/**
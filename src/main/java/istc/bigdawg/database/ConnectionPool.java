@@ -0,0 +1,688 @@
+/**
+ *
+ */
+package istc.bigdawg.database;
+
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.sql.Statement;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.log4j.Logger;
+
+import istc.bigdawg.properties.BigDawgConfigProperties;
+import istc.bigdawg.query.ConnectionInfo;
+
+/**
+ * A bounded pool of JDBC connections to a single database instance (one pool
+ * per {@link ConnectionInfo}).
+ *
+ * The pooled connections are handed out as proxies: closing a proxy returns
+ * the physical connection to the pool, so the handlers keep calling
+ * {@link Connection#close()} as before. The statements, result sets and
+ * metadata created from a proxy are proxies too: they keep the connection
+ * proxy reachable while they are in use and cannot be used once the
+ * connection was returned. A connection is validated when it is returned and
+ * again when it is borrowed after being idle for a while, idle connections
+ * are evicted after the configured idle timeout and connections that were
+ * never closed by the borrower are reclaimed when the proxy (and everything
+ * created from it) is garbage collected.
+ */
+public class ConnectionPool {
+
+	/** log */
+	private static Logger log = Logger
+			.getLogger(ConnectionPool.class.getName());
+
+	/**
+	 * Establish a new physical connection to the database.
+	 */
+	@FunctionalInterface
+	public interface ConnectionFactory {
+		Connection connect() throws SQLException;
+	}
+
+	/**
+	 * Connections idle for a shorter time are handed out without a
+	 * validation round trip.
+	 */
+	private static final long VALIDATE_AFTER_IDLE_MS = 1000;
+
+	/** Timeout (in seconds) for {@link Connection#isValid(int)}. */
+	private static final int VALIDATION_TIMEOUT_SEC = 5;
+
+	/**
+	 * All the pools created so far, keyed by engine, url, user and a hash of
+	 * the password.
+	 */
+	private static final Map<String, ConnectionPool> pools = new ConcurrentHashMap<>();
+
+	/** Evicts idle connections and reclaims the abandoned ones. */
+	private static final ScheduledExecutorService evictor = Executors
+			.newSingleThreadScheduledExecutor(runnable -> {
+				Thread thread = new Thread(runnable,
+						"bigdawg-connection-pool-evictor");
+				thread.setDaemon(true);
+				return thread;
+			});
+
+	static {
+		long period = Math.max(1000, BigDawgConfigProperties.INSTANCE
+				.getConnectionPoolIdleTimeout() / 2);
+		evictor.scheduleWithFixedDelay(() -> {
+			for (ConnectionPool pool : pools.values()) {
+				try {
+					pool.reclaimAbandoned();
+					pool.evictIdle();
+				} catch (RuntimeException e) {
+					log.error("Eviction failed for the pool " + pool.name
+							+ ": " + e.getMessage(), e);
+				}
+			}
+		}, period, period, TimeUnit.MILLISECONDS);
+	}
+
+	/** Name of the pool: engine and url, used in the logs. */
+	private final String name;
+	private final int maxSize;
+	private final long maxWaitMs;
+	private final long idleTimeoutMs;
+	private final ConnectionFactory factory;
+
+	/**
+	 * Whether to roll back and restore auto-commit when a connection is
+	 * returned (not for engines without transactions, e.g. SciDB).
+	 */
+	private final boolean resetTransaction;
+
+	/**
+	 * Statement executed on a returned connection to clear the session state
+	 * (e.g. search_path in PostgreSQL), null if not needed.
+	 */
+	private final String resetStatement;
+
+	/** The number of permits is the number of connections still available. */
+	private final Semaphore permits;
+
+	/** Idle connections, the most recently used first. */
+	private final Deque<IdleConnection> idle = new ArrayDeque<>();
+
+	/** Borrowed connections, to find the abandoned ones. */
+	private final Set<BorrowedConnection> borrowed = Collections
+			.newSetFromMap(new ConcurrentHashMap<>());
+	private final ReferenceQueue<Connection> abandoned = new ReferenceQueue<>();
+
+	/* metrics */
+	private final AtomicInteger active = new AtomicInteger();
+	private final AtomicLong borrowCount = new AtomicLong();
+	private final AtomicLong createdCount = new AtomicLong();
+	private final AtomicLong evictedCount = new AtomicLong();
+	private final AtomicLong invalidCount = new AtomicLong();
+	private final AtomicLong abandonedCount = new AtomicLong();
+	private final AtomicLong totalWaitNanos = new AtomicLong();
+	private final AtomicLong maxWaitNanos = new AtomicLong();
+
+	private static class IdleConnection {
+		private final Connection connection;
+		private final long idleSince;
+
+		private IdleConnection(Connection connection) {
+			this.connection = connection;
+			this.idleSince = System.currentTimeMillis();
+		}
+	}
+
+	/**
+	 * Keeps the physical connection of a proxy, so that it can be closed if
+	 * the proxy is garbage collected without being closed.
+	 */
+	private static class BorrowedConnection extends WeakReference<Connection> {
+		private final Connection physical;
+
+		private BorrowedConnection(Connection proxy, Connection physical,
+				ReferenceQueue<Connection> queue) {
+			super(proxy, queue);
+			this.physical = physical;
+		}
+	}
+
+	private ConnectionPool(String name, int maxSize, long maxWaitMs,
+			long idleTimeoutMs, ConnectionFactory factory,
+			boolean resetTransaction, String resetStatement) {
+		this.name = name;
+		this.maxSize = maxSize;
+		this.maxWaitMs = maxWaitMs;
+		this.idleTimeoutMs = idleTimeoutMs;
+		this.factory = factory;
+		this.resetTransaction = resetTransaction;
+		this.resetStatement = resetStatement;
+		this.permits = new Semaphore(maxSize, true);
+	}
+
+	/**
+	 * Borrow a connection from the pool for the given database instance. The
+	 * pool is created on the first request. Close the returned connection to
+	 * give it back.
+	 *
+	 * If pooling is disabled in the configuration, a new physical connection
+	 * is returned.
+	 *
+	 * @param engine
+	 *            name of the engine, selects the maximum size of the pool
+	 *            (e.g. postgresql, scidb)
+	 * @param conInfo
+	 *            information about the connection to the database instance
+	 * @param factory
+	 *            creates a new physical connection
+	 * @param resetTransaction
+	 *            whether the engine supports transactions that have to be
+	 *            rolled back when a connection is returned
+	 * @param resetStatement
+	 *            statement clearing the session state of a returned
+	 *            connection, or null
+	 * @return the connection
+	 * @throws SQLException
+	 *             if no connection could be established or none became
+	 *             available in time
+	 */
+	public static Connection getConnection(String engine,
+			ConnectionInfo conInfo, ConnectionFactory factory,
+			boolean resetTransaction, String resetStatement)
+			throws SQLException {
+		return getConnection(engine, conInfo.getUrl(), conInfo.getUser(),
+				conInfo.getPassword(), factory, resetTransaction,
+				resetStatement);
+	}
+
+	/**
+	 * See {@link #getConnection(String, ConnectionInfo, ConnectionFactory, boolean, String)},
+	 * for instances that are not described by a {@link ConnectionInfo} (e.g.
+	 * the catalog database from the configuration file).
+	 */
+	public static Connection getConnection(String engine, String url,
+			String user, String password, ConnectionFactory factory,
+			boolean resetTransaction, String resetStatement)
+			throws SQLException {
+		BigDawgConfigProperties config = BigDawgConfigProperties.INSTANCE;
+		if (!config.isConnectionPoolEnabled()) {
+			return factory.connect();
+		}
+		String key = engine + ":" + url + ":" + user + ":" + hash(password);
+		ConnectionPool pool = pools.computeIfAbsent(key,
+				k -> new ConnectionPool(engine + ":" + url,
+						config.getConnectionPoolMaxSize(engine),
+						config.getConnectionPoolMaxWait(),
+						config.getConnectionPoolIdleTimeout(), factory,
+						resetTransaction, resetStatement));
+		return pool.borrow();
+	}
+
+	/**
+	 * @return the SHA-256 digest of the password (in hex), so that the keys
+	 *         of the pools do not keep the passwords in plain text
+	 */
+	private static String hash(String password) {
+		if (password == null) {
+			return "";
+		}
+		try {
+			StringBuilder hex = new StringBuilder();
+			for (byte b : MessageDigest.getInstance("SHA-256")
+					.digest(password.getBytes(StandardCharsets.UTF_8))) {
+				hex.append(String.format("%02x", b));
+			}
+			return hex.toString();
+		} catch (NoSuchAlgorithmException e) {
+			/* every Java platform implements SHA-256 */
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * @return all the pools created so far (e.g. to report their metrics)
+	 */
+	public static Collection<ConnectionPool> getPools() {
+		return Collections.unmodifiableCollection(pools.values());
+	}
+
+	/**
+	 * Borrow a connection, waiting at most maxWaitMs for a free one.
+	 */
+	private Connection borrow() throws SQLException {
+		long start = System.nanoTime();
+		try {
+			if (!permits.tryAcquire(maxWaitMs, TimeUnit.MILLISECONDS)) {
+				throw new SQLException("Timed out after " + maxWaitMs
+						+ " ms waiting for a connection from the pool: "
+						+ this);
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new SQLException(
+					"Interrupted while waiting for a connection from the pool: "
+							+ name,
+					e);
+		}
+		long wait = System.nanoTime() - start;
+		totalWaitNanos.addAndGet(wait);
+		maxWaitNanos.accumulateAndGet(wait, Math::max);
+		borrowCount.incrementAndGet();
+		try {
+			Connection physical = takeIdle();
+			if (physical == null) {
+				physical = factory.connect();
+				createdCount.incrementAndGet();
+			}
+			active.incrementAndGet();
+			return wrap(physical);
+		} catch (SQLException | RuntimeException e) {
+			permits.release();
+			throw e;
+		}
+	}
+
+	/**
+	 * @return a valid idle connection or null if there is none
+	 */
+	private Connection takeIdle() {
+		while (true) {
+			IdleConnection candidate;
+			synchronized (idle) {
+				candidate = idle.pollFirst();
+			}
+			if (candidate == null) {
+				return null;
+			}
+			if (System.currentTimeMillis()
+					- candidate.idleSince < VALIDATE_AFTER_IDLE_MS
+					|| isValid(candidate.connection)) {
+				return candidate.connection;
+			}
+			invalidCount.incrementAndGet();
+			closeQuietly(candidate.connection);
+		}
+	}
+
+	private static boolean isValid(Connection connection) {
+		try {
+			return connection.isValid(VALIDATION_TIMEOUT_SEC);
+		} catch (SQLFeatureNotSupportedException | AbstractMethodError
+				| UnsupportedOperationException e) {
+			/* old drivers (e.g. SciDB) do not implement isValid */
+			try {
+				return !connection.isClosed();
+			} catch (SQLException ex) {
+				return false;
+			}
+		} catch (SQLException e) {
+			return false;
+		}
+	}
+
+	/**
+	 * Return the physical connection to the pool (or close it if it is
+	 * broken or no longer valid) and release its permit.
+	 */
+	private void release(Connection physical, boolean broken) {
+		try {
+			if (!broken && !physical.isClosed() && reset(physical)
+					&& isValid(physical)) {
+				synchronized (idle) {
+					idle.addFirst(new IdleConnection(physical));
+				}
+			} else {
+				closeQuietly(physical);
+			}
+		} catch (SQLException e) {
+			closeQuietly(physical);
+		} finally {
+			active.decrementAndGet();
+			permits.release();
+		}
+	}
+
+	/**
+	 * Clear the state left by the borrower.
+	 *
+	 * @return true if the connection can be reused
+	 */
+	private boolean reset(Connection physical) {
+		try {
+			if (resetTransaction && !physical.getAutoCommit()) {
+				physical.rollback();
+				physical.setAutoCommit(true);
+			}
+			if (resetStatement != null) {
+				try (Statement statement = physical
+						.createStatement()) {
+					statement.execute(resetStatement);
+				}
+			}
+			physical.clearWarnings();
+			return true;
+		} catch (SQLException e) {
+			log.debug("Discarding a connection that could not be reset in the pool "
+					+ name + ": " + e.getMessage());
+			return false;
+		}
+	}
+
+	/**
+	 * Close the connections that have been idle for longer than the idle
+	 * timeout.
+	 */
+	private void evictIdle() {
+		long now = System.currentTimeMillis();
+		List<Connection> toClose = new ArrayList<>();
+		synchronized (idle) {
+			Iterator<IdleConnection> iterator = idle.descendingIterator();
+			while (iterator.hasNext()) {
+				IdleConnection candidate = iterator.next();
+				if (now - candidate.idleSince < idleTimeoutMs) {
+					break;
+				}
+				iterator.remove();
+				toClose.add(candidate.connection);
+			}
+		}
+		for (Connection connection : toClose) {
+			evictedCount.incrementAndGet();
+			closeQuietly(connection);
+		}
+		if (!toClose.isEmpty()) {
+			log.debug("Evicted " + toClose.size() + " idle connections. "
+					+ this);
+		}
+	}
+
+	/**
+	 * Close the physical connections whose proxies were garbage collected
+	 * without being closed, so that their permits are not lost.
+	 */
+	private void reclaimAbandoned() {
+		BorrowedConnection reference;
+		while ((reference = (BorrowedConnection) abandoned.poll()) != null) {
+			if (borrowed.remove(reference)) {
+				abandonedCount.incrementAndGet();
+				log.debug("Reclaimed a connection that was never closed from the pool "
+						+ name);
+				release(reference.physical, true);
+			}
+		}
+	}
+
+	private static void closeQuietly(Connection connection) {
+		try {
+			connection.close();
+		} catch (SQLException e) {
+			log.debug("Could not close a pooled connection: "
+					+ e.getMessage());
+		}
+	}
+
+	/**
+	 * @return a proxy of the physical connection that returns it to the pool
+	 *         when closed
+	 */
+	private Connection wrap(final Connection physical) {
+		final PooledConnectionHandler handler = new PooledConnectionHandler(
+				physical);
+		Connection proxy = (Connection) Proxy.newProxyInstance(
+				Connection.class.getClassLoader(),
+				new Class<?>[] { Connection.class }, handler);
+		handler.reference = new BorrowedConnection(proxy, physical, abandoned);
+		borrowed.add(handler.reference);
+		return proxy;
+	}
+
+	private class PooledConnectionHandler implements InvocationHandler {
+		private final Connection physical;
+		private BorrowedConnection reference;
+		private boolean closed = false;
+		private boolean broken = false;
+
+		private PooledConnectionHandler(Connection physical) {
+			this.physical = physical;
+		}
+
+		@Override
+		public Object invoke(Object proxy, Method method, Object[] args)
+				throws Throwable {
+			switch (method.getName()) {
+			case "close":
+				synchronized (this) {
+					if (!closed) {
+						closed = true;
+						if (borrowed.remove(reference)) {
+							release(physical, broken);
+						}
+					}
+				}
+				return null;
+			case "isClosed":
+				if (closed) {
+					return true;
+				}
+				break;
+			case "equals":
+				return proxy == args[0];
+			case "hashCode":
+				return System.identityHashCode(proxy);
+			case "toString":
+				return "Pooled connection (" + name + ")";
+			default:
+				break;
+			}
+			checkOpen();
+			return wrapChild(invokePhysical(physical, method, args),
+					method.getReturnType(), proxy, proxy);
+		}
+
+		private void checkOpen() throws SQLException {
+			if (closed) {
+				throw new SQLException(
+						"The connection was already returned to the pool: "
+								+ name);
+			}
+		}
+
+		/**
+		 * Invoke the method of the physical object and mark the connection
+		 * as broken on a connection exception.
+		 */
+		private Object invokePhysical(Object target, Method method,
+				Object[] args)
+				throws Throwable {
+			try {
+				return method.invoke(target, args);
+			} catch (InvocationTargetException e) {
+				Throwable cause = e.getCause();
+				/* SQL state class 08: connection exception */
+				if (cause instanceof SQLException
+						&& ((SQLException) cause).getSQLState() != null
+						&& ((SQLException) cause).getSQLState()
+								.startsWith("08")) {
+					broken = true;
+				}
+				throw cause;
+			}
+		}
+
+		/**
+		 * Wrap a statement, result set or metadata returned by the physical
+		 * connection (or by one of its statements) in a proxy.
+		 *
+		 * @param child
+		 *            the returned object
+		 * @param type
+		 *            the declared return type of the method
+		 * @param connection
+		 *            the proxy of the connection
+		 * @param owner
+		 *            the proxy which created the child
+		 */
+		private Object wrapChild(Object child, Class<?> type,
+				Object connection, Object owner) {
+			if (child == null || !(Statement.class.isAssignableFrom(type)
+					|| ResultSet.class.isAssignableFrom(type)
+					|| DatabaseMetaData.class.isAssignableFrom(type))) {
+				return child;
+			}
+			return Proxy.newProxyInstance(type.getClassLoader(),
+					new Class<?>[] { type },
+					new ChildHandler(child, connection, owner));
+		}
+
+		/**
+		 * Handler of the proxies of the statements, result sets and metadata.
+		 * It holds the connection proxy, so that the connection is not
+		 * reclaimed as abandoned while they are in use.
+		 */
+		private class ChildHandler implements InvocationHandler {
+			private final Object physicalChild;
+			private final Object connection;
+			private final Object owner;
+
+			private ChildHandler(Object physicalChild, Object connection,
+					Object owner) {
+				this.physicalChild = physicalChild;
+				this.connection = connection;
+				this.owner = owner;
+			}
+
+			@Override
+			public Object invoke(Object proxy, Method method, Object[] args)
+					throws Throwable {
+				switch (method.getName()) {
+				case "getConnection":
+					return connection;
+				case "getStatement":
+					return owner instanceof Statement ? owner
+							: wrapChild(
+									invokePhysical(physicalChild, method, args),
+									method.getReturnType(), connection, proxy);
+				case "close":
+				case "isClosed":
+					/* the statements may be closed after the connection */
+					return invokePhysical(physicalChild, method, args);
+				case "equals":
+					return proxy == args[0];
+				case "hashCode":
+					return System.identityHashCode(proxy);
+				case "toString":
+					return "Pooled " + physicalChild;
+				default:
+					break;
+				}
+				checkOpen();
+				return wrapChild(invokePhysical(physicalChild, method, args),
+						method.getReturnType(), connection, proxy);
+			}
+		}
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public int getMaxSize() {
+		return maxSize;
+	}
+
+	/**
+	 * @return the number of borrowed connections
+	 */
+	public int getActiveCount() {
+		return active.get();
+	}
+
+	/**
+	 * @return the number of connections waiting in the pool
+	 */
+	public int getIdleCount() {
+		synchronized (idle) {
+			return idle.size();
+		}
+	}
+
+	/**
+	 * @return the number of threads waiting for a connection
+	 */
+	public int getWaitingCount() {
+		return permits.getQueueLength();
+	}
+
+	public long getBorrowCount() {
+		return borrowCount.get();
+	}
+
+	public long getCreatedCount() {
+		return createdCount.get();
+	}
+
+	public long getEvictedCount() {
+		return evictedCount.get();
+	}
+
+	public long getInvalidCount() {
+		return invalidCount.get();
+	}
+
+	public long getAbandonedCount() {
+		return abandonedCount.get();
+	}
+
+	/**
+	 * @return the average time (in ms) spent waiting for a connection
+	 */
+	public double getAverageWaitMs() {
+		long count = borrowCount.get();
+		return count == 0 ? 0 : totalWaitNanos.get() / 1000000.0 / count;
+	}
+
+	/**
+	 * @return the longest time (in ms) spent waiting for a connection
+	 */
+	public double getMaxWaitMs() {
+		return maxWaitNanos.get() / 1000000.0;
+	}
+
+	@Override
+	public String toString() {
+		return String.format(
+				"ConnectionPool [name=%s, maxSize=%d, active=%d, idle=%d, "
+						+ "waiting=%d, borrowed=%d, created=%d, evicted=%d, "
+						+ "invalid=%d, abandoned=%d, avgWaitMs=%.3f, maxWaitMs=%.3f]",
+				name, maxSize, getActiveCount(), getIdleCount(),
+				getWaitingCount(), getBorrowCount(), getCreatedCount(),
+				getEvictedCount(), getInvalidCount(), getAbandonedCount(),
+				getAverageWaitMs(), getMaxWaitMs());
+	}
+}
@@ -29,6 +29,13 @@ public class ConstructedQueryResult implements QueryResult {
 		return sb.toString();
 	}
 
+	/**
+	 * @return the rows of the result
+	 */
+	public List<List<String>> getRows() {
+		return results == null ? new ArrayList<>() : results;
+	}
+
 	@Override
 	public ConnectionInfo getConnectionInfo() {
 		return ci;
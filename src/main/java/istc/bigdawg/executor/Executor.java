@@ -17,6 +17,14 @@ public class Executor {
         return new PlanExecutor(plan).executePlan(Optional.of(new ImmutablePair<>(sig, index))).orElse(null);
     }
 
+    /**
+     * Execute the plan; when streaming is requested the result of the terminal node
+     * is a {@link StreamingQueryResult} that has to be consumed or closed by the caller.
+     */
+    public static QueryResult executePlan(QueryExecutionPlan plan, Signature sig, int index, boolean streaming) throws ExecutorEngine.LocalQueryExecutionException, MigrationException {
+        return new PlanExecutor(plan, streaming).executePlan(Optional.of(new ImmutablePair<>(sig, index))).orElse(null);
+    }
+
     public static QueryResult executePlan(QueryExecutionPlan plan) throws ExecutorEngine.LocalQueryExecutionException, MigrationException {
         return new PlanExecutor(plan).executePlan(Optional.empty()).orElse(null);
     }
@@ -7,6 +7,16 @@ import java.util.Optional;
  */
 public interface ExecutorEngine {
     Optional<QueryResult> execute(String query) throws LocalQueryExecutionException;
+
+    /**
+     * Execute the query and return a result that is fetched from the engine
+     * while it is consumed (see {@link StreamingQueryResult}), at most
+     * fetchSize rows at a time. Engines that cannot stream their results
+     * fall back to {@link #execute(String)}.
+     */
+    default Optional<QueryResult> executeStreaming(String query, int fetchSize) throws LocalQueryExecutionException {
+        return execute(query);
+    }
     
     void dropDataSetIfExists(String dataSetName) throws Exception;
     
@@ -0,0 +1,237 @@
+package istc.bigdawg.executor;
+
+import java.io.BufferedWriter;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.UnsupportedEncodingException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.log4j.Logger;
+
+import istc.bigdawg.query.ConnectionInfo;
+import istc.bigdawg.scidb.SciDBConnectionInfo;
+import istc.bigdawg.utils.JdbcUtils;
+
+/**
+ * Cursor backed result of a JDBC query. The rows are fetched from the engine
+ * in batches of the statement's fetch size while they are written to the
+ * output, so only one batch is kept in memory at a time.
+ * 
+ * The result owns the connection, the statement and the result set, and
+ * closes them after the rows were written (see {@link #close()}).
+ * 
+ * The output format is the same as {@link JdbcQueryResult#toPrettyString()}.
+ */
+public class JdbcStreamingQueryResult implements StreamingQueryResult {
+
+	private static Logger log = Logger
+			.getLogger(JdbcStreamingQueryResult.class.getName());
+
+	/** How many rows are written between two flushes of the output. */
+	private static final int FLUSH_ROWS = 1000;
+
+	private static final char DELIMITER = '\t';
+
+	private final Connection connection;
+	private final Statement statement;
+	private final ResultSet results;
+	private final ConnectionInfo connectionInfo;
+	private final List<String> colNames;
+	private final List<String> colTypes;
+
+	/**
+	 * SciDB's result set is positioned on the first row right after the
+	 * execution and getObject always returns null (see
+	 * {@link JdbcUtils#getRowsSciDB(ResultSet)}).
+	 */
+	private final boolean isSciDB;
+
+	private final List<Runnable> closeHooks = new ArrayList<>();
+	private final long createdTime = System.currentTimeMillis();
+	private boolean started = false;
+	private boolean closed = false;
+
+	/**
+	 * @param connection
+	 *            the connection dedicated to this result (closed with the
+	 *            result)
+	 * @param statement
+	 *            the statement that produced the result set
+	 * @param resultSet
+	 *            the result set (cursor) to be streamed
+	 * @param conn
+	 *            information about the engine where the query was executed
+	 * @throws SQLException
+	 */
+	public JdbcStreamingQueryResult(Connection connection, Statement statement,
+			ResultSet resultSet, ConnectionInfo conn) throws SQLException {
+		this.connection = connection;
+		this.statement = statement;
+		this.results = resultSet;
+		this.connectionInfo = conn;
+		this.isSciDB = conn instanceof SciDBConnectionInfo;
+		this.colNames = JdbcUtils.getColumnNames(resultSet.getMetaData());
+		this.colTypes = JdbcUtils.getColumnTypeNames(resultSet.getMetaData());
+	}
+
+	@Override
+	public ConnectionInfo getConnectionInfo() {
+		return connectionInfo;
+	}
+
+	public List<String> getColNames() {
+		return colNames;
+	}
+
+	public List<String> getColTypes() {
+		return colTypes;
+	}
+
+	/**
+	 * Move the cursor to the next row.
+	 * 
+	 * @return true if the cursor is positioned on a row
+	 * @throws SQLException
+	 */
+	private boolean nextRow() throws SQLException {
+		if (isSciDB) {
+			if (started) {
+				results.next();
+			}
+			started = true;
+			return !results.isAfterLast();
+		}
+		return results.next();
+	}
+
+	private static long getUsedHeap() {
+		Runtime runtime = Runtime.getRuntime();
+		return runtime.totalMemory() - runtime.freeMemory();
+	}
+
+	@Override
+	public void writeTo(OutputStream output) throws IOException {
+		long rowCounter = 0;
+		long firstByteTime = -1;
+		long peakHeap = getUsedHeap();
+		try {
+			Writer writer = new BufferedWriter(
+					new OutputStreamWriter(output, StandardCharsets.UTF_8));
+			writer.write(String.join(String.valueOf(DELIMITER), colNames));
+			writer.write('\n');
+			ResultSetMetaData rsmd = results.getMetaData();
+			while (nextRow()) {
+				List<String> row = isSciDB
+						? JdbcUtils.getRowSciDB(results, rsmd)
+						: JdbcUtils.getRow(results, rsmd);
+				writer.write(String.join(String.valueOf(DELIMITER), row));
+				writer.write('\n');
+				++rowCounter;
+				/* Send the first row right away, then in batches. */
+				if (rowCounter == 1 || rowCounter % FLUSH_ROWS == 0) {
+					writer.flush();
+					if (firstByteTime < 0) {
+						firstByteTime = System.currentTimeMillis();
+					}
+					peakHeap = Math.max(peakHeap, getUsedHeap());
+				}
+			}
+			writer.flush();
+			if (firstByteTime < 0) {
+				firstByteTime = System.currentTimeMillis();
+			}
+		} catch (SQLException ex) {
+			log.error("Could not read the streamed result from "
+					+ connectionInfo.toSimpleString() + ": " + ex.getMessage(),
+					ex);
+			throw new IOException(ex);
+		} finally {
+			close();
+		}
+		long endTime = System.currentTimeMillis();
+		log.info(String.format(
+				"Streamed %d rows from %s; time to first byte: %d ms; "
+						+ "total time: %d ms; peak heap used: %d MB",
+				rowCounter, connectionInfo.toSimpleString(),
+				firstByteTime - createdTime, endTime - createdTime,
+				Math.max(peakHeap, getUsedHeap()) / (1024 * 1024)));
+	}
+
+	/**
+	 * Drain the whole cursor into a string. This defeats the purpose of
+	 * streaming and is only provided to fulfill the {@link QueryResult}
+	 * contract (e.g. for logging small results).
+	 */
+	@Override
+	public String toPrettyString() {
+		ByteArrayOutputStream output = new ByteArrayOutputStream();
+		try {
+			writeTo(output);
+			return output.toString(StandardCharsets.UTF_8.name());
+		} catch (UnsupportedEncodingException e) {
+			throw new IllegalStateException(e);
+		} catch (IOException e) {
+			throw new IllegalStateException(
+					"Could not read the streamed result: " + e.getMessage(),
+					e);
+		}
+	}
+
+	@Override
+	public synchronized void addCloseHook(Runnable hook) {
+		if (closed) {
+			hook.run();
+		} else {
+			closeHooks.add(hook);
+		}
+	}
+
+	@Override
+	public synchronized void close() {
+		if (closed) {
+			return;
+		}
+		closed = true;
+		try {
+			results.close();
+		} catch (SQLException ex) {
+			log.error("Could not close the streamed result set. "
+					+ ex.getMessage());
+		}
+		try {
+			statement.close();
+		} catch (SQLException ex) {
+			log.error("Could not close the statement of the streamed result. "
+					+ ex.getMessage());
+		}
+		try {
+			connection.close();
+		} catch (SQLException ex) {
+			log.error("Could not close the connection of the streamed result. "
+					+ ex.getMessage());
+		}
+		/*
+		 * The hooks (e.g. dropping the intermediate tables) run only after the
+		 * cursor was closed, otherwise they would wait for its locks.
+		 */
+		for (Runnable hook : closeHooks) {
+			try {
+				hook.run();
+			} catch (RuntimeException ex) {
+				log.error("Close hook of the streamed result failed. "
+						+ ex.getMessage(), ex);
+			}
+		}
+		closeHooks.clear();
+	}
+}
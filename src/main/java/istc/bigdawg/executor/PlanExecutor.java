@@ -28,10 +28,14 @@ import istc.bigdawg.exceptions.MigrationException;
 import istc.bigdawg.executor.plan.BinaryJoinExecutionNode;
 import istc.bigdawg.executor.plan.ExecutionNode;
 import istc.bigdawg.executor.plan.QueryExecutionPlan;
+import istc.bigdawg.executor.plan.TableExecutionNode;
 import istc.bigdawg.executor.shuffle.ShuffleJoinExecutor;
+import istc.bigdawg.migration.MigratedCopyCache;
 import istc.bigdawg.migration.MigrationResult;
 import istc.bigdawg.migration.Migrator;
 import istc.bigdawg.monitoring.Monitor;
+import istc.bigdawg.monitoring.QueryActivity;
+import istc.bigdawg.properties.BigDawgConfigProperties;
 import istc.bigdawg.query.ConnectionInfo;
 import istc.bigdawg.signature.Signature;
 
@@ -48,10 +52,13 @@ class PlanExecutor {
 
     private final Multimap<ExecutionNode, ConnectionInfo> resultLocations = Multimaps.synchronizedSetMultimap(HashMultimap.create());
     private final Multimap<ConnectionInfo, String> temporaryTables = Multimaps.synchronizedSetMultimap(HashMultimap.create());
+    // tables migrated under private names because another query reads a copy with the same name
+    private final Map<ConnectionInfo, Map<String, String>> renamedTables = new ConcurrentHashMap<>();
     private final Map<Pair<String, ConnectionInfo>, CompletableFuture<MigrationResult>> migrations = new ConcurrentHashMap<>();
     private final Map<ExecutionNode, CountDownLatch> locks = new ConcurrentHashMap<>();
 
     private final QueryExecutionPlan plan;
+    private final boolean streaming;
 
     /**
      * Class responsible for handling the execution of a single QueryExecutionPlan
@@ -61,7 +68,20 @@ class PlanExecutor {
      *            with edges pointing to dependencies
      */
     public PlanExecutor(QueryExecutionPlan plan) {
+        this(plan, false);
+    }
+
+    /**
+     * @param plan
+     *            a data structure of the queries to be run and their ordering,
+     *            with edges pointing to dependencies
+     * @param streaming
+     *            whether the terminal node should return a {@link StreamingQueryResult};
+     *            the temporary tables are then dropped only when that result is closed
+     */
+    public PlanExecutor(QueryExecutionPlan plan, boolean streaming) {
         this.plan = plan;
+        this.streaming = streaming;
         Logger.info(this, "PlanExecutor received plan %s", plan.getSerializedName());
         if (plan.vertexSet().isEmpty()) System.out.printf("\n---> vertex set is empty\n");
 
@@ -92,6 +112,8 @@ class PlanExecutor {
         final long start = System.currentTimeMillis();
         Logger.info(this, "Executing query plan %s...", plan.getSerializedName());
 
+        // user queries keep the background benchmarks off their engines
+        final Collection<String> engines = QueryActivity.started(plan);
         CompletableFuture<Optional<QueryResult>> finalResult = CompletableFuture.completedFuture(Optional.empty());
         for (ExecutionNode node : plan) {
             CompletableFuture<Optional<QueryResult>> result = CompletableFuture.supplyAsync(() -> this.executeNode(node), threadPool);
@@ -118,7 +140,24 @@ class PlanExecutor {
 //		} catch (IOException e1) {
 //			e1.printStackTrace();
 //		}
-        dropTemporaryTables();
+        if (result.isPresent() && result.get() instanceof StreamingQueryResult) {
+            // the cursor of the final result may still read from the temporary tables and keeps the engines busy
+            ((StreamingQueryResult) result.get()).addCloseHook(() -> {
+                try {
+                    dropTemporaryTables();
+                } catch (ExecutorEngine.LocalQueryExecutionException e) {
+                    Logger.error(this, "Error cleaning up temporary tables of %s: %[exception]s", plan.getSerializedName(), e);
+                } finally {
+                    QueryActivity.finished(engines);
+                }
+            });
+        } else {
+            try {
+                dropTemporaryTables();
+            } finally {
+                QueryActivity.finished(engines);
+            }
+        }
 
         // Log timing results
         final long end = System.currentTimeMillis();
@@ -163,9 +202,12 @@ class PlanExecutor {
         Logger.debug(this, "Executing query node %s...", node);
         long startTimeMigration = System.currentTimeMillis();
         try {
-        return node.getQueryString().flatMap((query) -> {
+        return node.getQueryString().map(query -> renameTables(query, node.getEngine())).flatMap((query) -> {
             try {
-                final Optional<QueryResult> result = node.getEngine().getLocalQueryExecutor().execute(query);
+                final ExecutorEngine engine = node.getEngine().getLocalQueryExecutor();
+                final Optional<QueryResult> result = (streaming && plan.getTerminalTableNode().equals(node))
+                        ? engine.executeStreaming(query, BigDawgConfigProperties.INSTANCE.getQueryStreamFetchSize())
+                        : engine.execute(query);
                 long endTimeMigration = System.currentTimeMillis();
                 long durationMsec = endTimeMigration - startTimeMigration;
                 Logger.info(this, String.format("Successfully executed node %s \n\n>>> with duration time msec %d <<<", node, durationMsec));
@@ -298,15 +340,48 @@ class PlanExecutor {
 
     }
 
+    /**
+     * @return the query reading the tables under the names they were migrated to
+     */
+    private String renameTables(String query, ConnectionInfo engine) {
+        return QueryExecutionPlan.replaceTableNames(plan.renameTables(query),
+                renamedTables.getOrDefault(engine, Collections.emptyMap()));
+    }
+
     private MigrationResult colocateSingleDependency(ExecutionNode dependency, ExecutionNode dependant) {
-        return dependency.getTableName().map((table) -> {
+        return dependency.getTableName().map(plan::getTableName).map((table) -> {
             try {
-                final MigrationResult result = Migrator.migrate(dependency.getEngine(), table, dependant.getEngine(), table);
-
-                Logger.debug(PlanExecutor.this, "Migration complete for "+table);
-                
-                if(result.isError()) {
-                    throw new MigrationException(result.toString());
+                // a base table may already have a copy on the engine, kept after a previous query
+                final String copySource = dependency instanceof TableExecutionNode
+                        ? String.format("%s|%s", MigratedCopyCache.getEngineKey(dependency.getEngine()), table)
+                        : null;
+                final MigrationResult result;
+                String target = table;
+                if (copySource != null && MigratedCopyCache.INSTANCE.acquire(dependant.getEngine(), table, copySource)) {
+                    Logger.debug(PlanExecutor.this, "Reusing the copy of %s on engine %s", table, dependant.getEngine());
+                    result = new MigrationResult(0L, 0L);
+                } else {
+                    final long beganAt = MigratedCopyCache.INSTANCE.begin();
+                    final boolean keepCopy = copySource != null
+                            && MigratedCopyCache.INSTANCE.prepare(dependant.getEngine(), table);
+                    if (copySource != null && !keepCopy) {
+                        // another query reads the copy with this name, the data go to a table of this query only
+                        target = MigratedCopyCache.getPrivateName(table);
+                        renamedTables.computeIfAbsent(dependant.getEngine(), e -> new ConcurrentHashMap<>())
+                                .put(table, target);
+                    }
+                    result = Migrator.migrate(dependency.getEngine(), table, dependant.getEngine(), target);
+
+                    Logger.debug(PlanExecutor.this, "Migration complete for "+table);
+
+                    if(result.isError()) {
+                        throw new MigrationException(result.toString());
+                    }
+
+                    if (keepCopy && result.getCountLoadedElements() != null) {
+                        MigratedCopyCache.INSTANCE.register(dependant.getEngine(), table, copySource,
+                                dependency.getEngine(), Collections.singleton(table), result.getCountLoadedElements(), beganAt);
+                    }
                 }
 
                 Logger.debug(PlanExecutor.this, "Marking dependency %s as migrated on engine %s...", dependency, dependant.getEngine());
@@ -315,7 +390,7 @@ class PlanExecutor {
                 resultLocations.put(dependency, dependant.getEngine());
 
                 // mark that this engine now has a copy of the dependency's data
-                temporaryTables.put(dependant.getEngine(), table);
+                temporaryTables.put(dependant.getEngine(), target);
 
                 return result;
             } catch (MigrationException e) {
@@ -332,13 +407,21 @@ class PlanExecutor {
             for (ConnectionInfo c : temporaryTables.keySet()) {
                 final Collection<String> tables = temporaryTables.get(c);
 
-                Logger.debug(this, "Cleaning up %s by removing %s...", c, tables);
-                Collection<String> cs = c.getCleanupQuery(tables);
-                try {
-                	for (String s : cs)
-                		c.getLocalQueryExecutor().execute(s);
-                } catch (ConnectionInfo.LocalQueryExecutorLookupException e) {
-                    Logger.error(this, "Error looking up ExecutorEngine for %s: %[exception]s", c, e);
+                // the copies kept for the next queries are released instead of dropped
+                final Collection<String> dropped = tables.stream()
+                        .filter(table -> MigratedCopyCache.isPrivateName(table)
+                                || !MigratedCopyCache.INSTANCE.release(c, table))
+                        .collect(Collectors.toList());
+
+                Logger.debug(this, "Cleaning up %s by removing %s...", c, dropped);
+                if (!dropped.isEmpty()) {
+                    Collection<String> cs = c.getCleanupQuery(dropped);
+                    try {
+                    	for (String s : cs)
+                    		c.getLocalQueryExecutor().execute(s);
+                    } catch (ConnectionInfo.LocalQueryExecutorLookupException e) {
+                        Logger.error(this, "Error looking up ExecutorEngine for %s: %[exception]s", c, e);
+                    }
                 }
 
                 removed.putAll(c, tables);
@@ -0,0 +1,43 @@
+package istc.bigdawg.executor;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * A {@link QueryResult} whose rows are read from the engine while they are
+ * written to the client, instead of being materialized in memory first.
+ * 
+ * The result holds engine resources (connection, cursor) until it is closed.
+ * {@link #writeTo(OutputStream)} closes the result when it finishes, so the
+ * result can be consumed only once.
+ */
+public interface StreamingQueryResult extends QueryResult, AutoCloseable {
+
+	/**
+	 * Write the header and all the rows of the result to the output, then
+	 * release the resources of the result.
+	 * 
+	 * @param output
+	 *            where the rows are written (e.g. the HTTP response)
+	 * @throws IOException
+	 *             if the rows could not be read from the engine or written to
+	 *             the output
+	 */
+	void writeTo(OutputStream output) throws IOException;
+
+	/**
+	 * Register an action run once the result is closed, e.g. dropping the
+	 * intermediate tables the cursor still reads from.
+	 * 
+	 * @param hook
+	 *            action to run after the engine resources were released
+	 */
+	void addCloseHook(Runnable hook);
+
+	/**
+	 * Release the engine resources and run the close hooks. Closing an
+	 * already closed result has no effect.
+	 */
+	@Override
+	void close();
+}
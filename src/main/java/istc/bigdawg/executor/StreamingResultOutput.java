@@ -0,0 +1,71 @@
+package istc.bigdawg.executor;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import javax.ws.rs.core.StreamingOutput;
+
+import org.apache.log4j.Logger;
+
+/**
+ * The entity of an HTTP response which writes a {@link StreamingQueryResult}
+ * to the client.
+ *
+ * The result releases its connection and intermediate tables only when it is
+ * closed, and {@link StreamingQueryResult#writeTo(OutputStream)} closes it
+ * only if it is called. If the container never writes the entity (e.g. the
+ * client disconnected before the response was sent), the result is closed
+ * after the timeout instead.
+ */
+public class StreamingResultOutput implements StreamingOutput {
+
+	private static Logger log = Logger
+			.getLogger(StreamingResultOutput.class.getName());
+
+	private static final ScheduledExecutorService timer = Executors
+			.newSingleThreadScheduledExecutor(runnable -> {
+				Thread thread = new Thread(runnable,
+						"streaming-result-timeout");
+				thread.setDaemon(true);
+				return thread;
+			});
+
+	private final StreamingQueryResult result;
+	private final AtomicBoolean started = new AtomicBoolean(false);
+	private final ScheduledFuture<?> timeout;
+
+	/**
+	 * @param result
+	 *            the result written to the client
+	 * @param timeoutMillis
+	 *            after how many milliseconds the result is closed if the
+	 *            writing did not start
+	 */
+	public StreamingResultOutput(StreamingQueryResult result,
+			long timeoutMillis) {
+		this.result = result;
+		this.timeout = timer.schedule(() -> {
+			if (started.compareAndSet(false, true)) {
+				log.warn("The streamed result was not read by the client "
+						+ "within " + timeoutMillis + " ms; closing it.");
+				result.close();
+			}
+		}, timeoutMillis, TimeUnit.MILLISECONDS);
+	}
+
+	@Override
+	public void write(OutputStream output) throws IOException {
+		if (!started.compareAndSet(false, true)) {
+			throw new IOException(
+					"The streamed result was already written or closed.");
+		}
+		timeout.cancel(false);
+		/* writeTo closes the result, also when the client disconnects */
+		result.writeTo(output);
+	}
+}
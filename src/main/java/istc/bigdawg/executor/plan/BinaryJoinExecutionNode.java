@@ -137,6 +137,16 @@ public class BinaryJoinExecutionNode implements ExecutionNode {
         return "SELECT * INTO " + this.destinationTable + " FROM " + leftResults + " UNION ALL SELECT * FROM " + rightResults + ";";
     }
 
+    /**
+     * @return the join of the left and right tables with the results put into the destination table
+     *         (the local join query of the left operand, which reads the _RIGHTPARTIAL table instead of the right table)
+     */
+    public String getShuffleJoinQuery() {
+        return this.left.getQueryString()
+                .replace(this.destinationTable + "_RIGHTPARTIAL", this.right.table)
+                .replace(this.destinationTable + "_LEFTRESULTS", this.destinationTable);
+    }
+
     public Collection<JoinOperand> getOperands() {
         return Sets.newHashSet(this.right, this.left);
     }
@@ -31,6 +31,8 @@ public class QueryExecutionPlan extends DirectedAcyclicGraph<ExecutionNode, Defa
     private int serial;
     private String terminalTableName;
     private ExecutionNode terminalNode;
+    /** name used by the queries -> name of the table with the data */
+    private final Map<String, String> tableRenames = new HashMap<>();
     
     private final Scope island;
 
@@ -45,6 +47,43 @@ public class QueryExecutionPlan extends DirectedAcyclicGraph<ExecutionNode, Defa
     public Scope getIsland() {
         return this.island;
     }
+
+    /**
+     * Read the data of the tables from the tables with other names (e.g. a
+     * CAST result migrated to a table which no other query uses).
+     *
+     * @param renames
+     *            name used by the queries -> name of the table with the data
+     */
+    public void renameTables(Map<String, String> renames) {
+        tableRenames.putAll(renames);
+    }
+
+    /**
+     * @return the name of the table with the data of the table
+     */
+    public String getTableName(String table) {
+        return tableRenames.getOrDefault(table, table);
+    }
+
+    /**
+     * @return the query reading the tables renamed by {@link #renameTables(Map)}
+     */
+    public String renameTables(String query) {
+        return replaceTableNames(query, tableRenames);
+    }
+
+    /**
+     * Replace the names of the tables (case-insensitive, whole names only) in
+     * the query.
+     */
+    public static String replaceTableNames(String query, Map<String, String> renames) {
+        for (Map.Entry<String, String> rename : renames.entrySet()) {
+            query = query.replaceAll("(?i)(?<![\\w.])" + Pattern.quote(rename.getKey()) + "(?!\\w)",
+                    Matcher.quoteReplacement(rename.getValue()));
+        }
+        return query;
+    }
     
     public int getSerialNumber() {
     	return serial;
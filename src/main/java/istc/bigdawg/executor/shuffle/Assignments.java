@@ -221,6 +221,18 @@ public class Assignments {
         return max;
     }
 
+    public double getStepSize() {
+        return stepSize;
+    }
+
+    public int getBucketCount() {
+        return bucketCount;
+    }
+
+    public Map<Long, BinaryJoinExecutionNode.JoinOperand> getHotspotAssignments() {
+        return Collections.unmodifiableMap(hotspotAssignments);
+    }
+
     public BinaryJoinExecutionNode.JoinOperand assignHotspot(long hotspot, BinaryJoinExecutionNode.JoinOperand operand) {
         return hotspotAssignments.put(hotspot, operand);
     }
@@ -35,6 +35,10 @@ public class Histogram {
         return operand;
     }
 
+    public int getNumBuckets() {
+        return buckets.length;
+    }
+
     public long getBucketCount(int bucket) {
         return buckets[bucket];
     }
@@ -44,7 +48,7 @@ public class Histogram {
     }
 
     public long getHotspotCount(long hotspot) {
-        return hotspots.get(hotspot);
+        return hotspots.getOrDefault(hotspot, 0L);
     }
 
     @Override
@@ -5,14 +5,14 @@ import istc.bigdawg.executor.ExecutorEngine;
 import istc.bigdawg.executor.JdbcQueryResult;
 import istc.bigdawg.executor.plan.BinaryJoinExecutionNode;
 import istc.bigdawg.query.ConnectionInfo;
+import istc.bigdawg.statistics.ColumnStatistics;
+import istc.bigdawg.statistics.StatisticsService;
 import org.apache.commons.lang3.tuple.ImmutablePair;
 import org.apache.commons.lang3.tuple.Pair;
-import org.json.simple.JSONArray;
-import org.json.simple.JSONValue;
 
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
 import java.util.stream.Collectors;
-import java.util.stream.Stream;
 
 /**
  * Created by ankush on 4/25/16.
@@ -22,8 +22,7 @@ public class ShuffleEngine {
     public static final int NUM_BUCKETS = 100;
 
     private static final String PG_SINGLEBUCKET_TEMPLATE = "SELECT COUNT(*) FROM %s;";
-    private static final String PG_STATS_PREP_TEMPLATE = "ANALYZE %s %s";
-    private static final String PG_STATS_TEMPLATE = "SELECT array_to_json(most_common_vals) AS most_common_vals, array_to_json(most_common_freqs) AS most_common_freqs, array_to_json(histogram_bounds) AS histogram_bounds, approximate_row_count AS count FROM pg_stats JOIN pg_class ON relname = tablename WHERE tablename = '%s' AND attname = '%s';";
+    private static final String PG_TYPE_TEMPLATE = "SELECT pg_typeof(%s)::text FROM %s LIMIT 1;";
 
     private static final double DOWNLINK_RATE = 1.0;
     private static final double UPLINK_RATE = 1.0;
@@ -56,93 +55,72 @@ public class ShuffleEngine {
         })).collect(Collectors.toSet());
     }
 
+    /**
+     * @return the types of the join attributes of the operands (the operands without rows are left out)
+     */
+    static Collection<String> getAttributeTypes(Collection<BinaryJoinExecutionNode.JoinOperand> operands) {
+        return operands.stream().map(Errors.rethrow().wrap((BinaryJoinExecutionNode.JoinOperand o) -> {
+            JdbcQueryResult r = (JdbcQueryResult) o.engine.getLocalQueryExecutor().execute(String.format(PG_TYPE_TEMPLATE, o.attribute, o.table)).get();
+            return r.getRows().isEmpty() ? null : r.getRows().get(0).get(0);
+        })).filter(Objects::nonNull).collect(Collectors.toSet());
+    }
+
     static Collection<Histogram> createHistogramsExhaustively(Collection<BinaryJoinExecutionNode.JoinOperand> operands) {
-        Stream<Pair<Long, Long>> minMaxStream =  operands.stream()
+        List<Pair<Long, Long>> minMax =  operands.stream()
                 .map(Errors.rethrow().wrap((BinaryJoinExecutionNode.JoinOperand o) -> o.engine.getMinMax(o.table, o.attribute)))
-                .map(p -> new ImmutablePair<>(p.getLeft().longValue(), p.getRight().longValue()));
+                .map(p -> new ImmutablePair<>(p.getLeft().longValue(), p.getRight().longValue()))
+                .collect(Collectors.toList());
 
-        long min = minMaxStream.mapToLong(Pair::getLeft).min().getAsLong();
-        long max = minMaxStream.mapToLong(Pair::getRight).max().getAsLong();
+        long min = minMax.stream().mapToLong(Pair::getLeft).min().getAsLong();
+        long max = minMax.stream().mapToLong(Pair::getRight).max().getAsLong();
 
         return operands.stream()
                 .map(Errors.rethrow().wrap((BinaryJoinExecutionNode.JoinOperand o) -> new Histogram(o.engine.computeHistogram(o.table, o.attribute, min, max, NUM_BUCKETS), Collections.emptyMap(), min, max, o)))
                 .collect(Collectors.toSet());
     }
 
-    static Collection<Histogram> createHistogramsBySampling(Collection<BinaryJoinExecutionNode.JoinOperand> operands) throws ConnectionInfo.LocalQueryExecutorLookupException, ExecutorEngine.LocalQueryExecutionException {
-        Map<BinaryJoinExecutionNode.JoinOperand, Map<Long, Long>> perOperandCommonValCounts = new HashMap<>();
-        Map<BinaryJoinExecutionNode.JoinOperand, List<Long>> perOperandHistogramBounds = new HashMap<>();
-        Map<BinaryJoinExecutionNode.JoinOperand, Long> perOperandHistogramBucketCount = new HashMap<>();
-
-        // TODO: parallelize this
-        for(BinaryJoinExecutionNode.JoinOperand o : operands) {
-            ExecutorEngine e = o.engine.getLocalQueryExecutor();
-            e.execute(String.format(PG_STATS_PREP_TEMPLATE, o.table, o.attribute));
-            JdbcQueryResult r = (JdbcQueryResult) e.execute(String.format(PG_STATS_TEMPLATE, o.table, o.attribute)).get();
-            List<String> row = r.getRows().get(0);
-
-            Long count = Long.valueOf(row.get(4));
-            Long hotspotTotal = 0l;
-
-            Map<Long, Long> commonValCounts = new HashMap<>();
-            Iterator<Number> ids = ((JSONArray) JSONValue.parse(row.get(0))).iterator();
-            Iterator<Object> freqs = ((JSONArray) JSONValue.parse(row.get(1))).iterator();
-            while (ids.hasNext() || freqs.hasNext()) {
-                long hotspotCount = (long) (Double.parseDouble(freqs.next().toString()) * count);
-                commonValCounts.put(Long.parseLong(ids.next().toString()), hotspotCount);
-                hotspotTotal += count;
-            }
-            perOperandCommonValCounts.put(o, commonValCounts);
-
-            List<Long> histogramBounds = ((List<Object>) JSONValue.parse(row.get(3))).stream()
-                    .map(v -> Long.parseLong(v.toString())).collect(Collectors.toList());
-            perOperandHistogramBounds.put(o, histogramBounds);
-
-            perOperandHistogramBucketCount.put(o, (count - hotspotTotal) / histogramBounds.size());
+    /**
+     * Histograms from the statistics of the operands (collected in parallel and cached by the {@link StatisticsService}).
+     */
+    static Collection<Histogram> createHistogramsBySampling(Collection<BinaryJoinExecutionNode.JoinOperand> operands) {
+        StatisticsService service = StatisticsService.getInstance();
+        Map<BinaryJoinExecutionNode.JoinOperand, CompletableFuture<ColumnStatistics>> requests = new LinkedHashMap<>();
+        for (BinaryJoinExecutionNode.JoinOperand o : operands) {
+            requests.put(o, service.request(o.engine, o.table, o.attribute));
         }
+        Map<BinaryJoinExecutionNode.JoinOperand, ColumnStatistics> statistics = new LinkedHashMap<>();
+        requests.forEach((o, request) -> statistics.put(o, StatisticsService.get(request)));
 
-        long globalMin = perOperandHistogramBounds.values().stream().filter(l -> !l.isEmpty()).mapToLong(l -> l.get(0)).min().getAsLong();
-        long globalMax = perOperandHistogramBounds.values().stream().filter(l -> !l.isEmpty()).mapToLong(l -> l.get(l.size())).max().getAsLong();
+        // the common values are not in the histogram bounds
+        LongSummaryStatistics range = new LongSummaryStatistics();
+        statistics.values().forEach(s -> range.combine(s.getRange()));
+        long globalMin = range.getCount() == 0 ? 0 : range.getMin();
+        long globalMax = range.getCount() == 0 ? 0 : range.getMax();
 
         return operands.stream()
-                .map(o -> new Histogram(rescaleHistogramBounds(perOperandHistogramBounds.get(o), globalMin, globalMax, perOperandHistogramBucketCount.get(o), NUM_BUCKETS), perOperandCommonValCounts.get(o), globalMin, globalMax, o))
+                .map(o -> new Histogram(statistics.get(o).getHistogram(globalMin, globalMax, NUM_BUCKETS), new HashMap<>(statistics.get(o).getCommonValueCounts()), globalMin, globalMax, o))
                 .collect(Collectors.toList());
     }
 
-    private static long[] rescaleHistogramBounds(List<Long> bounds, Long min, Long max, long boundWidth, int numBuckets) {
-        double stepSize = (max - min) * 1.0 / numBuckets;
-        long[] rescaled = new long[numBuckets];
-
-        int boundIndex = 0;
-        for(int i = 0; i < numBuckets && boundIndex < bounds.size(); i++) {
-            long curCount = 0;
-
-            // possibly have portion of the previous bucket to account for still
-            if (boundIndex > 1) {
-                double leftOver = (1.0 - (1.0 * min + 2 * i * stepSize - bounds.get(boundIndex - 1)) / (bounds.get(boundIndex) - bounds.get(boundIndex - 1))) * boundIndex;
-                if (leftOver > 0) {
-                    curCount += (long) leftOver;
-                }
-            }
-
-            // all following buckets are completely contained
-            while(bounds.get(boundIndex) < min + 2 * i * stepSize) {
-                curCount += boundWidth;
-                boundIndex++;
-            }
-
-            if (boundIndex < bounds.size() - 1) {
-                // current bucket (boundIndex to boundIndex + 1) is only partially contained
-                double overflow = (1.0 * min + 2 * i * stepSize - bounds.get(boundIndex)) / (bounds.get(boundIndex + 1) - bounds.get(boundIndex)) * boundIndex;
-                if (overflow > 0) {
-                    curCount += (long) overflow;
-                }
-            }
-
-            rescaled[i] = curCount;
-        }
+    /**
+     * Spreads the values of an equi-depth histogram over numBuckets buckets of
+     * equal width between min and max (the values of a bucket are assumed to be
+     * uniformly distributed between its bounds).
+     *
+     * @param bounds the bounds of the equi-depth histogram
+     * @param boundWidth number of values in each bucket of the equi-depth histogram
+     */
+    static long[] rescaleHistogramBounds(List<Long> bounds, long min, long max, long boundWidth, int numBuckets) {
+        long[] counts = new long[Math.max(0, bounds.size() - 1)];
+        Arrays.fill(counts, boundWidth);
+        return ColumnStatistics.rescale(bounds, counts, min, max, numBuckets);
+    }
 
-        return rescaled;
+    /**
+     * @return the bucket of the value in the buckets of equal width (values out of the range go to the first or the last bucket)
+     */
+    static int getBucket(double value, long min, double stepSize, int numBuckets) {
+        return ColumnStatistics.getBucket(value, min, stepSize, numBuckets);
     }
 
     public static double computeUplinkCost(long size) {
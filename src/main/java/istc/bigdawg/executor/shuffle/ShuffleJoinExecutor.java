@@ -1,11 +1,21 @@
 package istc.bigdawg.executor.shuffle;
 
 import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
-import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 import java.util.stream.Collectors;
 
 import org.jgrapht.experimental.dag.DirectedAcyclicGraph;
@@ -23,110 +33,326 @@ import istc.bigdawg.executor.plan.QueryExecutionPlan;
 import istc.bigdawg.islands.IslandAndCastResolver.Scope;
 import istc.bigdawg.query.ConnectionInfo;
 
+/**
+ * Executes an equijoin of n tables (on the same attribute domain) placed on
+ * different engines as a shuffle join.
+ *
+ * Every engine with an operand of the join gets a part of the values of the
+ * join attribute: ranges of values (buckets of equal width) and the common
+ * values (hotspots), assigned from the histograms of the operands by
+ * {@link Assignments}. When the histograms cannot be built (e.g. the join
+ * attribute is not an integer), the values are hash partitioned. Each operand
+ * is split into one partition per engine, the partitions are migrated (in
+ * parallel) to their engines, each engine joins its partitions locally and
+ * the results are put together with UNION ALL on the destination engine.
+ *
+ * The PlanExecutor builds it only from a BinaryJoinExecutionNode (the planner
+ * does not create n-way join nodes yet).
+ */
 public class ShuffleJoinExecutor {
 
-    private BinaryJoinExecutionNode node;
+    private static final String PARTITION_TEMPLATE = "SELECT * INTO %s FROM %s WHERE %s;";
+    private static final String HASH_TEMPLATE = "mod(abs(%s::bigint), %d) = %d";
+    /** hash of the join attribute as text; used unless all the operands are numbers */
+    static final String TEXT_HASH = "hashtext(%s::text)";
+    /** hash of the join attribute as numeric, the same for the equal values of different number types */
+    static final String NUMERIC_HASH = "hash_numeric(%s::numeric)";
+    private static final Set<String> NUMERIC_TYPES = new HashSet<>(Arrays.asList(
+            "smallint", "integer", "bigint", "numeric", "real", "double precision"));
+    private static final String BUCKET_TEMPLATE = "LEAST(GREATEST(floor((%s::float8 - (%d)::float8) / %s)::bigint, 0), %d)";
+
+    private final List<BinaryJoinExecutionNode.JoinOperand> operands;
+    private final String joinQuery;
+    private final ConnectionInfo engine;
+    private final String destinationTable;
+
+    /** the engines which join the partitions */
+    private final List<ConnectionInfo> sites;
 
     public ShuffleJoinExecutor(BinaryJoinExecutionNode node) throws ExecutorEngine.LocalQueryExecutionException, ParseException {
-        this.node = node;
+        this(Arrays.asList(node.getLeft(), node.getRight()), node.getShuffleJoinQuery(), node.getEngine(), node.getTableName().get());
     }
 
-    private String getPartitionQuery(BinaryJoinExecutionNode.JoinOperand operand, String destinationTable, Collection<Assignments.Range> desiredRanges, Collection<Assignments.Hotspot> desiredHotspots, Collection<Assignments.Hotspot> ignore) {
-        String ranges = desiredRanges.stream().map(r -> String.format("(%s BETWEEN %s and %s)", operand.attribute, r.start, r.end)).collect(Collectors.joining(" OR "));
-        String hotspots = String.format("%s IN (%s)", operand.attribute, desiredHotspots.stream().map(h -> Long.toString(h.val)).collect(Collectors.joining(", ")));
-        String blacklist = String.format("%s IN (%s)", operand.attribute, ignore.stream().map(h -> Long.toString(h.val)).collect(Collectors.joining(", ")));
-
-        return String.format("SELECT * INTO %s FROM %s WHERE (%s OR %s) AND NOT %s;", destinationTable, operand.table, ranges, hotspots, blacklist);
+    /**
+     * @param operands
+     *            the joined tables with their engines and join attributes
+     * @param joinQuery
+     *            the join of the operand tables, with the results put into the destination
+     *            table (SELECT ... INTO destinationTable ...)
+     * @param engine
+     *            the engine where the result of the join is stored
+     * @param destinationTable
+     *            the table with the result of the join
+     */
+    public ShuffleJoinExecutor(List<BinaryJoinExecutionNode.JoinOperand> operands, String joinQuery, ConnectionInfo engine, String destinationTable) {
+        this.operands = new ArrayList<>(operands);
+        this.joinQuery = joinQuery;
+        this.engine = engine;
+        this.destinationTable = destinationTable;
+        this.sites = operands.stream().map(o -> o.engine).distinct().collect(Collectors.toList());
     }
 
-    private QueryExecutionPlan createQueryExecutionPlan(Assignments assignments) {
-        // TODO: get the proper island instead of assuming relational
-        QueryExecutionPlan plan = new QueryExecutionPlan(Scope.RELATIONAL);
+    /**
+     * @return the site (index of the engine) to which each bucket of values is sent
+     */
+    private int[] getBucketSites(Assignments assignments) {
+        int[] bucketSites = new int[assignments.getBucketCount()];
+        for (int bucket = 0; bucket < bucketSites.length; bucket++) {
+            bucketSites[bucket] = getSite(assignments.getAssignment(bucket));
+        }
+        return bucketSites;
+    }
 
-        String sendToRightDestination = this.node.getTableName().get() + "_LEFTPARTIAL";
-        String sendToRightQuery = getPartitionQuery(node.getLeft(), sendToRightDestination, assignments.getRangesForJoinOperand(node.getRight()),
-                assignments.getHotspotsForJoinOperand(node.getRight()), assignments.getHotspotsNotForJoinOperand(node.getRight()));
-        LocalQueryExecutionNode sendToRight = new LocalQueryExecutionNode(sendToRightQuery, node.getLeft().engine, sendToRightDestination);
+    /**
+     * @return the site (index of the engine) of the operand; the values not assigned to any operand go to the
+     *         destination engine (if it has an operand) or to the first engine
+     */
+    private int getSite(BinaryJoinExecutionNode.JoinOperand operand) {
+        int site = operand == null ? -1 : sites.indexOf(operand.engine);
+        if (site < 0) {
+            site = Math.max(0, sites.indexOf(engine));
+        }
+        return site;
+    }
 
-        String sendToLeftDestination = this.node.getTableName().get() + "_RIGHTPARTIAL";
-        String sendToLeftQuery = getPartitionQuery(node.getRight(), sendToLeftDestination, assignments.getRangesForJoinOperand(node.getLeft()),
-                assignments.getHotspotsForJoinOperand(node.getLeft()), assignments.getHotspotsNotForJoinOperand(node.getLeft()));
-        LocalQueryExecutionNode sendToLeft = new LocalQueryExecutionNode(sendToLeftQuery, node.getLeft().engine, sendToLeftDestination);
+    /**
+     * @param types
+     *            the types of the join attributes of the operands
+     * @return the hash function of the join attribute (a template with the
+     *         attribute as the argument) which casts all the operands to a
+     *         common type, so the equal values are sent to the same site
+     */
+    static String getHashFunction(Collection<String> types) {
+        for (String type : types) {
+            if (!NUMERIC_TYPES.contains(type)) {
+                return TEXT_HASH;
+            }
+        }
+        return types.isEmpty() ? TEXT_HASH : NUMERIC_HASH;
+    }
 
-        String rightResultDestination = this.node.getTableName().get() + "_RIGHTRESULTS";
-        String rightQueryString = node.getRight().getQueryString();
-        LocalQueryExecutionNode rightResults = new LocalQueryExecutionNode(rightQueryString, node.getRight().engine, rightResultDestination);
+    /**
+     * @param hash
+     *            the hash function of the join attribute, used when there
+     *            are no assignments
+     * @return the condition on the join attribute of the rows sent to the site
+     */
+    String getPartitionPredicate(String attribute, int site, Assignments assignments, String hash) {
+        if (sites.size() == 1) {
+            return "TRUE";
+        }
+        if (assignments == null) {
+            return String.format(HASH_TEMPLATE, String.format(hash, attribute), sites.size(), site);
+        }
 
-        String leftResultDestination = this.node.getTableName().get() + "_LEFTRESULTS";
-        String leftQueryString = node.getLeft().getQueryString();
-        LocalQueryExecutionNode leftResults = new LocalQueryExecutionNode(leftQueryString, node.getLeft().engine, leftResultDestination);
+        Collection<Long> siteHotspots = new TreeSet<>();
+        for (Map.Entry<Long, BinaryJoinExecutionNode.JoinOperand> e : assignments.getHotspotAssignments().entrySet()) {
+            if (getSite(e.getValue()) == site) {
+                siteHotspots.add(e.getKey());
+            }
+        }
+        int[] bucketSites = getBucketSites(assignments);
+        List<String> siteBuckets = new ArrayList<>();
+        for (int bucket = 0; bucket < bucketSites.length; bucket++) {
+            if (bucketSites[bucket] == site) {
+                siteBuckets.add(Integer.toString(bucket));
+            }
+        }
 
-        LocalQueryExecutionNode union = new LocalQueryExecutionNode(node.getShuffleUnionString(leftResultDestination, rightResultDestination), node.getEngine(), node.getTableName().get());
+        List<String> conditions = new ArrayList<>();
+        if (!siteHotspots.isEmpty()) {
+            conditions.add(String.format("%s IN (%s)", attribute, join(siteHotspots)));
+        }
+        if (!siteBuckets.isEmpty()) {
+            String bucket = assignments.getStepSize() > 0
+                    ? String.format(BUCKET_TEMPLATE, attribute, assignments.getMinValue(), Double.toString(assignments.getStepSize()), assignments.getBucketCount() - 1)
+                    : "0";
+            String inBuckets = String.format("%s IN (%s)", bucket, String.join(", ", siteBuckets));
+            if (assignments.getHotspotAssignments().isEmpty()) {
+                conditions.add(inBuckets);
+            } else {
+                // the hotspots are sent to their sites regardless of their buckets
+                conditions.add(String.format("(%s NOT IN (%s) AND %s)", attribute, join(new TreeSet<>(assignments.getHotspotAssignments().keySet())), inBuckets));
+            }
+        }
+        if (conditions.isEmpty()) {
+            return "FALSE";
+        }
+        return String.join(" OR ", conditions);
+    }
 
-        plan.addNode(sendToRight);
-        plan.addNode(sendToLeft);
-        plan.addNode(rightResults);
-        plan.addNode(leftResults);
+    private static String join(Collection<Long> values) {
+        return values.stream().map(v -> Long.toString(v)).collect(Collectors.joining(", "));
+    }
 
-        plan.addNode(union);
-        plan.setTerminalTableName(union.getTableName().get());
-        plan.setTerminalTableNode(union);
+    /**
+     * @param renames
+     *            the names of the tables (whole words) and their replacements,
+     *            one for each operand of the table: the n-th occurrence of a
+     *            table read by several operands (a self-join, where the
+     *            columns are qualified by the aliases) is replaced by the
+     *            replacement of the n-th operand
+     * @return the query with the tables replaced
+     */
+    static String replaceTables(String query, Map<String, List<String>> renames) {
+        // the longest names first, so a name is not replaced inside a longer one
+        List<String> names = new ArrayList<>(renames.keySet());
+        names.sort(Comparator.comparingInt(String::length).reversed());
+        String alternatives = names.stream().map(Pattern::quote).collect(Collectors.joining("|"));
+        Matcher m = Pattern.compile("\\b(" + alternatives + ")\\b").matcher(query);
+        Map<String, Integer> occurrences = new HashMap<>();
+        StringBuffer sb = new StringBuffer();
+        while (m.find()) {
+            List<String> replacements = renames.get(m.group(1));
+            int occurrence = occurrences.merge(m.group(1), 1, Integer::sum) - 1;
+            m.appendReplacement(sb, Matcher.quoteReplacement(replacements.get(Math.min(occurrence, replacements.size() - 1))));
+        }
+        m.appendTail(sb);
+        return sb.toString();
+    }
 
-        plan.addEdge(sendToRight, rightResults);
-        plan.addEdge(sendToLeft, leftResults);
-        plan.addEdge(leftResults, union);
-        plan.addEdge(rightResults, union);
+    private String getPartitionTable(int operand, int site) {
+        return String.format("%s_SHUFFLE_%d_TO_%d", destinationTable, operand, site);
+    }
 
-        return plan;
+    private String getLocalJoinTable(int site) {
+        return String.format("%s_SHUFFLE_%d", destinationTable, site);
     }
 
-    private QueryExecutionPlan generateQEP(Assignments assignments) throws DirectedAcyclicGraph.CycleFoundException {
-        // TODO: implement this in the future for non-binary joins!
+    /**
+     * Creates the plan: partitions of every operand for every site, a local join on every site (which depends on
+     * its partitions, so they are migrated to the site) and the union of the local joins on the destination engine.
+     *
+     * @param assignments the assignment of the values to the operands, null for hash partitioning
+     * @param hash the hash function of the join attribute (see {@link #getHashFunction(Collection)})
+     */
+    QueryExecutionPlan createQueryExecutionPlan(Assignments assignments, String hash) throws DirectedAcyclicGraph.CycleFoundException {
+        // TODO: get the proper island instead of assuming relational
         QueryExecutionPlan plan = new QueryExecutionPlan(Scope.RELATIONAL);
 
-        Map<ConnectionInfo, ExecutionNode> localJoins = new HashMap<>();
-
-        for (BinaryJoinExecutionNode.JoinOperand o : this.node.getOperands()) {
-            String query = null; //TODO
-            String destination = null; //TODO
-            LocalQueryExecutionNode localJoin = new LocalQueryExecutionNode(query, o.engine, destination);
-            plan.addNode(localJoin);
-            localJoins.put(o.engine, localJoin);
-
-            for (BinaryJoinExecutionNode.JoinOperand other : this.node.getOperands()) {
-                if (!other.equals(o)) {
-                    String partitionDestination = null; //TODO
-                    String partitionQuery = null; //TODO
-
-                    LocalQueryExecutionNode partitionOther = new LocalQueryExecutionNode(partitionQuery, other.engine, partitionDestination);
-                    plan.addNode(partitionOther);
-                    plan.addDependencies(localJoin, Collections.singleton(partitionOther));
-                }
+        List<ExecutionNode> localJoins = new ArrayList<>();
+        for (int site = 0; site < sites.size(); site++) {
+            // the partitions of the operands in their order, so every operand of a self-join reads its own partition
+            Map<String, List<String>> renames = new HashMap<>();
+            List<ExecutionNode> partitions = new ArrayList<>();
+            for (int i = 0; i < operands.size(); i++) {
+                BinaryJoinExecutionNode.JoinOperand o = operands.get(i);
+                String partitionTable = getPartitionTable(i, site);
+                String partitionQuery = String.format(PARTITION_TEMPLATE, partitionTable, o.table, getPartitionPredicate(o.attribute, site, assignments, hash));
+                partitions.add(new LocalQueryExecutionNode(partitionQuery, o.engine, partitionTable));
+                renames.computeIfAbsent(o.table, t -> new ArrayList<>()).add(partitionTable);
             }
+
+            String localJoinTable = getLocalJoinTable(site);
+            renames.put(destinationTable, Arrays.asList(localJoinTable));
+            LocalQueryExecutionNode localJoin = new LocalQueryExecutionNode(replaceTables(joinQuery, renames), sites.get(site), localJoinTable);
+            plan.addDependencies(localJoin, partitions);
+            localJoins.add(localJoin);
         }
 
-        String terminalQuery = null; // TODO
-        ExecutionNode terminal = new LocalQueryExecutionNode(terminalQuery, node.getEngine(), node.getTableName().get());
+        String union = "SELECT * INTO " + destinationTable + " FROM " + localJoins.stream()
+                .map(j -> j.getTableName().get()).collect(Collectors.joining(" UNION ALL SELECT * FROM ")) + ";";
+        LocalQueryExecutionNode terminal = new LocalQueryExecutionNode(union, engine, destinationTable);
 
-        plan.addNode(terminal);
-        plan.addDependencies(terminal, localJoins.values());
+        plan.addDependencies(terminal, localJoins);
         plan.setTerminalTableNode(terminal);
         plan.setTerminalTableName(terminal.getTableName().get());
 
         return plan;
     }
 
+    /**
+     * @return the description of the partitions: the values of each site and the estimated number of rows
+     */
+    private String describePartitions(Collection<Histogram> histograms, Assignments assignments) {
+        StringBuilder sb = new StringBuilder();
+        if (assignments == null) {
+            sb.append(String.format("hash partitioning over %d engines\n", sites.size()));
+            for (int site = 0; site < sites.size(); site++) {
+                sb.append(String.format("  site %d (%s:%s/%s): hash %d of %d\n", site, sites.get(site).getHost(),
+                        sites.get(site).getPort(), sites.get(site).getDatabase(), site, sites.size()));
+            }
+            return sb.toString();
+        }
+
+        int[] bucketSites = getBucketSites(assignments);
+        sb.append(String.format("range partitioning of [%d, %d] in %d buckets over %d engines\n",
+                assignments.getMinValue(), assignments.getMaxValue(), bucketSites.length, sites.size()));
+        for (int site = 0; site < sites.size(); site++) {
+            TreeMap<Integer, Integer> ranges = new TreeMap<>();
+            long rows = 0;
+            for (int bucket = 0; bucket < bucketSites.length; bucket++) {
+                if (bucketSites[bucket] != site) {
+                    continue;
+                }
+                // merge the consecutive buckets into ranges
+                if (bucket > 0 && bucketSites[bucket - 1] == site) {
+                    ranges.put(ranges.lastKey(), bucket);
+                } else {
+                    ranges.put(bucket, bucket);
+                }
+                for (Histogram h : histograms) {
+                    if (bucket < h.getNumBuckets()) {
+                        rows += h.getBucketCount(bucket);
+                    }
+                }
+            }
+            Map<Long, Long> hotspots = new LinkedHashMap<>();
+            for (Map.Entry<Long, BinaryJoinExecutionNode.JoinOperand> e : assignments.getHotspotAssignments().entrySet()) {
+                if (getSite(e.getValue()) == site) {
+                    long count = 0;
+                    for (Histogram h : histograms) {
+                        count += h.getHotspotCount(e.getKey());
+                    }
+                    hotspots.put(e.getKey(), count);
+                    rows += count;
+                }
+            }
+            sb.append(String.format("  site %d (%s:%s/%s): buckets %s, hotspots %s, estimated rows %d\n", site,
+                    sites.get(site).getHost(), sites.get(site).getPort(), sites.get(site).getDatabase(),
+                    ranges.entrySet().stream().map(r -> r.getKey().equals(r.getValue()) ? r.getKey().toString() : r.getKey() + "-" + r.getValue())
+                            .collect(Collectors.joining(",", "[", "]")),
+                    hotspots, rows));
+        }
+        return sb.toString();
+    }
+
     public Optional<QueryResult> execute() throws ExecutorEngine.LocalQueryExecutionException, MigrationException, ConnectionInfo.LocalQueryExecutorLookupException {
-        Logger.info(this, "Extracting histogram from engines...");
-        // TODO: get histogram strat from node
-        Collection<Histogram> histograms = ShuffleEngine.createHistograms(this.node.getOperands(), ShuffleEngine.HistogramStrategy.SAMPLING);
+        Collection<Histogram> histograms = null;
+        Assignments assignments = null;
+        if (sites.size() > 1) {
+            try {
+                Logger.info(this, "Extracting histogram from engines...");
+                // TODO: get histogram strat from node
+                histograms = ShuffleEngine.createHistograms(this.operands, ShuffleEngine.HistogramStrategy.SAMPLING);
 
-        Logger.info(this, "Creating assignment from engines...");
-        //TODO: get assignment strat from node
-        Assignments assignments = Assignments.assignTuples(histograms, this.node.getEngine(), ShuffleEngine.NUM_BUCKETS, Assignments.AssignmentStrategies.MINIMUM_BANDWIDTH);
+                Logger.info(this, "Creating assignment from engines...");
+                //TODO: get assignment strat from node
+                assignments = Assignments.assignTuples(histograms, this.engine, ShuffleEngine.NUM_BUCKETS, Assignments.AssignmentStrategies.MINIMUM_BANDWIDTH);
+            } catch (Exception e) {
+                Logger.warn(this, "Cannot create the histograms of %s, hash partitioning is used: %s", this.destinationTable, e.getMessage());
+                histograms = null;
+                assignments = null;
+            }
+        }
+
+        String hash = TEXT_HASH;
+        if (sites.size() > 1 && assignments == null) {
+            try {
+                hash = getHashFunction(ShuffleEngine.getAttributeTypes(this.operands));
+            } catch (Exception e) {
+                Logger.warn(this, "Cannot get the types of the join attributes of %s, they are hashed as text: %s", this.destinationTable, e.getMessage());
+            }
+        }
 
         Logger.info(this, "Creating QEP from assignments...");
-        QueryExecutionPlan shufflePlan = this.createQueryExecutionPlan(assignments);
+        QueryExecutionPlan shufflePlan;
+        try {
+            shufflePlan = this.createQueryExecutionPlan(assignments, hash);
+        } catch (DirectedAcyclicGraph.CycleFoundException e) {
+            throw new ExecutorEngine.LocalQueryExecutionException("Cannot create the plan of the shuffle join " + this.destinationTable, e);
+        }
+        Logger.info(this, "Shuffle join %s of %d operands, %s", this.destinationTable, this.operands.size(), describePartitions(histograms, assignments));
 
         return Optional.ofNullable(Executor.executePlan(shufflePlan));
     }
@@ -6,6 +6,7 @@ import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 import istc.bigdawg.executor.QueryResult;
 import istc.bigdawg.executor.plan.ExecutionNodeFactory;
@@ -29,12 +30,16 @@ public abstract class IntraIslandQuery extends CrossIslandQueryNode {
 
 	protected QueryResult queryResult;
 	
+	/** name of a CAST result used by the query -> table with its data (written by the concurrent casts) */
+	protected Map<String, String> renamedInputs;
+	
 	public IntraIslandQuery (Scope scope, String islandQuery, String name, Map<String, String> transitionSchemas) throws Exception {
 		super(scope, islandQuery, name);
 		
 		queryContainer = new HashMap<>();
 		remainderPermutations = new ArrayList<>();
 		remainderLoc = new ArrayList<>();
+		renamedInputs = new ConcurrentHashMap<>();
 		
 		// collect the cross island children
 		children = getCrossIslandChildrenReferences(transitionSchemas);
@@ -67,6 +72,24 @@ public abstract class IntraIslandQuery extends CrossIslandQueryNode {
 	
 	public abstract List<QueryExecutionPlan> getAllQEPs(boolean isSelect) throws Exception;
 	
+	/**
+	 * The data of a CAST result were migrated to a table with another name.
+	 * @param name the name used by the query
+	 * @param table the table with the data
+	 */
+	public void renameInput(String name, String table) {
+		renamedInputs.put(name, table);
+	}
+	
+	/**
+	 * @param qep a plan of this query
+	 * @return the plan reading the renamed CAST results from their tables
+	 */
+	public QueryExecutionPlan applyRenamedInputs(QueryExecutionPlan qep) {
+		qep.renameTables(renamedInputs);
+		return qep;
+	}
+	
 	/**
 	 * This function recursively traverse the original Operator Tree and determines if all the data sets are co-located.
 	 * If it notices that two sub-trees locate on different engines, it will prune the two sub-trees and package 
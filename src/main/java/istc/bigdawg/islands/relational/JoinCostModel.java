@@ -0,0 +1,157 @@
+package istc.bigdawg.islands.relational;
+
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.log4j.Logger;
+
+import istc.bigdawg.catalog.CatalogViewer;
+import istc.bigdawg.exceptions.IslandException;
+import istc.bigdawg.islands.operators.Join;
+import istc.bigdawg.islands.operators.Operator;
+import istc.bigdawg.statistics.StatisticsService;
+
+/**
+ * Estimates the cost of join orders of a relational island query.
+ *
+ * The cost of a plan is the sum of the estimated sizes of all intermediate
+ * results (joins). The sizes of the scanned objects are taken from a
+ * {@link RowCountProvider}; a join with a join predicate is assumed to be a
+ * key - foreign key join (the output is as large as the larger input),
+ * a join with a join filter only keeps a fixed fraction of the cross product.
+ */
+public class JoinCostModel {
+
+	private static Logger logger = Logger.getLogger(JoinCostModel.class);
+
+	/** Used for objects whose number of rows is not known. */
+	public static final double DEFAULT_ROW_COUNT = 1000;
+
+	/** Fraction of the cross product kept by a join with a join filter only. */
+	public static final double FILTER_SELECTIVITY = 1.0 / 3;
+
+	/**
+	 * Number of rows of the data objects (tables) by their names.
+	 */
+	public interface RowCountProvider {
+		/**
+		 * @param objectName
+		 * @return the number of rows or null if it is not known
+		 */
+		Long getRowCount(String objectName);
+	}
+
+	private final RowCountProvider rowCounts;
+	private final Map<String, Double> objectRows = new HashMap<>();
+	private final Map<Operator, double[]> estimates = new IdentityHashMap<>();
+
+	public JoinCostModel(RowCountProvider rowCounts) {
+		this.rowCounts = rowCounts;
+	}
+
+	/**
+	 * Take the numbers of rows from the statistics of the engines (the planner
+	 * statistics of PostgreSQL, the number of cells of a SciDB array) on which
+	 * the objects are stored.
+	 * @param objectToDBs objects mapped to the dbids of their engines
+	 * @return the cost model
+	 */
+	public static JoinCostModel fromEngineStatistics(Map<String, List<String>> objectToDBs) {
+		return new JoinCostModel(objectName -> getEngineRowCount(objectName, objectToDBs));
+	}
+
+	/**
+	 * @param op root of a (partial) plan
+	 * @return the estimated cost of the plan
+	 * @throws IslandException
+	 */
+	public double getCost(Operator op) throws IslandException {
+		return estimate(op)[1];
+	}
+
+	/**
+	 * @param op root of a (partial) plan
+	 * @return the estimated number of rows produced by the plan
+	 * @throws IslandException
+	 */
+	public double getRows(Operator op) throws IslandException {
+		return estimate(op)[0];
+	}
+
+	/**
+	 * @return rows and cost of the plan
+	 */
+	private double[] estimate(Operator op) throws IslandException {
+		double[] estimate = estimates.get(op);
+		if (estimate != null) return estimate;
+
+		List<Operator> children = op.getChildren();
+		if (op instanceof Join && children.size() == 2) {
+			double[] left = estimate(children.get(0));
+			double[] right = estimate(children.get(1));
+			double rows;
+			if (((Join) op).generateJoinPredicate() != null) {
+				rows = Math.max(left[0], right[0]);
+			} else if (((Join) op).generateJoinFilter() != null) {
+				rows = left[0] * right[0] * FILTER_SELECTIVITY;
+			} else {
+				rows = left[0] * right[0];
+			}
+			estimate = new double[] {rows, left[1] + right[1] + rows};
+		} else if (children.isEmpty()) {
+			estimate = new double[] {getLeafRows(op), 0};
+		} else {
+			// sort, aggregate, limit etc. do not change the order of the joins below
+			double rows = 0;
+			double cost = 0;
+			for (Operator c : children) {
+				double[] e = estimate(c);
+				rows = Math.max(rows, e[0]);
+				cost += e[1];
+			}
+			estimate = new double[] {rows, cost};
+		}
+		estimates.put(op, estimate);
+		return estimate;
+	}
+
+	private double getLeafRows(Operator op) throws IslandException {
+		double rows = 0;
+		boolean known = false;
+		for (String name : op.getDataObjectAliasesOrNames().values()) {
+			Double r = objectRows.get(name);
+			if (r == null) {
+				Long count = rowCounts.getRowCount(name);
+				r = (count == null || count < 0) ? -1.0 : count.doubleValue();
+				objectRows.put(name, r);
+			}
+			if (r >= 0) {
+				rows = Math.max(rows, r);
+				known = true;
+			}
+		}
+		return known ? rows : DEFAULT_ROW_COUNT;
+	}
+
+	/**
+	 * The number of rows of the object on the first of its databases that
+	 * knows it (from the statistics cached by the {@link StatisticsService},
+	 * e.g. reltuples of pg_class for PostgreSQL, op_count for SciDB).
+	 */
+	private static Long getEngineRowCount(String objectName, Map<String, List<String>> objectToDBs) {
+		if (objectToDBs == null || objectToDBs.get(objectName) == null) return null;
+
+		for (String db : objectToDBs.get(objectName)) {
+			try {
+				int dbid = Integer.parseInt(db.trim());
+				Long count = StatisticsService.getInstance().getRowCount(CatalogViewer.getConnectionInfo(dbid), objectName);
+				if (count != null && count > 0) return count;
+			} catch (Exception e) {
+				logger.debug(String.format("No statistics of %s in db %s: %s", objectName, db, e.getMessage()));
+			}
+		}
+		return null;
+	}
+}
@@ -0,0 +1,102 @@
+package istc.bigdawg.islands.relational;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+import org.apache.log4j.Logger;
+
+import istc.bigdawg.postgresql.PostgreSQLConnectionInfo;
+import istc.bigdawg.postgresql.PostgreSQLHandler;
+
+/**
+ * Schemas of the transition tables (the results of the casts) of one
+ * relational island query during its planning, kept in memory instead of
+ * being created as tables in the shared schema server.
+ *
+ * The columns of a transition table are taken from the model. Only when the
+ * schema server has to EXPLAIN the query, the transition tables are created as
+ * temporary tables (dropped on commit) in a transaction on a pooled
+ * connection; the transaction is rolled back when the planning is over, so
+ * concurrent plannings never see each other's tables and nothing is left in
+ * the schema server.
+ */
+class PlanningSession implements AutoCloseable {
+
+	private static Logger logger = Logger.getLogger(PlanningSession.class);
+
+	private static final Pattern CREATE_TABLE = Pattern.compile("^\\s*create\\s+table\\s+", Pattern.CASE_INSENSITIVE);
+
+	private final PostgreSQLConnectionInfo schemaServer;
+
+	/** name of a transition table (lower case) -> its CREATE TABLE statement */
+	private final Map<String, String> schemas = new HashMap<>();
+
+	private Connection connection = null;
+
+	PlanningSession(PostgreSQLConnectionInfo schemaServer, Map<String, String> transitionSchemas) {
+		this.schemaServer = schemaServer;
+		for (Map.Entry<String, String> e : transitionSchemas.entrySet())
+			schemas.put(e.getKey().toLowerCase(), e.getValue());
+	}
+
+	/**
+	 * @param tableName name of a table
+	 * @return the CREATE TABLE statement of the transition table, null if the
+	 *         table is not a transition table of this query
+	 */
+	String getCreateTableString(String tableName) {
+		return schemas.get(tableName.toLowerCase());
+	}
+
+	/**
+	 * @return the connection to the schema server on which the transition
+	 *         tables exist (as temporary tables)
+	 */
+	Connection getConnection() throws SQLException {
+		if (connection == null) {
+			Connection con = PostgreSQLHandler.getPooledConnection(schemaServer);
+			try {
+				con.setAutoCommit(false);
+				try (Statement st = con.createStatement()) {
+					for (String create : schemas.values())
+						st.execute(CREATE_TABLE.matcher(create.trim().replaceAll(";+$", "")).replaceFirst("CREATE TEMPORARY TABLE ") + " ON COMMIT DROP");
+				}
+			} catch (SQLException e) {
+				release(con);
+				throw e;
+			}
+			connection = con;
+		}
+		return connection;
+	}
+
+	@Override
+	public void close() {
+		if (connection != null) {
+			release(connection);
+			connection = null;
+		}
+	}
+
+	/**
+	 * Roll back the transaction (the temporary tables are gone) and return
+	 * the connection to the pool.
+	 */
+	private static void release(Connection con) {
+		try {
+			con.rollback();
+			con.setAutoCommit(true);
+		} catch (SQLException e) {
+			logger.warn("Could not roll back the planning transaction: " + e.getMessage());
+		}
+		try {
+			con.close();
+		} catch (SQLException e) {
+			logger.warn("Could not return the planning connection: " + e.getMessage());
+		}
+	}
+}
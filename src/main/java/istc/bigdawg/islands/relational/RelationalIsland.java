@@ -4,6 +4,7 @@ import java.io.IOException;
 import java.sql.Connection;
 import java.sql.SQLException;
 import java.util.Arrays;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
@@ -21,6 +22,7 @@ import istc.bigdawg.islands.operators.Join;
 import istc.bigdawg.islands.operators.Join.JoinType;
 import istc.bigdawg.islands.operators.Operator;
 import istc.bigdawg.islands.relational.operators.SQLIslandJoin;
+import istc.bigdawg.islands.relational.utils.SQLPrepareQuery;
 import istc.bigdawg.postgresql.PostgreSQLConnectionInfo;
 import istc.bigdawg.postgresql.PostgreSQLHandler;
 import istc.bigdawg.properties.BigDawgConfigProperties;
@@ -34,6 +36,10 @@ public class RelationalIsland implements Island {
 	private static final int psqlSchemaServerDBID = BigDawgConfigProperties.INSTANCE.getPostgresSchemaServerDBID();
 	private static PostgreSQLConnectionInfo relationalSchemaServerConnectionInfo = null;
 	private static final Pattern relationalIslandPredicatePattern = Pattern.compile("(?<=\\()([^\\(^\\)]+)(?=\\))");
+	private static final boolean planWithTemporaryTables = BigDawgConfigProperties.INSTANCE.isPlanningWithTemporaryTables();
+	
+	/** the transition schemas of the query planned by the current thread */
+	private static final ThreadLocal<PlanningSession> planningSession = new ThreadLocal<>();
 	
 	static {
 		try {
@@ -60,6 +66,16 @@ public class RelationalIsland implements Island {
 	@Override
 	public void setupForQueryPlanning(Set<String> outputChildren, Map<String, String> outputTransitionSchemas) throws IslandException {
 
+		if (planWithTemporaryTables) {
+			// the transition schemas are kept in memory, no DDL on the shared schema server
+			Map<String, String> schemas = new HashMap<>();
+			for (String key : outputTransitionSchemas.keySet()) 
+				if (outputChildren.contains(key)) 
+					schemas.put(key, outputTransitionSchemas.get(key));
+			planningSession.set(new PlanningSession(relationalSchemaServerConnectionInfo, schemas));
+			return;
+		}
+		
 		PostgreSQLHandler handler = new PostgreSQLHandler(relationalSchemaServerConnectionInfo);
 		Set<String> createdTables = new HashSet<>();
 		
@@ -85,6 +101,13 @@ public class RelationalIsland implements Island {
 	@Override
 	public void teardownForQueryPlanning(Set<String> outputChildren, Map<String, String> outputTransitionSchemas) throws IslandException {
 
+		PlanningSession session = planningSession.get();
+		if (session != null) {
+			planningSession.remove();
+			session.close();
+			return;
+		}
+		
 		PostgreSQLHandler handler = new PostgreSQLHandler(relationalSchemaServerConnectionInfo);
 		
 		try {
@@ -112,10 +135,26 @@ public class RelationalIsland implements Island {
 	
 	@Override
 	public Operator parseQueryAndExtractAllTableNames(String queryString, List<String> tables) throws IslandException {
+		return parseQueryAndExtractAllTableNames(queryString, tables, null);
+	};
+	
+	/**
+	 * @param planContext if not null, the plan of the query may be taken from
+	 *            {@link SQLPlanCache}; the schemas of the transition tables
+	 *            used by the query
+	 */
+	public Operator parseQueryAndExtractAllTableNames(String queryString, List<String> tables, String planContext) throws IslandException {
 		SQLQueryPlan relQueryPlan;
 		Operator root;
 		try {
-			relQueryPlan = SQLPlanParser.extractDirectFromPostgreSQL(new PostgreSQLHandler(relationalSchemaServerConnectionInfo), queryString);
+			String xmlString = planContext == null ? null : SQLPlanCache.INSTANCE.get(queryString, planContext);
+			if (xmlString == null) {
+				long start = System.currentTimeMillis();
+				xmlString = explain(queryString);
+				if (planContext != null) 
+					SQLPlanCache.INSTANCE.put(queryString, planContext, xmlString, System.currentTimeMillis() - start);
+			}
+			relQueryPlan = SQLPlanParser.parseQueryPlan(queryString, xmlString);
 			root = relQueryPlan.getRootNode();
 			tables.addAll(RelationalSignatureBuilder.sig2(queryString));
 			return root;
@@ -124,6 +163,19 @@ public class RelationalIsland implements Island {
 		}
 	};
 	
+	/**
+	 * @return the XML plan of the query from the schema server; in a planning
+	 *         session the transition tables are created as temporary tables
+	 *         on the connection of the session first
+	 */
+	private String explain(String queryString) throws SQLException, BigDawgCatalogException {
+		String explainQuery = SQLPrepareQuery.generateExplainQueryString(queryString);
+		PlanningSession session = planningSession.get();
+		if (session != null) 
+			return PostgreSQLHandler.generatePostgreSQLQueryXML(session.getConnection(), explainQuery);
+		return new PostgreSQLHandler(relationalSchemaServerConnectionInfo).generatePostgreSQLQueryXML(explainQuery);
+	}
+	
 	@Override
 	public Set<String> splitJoinPredicate(String predicates) throws IslandException {
 		Set<String> results = new HashSet<>();
@@ -170,7 +222,12 @@ public class RelationalIsland implements Island {
 	}
 
 	public String getCreateTableString(String tableName) throws SQLException {
-		Connection con = PostgreSQLHandler.getConnection(relationalSchemaServerConnectionInfo);
-		return PostgreSQLHandler.getCreateTable(con, tableName).replaceAll("\\scharacter[\\(]", " char(");
+		// a transition table of the query being planned
+		PlanningSession session = planningSession.get();
+		if (session != null && session.getCreateTableString(tableName) != null) 
+			return session.getCreateTableString(tableName);
+		try (Connection con = PostgreSQLHandler.getConnection(relationalSchemaServerConnectionInfo)) {
+			return PostgreSQLHandler.getCreateTable(con, tableName).replaceAll("\\scharacter[\\(]", " char(");
+		}
 	}
 }
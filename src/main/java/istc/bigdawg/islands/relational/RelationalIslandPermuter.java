@@ -1,11 +1,14 @@
 package istc.bigdawg.islands.relational;
 
 import java.util.ArrayList;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.PriorityQueue;
 import java.util.Set;
+import java.util.TreeSet;
 
 import istc.bigdawg.LoggerSetup;
 import org.apache.commons.lang3.tuple.ImmutablePair;
@@ -26,6 +29,7 @@ import istc.bigdawg.islands.operators.Scan;
 import istc.bigdawg.islands.relational.operators.SQLIslandOperator;
 import istc.bigdawg.islands.relational.utils.SQLAttribute;
 import istc.bigdawg.islands.relational.utils.SQLExpressionUtils;
+import istc.bigdawg.properties.BigDawgConfigProperties;
 import net.sf.jsqlparser.expression.Expression;
 import net.sf.jsqlparser.parser.CCJSqlParserUtil;
 import net.sf.jsqlparser.schema.Column;
@@ -34,8 +38,20 @@ public class RelationalIslandPermuter {
 	
 	private static Logger logger = Logger.getLogger(RelationalIslandPermuter.class);
 	
+	/**
+	 * The join orders are enumerated bottom-up; for each set of joined data objects only 
+	 * the cheapest maxPlans partial plans are kept (and at most maxPlans plans are returned).
+	 * With more leaves than greedyThreshold only the cheapest maxPlans partial plans of each 
+	 * size are kept, regardless of the objects they join.
+	 */
+	private static final int maxPlans = Math.max(1, BigDawgConfigProperties.INSTANCE.getPlannerJoinMaxPlans());
+	private static final int greedyThreshold = BigDawgConfigProperties.INSTANCE.getPlannerJoinGreedyThreshold();
+	
 	public static void optimize(RelationalIslandQuery ciqn) throws Exception {
+		long start = System.nanoTime();
 		permute(ciqn);
+		logger.info(String.format("Join enumeration: %d plan(s) of the remainder in %d ms;", 
+				ciqn.getAllRemainders().size(), (System.nanoTime() - start) / 1000000));
 	}
 	
 	private static void permute(RelationalIslandQuery ciqn) throws Exception {
@@ -50,7 +66,12 @@ public class RelationalIslandPermuter {
 		
 		if (ciqn.getRemainderLoc() == null && root.getDataObjectAliasesOrNames().size() > 1) {
 			Map<String, SQLAttribute> rootOutSchema = root.getOutSchema();
-			List<Operator> permResult = getPermutatedOperatorsWithBlock(ciqn.getSourceScope(), root, jp, jf, predicateConnections);
+			JoinCostModel costModel = JoinCostModel.fromEngineStatistics(ciqn.getOriginalMap());
+			List<Operator> permResult = keepCheapest(getPermutatedOperatorsWithBlock(ciqn.getSourceScope(), root, jp, jf, predicateConnections, costModel), costModel, maxPlans, false);
+			if (permResult.isEmpty()) {
+				logger.warn("No join order of the remainder was enumerated; the original plan is used.");
+				permResult.add(root);
+			}
 			
 			// if root is join then the constructed out schema might get messed up; adjust it here
 			if (root instanceof SQLIslandOperator) {
@@ -83,7 +104,7 @@ public class RelationalIslandPermuter {
 	 * @return A list of Operators that are each a root of a permuted remainder Operator tree.
 	 * @throws Exception
 	 */
-	private static List<Operator> getPermutatedOperatorsWithBlock(Scope scope, Operator root, Map<Pair<String, String>, String> joinPredConnections,  Map<Pair<String, String>, String> joinFilterConnections, List<Set<String>> predicateConnections) throws Exception {
+	private static List<Operator> getPermutatedOperatorsWithBlock(Scope scope, Operator root, Map<Pair<String, String>, String> joinPredConnections,  Map<Pair<String, String>, String> joinFilterConnections, List<Set<String>> predicateConnections, JoinCostModel costModel) throws Exception {
 		
 		List<Operator> extraction = new ArrayList<>();
 		List<Operator> blockers   = new ArrayList<>();
@@ -97,7 +118,7 @@ public class RelationalIslandPermuter {
 				
 				List<Operator> ninos = new ArrayList<>();				
 				while (!(next instanceof Join) && !(next instanceof Merge) && next.getChildren().size() > 0) next = next.getChildren().get(0);
-				ninos.addAll(getPermutatedOperatorsWithBlock(scope, next, joinPredConnections, joinFilterConnections, predicateConnections));
+				ninos.addAll(getPermutatedOperatorsWithBlock(scope, next, joinPredConnections, joinFilterConnections, predicateConnections, costModel));
 				
 				if (ninos.isEmpty())  {
 					hasPermutation = true;
@@ -113,16 +134,17 @@ public class RelationalIslandPermuter {
 			}
 			
 			
-			int[] positions = new int[4]; // counters for all children
+			int[] positions = new int[combos.size()]; // counters for all children
 			int totalCount = 1;
 			for (int i = 0; i < combos.size() ; i++) totalCount *= combos.get(i).size(); // initialize
-
+			
+			// every combination is scored, only the cheapest are kept
+			CheapestPlans cheapest = new CheapestPlans(costModel, maxPlans);
 			int counter = 0;
 			while (counter < totalCount) {
 				
 				// add a new instance
 				Operator newAddition = root.duplicate(true); 
-				extraction.add(newAddition);
 				
 				// modify each child individually
 				for (int j = 0; j < combos.size() ; j ++) {
@@ -149,7 +171,10 @@ public class RelationalIslandPermuter {
 					
 				}
 				
+				cheapest.add(newAddition);
+				
 				// advance the counter
+				positions[0]++;
 				for (int j = 0; j < combos.size(); j++) 
 					if (positions[j] >= combos.get(j).size()) {
 						positions[j] = 0;
@@ -158,6 +183,7 @@ public class RelationalIslandPermuter {
 				
 				counter++;
 			}
+			extraction.addAll(cheapest.getPlans());
 					
 					
 		} else {
@@ -207,12 +233,12 @@ public class RelationalIslandPermuter {
 			if (root instanceof Join) {
 				joinType = ((Join)root).getJoinType();
 			}
-			List<Operator> permutationsOfLeaves = getPermutatedOperators(scope, leaves, joinPredConnections, joinFilterConnections, predicateConnections, joinType);
+			List<Operator> permutationsOfLeaves = getPermutatedOperators(scope, leaves, joinPredConnections, joinFilterConnections, predicateConnections, joinType, costModel);
 			
 			// 2.
 			Map<Integer, List<Operator>> blockerTrees = new HashMap<>();
 			for (Operator b : blockers) {
-				blockerTrees.put(b.getBlockerID(), getPermutatedOperatorsWithBlock(scope, b, joinPredConnections, joinFilterConnections, predicateConnections));
+				blockerTrees.put(b.getBlockerID(), getPermutatedOperatorsWithBlock(scope, b, joinPredConnections, joinFilterConnections, predicateConnections, costModel));
 			}
 			
 			// 3.
@@ -224,9 +250,10 @@ public class RelationalIslandPermuter {
 			}
 			
 			if (blockerTrees.size() > 0){
+				// the blocker trees change the cost, so every combination is scored
+				CheapestPlans cheapest = new CheapestPlans(costModel, maxPlans);
 				for (Operator pl : permutationsOfLeaves) {
 					
-					
 					for (int i = 0; i < repeats; ++i) {
 						
 						/** 
@@ -262,9 +289,10 @@ public class RelationalIslandPermuter {
 							}
 						}
 						
-						extraction.add(dupe);
+						cheapest.add(dupe);
 					}
 				}
+				extraction.addAll(cheapest.getPlans());
 			} else {
 				extraction.addAll(permutationsOfLeaves);
 			}
@@ -285,6 +313,8 @@ public class RelationalIslandPermuter {
 	/**
 	 * This function is only used for permuting the subtree of original remainder Operator tree
 	 * where a blocking Operator is not involved.
+	 * The subtrees are built bottom-up (by the number of leaves they join) and only the cheapest 
+	 * of them, according to the cost model, are extended further.
 	 * @param scope
 	 * @param ops
 	 * @param joinPredConnections
@@ -292,7 +322,7 @@ public class RelationalIslandPermuter {
 	 * @return A list of Operators that are each a root of a permuted remainder Operator tree.
 	 * @throws Exception
 	 */
-	private static List<Operator> getPermutatedOperators(Scope scope, List<Operator> ops, Map<Pair<String, String>, String> joinPredConnections, Map<Pair<String, String>, String> joinFilterConnections, List<Set<String>> predicateConnections, JoinType joinType) throws Exception {
+	private static List<Operator> getPermutatedOperators(Scope scope, List<Operator> ops, Map<Pair<String, String>, String> joinPredConnections, Map<Pair<String, String>, String> joinFilterConnections, List<Set<String>> predicateConnections, JoinType joinType, JoinCostModel costModel) throws Exception {
 		List<Operator> extraction = new ArrayList<>();
 		
 		int len = ops.size();
@@ -307,6 +337,9 @@ public class RelationalIslandPermuter {
 			return extraction;
 		} 
 		
+		boolean greedy = len > greedyThreshold;
+		if (greedy) logger.info(String.format("Join enumeration: %d leaves, only the cheapest %d partial plans of each size are kept;", len, maxPlans));
+		
 		ArrayList<List<Operator>> permutations = new ArrayList<>();
 		permutations.add(ops);
 		
@@ -358,7 +391,7 @@ public class RelationalIslandPermuter {
 					}
 				}
 			}
-			permutations.add(newEntries);
+			permutations.add(keepCheapest(newEntries, costModel, maxPlans, !greedy));
 		}
 		extraction.addAll(permutations.get(permutations.size()-1));
 		
@@ -366,6 +399,79 @@ public class RelationalIslandPermuter {
 		return extraction;
 	}
 
+	/**
+	 * Order the plans by their estimated cost and drop the expensive ones.
+	 * @param plans
+	 * @param costModel
+	 * @param limit the number of plans to keep
+	 * @param perDataObjects true: keep the limit of plans for each set of joined data objects; 
+	 * false: keep the limit of plans in total
+	 * @return the cheapest plans, ordered by cost
+	 * @throws Exception
+	 */
+	static List<Operator> keepCheapest(List<Operator> plans, JoinCostModel costModel, int limit, boolean perDataObjects) throws Exception {
+		Map<Set<String>, CheapestPlans> groups = new HashMap<>();
+		for (Operator o : plans) {
+			Set<String> key = perDataObjects ? new TreeSet<>(o.getDataObjectAliasesOrNames().keySet()) : new TreeSet<>();
+			if (!groups.containsKey(key)) groups.put(key, new CheapestPlans(costModel, limit));
+			groups.get(key).add(o);
+		}
+		
+		List<Pair<Double, Operator>> ordered = new ArrayList<>();
+		for (CheapestPlans group : groups.values()) ordered.addAll(group.plans);
+		ordered.sort(Comparator.comparing(Pair::getLeft));
+		List<Operator> extraction = new ArrayList<>();
+		for (Pair<Double, Operator> p : ordered) extraction.add(p.getRight());
+		if (extraction.size() < plans.size()) 
+			logger.debug(String.format("Join enumeration: kept %d of %d partial plans;", extraction.size(), plans.size()));
+		return extraction;
+	}
+	
+	/**
+	 * Keeps the cheapest of the plans added to it: a priority queue bounded by the limit, 
+	 * with the most expensive of the kept plans at the head.
+	 */
+	static class CheapestPlans {
+		
+		private final JoinCostModel costModel;
+		private final int limit;
+		private final PriorityQueue<Pair<Double, Operator>> plans;
+		
+		CheapestPlans(JoinCostModel costModel, int limit) {
+			this.costModel = costModel;
+			this.limit = limit;
+			this.plans = new PriorityQueue<>(limit, (p1, p2) -> Double.compare(p2.getLeft(), p1.getLeft()));
+		}
+		
+		/**
+		 * @param plan
+		 * @return true if the plan is kept (so far)
+		 * @throws Exception
+		 */
+		boolean add(Operator plan) throws Exception {
+			double cost = costModel.getCost(plan);
+			if (plans.size() < limit) {
+				plans.add(new ImmutablePair<>(cost, plan));
+				return true;
+			}
+			if (cost >= plans.peek().getLeft()) return false;
+			plans.poll();
+			plans.add(new ImmutablePair<>(cost, plan));
+			return true;
+		}
+		
+		/**
+		 * @return the kept plans, ordered by cost
+		 */
+		List<Operator> getPlans() {
+			List<Pair<Double, Operator>> ordered = new ArrayList<>(plans);
+			ordered.sort(Comparator.comparing(Pair::getLeft));
+			List<Operator> extraction = new ArrayList<>();
+			for (Pair<Double, Operator> p : ordered) extraction.add(p.getRight());
+			return extraction;
+		}
+	}
+	
 	/**
 	 * Add new entry for partially constructed subtree permutation
 	 * Note: use children characteristics to avoid making unnecessary entries.
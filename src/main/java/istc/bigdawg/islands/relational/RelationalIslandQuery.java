@@ -1,6 +1,7 @@
 package istc.bigdawg.islands.relational;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
@@ -70,19 +71,21 @@ public class RelationalIslandQuery extends IntraIslandQuery {
 		// create temporary tables that are used for as schemas
 		thisIsland.setupForQueryPlanning(children, transitionSchemas);
 		
-		populateQueryContainer(thisIsland, transitionSchemas);
-		
-		// permute!
-		RelationalIslandPermuter.optimize(this);
-		
-		// create signature
-		this.signature = new Signature(getQueryString(), getSourceScope(), getRemainder(0), getQueryContainer(), originalJoinPredicates);
-		
-		// deactivate initialRoot pointer
-		initialRoot = null;
-		
-		// removing temporary schema plates
-		thisIsland.teardownForQueryPlanning(children, transitionSchemas);
+		try {
+			populateQueryContainer(thisIsland, transitionSchemas);
+			
+			// permute!
+			RelationalIslandPermuter.optimize(this);
+			
+			// create signature
+			this.signature = new Signature(getQueryString(), getSourceScope(), getRemainder(0), getQueryContainer(), originalJoinPredicates);
+			
+			// deactivate initialRoot pointer
+			initialRoot = null;
+		} finally {
+			// removing temporary schema plates
+			thisIsland.teardownForQueryPlanning(children, transitionSchemas);
+		}
 	}
 	
 
@@ -94,7 +97,7 @@ public class RelationalIslandQuery extends IntraIslandQuery {
 		
 		List<String> objs = new ArrayList<>();
 //		initialRoot = TheObjectThatResolvesAllDifferencesAmongTheIslands.generateOperatorTreesAndAddDataSetObjectsSignature(sourceScope, dbSchemaHandler, queryString, objs);
-		initialRoot = thisIsland.parseQueryAndExtractAllTableNames(queryString, objs);
+		initialRoot = ((RelationalIsland) thisIsland).parseQueryAndExtractAllTableNames(queryString, objs, getPlanContext(transitionSchemas));
 		
 		originalJoinPredicates.addAll(getOriginalJoinPredicates(initialRoot));
 		originalMap = CatalogViewer.getDBMappingByObj(objs, getSourceScope());
@@ -109,6 +112,19 @@ public class RelationalIslandQuery extends IntraIslandQuery {
 		
 	}
 
+	/**
+	 * @return the schemas of the transition tables of the children, the plan
+	 *         of the query depends on them
+	 */
+	private String getPlanContext(Map<String, String> transitionSchemas) {
+		List<String> schemas = new ArrayList<>();
+		for (String child : children) 
+			if (transitionSchemas.containsKey(child)) 
+				schemas.add(transitionSchemas.get(child));
+		Collections.sort(schemas);
+		return String.join(";", schemas);
+	}
+
 	/**
 	 * This function recursively traverse the original Operator Tree and determines if all the data sets are collocated.
 	 * If it notices that two sub-trees locate on different engines, it will prune the two sub-trees and package 
@@ -331,6 +347,13 @@ public class RelationalIslandQuery extends IntraIslandQuery {
 		return joinPredicates;
 	}
 	
+	/**
+	 * @return the data objects of the query mapped to the dbids of the databases where they are stored
+	 */
+	public Map<String, List<String>> getOriginalMap() {
+		return originalMap;
+	}
+	
 	public Set<String> getJoinFilters() {
 		return joinFilters;
 	}
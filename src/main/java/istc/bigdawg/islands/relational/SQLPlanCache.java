@@ -0,0 +1,254 @@
+package istc.bigdawg.islands.relational;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.apache.log4j.Logger;
+
+import istc.bigdawg.planner.QueryResultCache;
+import istc.bigdawg.properties.BigDawgConfigProperties;
+
+/**
+ * Cache of the plans (the output of EXPLAIN) of the relational island queries
+ * on the schema server, keyed by the shape of the query: the query with the
+ * literals replaced by placeholders. A query with the same shape and
+ * different literals reuses the cached plan with the literals rebound in the
+ * expressions of the plan (filters, conditions, output items), so EXPLAIN is
+ * not run again.
+ *
+ * A literal can be rebound only if it is printed by EXPLAIN exactly as in the
+ * query; otherwise (e.g. IN lists printed as arrays, LIMIT) a query with a
+ * different value of the literal misses and its plan replaces the cached one.
+ */
+public class SQLPlanCache {
+
+	private static Logger logger = Logger.getLogger(SQLPlanCache.class);
+
+	public static final SQLPlanCache INSTANCE = new SQLPlanCache(
+			BigDawgConfigProperties.INSTANCE.isPlanCacheEnabled(),
+			BigDawgConfigProperties.INSTANCE.getPlanCacheMaxEntries());
+
+	/** string (with doubled quotes inside) and unsigned numeric literals */
+	private static final Pattern LITERAL = Pattern
+			.compile("'(?:[^']|'')*'|(?<![\\w$.'\"])\\d+(?:\\.\\d+)?(?![\\w.])");
+
+	/** the elements of the XML plan which hold expressions */
+	private static final Pattern EXPRESSION = Pattern.compile(
+			"<(Filter|Join-Filter|Index-Cond|Recheck-Cond|Hash-Cond|Merge-Cond|One-Time-Filter|TID-Cond|Item)>([^<]*)</\\1>");
+
+	private static final class Plan {
+		/** literals of the query which was explained, escaped as in XML */
+		private final List<String> literals;
+		private final String xml;
+		/** literals found in the expressions of the plan */
+		private final Set<String> printed;
+
+		private Plan(List<String> literals, String xml, Set<String> printed) {
+			this.literals = literals;
+			this.xml = xml;
+			this.printed = printed;
+		}
+	}
+
+	private final boolean enabled;
+	private final LinkedHashMap<String, Plan> plans;
+
+	private long hits = 0;
+	private long rebinds = 0;
+	private long misses = 0;
+	/** time spent in EXPLAIN on misses and in the lookups on hits */
+	private long missMillis = 0;
+	private long hitNanos = 0;
+
+	SQLPlanCache(boolean enabled, int maxEntries) {
+		this.enabled = enabled;
+		this.plans = new LinkedHashMap<String, Plan>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, Plan> eldest) {
+				return size() > maxEntries;
+			}
+		};
+	}
+
+	public boolean isEnabled() {
+		return enabled;
+	}
+
+	/**
+	 * @param query
+	 *            SQL query
+	 * @return the query with the literals replaced by '?'
+	 */
+	public static String getShape(String query) {
+		return LITERAL.matcher(QueryResultCache.normalize(query))
+				.replaceAll("?");
+	}
+
+	/**
+	 * @param query
+	 *            SQL query
+	 * @return the literals of the query in the order of appearance, escaped as
+	 *         in the XML output of EXPLAIN
+	 */
+	static List<String> getLiterals(String query) {
+		List<String> literals = new ArrayList<>();
+		Matcher m = LITERAL.matcher(QueryResultCache.normalize(query));
+		while (m.find()) {
+			literals.add(escapeXml(m.group()));
+		}
+		return literals;
+	}
+
+	private static String escapeXml(String s) {
+		return s.replace("&", "&amp;").replace("<", "&lt;").replace(">",
+				"&gt;");
+	}
+
+	private static String getKey(String query, String context) {
+		return context + "\n" + getShape(query);
+	}
+
+	/**
+	 * @param query
+	 *            SQL query
+	 * @param context
+	 *            anything else the plan depends on (e.g. the schemas of the
+	 *            transition tables)
+	 * @return the XML plan of the query, null if there is no plan of a query
+	 *         with the same shape which can be rebound to the literals of
+	 *         this query
+	 */
+	public synchronized String get(String query, String context) {
+		if (!enabled) {
+			return null;
+		}
+		long start = System.nanoTime();
+		Plan plan = plans.get(getKey(query, context));
+		List<String> literals = getLiterals(query);
+		if (plan == null || plan.literals.size() != literals.size()) {
+			misses++;
+			return null;
+		}
+		if (plan.literals.equals(literals)) {
+			hits++;
+			hitNanos += System.nanoTime() - start;
+			return plan.xml;
+		}
+		/* each literal of the plan has to be changed to a single value */
+		Map<String, String> rebound = new HashMap<>();
+		for (int i = 0; i < literals.size(); i++) {
+			String from = plan.literals.get(i);
+			String to = literals.get(i);
+			String previous = rebound.putIfAbsent(from, to);
+			if ((previous != null && !previous.equals(to))
+					|| (!from.equals(to) && !plan.printed.contains(from))) {
+				misses++;
+				return null;
+			}
+		}
+		String xml = rebind(plan.xml, rebound);
+		hits++;
+		rebinds++;
+		hitNanos += System.nanoTime() - start;
+		logger.debug("Plan rebound to the literals " + literals);
+		return xml;
+	}
+
+	/**
+	 * Keep the plan of the query.
+	 *
+	 * @param explainMillis
+	 *            how long it took to get the plan
+	 */
+	public synchronized void put(String query, String context, String xml,
+			long explainMillis) {
+		if (!enabled) {
+			return;
+		}
+		missMillis += explainMillis;
+		Set<String> printed = new HashSet<>();
+		Matcher expression = EXPRESSION.matcher(xml);
+		while (expression.find()) {
+			Matcher literal = LITERAL.matcher(expression.group(2));
+			while (literal.find()) {
+				printed.add(literal.group());
+			}
+		}
+		plans.put(getKey(query, context),
+				new Plan(getLiterals(query), xml, printed));
+	}
+
+	/**
+	 * Replace the literals in the expressions of the plan (in one pass, so a
+	 * new value is never replaced again).
+	 */
+	static String rebind(String xml, Map<String, String> rebound) {
+		StringBuffer result = new StringBuffer();
+		Matcher expression = EXPRESSION.matcher(xml);
+		while (expression.find()) {
+			StringBuffer text = new StringBuffer();
+			Matcher literal = LITERAL.matcher(expression.group(2));
+			while (literal.find()) {
+				literal.appendReplacement(text, Matcher.quoteReplacement(
+						rebound.getOrDefault(literal.group(), literal.group())));
+			}
+			literal.appendTail(text);
+			String name = expression.group(1);
+			expression.appendReplacement(result, Matcher.quoteReplacement(
+					"<" + name + ">" + text + "</" + name + ">"));
+		}
+		expression.appendTail(result);
+		return result.toString();
+	}
+
+	public synchronized void clear() {
+		plans.clear();
+	}
+
+	public synchronized int size() {
+		return plans.size();
+	}
+
+	public synchronized long getHitCount() {
+		return hits;
+	}
+
+	public synchronized long getRebindCount() {
+		return rebinds;
+	}
+
+	public synchronized long getMissCount() {
+		return misses;
+	}
+
+	/**
+	 * @return the average time (ms) to get a plan with EXPLAIN (a miss)
+	 */
+	public synchronized double getAverageMissMillis() {
+		return misses == 0 ? 0 : (double) missMillis / misses;
+	}
+
+	/**
+	 * @return the average time (ms) to get a plan from the cache (a hit)
+	 */
+	public synchronized double getAverageHitMillis() {
+		return hits == 0 ? 0 : hitNanos / 1e6 / hits;
+	}
+
+	@Override
+	public synchronized String toString() {
+		return String.format(
+				"SQLPlanCache [enabled=%s, plans=%d, hits=%d, rebinds=%d, misses=%d, avgMissMillis=%.3f, avgHitMillis=%.3f]",
+				enabled, plans.size(), hits, rebinds, misses,
+				getAverageMissMillis(), getAverageHitMillis());
+	}
+}
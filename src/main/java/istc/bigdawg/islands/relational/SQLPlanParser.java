@@ -133,6 +133,16 @@ public class SQLPlanParser {
 //		System.out.printf("explainQuery: %s; psqlh: %s;\n", explainQuery, psqlh);
 		String xmlString = psqlh.generatePostgreSQLQueryXML(explainQuery);
 		
+		return parseQueryPlan(query, xmlString);
+	}
+	
+	/**
+	 * Build the query plan from the query and its plan from EXPLAIN (VERBOSE
+	 * ON, COSTS OFF, FORMAT XML), e.g. taken from {@link SQLPlanCache}.
+	 */
+	public static SQLQueryPlan parseQueryPlan(String query, String xmlString) 
+			throws SQLException, JSQLParserException, BigDawgCatalogException, QueryParsingException {
+		
 		// set up supplement
 		SQLParseLogical parser = new SQLParseLogical(query);
 		SQLQueryPlan queryPlan = parser.getSQLQueryPlan();
@@ -83,7 +83,7 @@ public class SQLIslandScan extends SQLIslandOperator implements Scan {
 		}
 		
 		table = new Table(getSrcTable()); // new one to accommodate aliasing
-		if (parameters.get("Schema") != null && (!parameters.get("Schema").equals("public"))) 
+		if (!isDefaultSchema(parameters.get("Schema"))) 
 			table.setSchemaName(parameters.get("Schema"));
 
 		if(getTableAlias() != null && !getTableAlias().equalsIgnoreCase(getSrcTable())) {
@@ -91,6 +91,15 @@ public class SQLIslandScan extends SQLIslandOperator implements Scan {
 		}
 	}
 	
+	/**
+	 * @return true if the tables of the schema are referred to without the
+	 *         schema: public and the temporary schemas (pg_temp_N) where the
+	 *         transition tables are created during planning
+	 */
+	protected static boolean isDefaultSchema(String schema) {
+		return schema == null || schema.equals("public") || schema.startsWith("pg_temp");
+	}
+	
 	public SQLIslandScan(SQLIslandOperator o, boolean addChild) throws IslandException {
 		super(o, addChild);
 		SQLIslandScan sc = (SQLIslandScan) o;
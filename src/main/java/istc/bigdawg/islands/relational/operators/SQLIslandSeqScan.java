@@ -33,7 +33,7 @@ public class SQLIslandSeqScan extends SQLIslandScan implements SeqScan {
 		// match output to base relation
 
 		String schemaAndName = parameters.get("Schema");
-		if (schemaAndName == null || schemaAndName.equals("public")) schemaAndName = super.getSrcTable();
+		if (isDefaultSchema(schemaAndName)) schemaAndName = super.getSrcTable();
 		else schemaAndName = schemaAndName + "." + super.getSrcTable();
 		
 		this.dataObjects.add(schemaAndName);
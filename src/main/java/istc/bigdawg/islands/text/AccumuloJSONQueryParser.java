@@ -1,6 +1,11 @@
 package istc.bigdawg.islands.text;
 
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
 import istc.bigdawg.query.AbstractJSONQueryParser;
 import org.apache.accumulo.core.data.Key;
 import org.apache.accumulo.core.data.Range;
@@ -13,6 +18,9 @@ import istc.bigdawg.islands.text.operators.TextScan;
 
 public class AccumuloJSONQueryParser extends AbstractJSONQueryParser {
 
+	/** The parts of an entry which can be matched by a regular expression in a filter. */
+	public static final List<String> FILTER_FIELDS = Arrays.asList("row", "cf", "cq", "value");
+
 	public OperatorTypes getOperatorType(JSONObject parsedObject, String input) throws ParseException {
 		if (parsedObject.get("op") == null || !(parsedObject.get("op") instanceof String))
 			throw new ParseException(ParseException.ERROR_UNEXPECTED_TOKEN, "AccumuloJSONQueryParser parsing error: cannot identify operator. query: " + input);
@@ -54,6 +62,42 @@ public class AccumuloJSONQueryParser extends AbstractJSONQueryParser {
 			range = new Range();
 		}
 		
-		return new TextScan(table, range);
+		TextScan scan = new TextScan(table, range);
+		
+		JSONArray columnsArray = (JSONArray)getObjectByType(parsedObject.get("columns"), JSONArray.class);
+		if (columnsArray != null) {
+			List<String> columns = new ArrayList<>();
+			for (Object column : columnsArray)
+				addNonNullStringToList(column, columns);
+			scan.setColumns(columns);
+		}
+		
+		JSONObject filterObject = (JSONObject)getObjectByType(parsedObject.get("filter"), JSONObject.class);
+		if (filterObject != null) {
+			Map<String, String> filter = jsonObjectToKeyValueString(filterObject);
+			for (String field : filter.keySet()) {
+				if (!FILTER_FIELDS.contains(field))
+					throw new ParseException(ParseException.ERROR_UNEXPECTED_TOKEN, this.getClass() + " parsing error: unsupported filter field: " + field);
+			}
+			scan.setFilter(filter);
+		}
+		
+		String aggregate = (String)getObjectByType(parsedObject.get("aggregate"), String.class);
+		if (aggregate != null) {
+			try {
+				scan.setAggregate(TextScan.Aggregate.valueOf(aggregate));
+			} catch (IllegalArgumentException e) {
+				throw new ParseException(ParseException.ERROR_UNEXPECTED_TOKEN, this.getClass() + " parsing error: unsupported aggregate: " + aggregate);
+			}
+		}
+		
+		String groupBy = (String)getObjectByType(parsedObject.get("groupby"), String.class);
+		if (groupBy != null) {
+			if (!groupBy.equals("row") || aggregate == null)
+				throw new ParseException(ParseException.ERROR_UNEXPECTED_TOKEN, this.getClass() + " parsing error: only an aggregate can be grouped by row; received: " + groupBy);
+			scan.setGroupByRow(true);
+		}
+		
+		return scan;
 	} 
 }
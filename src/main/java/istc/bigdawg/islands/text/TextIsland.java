@@ -167,6 +167,11 @@ public class TextIsland implements Island {
 					AccumuloJSONQueryParser.addNonNullStringToList(endArray.get(2), output);
 				}
 			}
+			JSONObject filter = (JSONObject) AccumuloJSONQueryParser.getObjectByType(parsedObject.get("filter"), JSONObject.class);
+			if (filter != null) {
+				for (String field : AccumuloJSONQueryParser.FILTER_FIELDS)
+					AccumuloJSONQueryParser.addNonNullStringToList(filter.get(field), output);
+			}
 		} catch (ParseException e) {
 			throw new QueryParsingException(e.getMessage(), e);
 		}
@@ -1,8 +1,11 @@
 package istc.bigdawg.islands.text.operators;
 
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.TreeMap;
 
 import org.apache.accumulo.core.data.Range;
 
@@ -13,9 +16,20 @@ import istc.bigdawg.shims.OperatorQueryGenerator;
 
 public class TextScan extends TextOperator implements SeqScan {
 	
+	/** The functions of the aggregation pushed down to the tablet servers. */
+	public enum Aggregate {
+		count, sum
+	}
+	
 	String tableName;
 	Range range;
 	
+	/* pushed down to Accumulo; see AccumuloExecutionEngine */
+	List<String> columns = new ArrayList<>();
+	Map<String, String> filter = new HashMap<>();
+	Aggregate aggregate = null;
+	boolean groupByRow = false;
+	
 	public TextScan(String tableName, Range range) {
 		super();
 		this.tableName = tableName;
@@ -26,9 +40,63 @@ public class TextScan extends TextOperator implements SeqScan {
 		return range;
 	}
 	
+	/**
+	 * @return the fetched columns: column families ("cf") or columns
+	 *         ("cf:cq"); all columns if empty
+	 */
+	public List<String> getColumns() {
+		return columns;
+	}
+	
+	public void setColumns(List<String> columns) {
+		this.columns = new ArrayList<>(columns);
+	}
+	
+	/**
+	 * @return the regular expressions which the row, column family, column
+	 *         qualifier and value (keys: row, cf, cq, value) of the returned
+	 *         entries match
+	 */
+	public Map<String, String> getFilter() {
+		return filter;
+	}
+	
+	public void setFilter(Map<String, String> filter) {
+		this.filter = new HashMap<>(filter);
+	}
+	
+	/**
+	 * @return the aggregation of the values of the entries, null if the
+	 *         entries are returned
+	 */
+	public Aggregate getAggregate() {
+		return aggregate;
+	}
+	
+	public void setAggregate(Aggregate aggregate) {
+		this.aggregate = aggregate;
+	}
+	
+	/**
+	 * @return true if the values are aggregated for each row, false - for
+	 *         the whole range
+	 */
+	public boolean isGroupByRow() {
+		return groupByRow;
+	}
+	
+	public void setGroupByRow(boolean groupByRow) {
+		this.groupByRow = groupByRow;
+	}
+	
 	@Override
 	public Operator duplicate(boolean addChild) throws IslandException {
-		return new TextScan(tableName, range);
+		TextScan scan = new TextScan(tableName, range);
+		scan.setColumns(columns);
+		scan.setFilter(filter);
+		scan.setAggregate(aggregate);
+		scan.setGroupByRow(groupByRow);
+		return scan;
 	}
 
 	@Override
@@ -46,13 +114,25 @@ public class TextScan extends TextOperator implements SeqScan {
 	@Override
 	public String getTreeRepresentation(boolean isRoot) throws IslandException {
 		if (range.getStartKey() == null && range.getEndKey() == null)
-			return String.format("(TextScan, %s, FULL_RANGE)", tableName);
+			return String.format("(TextScan, %s, FULL_RANGE%s)", tableName, getPushdownRepresentation());
 		else 
-			return String.format("(TextScan, %s%s%s)", 
+			return String.format("(TextScan, %s%s%s%s)", 
 					tableName, range.getStartKey() == null ? "" : 
 						String.format(", (StartKey, %s, %s, %s)", range.getStartKey().getRow(), range.getStartKey().getColumnFamily(), range.getStartKey().getColumnQualifier()),
 						range.getEndKey() == null ? "" : 
-							String.format(", (EndKey, %s, %s, %s)", range.getEndKey().getRow(), range.getEndKey().getColumnFamily(), range.getEndKey().getColumnQualifier()));
+							String.format(", (EndKey, %s, %s, %s)", range.getEndKey().getRow(), range.getEndKey().getColumnFamily(), range.getEndKey().getColumnQualifier()),
+						getPushdownRepresentation());
+	}
+	
+	private String getPushdownRepresentation() {
+		StringBuilder sb = new StringBuilder();
+		if (!columns.isEmpty())
+			sb.append(String.format(", (Columns, %s)", String.join(", ", columns)));
+		if (!filter.isEmpty())
+			sb.append(String.format(", (Filter, %s)", new TreeMap<>(filter)));
+		if (aggregate != null)
+			sb.append(String.format(", (Aggregate, %s%s)", aggregate, groupByRow ? ", row" : ""));
+		return sb.toString();
 	}
 
 	@Override
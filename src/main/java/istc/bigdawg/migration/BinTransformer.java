@@ -0,0 +1,667 @@
+/**
+ *
+ */
+package istc.bigdawg.migration;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.log4j.Logger;
+
+import istc.bigdawg.exceptions.UnsupportedTypeException;
+
+/**
+ * Transform data between the binary format of PostgreSQL (COPY ... WITH
+ * BINARY) and the binary format of SciDB (load/save with a format of the
+ * attributes) in the JVM - the same work as the c++ data-migrator-exe does,
+ * without spawning a process.
+ *
+ * The data is streamed through two direct buffers: PostgreSQL is big-endian,
+ * SciDB is little-endian, so the byte order is swapped by the buffers.
+ *
+ * PostgreSQL: 19 bytes of header (signature, flags, length of the header
+ * extension), then for each row: number of fields (int16) and for each field
+ * its length (int32, -1 for null) and the value, finally the trailer (int16:
+ * -1).
+ *
+ * SciDB: no header, for each row and each attribute: 1 byte of null indicator
+ * for a nullable attribute (-1 - not null, otherwise the missing reason) and
+ * then the value; a string is prefixed with its length (int32) which includes
+ * the terminating \0.
+ *
+ * The SciDB type does not say how a value is encoded by PostgreSQL (e.g. a
+ * double can come from double precision or from numeric, a datetime from
+ * timestamp or from date), so the PostgreSQL types of the columns are needed
+ * to transform the data from PostgreSQL. A numeric (base 10000 digits) is
+ * decoded and converted to the double or int64 of SciDB.
+ */
+public class BinTransformer {
+
+	/* log */
+	private static Logger log = Logger.getLogger(BinTransformer.class);
+
+	/** Signature at the beginning of the PostgreSQL binary format. */
+	private static final byte[] POSTGRES_SIGNATURE = { 'P', 'G', 'C', 'O',
+			'P', 'Y', '\n', (byte) 0xff, '\r', '\n', 0 };
+
+	/** Seconds between 1970-01-01 (SciDB) and 2000-01-01 (PostgreSQL). */
+	static final long POSTGRES_EPOCH_SECONDS = 946684800L;
+
+	private static final long MICROS_PER_SECOND = 1000000L;
+
+	private static final long SECONDS_PER_DAY = 86400L;
+
+	/** The sign of a numeric in PostgreSQL. */
+	private static final int NUMERIC_POS = 0x0000;
+	private static final int NUMERIC_NEG = 0x4000;
+	private static final int NUMERIC_NAN = 0xC000;
+
+	/** A numeric digit in PostgreSQL is a base 10000 digit. */
+	private static final BigInteger NUMERIC_BASE = BigInteger.valueOf(10000);
+
+	/** SciDB: the attribute value is not null. */
+	private static final byte SCIDB_NOT_NULL = -1;
+
+	/** The default size of each of the buffers. */
+	public static final int BUFFER_SIZE = 1 << 16;
+
+	/** The largest piece of data which is read or written at once. */
+	public static final int MIN_BUFFER_SIZE = 16;
+
+	/** The types (in SciDB) that can be transformed. */
+	enum AttributeType {
+		BOOL(1), CHAR(1), INT16(2), INT32(4), INT64(8), FLOAT(4), DOUBLE(
+				8), DATETIME(8), STRING(-1);
+
+		/** Size of the value in SciDB, -1 for a variable size. */
+		private final int size;
+
+		private AttributeType(int size) {
+			this.size = size;
+		}
+
+		static AttributeType fromSciDBType(String type)
+				throws UnsupportedTypeException {
+			switch (type) {
+			case "bool":
+				return BOOL;
+			case "char":
+				return CHAR;
+			case "int16":
+				return INT16;
+			case "int32":
+			case "int32_t":
+				return INT32;
+			case "int64":
+			case "int64_t":
+				return INT64;
+			case "float":
+				return FLOAT;
+			case "double":
+				return DOUBLE;
+			case "datetime":
+				return DATETIME;
+			case "string":
+				return STRING;
+			default:
+				throw new UnsupportedTypeException("The SciDB type: " + type
+						+ " is not supported by the binary transformer.");
+			}
+		}
+	}
+
+	/** How PostgreSQL encodes the values of a column. */
+	enum PostgresType {
+		/** the same encoding as the type in SciDB */
+		DEFAULT,
+		/** numeric/decimal: base 10000 digits */
+		NUMERIC,
+		/** date: days since 2000-01-01 (int32) */
+		DATE,
+		/** timestamp: microseconds since 2000-01-01 (int64) */
+		TIMESTAMP;
+
+		/**
+		 * @param sqlType
+		 *            the type of the column in PostgreSQL, e.g. numeric(15,2)
+		 */
+		static PostgresType fromSQLType(String sqlType) {
+			String type = sqlType.toLowerCase();
+			if (type.contains("numeric") || type.contains("decimal")) {
+				return NUMERIC;
+			}
+			/* the same order of checks as in FromSQLTypesToSciDB */
+			if (type.contains("timestamp")) {
+				return TIMESTAMP;
+			}
+			if (type.contains("date")) {
+				return DATE;
+			}
+			return DEFAULT;
+		}
+	}
+
+	/** The type of the attribute and if it can be null. */
+	static final class Attribute {
+		final AttributeType type;
+		final boolean nullable;
+
+		Attribute(AttributeType type, boolean nullable) {
+			this.type = type;
+			this.nullable = nullable;
+		}
+	}
+
+	private final List<Attribute> attributes;
+	/** The PostgreSQL encoding of each attribute, null if not known. */
+	private final List<PostgresType> postgresTypes;
+	private final ReadableByteChannel input;
+	private final WritableByteChannel output;
+	private final ByteBuffer in;
+	private final ByteBuffer out;
+
+	/** Number of transformed rows. */
+	private long rows = 0;
+
+	/**
+	 * @param input
+	 *            the source of the binary data
+	 * @param output
+	 *            the target of the transformed binary data
+	 * @param binFormat
+	 *            the SciDB types of the attributes, for example:
+	 *            "int64 null,string,double" (see
+	 *            {@link MigrationUtils#getSciDBBinFormat})
+	 * @param sqlTypes
+	 *            the types of the columns in PostgreSQL (e.g. numeric(15,2),
+	 *            date), required by {@link #fromPostgresToSciDB()}; null if
+	 *            the data is only transformed from SciDB
+	 * @param bufferSize
+	 *            the size of the input and output buffer in bytes (at least
+	 *            {@link #MIN_BUFFER_SIZE})
+	 * @throws UnsupportedTypeException
+	 *             a type in the format cannot be transformed
+	 */
+	public BinTransformer(ReadableByteChannel input,
+			WritableByteChannel output, String binFormat,
+			List<String> sqlTypes, int bufferSize)
+			throws UnsupportedTypeException {
+		if (bufferSize < MIN_BUFFER_SIZE) {
+			throw new IllegalArgumentException("The buffer of " + bufferSize
+					+ " bytes is smaller than " + MIN_BUFFER_SIZE + " bytes.");
+		}
+		this.attributes = parseFormat(binFormat);
+		if (sqlTypes == null) {
+			this.postgresTypes = null;
+		} else {
+			if (sqlTypes.size() != attributes.size()) {
+				throw new IllegalArgumentException(sqlTypes.size()
+						+ " PostgreSQL types were given for "
+						+ attributes.size() + " attributes: " + binFormat);
+			}
+			List<PostgresType> types = new ArrayList<>();
+			for (String sqlType : sqlTypes) {
+				types.add(PostgresType.fromSQLType(sqlType));
+			}
+			this.postgresTypes = Collections.unmodifiableList(types);
+		}
+		this.input = input;
+		this.output = output;
+		this.in = ByteBuffer.allocateDirect(bufferSize);
+		this.out = ByteBuffer.allocateDirect(bufferSize);
+		/* nothing was read yet */
+		in.flip();
+	}
+
+	public BinTransformer(ReadableByteChannel input,
+			WritableByteChannel output, String binFormat,
+			List<String> sqlTypes) throws UnsupportedTypeException {
+		this(input, output, binFormat, sqlTypes, BUFFER_SIZE);
+	}
+
+	/**
+	 * Parse the format of the attributes, e.g. "int64 null,string,string" or
+	 * "(int64 null, string)".
+	 *
+	 * @throws UnsupportedTypeException
+	 */
+	static List<Attribute> parseFormat(String binFormat)
+			throws UnsupportedTypeException {
+		String format = binFormat.trim();
+		if (format.startsWith("(") && format.endsWith(")")) {
+			format = format.substring(1, format.length() - 1);
+		}
+		List<Attribute> attributes = new ArrayList<>();
+		for (String attribute : format.split(",")) {
+			String[] parts = attribute.trim().toLowerCase().split("\\s+");
+			boolean nullable = false;
+			if (parts.length == 2 && parts[1].equals("null")) {
+				nullable = true;
+			} else if (parts.length != 1) {
+				throw new UnsupportedTypeException("Wrong format of the "
+						+ "attribute: " + attribute + " in: " + binFormat);
+			}
+			attributes.add(new Attribute(AttributeType.fromSciDBType(parts[0]),
+					nullable));
+		}
+		return Collections.unmodifiableList(attributes);
+	}
+
+	/**
+	 * Check if all the types in the format can be transformed in the JVM.
+	 */
+	public static boolean isSupported(String binFormat) {
+		try {
+			parseFormat(binFormat);
+			return true;
+		} catch (UnsupportedTypeException e) {
+			return false;
+		}
+	}
+
+	/**
+	 * Transform the data from the PostgreSQL binary format to the SciDB
+	 * binary format.
+	 *
+	 * @return number of transformed rows
+	 * @throws IOException
+	 *             reading or writing failed or the input is not in the
+	 *             expected format
+	 */
+	public long fromPostgresToSciDB() throws IOException {
+		if (postgresTypes == null) {
+			throw new IllegalStateException("The PostgreSQL types of the "
+					+ "columns are needed to transform the data to SciDB.");
+		}
+		in.order(ByteOrder.BIG_ENDIAN);
+		out.clear();
+		out.order(ByteOrder.LITTLE_ENDIAN);
+		readPostgresHeader();
+		while (true) {
+			ensure(2);
+			short fields = in.getShort();
+			if (fields == -1) {
+				break;
+			}
+			if (fields != attributes.size()) {
+				throw new IOException("Row " + rows + " has " + fields
+						+ " fields but " + attributes.size()
+						+ " attributes were expected.");
+			}
+			for (int i = 0; i < attributes.size(); ++i) {
+				Attribute attribute = attributes.get(i);
+				ensure(4);
+				int length = in.getInt();
+				/* the null indicator and the largest value of a fixed size */
+				reserve(1 + 8);
+				if (length == -1) {
+					if (!attribute.nullable) {
+						throw new IOException("Null value in row " + rows
+								+ " for a not null attribute.");
+					}
+					/* missing reason 0 and the empty value */
+					out.put((byte) 0);
+					if (attribute.type == AttributeType.STRING) {
+						out.putInt(0);
+					} else {
+						for (int b = 0; b < attribute.type.size; ++b) {
+							out.put((byte) 0);
+						}
+					}
+					continue;
+				}
+				if (attribute.nullable) {
+					out.put(SCIDB_NOT_NULL);
+				}
+				postgresValueToSciDB(attribute.type, postgresTypes.get(i),
+						length);
+			}
+			++rows;
+		}
+		flush();
+		log.debug("Rows transformed from PostgreSQL to SciDB: " + rows);
+		return rows;
+	}
+
+	/**
+	 * Transform the data from the SciDB binary format to the PostgreSQL
+	 * binary format.
+	 *
+	 * @return number of transformed rows
+	 * @throws IOException
+	 *             reading or writing failed or the input is not in the
+	 *             expected format
+	 */
+	public long fromSciDBToPostgres() throws IOException {
+		in.order(ByteOrder.LITTLE_ENDIAN);
+		out.clear();
+		out.order(ByteOrder.BIG_ENDIAN);
+		writePostgresHeader();
+		while (!isEndOfInput()) {
+			reserve(2);
+			out.putShort((short) attributes.size());
+			for (Attribute attribute : attributes) {
+				boolean isNull = false;
+				if (attribute.nullable) {
+					ensure(1);
+					isNull = in.get() != SCIDB_NOT_NULL;
+				}
+				sciDBValueToPostgres(attribute.type, isNull);
+			}
+			++rows;
+		}
+		reserve(2);
+		out.putShort((short) -1);
+		flush();
+		log.debug("Rows transformed from SciDB to PostgreSQL: " + rows);
+		return rows;
+	}
+
+	/**
+	 * @return number of rows transformed so far
+	 */
+	public long getRows() {
+		return rows;
+	}
+
+	private void postgresValueToSciDB(AttributeType type,
+			PostgresType postgresType, int length) throws IOException {
+		if (type == AttributeType.STRING) {
+			reserve(4);
+			out.putInt(length + 1);
+			transfer(length);
+			reserve(1);
+			out.put((byte) 0);
+			return;
+		}
+		if (type == AttributeType.CHAR) {
+			/* the first byte of character(1), no byte for the empty string */
+			ensure(Math.min(length, 1));
+			reserve(1);
+			out.put(length > 0 ? in.get() : 0);
+			skip(length - Math.min(length, 1));
+			return;
+		}
+		if (postgresType == PostgresType.NUMERIC) {
+			BigDecimal value = readNumeric(length);
+			reserve(8);
+			try {
+				if (type == AttributeType.DOUBLE) {
+					out.putDouble(value == null ? Double.NaN
+							: value.doubleValue());
+				} else if (type == AttributeType.INT64 && value != null) {
+					out.putLong(value.longValueExact());
+				} else {
+					throw new IOException("The numeric " + value + " in row "
+							+ rows + " cannot be transformed to " + type + ".");
+				}
+			} catch (ArithmeticException e) {
+				throw new IOException("The numeric " + value + " in row "
+						+ rows + " does not fit into " + type + ".", e);
+			}
+			return;
+		}
+		if (type == AttributeType.DATETIME
+				&& postgresType == PostgresType.DATE) {
+			if (length != 4) {
+				throw new IOException("Date of " + length + " bytes in row "
+						+ rows + ".");
+			}
+			/* date: days since 2000-01-01 */
+			ensure(4);
+			reserve(8);
+			out.putLong(in.getInt() * SECONDS_PER_DAY + POSTGRES_EPOCH_SECONDS);
+			return;
+		}
+		if (length != type.size) {
+			throw new IOException("Value of " + length + " bytes in row "
+					+ rows + " for the type " + type + " of " + type.size
+					+ " bytes.");
+		}
+		ensure(length);
+		reserve(length);
+		switch (type) {
+		case BOOL:
+			out.put((byte) (in.get() != 0 ? 1 : 0));
+			break;
+		case INT16:
+			out.putShort(in.getShort());
+			break;
+		case INT32:
+			out.putInt(in.getInt());
+			break;
+		case INT64:
+			out.putLong(in.getLong());
+			break;
+		case FLOAT:
+			out.putFloat(in.getFloat());
+			break;
+		case DOUBLE:
+			out.putDouble(in.getDouble());
+			break;
+		case DATETIME:
+			/* timestamp: microseconds since 2000-01-01 */
+			out.putLong(Math.floorDiv(in.getLong(), MICROS_PER_SECOND)
+					+ POSTGRES_EPOCH_SECONDS);
+			break;
+		default:
+			throw new IllegalStateException("Unexpected type: " + type);
+		}
+	}
+
+	/**
+	 * Read a numeric value of PostgreSQL: the number of digits, the weight
+	 * (the exponent of the first digit), the sign and the display scale
+	 * (int16 each), then the base 10000 digits (int16 each).
+	 *
+	 * @param length
+	 *            the length of the value in bytes
+	 * @return the value, null for NaN
+	 */
+	private BigDecimal readNumeric(int length) throws IOException {
+		ensure(8);
+		int digits = in.getShort();
+		int weight = in.getShort();
+		int sign = in.getShort() & 0xFFFF;
+		/* display scale */
+		in.getShort();
+		if (length != 8 + 2 * digits) {
+			throw new IOException("Numeric of " + length + " bytes with "
+					+ digits + " digits in row " + rows + ".");
+		}
+		BigInteger unscaled = BigInteger.ZERO;
+		for (int i = 0; i < digits; ++i) {
+			ensure(2);
+			unscaled = unscaled.multiply(NUMERIC_BASE)
+					.add(BigInteger.valueOf(in.getShort()));
+		}
+		if (sign == NUMERIC_NAN) {
+			return null;
+		}
+		if (sign != NUMERIC_POS && sign != NUMERIC_NEG) {
+			throw new IOException("Numeric with a wrong sign: " + sign
+					+ " in row " + rows + ".");
+		}
+		/* the last digit is multiplied by 10000^(weight - digits + 1) */
+		BigDecimal value = new BigDecimal(unscaled)
+				.scaleByPowerOfTen(4 * (weight - digits + 1));
+		return sign == NUMERIC_NEG ? value.negate() : value;
+	}
+
+	private void sciDBValueToPostgres(AttributeType type, boolean isNull)
+			throws IOException {
+		if (type == AttributeType.STRING) {
+			ensure(4);
+			int length = in.getInt();
+			if (isNull) {
+				skip(length);
+				reserve(4);
+				out.putInt(-1);
+				return;
+			}
+			/* PostgreSQL does not store the terminating \0 */
+			int pgLength = Math.max(length - 1, 0);
+			reserve(4);
+			out.putInt(pgLength);
+			transfer(pgLength);
+			skip(length - pgLength);
+			return;
+		}
+		/* the value is stored for nulls as well */
+		ensure(type.size);
+		reserve(4 + type.size);
+		if (isNull) {
+			skip(type.size);
+			out.putInt(-1);
+			return;
+		}
+		switch (type) {
+		case BOOL:
+			out.putInt(1);
+			out.put((byte) (in.get() != 0 ? 1 : 0));
+			break;
+		case CHAR:
+			byte value = in.get();
+			if (value == 0) {
+				out.putInt(0);
+			} else {
+				out.putInt(1);
+				out.put(value);
+			}
+			break;
+		case INT16:
+			out.putInt(2);
+			out.putShort(in.getShort());
+			break;
+		case INT32:
+			out.putInt(4);
+			out.putInt(in.getInt());
+			break;
+		case INT64:
+			out.putInt(8);
+			out.putLong(in.getLong());
+			break;
+		case FLOAT:
+			out.putInt(4);
+			out.putFloat(in.getFloat());
+			break;
+		case DOUBLE:
+			out.putInt(8);
+			out.putDouble(in.getDouble());
+			break;
+		case DATETIME:
+			out.putInt(8);
+			out.putLong((in.getLong() - POSTGRES_EPOCH_SECONDS)
+					* MICROS_PER_SECOND);
+			break;
+		default:
+			throw new IllegalStateException("Unexpected type: " + type);
+		}
+	}
+
+	private void readPostgresHeader() throws IOException {
+		ensure(POSTGRES_SIGNATURE.length);
+		for (byte expected : POSTGRES_SIGNATURE) {
+			if (in.get() != expected) {
+				throw new IOException(
+						"The input is not in the PostgreSQL binary format.");
+			}
+		}
+		ensure(8);
+		/* flags */
+		in.getInt();
+		int extensionLength = in.getInt();
+		skip(extensionLength);
+	}
+
+	private void writePostgresHeader() throws IOException {
+		reserve(POSTGRES_SIGNATURE.length);
+		out.put(POSTGRES_SIGNATURE);
+		reserve(8);
+		/* flags: no OIDs */
+		out.putInt(0);
+		/* no header extension */
+		out.putInt(0);
+	}
+
+	/**
+	 * Make at least n bytes (n <= size of the buffer) available in the input
+	 * buffer.
+	 */
+	private void ensure(int n) throws IOException {
+		while (in.remaining() < n) {
+			in.compact();
+			int read = input.read(in);
+			in.flip();
+			if (read == -1) {
+				throw new EOFException("Unexpected end of the input in row "
+						+ rows + ".");
+			}
+		}
+	}
+
+	/**
+	 * @return true if there are no more bytes in the input
+	 */
+	private boolean isEndOfInput() throws IOException {
+		while (!in.hasRemaining()) {
+			in.clear();
+			int read = input.read(in);
+			in.flip();
+			if (read == -1) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Make space for at least n bytes (n <= size of the buffer) in the output
+	 * buffer.
+	 */
+	private void reserve(int n) throws IOException {
+		if (out.remaining() < n) {
+			flush();
+		}
+	}
+
+	private void flush() throws IOException {
+		out.flip();
+		while (out.hasRemaining()) {
+			output.write(out);
+		}
+		out.clear();
+	}
+
+	/** Copy n bytes from the input to the output (n can exceed the buffers). */
+	private void transfer(int n) throws IOException {
+		while (n > 0) {
+			ensure(1);
+			reserve(1);
+			int chunk = Math.min(n, Math.min(in.remaining(), out.remaining()));
+			int limit = in.limit();
+			in.limit(in.position() + chunk);
+			out.put(in);
+			in.limit(limit);
+			n -= chunk;
+		}
+	}
+
+	private void skip(int n) throws IOException {
+		while (n > 0) {
+			ensure(1);
+			int chunk = Math.min(n, in.remaining());
+			in.position(in.position() + chunk);
+			n -= chunk;
+		}
+	}
+}
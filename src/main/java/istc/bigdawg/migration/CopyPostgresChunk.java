@@ -0,0 +1,201 @@
+/**
+ *
+ */
+package istc.bigdawg.migration;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+
+import org.apache.log4j.Logger;
+import org.postgresql.copy.CopyIn;
+import org.postgresql.copy.CopyManager;
+import org.postgresql.copy.CopyOut;
+import org.postgresql.core.BaseConnection;
+
+import istc.bigdawg.postgresql.PostgreSQLHandler;
+import istc.bigdawg.utils.StackTrace;
+
+/**
+ * Copy one chunk (a range of rows) of a table from one PostgreSQL instance to
+ * another: the binary COPY OUT stream of the source is forwarded, buffer by
+ * buffer, to the COPY IN of the target, so there is no pipe and no extra
+ * thread per chunk.
+ *
+ * The transactions are not committed here - the caller commits all the
+ * chunks only when all of them were copied.
+ */
+public class CopyPostgresChunk implements Callable<Object> {
+
+	/* log */
+	private static Logger log = Logger.getLogger(CopyPostgresChunk.class);
+
+	/**
+	 * The first version (server_version_num) of PostgreSQL which reads a
+	 * range of ctids with a TID range scan instead of a sequential scan of
+	 * the whole table.
+	 */
+	public static final int MIN_TID_RANGE_SCAN_VERSION = 140000;
+
+	private final Connection connectionFrom;
+	private final Connection connectionTo;
+	private final String copyFromCommand;
+	private final String copyToCommand;
+
+	/** Number of rows extracted from the source (set after the call). */
+	private volatile long countExtractedRows = 0;
+
+	/**
+	 * @param connectionFrom
+	 *            connection to the source database (in a transaction)
+	 * @param connectionTo
+	 *            connection to the target database (in a transaction)
+	 * @param fromTable
+	 *            the source table
+	 * @param predicate
+	 *            selects the rows of the chunk, see
+	 *            {@link #getCtidRangePredicates(long, int)} and
+	 *            {@link #getKeyRangePredicates(String, long, long, int)}
+	 * @param toTable
+	 *            the target table
+	 */
+	public CopyPostgresChunk(Connection connectionFrom, Connection connectionTo,
+			String fromTable, String predicate, String toTable) {
+		this.connectionFrom = connectionFrom;
+		this.connectionTo = connectionTo;
+		this.copyFromCommand = "COPY (SELECT * FROM " + fromTable + " WHERE "
+				+ predicate + ") TO STDOUT with binary";
+		this.copyToCommand = PostgreSQLHandler.getLoadBinCommand(toTable);
+	}
+
+	/**
+	 * Copy the chunk.
+	 *
+	 * @return number of loaded rows
+	 */
+	@Override
+	public Long call() throws SQLException {
+		log.debug("copy chunk: " + copyFromCommand);
+		CopyOut copyOut = null;
+		CopyIn copyIn = null;
+		try {
+			copyOut = new CopyManager((BaseConnection) connectionFrom)
+					.copyOut(copyFromCommand);
+			copyIn = new CopyManager((BaseConnection) connectionTo)
+					.copyIn(copyToCommand);
+			byte[] buffer;
+			while ((buffer = copyOut.readFromCopy()) != null) {
+				copyIn.writeToCopy(buffer, 0, buffer.length);
+			}
+			countExtractedRows = copyOut.getHandledRowCount();
+			long countLoadedRows = copyIn.endCopy();
+			log.debug("Chunk copied, extracted rows: " + countExtractedRows
+					+ ", loaded rows: " + countLoadedRows);
+			return countLoadedRows;
+		} catch (SQLException e) {
+			log.error("Could not copy chunk: " + copyFromCommand + " "
+					+ StackTrace.getFullStackTrace(e), e);
+			throw e;
+		} finally {
+			if (copyIn != null && copyIn.isActive()) {
+				copyIn.cancelCopy();
+			}
+			if (copyOut != null && copyOut.isActive()) {
+				copyOut.cancelCopy();
+			}
+		}
+	}
+
+	/**
+	 * @return the number of rows extracted from the source
+	 */
+	public long getCountExtractedRows() {
+		return countExtractedRows;
+	}
+
+	/**
+	 * Split the table into ranges of its physical blocks (pages). The chunks
+	 * are read efficiently only by PostgreSQL from version
+	 * {@link #MIN_TID_RANGE_SCAN_VERSION}.
+	 *
+	 * @param blocks
+	 *            number of blocks of the table
+	 * @param parallelism
+	 *            number of chunks
+	 * @return the predicates (on the ctid column) which select the rows of
+	 *         each chunk; together they cover the whole table
+	 */
+	public static List<String> getCtidRangePredicates(long blocks,
+			int parallelism) {
+		List<String> predicates = new ArrayList<>();
+		long step = Math.max(1, (blocks + parallelism - 1) / parallelism);
+		for (long start = 0; start < blocks; start += step) {
+			StringBuilder predicate = new StringBuilder();
+			if (start > 0) {
+				predicate.append("ctid >= '(").append(start)
+						.append(",0)'::tid");
+			}
+			if (start + step < blocks) {
+				if (predicate.length() > 0) {
+					predicate.append(" AND ");
+				}
+				predicate.append("ctid < '(").append(start + step)
+						.append(",0)'::tid");
+			}
+			predicates.add(predicate.length() == 0 ? "true"
+					: predicate.toString());
+		}
+		return predicates;
+	}
+
+	/**
+	 * Split the table into ranges of values of a numeric column.
+	 *
+	 * @param column
+	 *            the partitioning column, quoted if needed (see
+	 *            {@link PostgreSQLHandler#quoteIdentifier(String)})
+	 * @param min
+	 *            the minimal value in the column
+	 * @param max
+	 *            the maximal value in the column
+	 * @param parallelism
+	 *            number of chunks
+	 * @return the predicates which select the rows of each chunk; the first
+	 *         chunk also takes the rows with null in the column
+	 */
+	public static List<String> getKeyRangePredicates(String column, long min,
+			long max, int parallelism) {
+		List<String> predicates = new ArrayList<>();
+		/* (max - min) / parallelism without overflow */
+		long width = max / parallelism - min / parallelism + 1;
+		long step = width <= 0 ? Long.MAX_VALUE : width;
+		for (long start = min;;) {
+			long next = start + step;
+			/* the last chunk: next reached max or overflowed */
+			boolean last = next > max || next <= start;
+			StringBuilder predicate = new StringBuilder();
+			if (start > min) {
+				predicate.append(column).append(" >= ").append(start);
+			}
+			if (!last) {
+				if (predicate.length() > 0) {
+					predicate.append(" AND ");
+				}
+				predicate.append(column).append(" < ").append(next);
+			}
+			if (start == min) {
+				predicates.add(predicate.length() == 0 ? "true"
+						: "(" + predicate + " OR " + column + " IS NULL)");
+			} else {
+				predicates.add(predicate.toString());
+			}
+			if (last) {
+				break;
+			}
+			start = next;
+		}
+		return predicates;
+	}
+}
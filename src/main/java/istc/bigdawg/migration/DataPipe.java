@@ -0,0 +1,368 @@
+/**
+ *
+ */
+package istc.bigdawg.migration;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.concurrent.Callable;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import istc.bigdawg.properties.BigDawgConfigProperties;
+
+/**
+ * In-memory pipe between the export and the load of a migration executed in the
+ * same JVM (a replacement for PipedInputStream / PipedOutputStream).
+ *
+ * The bytes are passed in chunks: the writer fills a chunk and hands it over to
+ * the reader through a bounded ring of full chunks; the reader gives the
+ * consumed chunks back for reuse. The threads meet (under the lock) once per
+ * chunk instead of once per write/read and they wait on conditions instead of
+ * polling.
+ *
+ * A failure on either side is propagated to the other side: the blocked (or
+ * next) read/write throws an IOException, so the load never commits a truncated
+ * stream as if it was complete and the export does not wait forever for a
+ * reader which is gone.
+ */
+public class DataPipe {
+
+	private final int chunkSize;
+
+	private final ReentrantLock lock = new ReentrantLock();
+	private final Condition notEmpty = lock.newCondition();
+	private final Condition notFull = lock.newCondition();
+
+	/* ring of the full chunks */
+	private final byte[][] chunks;
+	private final int[] lengths;
+	private int head = 0;
+	private int count = 0;
+
+	/* the consumed chunks ready for reuse */
+	private final ArrayDeque<byte[]> free = new ArrayDeque<>();
+
+	private boolean writerClosed = false;
+	private boolean readerClosed = false;
+	private Throwable failure = null;
+
+	private final Output output = new Output();
+	private final Input input = new Input();
+
+	/**
+	 * Pipe with the chunk size and the number of chunks from the
+	 * configuration.
+	 */
+	public DataPipe() {
+		this(BigDawgConfigProperties.INSTANCE.getMigrationPipeChunkSize(),
+				BigDawgConfigProperties.INSTANCE.getMigrationPipeChunks());
+	}
+
+	/**
+	 * @param chunkSize
+	 *            size of a chunk in bytes
+	 * @param capacity
+	 *            number of full chunks which can wait for the reader
+	 */
+	public DataPipe(int chunkSize, int capacity) {
+		if (chunkSize <= 0 || capacity <= 0) {
+			throw new IllegalArgumentException(
+					"The chunk size and the capacity of the pipe have to be positive.");
+		}
+		this.chunkSize = chunkSize;
+		this.chunks = new byte[capacity][];
+		this.lengths = new int[capacity];
+	}
+
+	/**
+	 * @return the stream to which the export writes (used by one thread)
+	 */
+	public OutputStream getOutputStream() {
+		return output;
+	}
+
+	/**
+	 * @return the stream from which the load reads (used by one thread)
+	 */
+	public InputStream getInputStream() {
+		return input;
+	}
+
+	/**
+	 * Abort the transfer: the subsequent (and the blocked) reads and writes
+	 * throw an IOException with the cause.
+	 *
+	 * @param cause
+	 *            the reason of the failure
+	 */
+	public void fail(Throwable cause) {
+		lock.lock();
+		try {
+			if (failure == null) {
+				failure = cause;
+			}
+			notEmpty.signalAll();
+			notFull.signalAll();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * @param task
+	 *            the export or the load which uses this pipe
+	 * @return the task which fails the pipe when it throws an exception (so
+	 *         the task on the other side of the pipe stops as well)
+	 */
+	public Callable<Object> failOnError(final Callable<Object> task) {
+		return () -> {
+			try {
+				return task.call();
+			} catch (Exception e) {
+				fail(e);
+				throw e;
+			}
+		};
+	}
+
+	private void checkFailure() throws IOException {
+		if (failure != null) {
+			throw new IOException(
+					"The data pipe failed: " + failure.getMessage(), failure);
+		}
+	}
+
+	private void await(Condition condition) throws IOException {
+		try {
+			condition.await();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException(
+					"Interrupted while waiting on the data pipe.");
+		}
+	}
+
+	/**
+	 * Hand over a full chunk to the reader.
+	 *
+	 * @return an empty chunk for the writer
+	 */
+	private byte[] put(byte[] chunk, int length) throws IOException {
+		lock.lock();
+		try {
+			while (count == chunks.length && failure == null
+					&& !readerClosed) {
+				await(notFull);
+			}
+			checkFailure();
+			if (readerClosed) {
+				throw new IOException("The data pipe was closed by the reader.");
+			}
+			int tail = (head + count) % chunks.length;
+			chunks[tail] = chunk;
+			lengths[tail] = length;
+			count++;
+			notEmpty.signal();
+			return free.isEmpty() ? new byte[chunkSize] : free.poll();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Take the next full chunk and give back the consumed one.
+	 *
+	 * @return the next chunk, null at the end of the data
+	 */
+	private byte[] take(byte[] consumed) throws IOException {
+		lock.lock();
+		try {
+			if (consumed != null) {
+				free.push(consumed);
+			}
+			while (count == 0 && !writerClosed && failure == null) {
+				await(notEmpty);
+			}
+			checkFailure();
+			if (count == 0) {
+				return null;
+			}
+			byte[] chunk = chunks[head];
+			input.limit = lengths[head];
+			chunks[head] = null;
+			head = (head + 1) % chunks.length;
+			count--;
+			notFull.signal();
+			return chunk;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	private void closeWriter() {
+		lock.lock();
+		try {
+			writerClosed = true;
+			notEmpty.signalAll();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	private void closeReader() {
+		lock.lock();
+		try {
+			readerClosed = true;
+			count = 0;
+			free.clear();
+			notFull.signalAll();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	private class Output extends OutputStream {
+
+		private byte[] chunk = null;
+		private int position = 0;
+		private boolean closed = false;
+
+		private void ensureOpen() throws IOException {
+			if (closed) {
+				throw new IOException("The data pipe is closed for writing.");
+			}
+			if (chunk == null) {
+				chunk = new byte[chunkSize];
+			}
+		}
+
+		@Override
+		public void write(int b) throws IOException {
+			ensureOpen();
+			if (position == chunkSize) {
+				chunk = put(chunk, position);
+				position = 0;
+			}
+			chunk[position++] = (byte) b;
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException {
+			if (off < 0 || len < 0 || len > b.length - off) {
+				throw new IndexOutOfBoundsException();
+			}
+			ensureOpen();
+			while (len > 0) {
+				if (position == chunkSize) {
+					chunk = put(chunk, position);
+					position = 0;
+				}
+				int n = Math.min(len, chunkSize - position);
+				System.arraycopy(b, off, chunk, position, n);
+				position += n;
+				off += n;
+				len -= n;
+			}
+		}
+
+		/**
+		 * Hand over the bytes written so far (a partially filled chunk).
+		 */
+		@Override
+		public void flush() throws IOException {
+			if (!closed && position > 0) {
+				chunk = put(chunk, position);
+				position = 0;
+			}
+		}
+
+		@Override
+		public void close() throws IOException {
+			if (closed) {
+				return;
+			}
+			try {
+				flush();
+			} finally {
+				closed = true;
+				chunk = null;
+				closeWriter();
+			}
+		}
+	}
+
+	private class Input extends InputStream {
+
+		private byte[] chunk = null;
+		private int position = 0;
+		/* set by take() */
+		private int limit = 0;
+		private boolean closed = false;
+		private boolean end = false;
+
+		/**
+		 * @return false at the end of the data
+		 */
+		private boolean fill() throws IOException {
+			if (closed) {
+				throw new IOException("The data pipe is closed for reading.");
+			}
+			while (position == limit) {
+				if (end) {
+					return false;
+				}
+				chunk = take(chunk);
+				position = 0;
+				if (chunk == null) {
+					end = true;
+					limit = 0;
+					return false;
+				}
+			}
+			return true;
+		}
+
+		@Override
+		public int read() throws IOException {
+			if (!fill()) {
+				return -1;
+			}
+			return chunk[position++] & 0xff;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			if (off < 0 || len < 0 || len > b.length - off) {
+				throw new IndexOutOfBoundsException();
+			}
+			if (len == 0) {
+				return 0;
+			}
+			if (!fill()) {
+				return -1;
+			}
+			int n = Math.min(len, limit - position);
+			System.arraycopy(chunk, position, b, off, n);
+			position += n;
+			return n;
+		}
+
+		@Override
+		public int available() throws IOException {
+			return closed ? 0 : limit - position;
+		}
+
+		@Override
+		public void close() {
+			if (!closed) {
+				closed = true;
+				chunk = null;
+				closeReader();
+			}
+		}
+	}
+}
@@ -0,0 +1,160 @@
+/**
+ *
+ */
+package istc.bigdawg.migration;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.log4j.Logger;
+
+import istc.bigdawg.exceptions.MigrationException;
+import istc.bigdawg.migration.PostgreSQLBinaryFormat.ColumnType;
+import istc.bigdawg.mysql.MySQLConnectionInfo;
+import istc.bigdawg.query.ConnectionInfo;
+import istc.bigdawg.query.DBHandler;
+import istc.bigdawg.utils.StackTrace;
+import istc.bigdawg.vertica.VerticaConnectionInfo;
+
+/**
+ * Export a table from a relational engine (MySQL, Vertica) through JDBC
+ * directly in the binary format of PostgreSQL (to be loaded with COPY ... FROM
+ * STDIN WITH BINARY).
+ *
+ * The rows are streamed from the engine (instead of fetching the whole result
+ * set to memory) and encoded from the typed getters, without the text
+ * representation of the values.
+ */
+public class ExportJdbcBinary implements Export {
+
+	private static final long serialVersionUID = 4283564711296781503L;
+
+	/* log */
+	private static Logger log = Logger.getLogger(ExportJdbcBinary.class);
+
+	/** The fetch size which makes the MySQL driver stream the rows. */
+	public static final int MYSQL_STREAMING = Integer.MIN_VALUE;
+
+	/** The number of rows fetched at once from the other engines. */
+	public static final int DEFAULT_FETCH_SIZE = 10000;
+
+	private transient Connection connection;
+	private final int fetchSize;
+	private transient OutputStream output;
+	/** The types of the columns of the target table in PostgreSQL. */
+	private final ArrayList<ColumnType> types;
+	private transient DBHandler handlerFrom;
+	private transient DBHandler handlerTo;
+	private MigrationInfo migrationInfo;
+
+	/**
+	 * @param connection
+	 *            connection to the source engine
+	 * @param fetchSize
+	 *            {@link #MYSQL_STREAMING} for MySQL,
+	 *            {@link #DEFAULT_FETCH_SIZE} for other engines
+	 * @param output
+	 *            to which the rows are written (closed at the end of the
+	 *            export)
+	 * @param types
+	 *            the types of the columns of the target table in PostgreSQL
+	 * @param handlerFrom
+	 *            handler of the source engine
+	 * @param migrationInfo
+	 *            the source table is the object from
+	 */
+	public ExportJdbcBinary(Connection connection, int fetchSize,
+			OutputStream output, List<ColumnType> types, DBHandler handlerFrom,
+			MigrationInfo migrationInfo) {
+		this.connection = connection;
+		this.fetchSize = fetchSize;
+		this.output = output;
+		this.types = new ArrayList<>(types);
+		this.handlerFrom = handlerFrom;
+		this.migrationInfo = migrationInfo;
+	}
+
+	/**
+	 * Copy the rows from the source table.
+	 *
+	 * @return number of extracted rows
+	 */
+	@Override
+	public Long call() throws MigrationException {
+		log.debug("Start the binary export of " + migrationInfo.getObjectFrom());
+		long start = System.currentTimeMillis();
+		try {
+			connection.setAutoCommit(false);
+			connection.setReadOnly(true);
+			PostgreSQLBinaryFormat.Encoder encoder;
+			try (Statement st = connection.createStatement(
+					ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY)) {
+				st.setFetchSize(fetchSize);
+				encoder = new PostgreSQLBinaryFormat.Encoder(output, types);
+				try (ResultSet rs = st.executeQuery(
+						"SELECT * FROM " + migrationInfo.getObjectFrom())) {
+					while (rs.next()) {
+						encoder.writeRow(rs);
+					}
+				}
+				encoder.finish();
+			}
+			output.close();
+			connection.commit();
+			log.debug("Exported: "
+					+ PostgreSQLBinaryFormat.getThroughput(encoder.getRows(),
+							encoder.getBytes(),
+							System.currentTimeMillis() - start));
+			return encoder.getRows();
+		} catch (SQLException | IOException e) {
+			String msg = e.getMessage()
+					+ " Problem with the binary export of the table "
+					+ migrationInfo.getObjectFrom() + ". ";
+			log.error(msg + StackTrace.getFullStackTrace(e), e);
+			throw new MigrationException(msg, e);
+		}
+	}
+
+	@Override
+	public void setMigrationInfo(MigrationInfo migrationInfo) {
+		this.migrationInfo = migrationInfo;
+	}
+
+	/**
+	 * The rows are always written to the output stream.
+	 */
+	@Override
+	public void setExportTo(String filePath) {
+		throw new UnsupportedOperationException(
+				"The binary export writes only to a stream.");
+	}
+
+	@Override
+	public DBHandler getHandler() throws MigrationException {
+		return handlerFrom;
+	}
+
+	@Override
+	public void setHandlerTo(DBHandler handlerTo) throws MigrationException {
+		this.handlerTo = handlerTo;
+	}
+
+	@Override
+	public boolean isSupportedConnector(ConnectionInfo connection) {
+		return connection instanceof MySQLConnectionInfo
+				|| connection instanceof VerticaConnectionInfo;
+	}
+
+	@Override
+	public String toString() {
+		return "ExportJdbcBinary [fetchSize=" + fetchSize + ", types=" + types
+				+ ", migrationInfo=" + migrationInfo + ", handlerTo="
+				+ handlerTo + "]";
+	}
+}
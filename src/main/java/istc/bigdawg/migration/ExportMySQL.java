@@ -59,7 +59,10 @@ public class ExportMySQL implements Export {
 
             log.debug("Generating copy command.");
             String query = "SELECT * FROM " + migrationInfo.getObjectFrom() + ";";
-            Statement st = connection.createStatement();
+            /* stream the rows instead of fetching the whole table to memory */
+            Statement st = connection.createStatement(
+                    ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+            st.setFetchSize(ExportJdbcBinary.MYSQL_STREAMING);
 
             ResultSet rs = st.executeQuery(query);
             ResultSetMetaData rsmd = rs.getMetaData();
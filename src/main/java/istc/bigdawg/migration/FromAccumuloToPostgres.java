@@ -6,9 +6,11 @@ package istc.bigdawg.migration;
 import java.io.BufferedWriter;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
 import java.io.PrintWriter;
-import java.io.PushbackReader;
-import java.io.StringReader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
@@ -16,6 +18,10 @@ import java.sql.ResultSetMetaData;
 import java.sql.SQLException;
 import java.util.*;
 import java.util.Map.Entry;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import org.apache.accumulo.core.client.AccumuloException;
 import org.apache.accumulo.core.client.AccumuloSecurityException;
@@ -32,6 +38,7 @@ import org.postgresql.copy.CopyManager;
 import org.postgresql.core.BaseConnection;
 
 import istc.bigdawg.accumulo.AccumuloConnectionInfo;
+import istc.bigdawg.accumulo.AccumuloExecutionEngine;
 import istc.bigdawg.accumulo.AccumuloInstance;
 import istc.bigdawg.accumulo.AccumuloMigrationParams;
 
@@ -43,15 +50,23 @@ import istc.bigdawg.accumulo.AccumuloMigrationParams;
 
 import istc.bigdawg.exceptions.AccumuloBigDawgException;
 import istc.bigdawg.exceptions.MigrationException;
+import istc.bigdawg.islands.text.operators.TextScan;
 import istc.bigdawg.postgresql.PostgreSQLConnectionInfo;
 import istc.bigdawg.postgresql.PostgreSQLHandler;
 import istc.bigdawg.postgresql.PostgreSQLInstance;
-import istc.bigdawg.utils.ListConncatenator;
+import istc.bigdawg.properties.BigDawgConfigProperties;
+import istc.bigdawg.relational.RelationalHandler;
 import istc.bigdawg.utils.StackTrace;
+import istc.bigdawg.utils.TaskExecutor;
 
 /**
  * @author Adam Dziedzic
  * 
+ *         Migrate a table from Accumulo to PostgreSQL. The entries with the
+ *         same row id form a row in PostgreSQL (the column qualifier is the
+ *         name of the column). The tablets of the table are scanned in
+ *         parallel and the rows are streamed as csv to COPY ... FROM STDIN
+ *         through several connections.
  */
 public class FromAccumuloToPostgres extends FromDatabaseToDatabase {
 
@@ -67,21 +82,40 @@ public class FromAccumuloToPostgres extends FromDatabaseToDatabase {
 	private PreparedStatement st = null;
 	private ResultSet rs = null;
 	private AccumuloInstance accInst = null;
+	/* to open the connections of the parallel COPY streams */
+	private PostgreSQLConnectionInfo conInfoTo = null;
+	/* the table created for the migration, dropped if the migration fails */
+	private String createdTable = null;
 
 	// parameters
-	private int postgreSQLWritebatchSize = 1000;
-	private int postgreSQLReaderCharSize = 1000000;
+	private int copyStreams = BigDawgConfigProperties.INSTANCE
+			.getMigrationAccumuloCopyStreams();
 	private char delimiter = '|';
 
 	public FromAccumuloToPostgres() {
 
 	}
 
+	/**
+	 * Migrate the data through the given connection (in a single COPY
+	 * stream).
+	 */
 	public FromAccumuloToPostgres(AccumuloInstance accInst, Connection con) {
 		this.accInst = accInst;
 		this.con = con;
 	}
 
+	/**
+	 * Migrate the data through at most copyStreams parallel COPY streams,
+	 * each on its own connection to PostgreSQL.
+	 */
+	public FromAccumuloToPostgres(AccumuloInstance accInst,
+			PostgreSQLConnectionInfo conInfoTo, int copyStreams) {
+		this.accInst = accInst;
+		this.conInfoTo = conInfoTo;
+		this.copyStreams = copyStreams;
+	}
+
 	private void cleanPostgreSQLResources() throws SQLException {
 		if (rs != null) {
 			rs.close();
@@ -120,20 +154,146 @@ public class FromAccumuloToPostgres extends FromDatabaseToDatabase {
 		return rs.getMetaData();
 	}
 
-	public void createNewRowForPostgres(String[] row, StringBuilder sBuilder) {
-		// we finished a new row;
-		String rowString = ListConncatenator.joinList(row, delimiter, "\n");
-		// System.out.println(rowString);
-		sBuilder.append(rowString);
+	/**
+	 * Write the row as a line of csv (as expected by COPY ... WITH (FORMAT
+	 * csv)): null (a column without an entry in Accumulo) is an empty field,
+	 * the fields which are empty strings or contain the delimiter, quotes or
+	 * new lines are quoted.
+	 */
+	static void writeCsvRow(String[] row, char delimiter, Writer writer)
+			throws IOException {
+		for (int i = 0; i < row.length; ++i) {
+			if (i > 0) {
+				writer.write(delimiter);
+			}
+			String value = row[i];
+			if (value == null) {
+				continue;
+			}
+			if (value.isEmpty() || value.indexOf(delimiter) >= 0
+					|| value.indexOf('"') >= 0 || value.indexOf('\n') >= 0
+					|| value.indexOf('\r') >= 0) {
+				writer.write('"');
+				writer.write(value.replace("\"", "\"\""));
+				writer.write('"');
+			} else {
+				writer.write(value);
+			}
+		}
+		writer.write('\n');
 	}
 
-	public void flushRowsToPostgreSQL(StringBuilder sBuilder,
-			PushbackReader reader, CopyManager cpManager, String postgresTable,
-			String copyString) throws IOException, SQLException {
-		// System.out.println(sBuilder.toString());
-		reader.unread(sBuilder.toString().toCharArray());
-		cpManager.copyIn(copyString.toString(), reader);
-		sBuilder.delete(0, sBuilder.length());
+	/**
+	 * Scan the ranges of the Accumulo table one after another and write the
+	 * rows (the entries with the same row id) as csv to the output. The
+	 * columns and the filter of the scan (if any) are pushed down to the
+	 * tablet servers.
+	 * 
+	 * @return number of rows
+	 */
+	long exportRows(String accumuloTable, TextScan textScan,
+			List<Range> ranges, Map<String, Integer> mapNameCol,
+			OutputStream output)
+					throws TableNotFoundException, MigrationException,
+					IOException {
+		long rows = 0;
+		String[] row = new String[mapNameCol.size()];
+		try (Writer writer = new BufferedWriter(
+				new OutputStreamWriter(output, StandardCharsets.UTF_8))) {
+			for (Range range : ranges) {
+				Text rowId = null;
+				Scanner scan = accInst.getConn().createScanner(accumuloTable,
+						new Authorizations());
+				scan.setRange(range);
+				if (textScan != null) {
+					AccumuloExecutionEngine.pushDown(textScan, scan);
+				}
+				for (Entry<Key, Value> e : scan) {
+					Text thisRowId = e.getKey().getRow();
+					// omit first initialization of rowId
+					if (rowId != null && !rowId.equals(thisRowId)) {
+						++rows;
+						writeCsvRow(row, delimiter, writer);
+						Arrays.fill(row, null);
+					}
+					rowId = thisRowId;
+					Text colq = e.getKey().getColumnQualifier();
+					String value = e.getValue().toString();
+					/*
+					 * Column number (index) in PostgreSQL starts from 1.
+					 * 
+					 * All identifiers (including column names) that are not
+					 * double-quoted are folded to lower case in PostgreSQL, so
+					 * we have to change the column qualifier from Accumulo
+					 * (that denotes column name in PostgreSQL to lowercase.
+					 */
+					Integer colIndex = mapNameCol
+							.get(colq.toString().toLowerCase());
+					if (colIndex == null) {
+						throw new MigrationException(
+								"No such column in PostgreSQL: "
+										+ colq.toString()
+										+ ". Current columns in PostgreSQL table are: "
+										+ mapNameCol.toString());
+					}
+					row[colIndex] = value;
+				}
+				/* a row is never split between tablets */
+				if (rowId != null) {
+					++rows;
+					writeCsvRow(row, delimiter, writer);
+					Arrays.fill(row, null);
+				}
+			}
+		}
+		return rows;
+	}
+
+	private void rollback(List<Connection> connections) {
+		for (Connection connection : connections) {
+			try {
+				connection.rollback();
+			} catch (SQLException e) {
+				logger.error("Could not roll back the COPY to PostgreSQL. "
+						+ e.getMessage(), e);
+			}
+		}
+		dropCreatedTable();
+	}
+
+	/**
+	 * Create the target table on a separate connection in the auto-commit
+	 * mode, so that the connections of all the COPY streams see it.
+	 */
+	private void createTable(String name, String table, String createStatement)
+			throws SQLException {
+		try (Connection createCon = PostgreSQLHandler
+				.getConnection(conInfoTo)) {
+			createCon.setAutoCommit(true);
+			PostgreSQLHandler.createTargetTableSchema(createCon, name, table,
+					createStatement);
+		}
+		createdTable = table;
+	}
+
+	/**
+	 * Drop the table created for the migration (after the COPY streams were
+	 * rolled back and released their locks).
+	 */
+	private void dropCreatedTable() {
+		if (createdTable == null) {
+			return;
+		}
+		try (Connection dropCon = PostgreSQLHandler
+				.getConnection(conInfoTo)) {
+			dropCon.setAutoCommit(true);
+			PostgreSQLHandler.executeStatement(dropCon,
+					RelationalHandler.getDropTableStatement(createdTable));
+		} catch (SQLException e) {
+			logger.error("Could not drop the table " + createdTable
+					+ " after the failed migration. " + e.getMessage(), e);
+		}
+		createdTable = null;
 	}
 
 	@Override
@@ -150,6 +310,7 @@ public class FromAccumuloToPostgres extends FromDatabaseToDatabase {
 		PostgreSQLConnectionInfo conTo = (PostgreSQLConnectionInfo) migrationInfo
 				.getConnectionTo();
 		logger.debug(conTo);
+		this.conInfoTo = conTo;
 		try {
 			this.con = PostgreSQLHandler.getConnection(conTo);
 			con.setAutoCommit(false);
@@ -163,8 +324,8 @@ public class FromAccumuloToPostgres extends FromDatabaseToDatabase {
 				logger.debug(
 						"The create table statement to be executed in PostgreSQL: "
 								+ createStatement);
-				PostgreSQLHandler.createTargetTableSchema(con, name.orElse(null),
-						migrationInfo.getObjectTo(), createStatement);
+				createTable(name.orElse(null), migrationInfo.getObjectTo(),
+						createStatement);
 			}
 		} catch (SQLException e) {
 			String msg = "Could not connect to PostgreSQL.";
@@ -174,23 +335,33 @@ public class FromAccumuloToPostgres extends FromDatabaseToDatabase {
 		try {
 			this.accInst = AccumuloInstance.getFullInstance(conFrom);
 		} catch (AccumuloSecurityException | AccumuloException e) {
+			dropCreatedTable();
 			throw new MigrationException("Problem with Accumulo", e);
 		}
 
-		/* Extract range for table scanning in Accumulo. */
+		/* Extract range and scan for table scanning in Accumulo. */
 		Range range = null;
+		TextScan scan = null;
 		MigrationParams params = migrationInfo.getMigrationParams()
 				.orElse(null);
 		if (params != null) {
 			if (params instanceof AccumuloMigrationParams) {
 				AccumuloMigrationParams accParams = (AccumuloMigrationParams) params;
 				range = accParams.getSourceTableRange();
+				scan = accParams.getSourceScan().orElse(null);
 			}
 		}
+		if (scan != null && scan.getAggregate() != null) {
+			/* the tablets return partial aggregates */
+			dropCreatedTable();
+			throw new MigrationException(
+					"Cannot migrate the aggregate of a scan of "
+							+ migrationInfo.getObjectFrom());
+		}
 
 		try {
 			return fromAccumuloToPostgres(migrationInfo.getObjectFrom(),
-					migrationInfo.getObjectTo(), range);
+					migrationInfo.getObjectTo(), range, scan);
 		} catch (AccumuloException | AccumuloSecurityException
 				| AccumuloBigDawgException | TableNotFoundException
 				| SQLException | IOException e) {
@@ -205,6 +376,19 @@ public class FromAccumuloToPostgres extends FromDatabaseToDatabase {
 					throws AccumuloException, AccumuloSecurityException,
 					AccumuloBigDawgException, SQLException,
 					TableNotFoundException, IOException, MigrationException {
+		return fromAccumuloToPostgres(accumuloTable, postgresTable,
+				accumuloRange, null);
+	}
+
+	/**
+	 * Migrate the entries of the range of the Accumulo table which match the
+	 * columns and the filter of the scan (all entries if the scan is null).
+	 */
+	public MigrationResult fromAccumuloToPostgres(final String accumuloTable,
+			final String postgresTable, Range accumuloRange, TextScan scan)
+					throws AccumuloException, AccumuloSecurityException,
+					AccumuloBigDawgException, SQLException,
+					TableNotFoundException, IOException, MigrationException {
 		logger.debug("Migrate data from Accumulo to Postgres.");
 		long startTimeMigration = System.currentTimeMillis();
 		/*
@@ -213,14 +397,24 @@ public class FromAccumuloToPostgres extends FromDatabaseToDatabase {
 		 */
 		long accumuloCounter = 0; /* Number of rows/tuples from Accumulo. */
 		long postgresCounter = 0; /* Number of rows/tuples for PostgreSQL. */
-		StringBuilder copyStringBuf = new StringBuilder();
-		copyStringBuf.append("COPY ");
-		copyStringBuf.append(postgresTable);
-		copyStringBuf.append(" FROM STDIN WITH (DELIMITER '");
-		copyStringBuf.append(delimiter);
-		copyStringBuf.append("')");
-		String copyString = copyStringBuf.toString();
+		/*
+		 * Each stream is a single COPY fed with the rows while they are
+		 * scanned, so the data is sent in the chunks of the pipe (sized in
+		 * bytes, whatever the width of the rows) instead of a COPY per batch of
+		 * rows.
+		 */
+		String copyString = "COPY " + postgresTable
+				+ " FROM STDIN WITH (FORMAT csv, DELIMITER '" + delimiter
+				+ "')";
+		List<Connection> streamConnections = new ArrayList<>();
+		ExecutorService executor = null;
 		try {
+			if (con == null || con.isClosed()) {
+				con = PostgreSQLHandler.getConnection(conInfoTo);
+				con.setAutoCommit(false);
+			}
+			/* rolled back on failure (it reads the metadata of the table) */
+			streamConnections.add(con);
 			ResultSetMetaData rsmd = getMetaData(postgresTable);
 			if (rsmd == null) {
 				String message = "There is no table: " + postgresTable;
@@ -233,66 +427,69 @@ public class FromAccumuloToPostgres extends FromDatabaseToDatabase {
 					logger.debug("Column name: " + columnName);
 					mapNameCol.put(columnName, i);
 				}
-				StringBuilder sBuilder = new StringBuilder();
-				CopyManager cpManager = new CopyManager(
-						(BaseConnection) this.con); // ((PGConnection)
-				// con).getCopyAPI();
-				PushbackReader reader = new PushbackReader(new StringReader(""),
-						postgreSQLReaderCharSize);
-				// create a new row
-				String[] row = new String[numOfCol];
-				Text rowId = null;
-				Scanner scan = accInst.getConn().createScanner(accumuloTable,
-						new Authorizations());
-				if (accumuloRange != null) {
-					scan.setRange(accumuloRange);
-				}
-				for (Entry<Key, Value> e : scan) {
-					Text thisRowId = e.getKey().getRow();
-					// System.out.println(thisRowId);
-					// omit first initialization of rowId
-					if (rowId != null && !rowId.equals(thisRowId)) {
-						++postgresCounter;
-						++accumuloCounter;
-						createNewRowForPostgres(row, sBuilder);
-						if (accumuloCounter % postgreSQLWritebatchSize == 0) {
-							flushRowsToPostgreSQL(sBuilder, reader, cpManager,
-									postgresTable, copyString);
-						}
-						row = new String[numOfCol];
+				/* The tablets are scanned in parallel by the streams. */
+				List<Range> ranges = AccumuloExecutionEngine.splitRange(
+						accumuloRange, accInst.getConn().tableOperations()
+								.listSplits(accumuloTable));
+				int streams = conInfoTo == null ? 1
+						: Math.max(1, Math.min(copyStreams, ranges.size()));
+				if (streams > 1) {
+					for (int i = 1; i < streams; ++i) {
+						Connection streamCon = PostgreSQLHandler
+								.getConnection(conInfoTo);
+						streamCon.setAutoCommit(false);
+						streamConnections.add(streamCon);
 					}
-					rowId = thisRowId;
-					Text colq = e.getKey().getColumnQualifier();
-					String value = e.getValue().toString();
-					/*
-					 * Column number (index) in PostgreSQL starts from 1.
-					 * 
-					 * All identifiers (including column names) that are not
-					 * double-quoted are folded to lower case in PostgreSQL, so
-					 * we have to change the column qualifier from Accumulo
-					 * (that denotes column name in PostgreSQL to lowercase.
-					 */
-					Integer colIndex = mapNameCol
-							.get(colq.toString().toLowerCase());
-					if (colIndex == null) {
-						throw new MigrationException(
-								"No such column in PostgreSQL: "
-										+ colq.toString()
-										+ ". Current columns in PostgreSQL table are: "
-										+ mapNameCol.toString());
+				}
+				logger.debug("Migrate " + ranges.size() + " tablet ranges in "
+						+ streams + " COPY streams.");
+				List<Callable<Object>> tasks = new ArrayList<>();
+				for (int i = 0; i < streams; ++i) {
+					List<Range> streamRanges = new ArrayList<>();
+					for (int r = i; r < ranges.size(); r += streams) {
+						streamRanges.add(ranges.get(r));
 					}
-					row[colIndex] = value;
+					final DataPipe pipe = new DataPipe();
+					final CopyManager cpManager = new CopyManager(
+							(BaseConnection) streamConnections.get(i));
+					tasks.add(pipe.failOnError(
+							() -> exportRows(accumuloTable, scan, streamRanges,
+									mapNameCol, pipe.getOutputStream())));
+					tasks.add(pipe.failOnError(() -> cpManager
+							.copyIn(copyString, pipe.getInputStream())));
 				}
-				if (rowId != null) {
-					++postgresCounter;
-					++accumuloCounter;
-					createNewRowForPostgres(row, sBuilder);
-					flushRowsToPostgreSQL(sBuilder, reader, cpManager,
-							postgresTable, copyString);
+				executor = Executors.newFixedThreadPool(tasks.size());
+				List<Future<Object>> results = TaskExecutor.execute(executor,
+						tasks);
+				for (int i = 0; i < results.size(); i += 2) {
+					accumuloCounter += (Long) results.get(i).get();
+					postgresCounter += (Long) results.get(i + 1).get();
+				}
+				for (Connection streamCon : streamConnections) {
+					streamCon.commit();
 				}
-				con.commit();
 			}
+		} catch (MigrationException e) {
+			rollback(streamConnections);
+			throw e;
+		} catch (Exception e) {
+			rollback(streamConnections);
+			throw new MigrationException(e.getMessage(), e);
 		} finally {
+			if (executor != null) {
+				executor.shutdownNow();
+			}
+			/* this.con is closed with the other resources */
+			for (Connection streamCon : streamConnections) {
+				if (streamCon != con) {
+					try {
+						streamCon.close();
+					} catch (SQLException e) {
+						logger.error("Could not close the connection of a "
+								+ "COPY stream. " + e.getMessage(), e);
+					}
+				}
+			}
 			cleanPostgreSQLResources();
 		}
 
@@ -341,11 +538,9 @@ public class FromAccumuloToPostgres extends FromDatabaseToDatabase {
 			scaleFactor = args[1];
 			System.out.println("scaleFactor: " + scaleFactor);
 		}
-		FromAccumuloToPostgres fromAccumuloToPostgres = null;
+		AccumuloInstance instance = null;
 		try {
-			AccumuloInstance instance = AccumuloInstance.getInstance();
-			Connection con = PostgreSQLInstance.getConnection();
-			fromAccumuloToPostgres = new FromAccumuloToPostgres(instance, con);
+			instance = AccumuloInstance.getInstance();
 		} catch (AccumuloException | AccumuloSecurityException
 				| AccumuloBigDawgException e1) {
 			e1.printStackTrace();
@@ -380,7 +575,10 @@ public class FromAccumuloToPostgres extends FromDatabaseToDatabase {
 			long lStartTime = System.nanoTime();
 			for (String table : tables) {
 				// System.out.println("Table: " + table);
-				fromAccumuloToPostgres.fromAccumuloToPostgres(table, table);
+				/* the connection is closed after the migration of a table */
+				new FromAccumuloToPostgres(instance,
+						PostgreSQLInstance.getConnection())
+								.fromAccumuloToPostgres(table, table);
 			}
 			String message = "From Accumulo To Postgres execution time in seconds: "
 					+ (System.nanoTime() - lStartTime) / 1000000000L
@@ -327,7 +327,11 @@ public class FromDatabaseToDatabase implements MigrationNetworkRequest {
 			MigrationResult migrationResult = new MigrationResult(
 					countExtractedElements, countLoadedElements, durationMsec,
 					startTimeMigration, endTimeMigration);
-			String message = "Migration was executed correctly.";
+			Double compressionRatio = bytesSent > 0
+					? (double) dataOut.getBytesOnWire() / bytesSent : null;
+			String message = "Migration was executed correctly. Network codec: "
+					+ dataOut.getUsedCodec() + ", compression ratio: "
+					+ compressionRatio + ".";
 			return summary(migrationResult, migrationInfo, message);
 		} catch (Exception e) {
 			String msg = e.getMessage();
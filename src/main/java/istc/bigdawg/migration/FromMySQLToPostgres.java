@@ -2,6 +2,7 @@ package istc.bigdawg.migration;
 
 import istc.bigdawg.LoggerSetup;
 import istc.bigdawg.exceptions.MigrationException;
+import istc.bigdawg.migration.PostgreSQLBinaryFormat.ColumnType;
 import istc.bigdawg.migration.datatypes.MySQLPostgresTranslation;
 import istc.bigdawg.mysql.MySQLConnectionInfo;
 import istc.bigdawg.mysql.MySQLHandler;
@@ -17,8 +18,6 @@ import istc.bigdawg.utils.TaskExecutor;
 import org.apache.commons.net.ntp.TimeStamp;
 import org.apache.log4j.Logger;
 
-import java.io.PipedInputStream;
-import java.io.PipedOutputStream;
 import java.sql.Connection;
 import java.sql.SQLException;
 import java.util.ArrayList;
@@ -165,14 +164,23 @@ public class FromMySQLToPostgres extends FromDatabaseToDatabase {
 
             createTargetTableSchema(conFrom, conTo);
 
-            final PipedOutputStream output = new PipedOutputStream();
-            final PipedInputStream input = new PipedInputStream(output);
-            mysqlPipe = Pipe.INSTANCE.createAndGetFullName(
-                    this.getClass().getName() + "_fromMySQL_" + getObjectFrom());
-
             List<Callable<Object>> tasks = new ArrayList<>();
-            tasks.add(new ExportMySQL(conFrom, mysqlPipe, new PostgreSQLHandler(getConnectionTo()), migrationInfo));
-            tasks.add(new LoadPostgres(conTo, migrationInfo, copyToCommand, mysqlPipe));
+            List<ColumnType> binaryTypes = BigDawgConfigProperties.INSTANCE.isMigrationJdbcBinary()
+                    ? PostgreSQLBinaryFormat.getBinaryColumnTypes(conTo, getObjectTo(), conFrom, getObjectFrom())
+                    : null;
+            if (binaryTypes != null) {
+                /* stream the rows from MySQL directly in the binary format of PostgreSQL */
+                DataPipe pipe = new DataPipe();
+                tasks.add(pipe.failOnError(new ExportJdbcBinary(conFrom, ExportJdbcBinary.MYSQL_STREAMING,
+                        pipe.getOutputStream(), binaryTypes, new MySQLHandler(getConnectionFrom()), migrationInfo)));
+                tasks.add(pipe.failOnError(new LoadPostgres(conTo, migrationInfo,
+                        PostgreSQLHandler.getLoadBinCommand(getObjectTo()), pipe.getInputStream())));
+            } else {
+                mysqlPipe = Pipe.INSTANCE.createAndGetFullName(
+                        this.getClass().getName() + "_fromMySQL_" + getObjectFrom());
+                tasks.add(new ExportMySQL(conFrom, mysqlPipe, new PostgreSQLHandler(getConnectionTo()), migrationInfo));
+                tasks.add(new LoadPostgres(conTo, migrationInfo, copyToCommand, mysqlPipe));
+            }
 
             executor = Executors.newFixedThreadPool(tasks.size());
             List<Future<Object>> results = TaskExecutor.execute(executor,
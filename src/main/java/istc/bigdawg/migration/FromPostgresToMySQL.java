@@ -2,6 +2,7 @@ package istc.bigdawg.migration;
 
 import istc.bigdawg.LoggerSetup;
 import istc.bigdawg.exceptions.MigrationException;
+import istc.bigdawg.migration.PostgreSQLBinaryFormat.ColumnType;
 import istc.bigdawg.migration.datatypes.MySQLPostgresTranslation;
 import istc.bigdawg.mysql.MySQLConnectionInfo;
 import istc.bigdawg.mysql.MySQLHandler;
@@ -17,8 +18,6 @@ import istc.bigdawg.utils.TaskExecutor;
 import org.apache.commons.net.ntp.TimeStamp;
 import org.apache.log4j.Logger;
 
-import java.io.PipedInputStream;
-import java.io.PipedOutputStream;
 import java.sql.Connection;
 import java.sql.SQLException;
 import java.util.ArrayList;
@@ -162,15 +161,24 @@ public class FromPostgresToMySQL extends FromDatabaseToDatabase {
 
             createTargetTableSchema(conFrom, conTo);
 
-            final PipedOutputStream output = new PipedOutputStream();
-            final PipedInputStream input = new PipedInputStream(output);
-            mysqlPipe = Pipe.INSTANCE.createAndGetFullName(
-                    this.getClass().getName() + "_toMySQL_" + getObjectFrom());
-
             List<Callable<Object>> tasks = new ArrayList<>();
-            tasks.add(new ExportPostgres(migrationInfo.getConnectionFrom(), copyFromCommand,
-                    mysqlPipe, new MySQLHandler(getConnectionTo())));
-            tasks.add(new LoadMySQL(conTo, migrationInfo, mysqlPipe));
+            List<ColumnType> binaryTypes = BigDawgConfigProperties.INSTANCE.isMigrationJdbcBinary()
+                    ? PostgreSQLBinaryFormat.getBinaryColumnTypes(conFrom, getObjectFrom(), conTo, getObjectTo())
+                    : null;
+            if (binaryTypes != null) {
+                /* export in the binary format of PostgreSQL and insert the decoded rows to MySQL */
+                DataPipe pipe = new DataPipe();
+                tasks.add(pipe.failOnError(new ExportPostgres(conFrom, PostgreSQLHandler.getExportBinCommand(getObjectFrom()),
+                        pipe.getOutputStream(), new MySQLHandler(getConnectionTo()))));
+                tasks.add(pipe.failOnError(new LoadJdbcBinary(conTo, migrationInfo, pipe.getInputStream(),
+                        binaryTypes, true, new MySQLHandler(getConnectionTo()))));
+            } else {
+                mysqlPipe = Pipe.INSTANCE.createAndGetFullName(
+                        this.getClass().getName() + "_toMySQL_" + getObjectFrom());
+                tasks.add(new ExportPostgres(migrationInfo.getConnectionFrom(), copyFromCommand,
+                        mysqlPipe, new MySQLHandler(getConnectionTo())));
+                tasks.add(new LoadMySQL(conTo, migrationInfo, mysqlPipe));
+            }
 
             executor = Executors.newFixedThreadPool(tasks.size());
             logger.debug("Executing tasks");
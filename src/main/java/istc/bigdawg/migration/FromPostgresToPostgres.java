@@ -3,10 +3,10 @@
  */
 package istc.bigdawg.migration;
 
-import java.io.PipedInputStream;
-import java.io.PipedOutputStream;
 import java.sql.Connection;
+import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.sql.Statement;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Optional;
@@ -14,11 +14,13 @@ import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 
 import istc.bigdawg.properties.BigDawgConfigProperties;
 import istc.bigdawg.relational.RelationalHandler;
 import org.apache.commons.net.ntp.TimeStamp;
 import org.apache.log4j.Logger;
+import org.postgresql.core.BaseConnection;
 
 import istc.bigdawg.LoggerSetup;
 import istc.bigdawg.exceptions.MigrationException;
@@ -163,7 +165,27 @@ public class FromPostgresToPostgres extends FromDatabaseToDatabase {
 		return this.executeMigration();
 	}
 
+	/**
+	 * Migrate the data with a single COPY stream or, if the degree of
+	 * parallelism (from {@link MigrationParams#getParallelism()} or the
+	 * configuration) is greater than 1, with many concurrent streams.
+	 */
 	public MigrationResult executeMigration() throws MigrationException {
+		int parallelism = migrationInfo.getMigrationParams()
+				.map(MigrationParams::getParallelism).filter(p -> p > 0)
+				.orElse(BigDawgConfigProperties.INSTANCE
+						.getPostgreSQLMigrationParallelism());
+		if (parallelism > 1) {
+			return executeMigrationParallel(parallelism);
+		}
+		return executeMigrationSequential();
+	}
+
+	/**
+	 * Migrate the data through one pair of COPY OUT and COPY IN.
+	 */
+	private MigrationResult executeMigrationSequential()
+			throws MigrationException {
 		TimeStamp startTimeStamp = TimeStamp.getCurrentTime();
 		logger.debug("start migration: " + startTimeStamp.toDateString());
 
@@ -185,14 +207,14 @@ public class FromPostgresToPostgres extends FromDatabaseToDatabase {
 
 			createTargetTableSchema(conFrom, conTo);
 
-			final PipedOutputStream output = new PipedOutputStream();
-			final PipedInputStream input = new PipedInputStream(output);
+			final DataPipe pipe = new DataPipe();
 
 			List<Callable<Object>> tasks = new ArrayList<>();
-			tasks.add(new ExportPostgres(conFrom, copyFromCommand, output,
-					new PostgreSQLHandler(getConnectionTo())));
-			tasks.add(new LoadPostgres(conTo, migrationInfo, copyToCommand,
-					input));
+			tasks.add(pipe.failOnError(new ExportPostgres(conFrom,
+					copyFromCommand, pipe.getOutputStream(),
+					new PostgreSQLHandler(getConnectionTo()))));
+			tasks.add(pipe.failOnError(new LoadPostgres(conTo, migrationInfo,
+					copyToCommand, pipe.getInputStream())));
 			executor = Executors.newFixedThreadPool(tasks.size());
 			List<Future<Object>> results = TaskExecutor.execute(executor,
 					tasks);
@@ -275,6 +297,250 @@ public class FromPostgresToPostgres extends FromDatabaseToDatabase {
 		}
 	}
 
+	/**
+	 * Split the source table into chunks and copy them over separate
+	 * connections concurrently (binary COPY).
+	 * 
+	 * All source connections read from the same snapshot (exported by the
+	 * coordinating connection), so the chunks form a consistent copy of the
+	 * table. The target table is created (and committed) first so that the
+	 * loading connections can see it, each chunk is loaded in its own
+	 * transaction and the transactions are committed only when all the chunks
+	 * were copied; on a failure, all of them are rolled back and the target
+	 * table is dropped.
+	 * 
+	 * If the table cannot be split (for example, it is a view or it is
+	 * empty), then the data is migrated sequentially.
+	 * 
+	 * @param parallelism
+	 *            number of chunks (and pairs of connections)
+	 */
+	private MigrationResult executeMigrationParallel(int parallelism)
+			throws MigrationException {
+		logger.debug("start parallel migration with " + parallelism
+				+ " streams");
+		long startTimeMigration = System.currentTimeMillis();
+		Connection conFrom = null;
+		Connection conTo = null;
+		List<Connection> connections = new ArrayList<>();
+		List<Connection> connectionsTo = new ArrayList<>();
+		boolean targetCreated = false;
+		ExecutorService executor = null;
+		try {
+			conFrom = PostgreSQLHandler.getConnection(getConnectionFrom());
+			conFrom.setAutoCommit(false);
+			/* the snapshot can be exported only from this isolation level */
+			PostgreSQLHandler.executeStatement(conFrom,
+					"SET TRANSACTION ISOLATION LEVEL REPEATABLE READ, READ ONLY");
+			List<String> predicates = getPartitionPredicates(conFrom,
+					parallelism);
+			if (predicates.size() < 2) {
+				logger.debug("The table " + getObjectFrom()
+						+ " cannot be split, migrate it sequentially.");
+				conFrom.rollback();
+				conFrom.close();
+				conFrom = null;
+				return executeMigrationSequential();
+			}
+			conTo = PostgreSQLHandler.getConnection(getConnectionTo());
+			conTo.setAutoCommit(false);
+			createTargetTableSchema(conFrom, conTo);
+			conTo.commit();
+			targetCreated = true;
+			/* the last use of conFrom: a failure aborts its transaction */
+			String snapshot = exportSnapshot(conFrom);
+
+			List<CopyPostgresChunk> chunks = new ArrayList<>();
+			for (String predicate : predicates) {
+				Connection chunkFrom = PostgreSQLHandler
+						.getConnection(getConnectionFrom());
+				connections.add(chunkFrom);
+				chunkFrom.setAutoCommit(false);
+				PostgreSQLHandler.executeStatement(chunkFrom,
+						"SET TRANSACTION ISOLATION LEVEL REPEATABLE READ, READ ONLY");
+				if (snapshot != null) {
+					PostgreSQLHandler.executeStatement(chunkFrom,
+							"SET TRANSACTION SNAPSHOT '" + snapshot + "'");
+				}
+				Connection chunkTo = PostgreSQLHandler
+						.getConnection(getConnectionTo());
+				connections.add(chunkTo);
+				connectionsTo.add(chunkTo);
+				chunkTo.setAutoCommit(false);
+				chunks.add(new CopyPostgresChunk(chunkFrom, chunkTo,
+						getObjectFrom(), predicate, getObjectTo()));
+			}
+			List<Callable<Object>> tasks = new ArrayList<>(chunks);
+			executor = Executors.newFixedThreadPool(tasks.size());
+			List<Future<Object>> results = TaskExecutor.execute(executor,
+					tasks);
+			long countLoadedElements = 0;
+			for (Future<Object> result : results) {
+				countLoadedElements += (Long) result.get();
+			}
+			/* all the chunks are loaded, make them visible */
+			for (Connection chunkTo : connectionsTo) {
+				chunkTo.commit();
+			}
+			long countExtractedElements = 0;
+			for (CopyPostgresChunk chunk : chunks) {
+				countExtractedElements += chunk.getCountExtractedRows();
+			}
+			long endTimeMigration = System.currentTimeMillis();
+			long durationMsec = endTimeMigration - startTimeMigration;
+			logger.debug("parallel migration duration time msec: "
+					+ durationMsec);
+			MigrationResult migrationResult = new MigrationResult(
+					countExtractedElements, countLoadedElements, durationMsec,
+					startTimeMigration, endTimeMigration);
+			String message = "Migration was executed correctly with "
+					+ chunks.size() + " concurrent streams.";
+			return summary(migrationResult, migrationInfo, message);
+		} catch (Exception e) {
+			String message = e.getMessage()
+					+ " Parallel migration failed. Task did not finish correctly. ";
+			logger.error(message + " Stack Trace: "
+					+ StackTrace.getFullStackTrace(e), e);
+			/* stop the chunks which are still copying */
+			for (Connection connection : connections) {
+				try {
+					((BaseConnection) connection).cancelQuery();
+				} catch (SQLException ex) {
+					logger.error("Could not cancel a chunk of the migration: "
+							+ ex.getMessage());
+				}
+			}
+			if (executor != null) {
+				executor.shutdown();
+				try {
+					executor.awaitTermination(30, TimeUnit.SECONDS);
+				} catch (InterruptedException ex) {
+					Thread.currentThread().interrupt();
+				}
+			}
+			for (Connection connection : connections) {
+				try {
+					connection.rollback();
+				} catch (SQLException ex) {
+					logger.error("Could not roll back a chunk of the migration: "
+							+ ex.getMessage());
+				}
+			}
+			if (targetCreated) {
+				try {
+					conTo.rollback();
+					PostgreSQLHandler.executeStatement(conTo,
+							RelationalHandler.getDropTableStatement(getObjectTo()));
+					conTo.commit();
+				} catch (SQLException ex) {
+					String messageDrop = " Could not drop the target table "
+							+ getObjectTo() + " after failure in data migration: "
+							+ ex.getMessage();
+					logger.error(messageDrop);
+					message += messageDrop;
+				}
+			}
+			throw new MigrationException(message, e);
+		} finally {
+			for (Connection connection : connections) {
+				try {
+					connection.close();
+				} catch (SQLException e) {
+					logger.error("Could not close a connection of the migration. "
+							+ StackTrace.getFullStackTrace(e), e);
+				}
+			}
+			for (Connection connection : new Connection[] { conFrom, conTo }) {
+				if (connection != null) {
+					try {
+						/* ends the transaction which exported the snapshot */
+						connection.rollback();
+						connection.close();
+					} catch (SQLException e) {
+						logger.error("Could not close a connection of the migration. "
+								+ StackTrace.getFullStackTrace(e), e);
+					}
+				}
+			}
+			if (executor != null && !executor.isShutdown()) {
+				executor.shutdownNow();
+			}
+		}
+	}
+
+	/**
+	 * Split the source table into at most parallelism chunks: by ranges of
+	 * values of the partition column (if given in the migration params) or by
+	 * ranges of physical blocks.
+	 * 
+	 * The ranges of blocks are used only from PostgreSQL 14, which reads them
+	 * with TID range scans; older versions scan the whole table for each
+	 * chunk, so the table is not split.
+	 * 
+	 * @return predicates that select the rows of each chunk (empty if the
+	 *         table cannot be split)
+	 */
+	private List<String> getPartitionPredicates(Connection conFrom,
+			int parallelism) throws SQLException {
+		Optional<String> column = migrationInfo.getMigrationParams()
+				.flatMap(MigrationParams::getPartitionColumn)
+				.map(PostgreSQLHandler::quoteIdentifier);
+		try (Statement statement = conFrom.createStatement()) {
+			if (column.isPresent()) {
+				try (ResultSet rs = statement.executeQuery("select min("
+						+ column.get() + ")::bigint, max(" + column.get()
+						+ ")::bigint from " + getObjectFrom())) {
+					if (!rs.next() || rs.getObject(1) == null) {
+						return new ArrayList<>();
+					}
+					return CopyPostgresChunk.getKeyRangePredicates(
+							column.get(), rs.getLong(1), rs.getLong(2),
+							parallelism);
+				}
+			}
+			try (ResultSet rs = statement.executeQuery(
+					"select current_setting('server_version_num')::int")) {
+				if (!rs.next() || rs.getInt(1) < CopyPostgresChunk.MIN_TID_RANGE_SCAN_VERSION) {
+					logger.debug("No TID range scans in the source instance, "
+							+ "give a partition column to split " + getObjectFrom());
+					return new ArrayList<>();
+				}
+			}
+			/* only tables (not views, etc.) have the physical blocks */
+			try (ResultSet rs = statement.executeQuery(
+					"select pg_relation_size(c.oid) / current_setting('block_size')::bigint "
+							+ "from pg_class c where c.oid = '" + getObjectFrom()
+							+ "'::regclass and c.relkind = 'r'")) {
+				if (!rs.next()) {
+					return new ArrayList<>();
+				}
+				return CopyPostgresChunk.getCtidRangePredicates(rs.getLong(1),
+						parallelism);
+			}
+		}
+	}
+
+	/**
+	 * Export the snapshot of the transaction so that the other connections
+	 * can see exactly the same data (requires PostgreSQL 9.2+).
+	 * 
+	 * @return the identifier of the snapshot or null if it could not be
+	 *         exported
+	 */
+	private String exportSnapshot(Connection conFrom) {
+		try (Statement statement = conFrom.createStatement();
+				ResultSet rs = statement
+						.executeQuery("select pg_export_snapshot()")) {
+			rs.next();
+			return rs.getString(1);
+		} catch (SQLException e) {
+			logger.warn("Could not export the snapshot, the chunks of "
+					+ getObjectFrom() + " are read in separate snapshots: "
+					+ e.getMessage());
+			return null;
+		}
+	}
+
 	/**
 	 * @param args
 	 * @throws Exception
@@ -210,6 +210,7 @@ class FromPostgresToSciDB extends FromDatabaseToDatabase
 			TransformBinExecutor transformExecutor = new TransformBinExecutor(
 					postgresPipe, scidbPipe,
 					MigrationUtils.getSciDBBinFormat(fromObjectMetaData),
+					MigrationUtils.getPostgreSQLTypes(fromObjectMetaData),
 					TransformBinExecutor.TYPE.FromPostgresToSciDB);
 			FutureTask<Long> transformTask = new FutureTask<Long>(
 					transformExecutor);
@@ -2,6 +2,7 @@ package istc.bigdawg.migration;
 
 import istc.bigdawg.LoggerSetup;
 import istc.bigdawg.exceptions.MigrationException;
+import istc.bigdawg.migration.PostgreSQLBinaryFormat.ColumnType;
 import istc.bigdawg.postgresql.PostgreSQLConnectionInfo;
 import istc.bigdawg.postgresql.PostgreSQLHandler;
 import istc.bigdawg.postgresql.PostgreSQLSchemaTableName;
@@ -16,8 +17,6 @@ import istc.bigdawg.vertica.VerticaHandler;
 import org.apache.commons.net.ntp.TimeStamp;
 import org.apache.log4j.Logger;
 
-import java.io.PipedInputStream;
-import java.io.PipedOutputStream;
 import java.sql.Connection;
 import java.sql.SQLException;
 import java.util.ArrayList;
@@ -167,15 +166,24 @@ public class FromPostgresToVertica extends FromDatabaseToDatabase {
 
             createTargetTableSchema(conFrom, conTo);
 
-            final PipedOutputStream output = new PipedOutputStream();
-            final PipedInputStream input = new PipedInputStream(output);
-            verticaPipe = Pipe.INSTANCE.createAndGetFullName(
-                    this.getClass().getName() + "_toVertica_" + getObjectFrom());
-
             List<Callable<Object>> tasks = new ArrayList<>();
-            tasks.add(new ExportPostgres(migrationInfo.getConnectionFrom(), copyFromCommand,
-                    verticaPipe, new VerticaHandler(getConnectionTo())));
-            tasks.add(new LoadVertica(conTo, migrationInfo, verticaPipe));
+            List<ColumnType> binaryTypes = BigDawgConfigProperties.INSTANCE.isMigrationJdbcBinary()
+                    ? PostgreSQLBinaryFormat.getBinaryColumnTypes(conFrom, getObjectFrom(), conTo, getObjectTo())
+                    : null;
+            if (binaryTypes != null) {
+                /* export in the binary format of PostgreSQL and insert the decoded rows to Vertica */
+                DataPipe pipe = new DataPipe();
+                tasks.add(pipe.failOnError(new ExportPostgres(conFrom, PostgreSQLHandler.getExportBinCommand(getObjectFrom()),
+                        pipe.getOutputStream(), new VerticaHandler(getConnectionTo()))));
+                tasks.add(pipe.failOnError(new LoadJdbcBinary(conTo, migrationInfo, pipe.getInputStream(),
+                        binaryTypes, false, new VerticaHandler(getConnectionTo()))));
+            } else {
+                verticaPipe = Pipe.INSTANCE.createAndGetFullName(
+                        this.getClass().getName() + "_toVertica_" + getObjectFrom());
+                tasks.add(new ExportPostgres(migrationInfo.getConnectionFrom(), copyFromCommand,
+                        verticaPipe, new VerticaHandler(getConnectionTo())));
+                tasks.add(new LoadVertica(conTo, migrationInfo, verticaPipe));
+            }
 
             executor = Executors.newFixedThreadPool(tasks.size());
             logger.debug("Executing tasks");
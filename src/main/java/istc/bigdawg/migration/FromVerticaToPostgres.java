@@ -2,6 +2,7 @@ package istc.bigdawg.migration;
 
 import istc.bigdawg.LoggerSetup;
 import istc.bigdawg.exceptions.MigrationException;
+import istc.bigdawg.migration.PostgreSQLBinaryFormat.ColumnType;
 import istc.bigdawg.postgresql.PostgreSQLConnectionInfo;
 import istc.bigdawg.postgresql.PostgreSQLHandler;
 import istc.bigdawg.postgresql.PostgreSQLSchemaTableName;
@@ -16,8 +17,6 @@ import istc.bigdawg.vertica.VerticaHandler;
 import org.apache.commons.net.ntp.TimeStamp;
 import org.apache.log4j.Logger;
 
-import java.io.PipedInputStream;
-import java.io.PipedOutputStream;
 import java.sql.Connection;
 import java.sql.SQLException;
 import java.util.ArrayList;
@@ -160,14 +159,23 @@ public class FromVerticaToPostgres extends FromDatabaseToDatabase {
 
             createTargetTableSchema(conFrom, conTo);
 
-            final PipedOutputStream output = new PipedOutputStream();
-            final PipedInputStream input = new PipedInputStream(output);
-            verticaPipe = Pipe.INSTANCE.createAndGetFullName(
-                    this.getClass().getName() + "_fromVertica_" + getObjectFrom());
-
             List<Callable<Object>> tasks = new ArrayList<>();
-            tasks.add(new ExportVertica(conFrom, verticaPipe, new PostgreSQLHandler(getConnectionTo()), migrationInfo));
-            tasks.add(new LoadPostgres(conTo, migrationInfo, copyToCommand, verticaPipe));
+            List<ColumnType> binaryTypes = BigDawgConfigProperties.INSTANCE.isMigrationJdbcBinary()
+                    ? PostgreSQLBinaryFormat.getBinaryColumnTypes(conTo, getObjectTo(), conFrom, getObjectFrom())
+                    : null;
+            if (binaryTypes != null) {
+                /* stream the rows from Vertica directly in the binary format of PostgreSQL */
+                DataPipe pipe = new DataPipe();
+                tasks.add(pipe.failOnError(new ExportJdbcBinary(conFrom, ExportJdbcBinary.DEFAULT_FETCH_SIZE,
+                        pipe.getOutputStream(), binaryTypes, new VerticaHandler(getConnectionFrom()), migrationInfo)));
+                tasks.add(pipe.failOnError(new LoadPostgres(conTo, migrationInfo,
+                        PostgreSQLHandler.getLoadBinCommand(getObjectTo()), pipe.getInputStream())));
+            } else {
+                verticaPipe = Pipe.INSTANCE.createAndGetFullName(
+                        this.getClass().getName() + "_fromVertica_" + getObjectFrom());
+                tasks.add(new ExportVertica(conFrom, verticaPipe, new PostgreSQLHandler(getConnectionTo()), migrationInfo));
+                tasks.add(new LoadPostgres(conTo, migrationInfo, copyToCommand, verticaPipe));
+            }
 
             executor = Executors.newFixedThreadPool(tasks.size());
             List<Future<Object>> results = TaskExecutor.execute(executor,
@@ -0,0 +1,209 @@
+/**
+ *
+ */
+package istc.bigdawg.migration;
+
+import java.io.InputStream;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.log4j.Logger;
+
+import istc.bigdawg.migration.PostgreSQLBinaryFormat.ColumnType;
+import istc.bigdawg.mysql.MySQLConnectionInfo;
+import istc.bigdawg.query.ConnectionInfo;
+import istc.bigdawg.query.DBHandler;
+import istc.bigdawg.utils.StackTrace;
+import istc.bigdawg.vertica.VerticaConnectionInfo;
+
+/**
+ * Load the rows exported from PostgreSQL in its binary format (COPY ... TO
+ * STDOUT WITH BINARY) to a relational engine (MySQL, Vertica) through JDBC: the
+ * values are decoded and bound with the typed setters of a prepared INSERT
+ * executed in batches.
+ *
+ * For MySQL, a single INSERT carries many rows (a list of VALUES), because the
+ * driver sends each statement of a batch separately; Vertica turns a batch of
+ * inserts into a COPY on its own.
+ */
+public class LoadJdbcBinary implements Load {
+
+	private static final long serialVersionUID = -2947816317365203388L;
+
+	/* log */
+	private static Logger log = Logger.getLogger(LoadJdbcBinary.class);
+
+	/** The number of rows sent to the engine in a single batch. */
+	private static final int BATCH_ROWS = 10000;
+
+	/** The most rows in a single INSERT with a list of VALUES. */
+	private static final int MAX_ROWS_PER_INSERT = 1000;
+
+	/** The most parameters of a prepared statement (MySQL). */
+	private static final int MAX_PARAMETERS = 65535;
+
+	private transient Connection connection;
+	private transient InputStream input;
+	/** The types of the columns of the source table in PostgreSQL. */
+	private final ArrayList<ColumnType> types;
+	private final boolean multiRowInsert;
+	private transient DBHandler handlerTo;
+	private transient DBHandler handlerFrom;
+	private MigrationInfo migrationInfo;
+
+	/**
+	 * @param connection
+	 *            connection to the target engine
+	 * @param migrationInfo
+	 *            the target table is the object to
+	 * @param input
+	 *            from which the rows are read
+	 * @param types
+	 *            the types of the columns of the source table in PostgreSQL
+	 * @param multiRowInsert
+	 *            true if the engine supports many rows in a single INSERT
+	 *            (MySQL)
+	 * @param handlerTo
+	 *            handler of the target engine
+	 */
+	public LoadJdbcBinary(Connection connection, MigrationInfo migrationInfo,
+			InputStream input, List<ColumnType> types, boolean multiRowInsert,
+			DBHandler handlerTo) {
+		this.connection = connection;
+		this.migrationInfo = migrationInfo;
+		this.input = input;
+		this.types = new ArrayList<>(types);
+		this.multiRowInsert = multiRowInsert;
+		this.handlerTo = handlerTo;
+	}
+
+	/**
+	 * @return INSERT of the given number of rows to the target table
+	 */
+	String getInsert(int rows) {
+		String values = "(" + String.join(",",
+				Collections.nCopies(Math.max(types.size(), 1), "?")) + ")";
+		return "INSERT INTO " + migrationInfo.getObjectTo() + " VALUES "
+				+ String.join(",", Collections.nCopies(rows, values));
+	}
+
+	private void bind(PreparedStatement insert, List<Object[]> rows)
+			throws SQLException {
+		int index = 1;
+		for (Object[] row : rows) {
+			for (int i = 0; i < row.length; ++i) {
+				PostgreSQLBinaryFormat.setParameter(insert, index++,
+						types.get(i), row[i]);
+			}
+		}
+	}
+
+	/**
+	 * Copy the rows to the target table.
+	 *
+	 * @return number of loaded rows
+	 */
+	@Override
+	public Long call() throws Exception {
+		log.debug("Start the binary load to " + migrationInfo.getObjectTo());
+		long start = System.currentTimeMillis();
+		int rowsPerInsert = multiRowInsert
+				? Math.max(1, Math.min(MAX_ROWS_PER_INSERT,
+						MAX_PARAMETERS / Math.max(types.size(), 1)))
+				: 1;
+		PostgreSQLBinaryFormat.Decoder decoder = new PostgreSQLBinaryFormat.Decoder(
+				input, types);
+		List<Object[]> rows = new ArrayList<>(rowsPerInsert);
+		try {
+			connection.setAutoCommit(false);
+			try (PreparedStatement insert = connection
+					.prepareStatement(getInsert(rowsPerInsert))) {
+				int batched = 0;
+				Object[] row;
+				while ((row = decoder.readRow()) != null) {
+					rows.add(row);
+					if (rows.size() == rowsPerInsert) {
+						bind(insert, rows);
+						insert.addBatch();
+						rows.clear();
+						batched += rowsPerInsert;
+						if (batched >= BATCH_ROWS) {
+							insert.executeBatch();
+							batched = 0;
+						}
+					}
+				}
+				if (batched > 0) {
+					insert.executeBatch();
+				}
+			}
+			if (!rows.isEmpty()) {
+				try (PreparedStatement insert = connection
+						.prepareStatement(getInsert(rows.size()))) {
+					bind(insert, rows);
+					insert.executeUpdate();
+				}
+			}
+			input.close();
+			input = null;
+			connection.commit();
+			log.debug("Loaded: "
+					+ PostgreSQLBinaryFormat.getThroughput(decoder.getRows(),
+							decoder.getBytes(),
+							System.currentTimeMillis() - start));
+			return decoder.getRows();
+		} catch (Exception e) {
+			String msg = e.getMessage()
+					+ " Problem with the binary load to the table "
+					+ migrationInfo.getObjectTo() + ". ";
+			log.error(msg + StackTrace.getFullStackTrace(e), e);
+			throw e;
+		}
+	}
+
+	@Override
+	public boolean isSupportedConnector(ConnectionInfo connection) {
+		return connection instanceof MySQLConnectionInfo
+				|| connection instanceof VerticaConnectionInfo;
+	}
+
+	@Override
+	public void setMigrationInfo(MigrationInfo migrationInfo) {
+		this.migrationInfo = migrationInfo;
+	}
+
+	/**
+	 * The rows are always read from the input stream.
+	 */
+	@Override
+	public void setLoadFrom(String filePath) {
+		throw new UnsupportedOperationException(
+				"The binary load reads only from a stream.");
+	}
+
+	@Override
+	public void setHandlerFrom(DBHandler handlerFrom) {
+		this.handlerFrom = handlerFrom;
+	}
+
+	@Override
+	public DBHandler getHandler() {
+		return handlerTo;
+	}
+
+	@Override
+	public MigrationInfo getMigrationInfo() {
+		return migrationInfo;
+	}
+
+	@Override
+	public String toString() {
+		return "LoadJdbcBinary [types=" + types + ", multiRowInsert="
+				+ multiRowInsert + ", migrationInfo=" + migrationInfo
+				+ ", handlerFrom=" + handlerFrom + "]";
+	}
+}
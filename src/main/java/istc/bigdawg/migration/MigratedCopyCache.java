@@ -0,0 +1,548 @@
+/**
+ *
+ */
+package istc.bigdawg.migration;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.log4j.Logger;
+
+import istc.bigdawg.properties.BigDawgConfigProperties;
+import istc.bigdawg.query.ConnectionInfo;
+
+/**
+ * Copies of data migrated to other engines which are kept after the query, so
+ * the next query which needs the same data on the same engine uses the copy
+ * instead of migrating the data again.
+ *
+ * A copy is identified by the engine and the name of the table/array on the
+ * engine, and it is valid for one source (a description of the migrated data,
+ * e.g. the source engine and query). A query acquires a copy (or registers a
+ * new one) and releases it when it would drop its temporary tables. The copies
+ * are dropped (by a background thread) when:
+ *
+ * 1) any object of the source is modified (see
+ * {@link #invalidate(String)}),
+ *
+ * 2) they are older than the time to live,
+ *
+ * 3) the number of rows of the copies on an engine exceeds the budget
+ * (the least recently used copies are dropped first).
+ *
+ * A copy used by a query is dropped only after it is released. A copy stays in
+ * the cache until its table is dropped, so no other data are migrated to the
+ * table in the meantime (see {@link #prepare(ConnectionInfo, String)}).
+ */
+public class MigratedCopyCache {
+
+	private static Logger logger = Logger
+			.getLogger(MigratedCopyCache.class.getName());
+
+	public static final MigratedCopyCache INSTANCE = new MigratedCopyCache(
+			BigDawgConfigProperties.INSTANCE.isCopyCacheEnabled(),
+			BigDawgConfigProperties.INSTANCE.getCopyCacheTtl(),
+			BigDawgConfigProperties.INSTANCE.getCopyCacheMaxRows(),
+			(engine, table) -> engine.getLocalQueryExecutor()
+					.dropDataSetIfExists(table)).startDropper();
+
+	/** Objects modified after this number of invalidations are forgotten. */
+	static final int MAX_TRACKED_OBJECTS = 10000;
+
+	/** How often (in ms) the expired copies are dropped. */
+	private static final long SWEEP_INTERVAL = 10000;
+
+	/** Marks the names of the tables which are never kept as copies. */
+	private static final String PRIVATE_MARK = "_BIGDAWGPRIVATE_";
+	private static final AtomicLong privateCounter = new AtomicLong(0);
+
+	/**
+	 * Drops a copy from its engine.
+	 */
+	@FunctionalInterface
+	public interface Dropper {
+		void drop(ConnectionInfo engine, String table) throws Exception;
+	}
+
+	private static final class Copy {
+		private final ConnectionInfo engine;
+		private final String table;
+		private final String source;
+		private final String sourceEngine;
+		private final Set<String> sourceObjects;
+		private final long rows;
+		private final long createdAt;
+		/** number of the queries which use the copy */
+		private int users = 1;
+		/** false once the copy cannot be acquired (it waits to be dropped) */
+		private boolean valid = true;
+		/** true once the copy is queued to be dropped or is being dropped */
+		private boolean dropping = false;
+
+		private Copy(ConnectionInfo engine, String table, String source,
+				String sourceEngine, Set<String> sourceObjects, long rows) {
+			this.engine = engine;
+			this.table = table;
+			this.source = source;
+			this.sourceEngine = sourceEngine;
+			this.sourceObjects = sourceObjects;
+			this.rows = rows;
+			this.createdAt = System.currentTimeMillis();
+		}
+	}
+
+	private final boolean enabled;
+	private final long ttl;
+	private final long maxRowsPerEngine;
+	private final Dropper dropper;
+
+	/**
+	 * engine|table -> copy, in the access order (LRU first); the copies which
+	 * are no longer valid stay here until they are dropped
+	 */
+	private final LinkedHashMap<String, Copy> copies = new LinkedHashMap<>(16,
+			0.75f, true);
+	/** key of the engine -> number of rows of the valid copies on the engine */
+	private final Map<String, Long> rowsPerEngine = new HashMap<>();
+
+	/** Incremented by each invalidation, guards against caching stale copies. */
+	private long generation = 0;
+	/**
+	 * lower case name of an object (or engine|name for the modifications on
+	 * one engine) -> generation of its last invalidation
+	 */
+	private final Map<String, Long> invalidatedAt = new HashMap<>();
+	/** copies migrated before this generation are not registered */
+	private long oldestTracked = 0;
+
+	private long hits = 0;
+	private long misses = 0;
+	private long dropped = 0;
+
+	private final BlockingQueue<Copy> toDrop = new LinkedBlockingQueue<>();
+
+	/**
+	 * @param enabled
+	 *            if false then no copy is kept after its query
+	 * @param ttl
+	 *            time to live of a copy in ms, 0 - no expiry
+	 * @param maxRowsPerEngine
+	 *            the number of rows of the copies kept on an engine
+	 * @param dropper
+	 *            drops the copies from the engines
+	 */
+	MigratedCopyCache(boolean enabled, long ttl, long maxRowsPerEngine,
+			Dropper dropper) {
+		this.enabled = enabled;
+		this.ttl = ttl;
+		this.maxRowsPerEngine = maxRowsPerEngine;
+		this.dropper = dropper;
+		logger.info("Migrated copy cache enabled: " + enabled + ", ttl (ms): "
+				+ ttl + ", rows per engine: " + maxRowsPerEngine);
+	}
+
+	/**
+	 * Start the background thread which drops the copies.
+	 */
+	private MigratedCopyCache startDropper() {
+		if (enabled) {
+			Thread thread = new Thread(this::dropCopies,
+					"bigdawg-copy-dropper");
+			thread.setDaemon(true);
+			thread.start();
+		}
+		return this;
+	}
+
+	/**
+	 * @param engine
+	 *            connection to an instance of a database
+	 * @return the key of the engine (the host, port and database)
+	 */
+	public static String getEngineKey(ConnectionInfo engine) {
+		return engine.getHost() + ":" + engine.getPort() + "/"
+				+ engine.getDatabase();
+	}
+
+	private static String getKey(ConnectionInfo engine, String table) {
+		return getEngineKey(engine) + "|" + table.toLowerCase();
+	}
+
+	/**
+	 * @param table
+	 *            name of a table which cannot be used (a copy with this name
+	 *            is used by another query)
+	 * @return a new name for the data of the table, used only by one query
+	 *         and never kept as a copy
+	 */
+	public static String getPrivateName(String table) {
+		return table + PRIVATE_MARK + privateCounter.incrementAndGet();
+	}
+
+	/**
+	 * @return true if the table was named by {@link #getPrivateName(String)}
+	 */
+	public static boolean isPrivateName(String table) {
+		return table.contains(PRIVATE_MARK);
+	}
+
+	public boolean isEnabled() {
+		return enabled;
+	}
+
+	/**
+	 * Use the copy of the source data on the engine, it has to be released
+	 * with {@link #release(ConnectionInfo, String)}.
+	 *
+	 * @param engine
+	 *            where the copy is needed
+	 * @param table
+	 *            name of the copy
+	 * @param source
+	 *            description of the migrated data (the source engine, object
+	 *            or query)
+	 * @return true if the copy is present on the engine
+	 */
+	public synchronized boolean acquire(ConnectionInfo engine, String table,
+			String source) {
+		if (!enabled) {
+			return false;
+		}
+		Copy copy = copies.get(getKey(engine, table));
+		if (copy == null || !copy.valid || !copy.source.equals(source)
+				|| isExpired(copy)) {
+			misses++;
+			return false;
+		}
+		copy.users++;
+		hits++;
+		logger.debug("Reuse the copy " + table + " on "
+				+ getEngineKey(engine));
+		return true;
+	}
+
+	/**
+	 * Called before the data are migrated.
+	 *
+	 * @return the generation to be passed to
+	 *         {@link #register(ConnectionInfo, String, String, ConnectionInfo, Collection, long, long)}
+	 */
+	public synchronized long begin() {
+		return generation;
+	}
+
+	/**
+	 * Remove the copy with the name from the cache before other data are
+	 * migrated to the table with this name. Waits if the copy is being
+	 * dropped.
+	 *
+	 * @return false if the copy is used by another query (the data have to
+	 *         be migrated to a table with another name, see
+	 *         {@link #getPrivateName(String)})
+	 */
+	public boolean prepare(ConnectionInfo engine, String table) {
+		String key = getKey(engine, table);
+		Copy copy;
+		synchronized (this) {
+			while (true) {
+				copy = copies.get(key);
+				if (copy == null) {
+					return true;
+				}
+				if (copy.users > 0) {
+					return false;
+				}
+				if (!copy.dropping) {
+					retire(copy);
+				}
+				/* drop it here unless the dropper thread is dropping it */
+				if (toDrop.remove(copy)) {
+					break;
+				}
+				try {
+					wait();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					return false;
+				}
+			}
+		}
+		/* the new data will be migrated to this table */
+		drop(copy);
+		return true;
+	}
+
+	/**
+	 * Keep the migrated copy after the query. The query uses the copy and
+	 * releases it with {@link #release(ConnectionInfo, String)}.
+	 *
+	 * @param engine
+	 *            where the data were migrated
+	 * @param table
+	 *            name of the copy
+	 * @param source
+	 *            description of the migrated data
+	 * @param sourceEngine
+	 *            the engine from which the data come
+	 * @param sourceObjects
+	 *            names of the objects from which the data come, the copy is
+	 *            dropped when any of them is modified
+	 * @param rows
+	 *            number of the migrated rows (cells)
+	 * @param beganAt
+	 *            the result of {@link #begin()} called before the migration
+	 * @return true if the copy is kept, false if it should be dropped as a
+	 *         temporary table
+	 */
+	public synchronized boolean register(ConnectionInfo engine, String table,
+			String source, ConnectionInfo sourceEngine,
+			Collection<String> sourceObjects, long rows, long beganAt) {
+		if (!enabled || beganAt < oldestTracked || rows > maxRowsPerEngine
+				|| isPrivateName(table)
+				|| copies.containsKey(getKey(engine, table))) {
+			return false;
+		}
+		String sourceEngineKey = getEngineKey(sourceEngine);
+		Set<String> names = new HashSet<>();
+		for (String object : sourceObjects) {
+			String name = object.toLowerCase();
+			if (isModifiedAfter(name, beganAt)
+					|| isModifiedAfter(sourceEngineKey + "|" + name, beganAt)) {
+				return false;
+			}
+			names.add(name);
+		}
+		Copy copy = new Copy(engine, table, source, sourceEngineKey,
+				Collections.unmodifiableSet(names), rows);
+		copies.put(getKey(engine, table), copy);
+		String engineKey = getEngineKey(engine);
+		rowsPerEngine.put(engineKey,
+				rowsPerEngine.getOrDefault(engineKey, 0L) + rows);
+		/* the least recently used copies which are not in use */
+		Iterator<Copy> lru = copies.values().iterator();
+		while (rowsPerEngine.get(engineKey) > maxRowsPerEngine
+				&& lru.hasNext()) {
+			Copy c = lru.next();
+			if (c.valid && c.users == 0
+					&& getEngineKey(c.engine).equals(engineKey)) {
+				retire(c);
+			}
+		}
+		return true;
+	}
+
+	private boolean isModifiedAfter(String name, long beganAt) {
+		Long modified = invalidatedAt.get(name);
+		return modified != null && modified > beganAt;
+	}
+
+	/**
+	 * The query does not use the copy any more.
+	 *
+	 * @return true if the table is a cached copy (it must not be dropped by
+	 *         the query), false if it is a temporary table of the query
+	 */
+	public synchronized boolean release(ConnectionInfo engine, String table) {
+		if (!enabled) {
+			return false;
+		}
+		Copy copy = copies.get(getKey(engine, table));
+		if (copy == null || copy.users == 0) {
+			return false;
+		}
+		copy.users--;
+		if (copy.users == 0 && (!copy.valid || isExpired(copy))) {
+			retire(copy);
+		}
+		return true;
+	}
+
+	/**
+	 * Drop the copies of the data from the object (the object was modified).
+	 *
+	 * @param object
+	 *            name of the object
+	 */
+	public synchronized void invalidate(String object) {
+		if (!enabled) {
+			return;
+		}
+		invalidate(object.toLowerCase(), null);
+	}
+
+	/**
+	 * Drop the copies of the data from the object on the engine (the data were
+	 * migrated to the object).
+	 *
+	 * @param engine
+	 *            where the object was modified
+	 * @param object
+	 *            name of the object
+	 */
+	public synchronized void invalidate(ConnectionInfo engine, String object) {
+		if (!enabled) {
+			return;
+		}
+		invalidate(object.toLowerCase(), getEngineKey(engine));
+	}
+
+	/**
+	 * @param engineKey
+	 *            key of the engine, null - the object on every engine
+	 */
+	private void invalidate(String name, String engineKey) {
+		generation++;
+		if (invalidatedAt.size() >= MAX_TRACKED_OBJECTS) {
+			invalidatedAt.clear();
+			oldestTracked = generation;
+		}
+		invalidatedAt.put(engineKey == null ? name : engineKey + "|" + name,
+				generation);
+		for (Copy copy : new ArrayList<>(copies.values())) {
+			if (copy.valid && copy.sourceObjects.contains(name)
+					&& (engineKey == null
+							|| engineKey.equals(copy.sourceEngine))) {
+				retire(copy);
+			}
+		}
+	}
+
+	public synchronized long getHitCount() {
+		return hits;
+	}
+
+	public synchronized long getMissCount() {
+		return misses;
+	}
+
+	public synchronized long getDroppedCount() {
+		return dropped;
+	}
+
+	/**
+	 * @return number of the rows of the copies on the engine
+	 */
+	public synchronized long getRows(ConnectionInfo engine) {
+		return rowsPerEngine.getOrDefault(getEngineKey(engine), 0L);
+	}
+
+	/**
+	 * @return number of the valid copies
+	 */
+	public synchronized int size() {
+		int valid = 0;
+		for (Copy copy : copies.values()) {
+			if (copy.valid) {
+				valid++;
+			}
+		}
+		return valid;
+	}
+
+	@Override
+	public synchronized String toString() {
+		return "MigratedCopyCache [enabled=" + enabled + ", ttl=" + ttl
+				+ ", copies=" + size() + ", retired="
+				+ (copies.size() - size()) + ", rowsPerEngine="
+				+ rowsPerEngine + ", hits=" + hits + ", misses=" + misses
+				+ ", dropped=" + dropped + "]";
+	}
+
+	private boolean isExpired(Copy copy) {
+		return ttl > 0 && System.currentTimeMillis() - copy.createdAt > ttl;
+	}
+
+	/**
+	 * The copy is no longer valid: remove it from the budget of its engine and
+	 * queue it to be dropped now or when the last query releases it (under
+	 * the lock). It stays in the index until it is dropped.
+	 */
+	private void retire(Copy copy) {
+		if (copy.valid) {
+			copy.valid = false;
+			String engineKey = getEngineKey(copy.engine);
+			rowsPerEngine.put(engineKey,
+					rowsPerEngine.getOrDefault(engineKey, 0L) - copy.rows);
+		}
+		if (copy.users == 0 && !copy.dropping) {
+			copy.dropping = true;
+			toDrop.add(copy);
+		}
+	}
+
+	/**
+	 * Move the expired copies which are not in use to the drop queue.
+	 */
+	synchronized void sweep() {
+		for (Copy copy : new ArrayList<>(copies.values())) {
+			if (copy.valid && copy.users == 0 && isExpired(copy)) {
+				retire(copy);
+			}
+		}
+	}
+
+	/**
+	 * Drop the copies waiting in the queue.
+	 */
+	void dropQueued() {
+		List<Copy> queued = new ArrayList<>();
+		toDrop.drainTo(queued);
+		for (Copy copy : queued) {
+			drop(copy);
+		}
+	}
+
+	/**
+	 * Drop the table of the copy and remove the copy from the index.
+	 */
+	private void drop(Copy copy) {
+		boolean done = false;
+		try {
+			dropper.drop(copy.engine, copy.table);
+			done = true;
+			logger.debug("Dropped the copy " + copy.table + " on "
+					+ getEngineKey(copy.engine));
+		} catch (Exception e) {
+			logger.warn("Cannot drop the copy " + copy.table + " on "
+					+ getEngineKey(copy.engine) + ": " + e.getMessage());
+		} finally {
+			synchronized (this) {
+				copies.remove(getKey(copy.engine, copy.table), copy);
+				if (done) {
+					dropped++;
+				}
+				/* the queries waiting to migrate data to the table */
+				notifyAll();
+			}
+		}
+	}
+
+	private void dropCopies() {
+		while (true) {
+			try {
+				Copy copy = toDrop.poll(SWEEP_INTERVAL, TimeUnit.MILLISECONDS);
+				if (copy != null) {
+					drop(copy);
+				}
+				sweep();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return;
+			} catch (Exception e) {
+				logger.error("Error while dropping the migrated copies", e);
+			}
+		}
+	}
+}
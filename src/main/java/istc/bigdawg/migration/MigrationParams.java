@@ -24,6 +24,10 @@ public class MigrationParams implements Serializable {
 	/** see: {@link #getCreateStatement()} */
 	private String createStatement;
 	private String name;
+	/** see: {@link #getParallelism()} */
+	private int parallelism = 0;
+	/** see: {@link #getPartitionColumn()} */
+	private String partitionColumn;
 
 	transient private IntraIslandQuery source;
 	transient private IntraIslandQuery target;
@@ -123,6 +127,45 @@ public class MigrationParams implements Serializable {
 		return (target != other.target);
 	}
 
+	/**
+	 * The number of concurrent streams used to copy the data (only the
+	 * migration between instances of PostgreSQL supports it now, see
+	 * {@link Migrator.Type#BINARY_PARALLEL}).
+	 * 
+	 * @return the degree of parallelism, 0 means the default one from the
+	 *         configuration
+	 */
+	public int getParallelism() {
+		return parallelism;
+	}
+
+	/**
+	 * @param parallelism
+	 *            see: {@link #getParallelism()}
+	 */
+	public void setParallelism(int parallelism) {
+		this.parallelism = parallelism;
+	}
+
+	/**
+	 * A numeric column used to split the source table into ranges of values
+	 * (from min to max) for the parallel migration. If it is not given then
+	 * the table is split into ranges of its physical blocks (ctid).
+	 * 
+	 * @return the name of the partitioning column
+	 */
+	public Optional<String> getPartitionColumn() {
+		return Optional.ofNullable(partitionColumn);
+	}
+
+	/**
+	 * @param partitionColumn
+	 *            see: {@link #getPartitionColumn()}
+	 */
+	public void setPartitionColumn(String partitionColumn) {
+		this.partitionColumn = partitionColumn;
+	}
+
 	public IntraIslandQuery getSource() {
 		return source;
 	}
@@ -207,6 +207,21 @@ public class MigrationUtils {
 		return binFormatBuffer.toString();
 	}
 
+	/**
+	 * @return the types of the attributes in PostgreSQL (e.g. numeric(15,2)),
+	 *         in the same order as in
+	 *         {@link #getSciDBBinFormat(ObjectMetaData)}
+	 */
+	public static List<String> getPostgreSQLTypes(
+			ObjectMetaData objectMetaData) {
+		List<String> types = new ArrayList<>();
+		for (AttributeMetaData attrMetaData : objectMetaData
+				.getAttributesOrdered()) {
+			types.add(attrMetaData.getSqlDataType());
+		}
+		return types;
+	}
+
 	/**
 	 * Remove the given array from SciDB.
 	 * 
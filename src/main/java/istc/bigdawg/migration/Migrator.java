@@ -11,8 +11,10 @@ import org.apache.log4j.Logger;
 
 import istc.bigdawg.LoggerSetup;
 import istc.bigdawg.exceptions.MigrationException;
+import istc.bigdawg.planner.QueryResultCache;
 import istc.bigdawg.postgresql.PostgreSQLConnectionInfo;
 import istc.bigdawg.query.ConnectionInfo;
+import istc.bigdawg.statistics.StatisticsService;
 
 /**
  * The main interface to the migrator module.
@@ -133,6 +135,20 @@ public class Migrator {
 					.migrate(new MigrationInfo(connectionFrom, objectFrom,
 							connectionTo, objectTo, migrationParams));
 			if (result != null) {
+				/*
+				 * the cached statistics of the target object and the results of
+				 * the queries on it are stale
+				 */
+				StatisticsService.getInstance().invalidate(connectionTo,
+						objectTo);
+				/*
+				 * the data were written to objectTo on connectionTo, even if it
+				 * has the same name as objectFrom (a table with this name may
+				 * already exist there); the copies of objectTo from other
+				 * engines stay valid
+				 */
+				QueryResultCache.INSTANCE.invalidate(objectTo);
+				MigratedCopyCache.INSTANCE.invalidate(connectionTo, objectTo);
 				return result;
 			}
 		}
@@ -7,6 +7,7 @@ import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 
 import istc.bigdawg.network.NetworkIn;
+import istc.bigdawg.network.NetworkOut;
 
 /**
  * @author Adam Dziedzic
@@ -30,7 +31,7 @@ public class MigratorTask {
 	}
 
 	/**
-	 * Close the migrator task.
+	 * Close the migrator task and the sockets to the remote hosts.
 	 */
 	public void close() {
 		if (executor != null) {
@@ -39,6 +40,7 @@ public class MigratorTask {
 			}
 		}
 		executor = null;
+		NetworkOut.close();
 	}
 
 }
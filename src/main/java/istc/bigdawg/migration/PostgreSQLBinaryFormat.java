@@ -0,0 +1,726 @@
+/**
+ *
+ */
+package istc.bigdawg.migration;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.Date;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.log4j.Logger;
+
+import istc.bigdawg.exceptions.UnsupportedTypeException;
+
+/**
+ * Rows of a JDBC result set in the binary format of PostgreSQL (COPY ... WITH
+ * BINARY) and back, so the data between PostgreSQL and the other relational
+ * engines (MySQL, Vertica) is not printed as text and parsed again.
+ *
+ * The values are encoded according to the types of the columns in
+ * PostgreSQL (the binary format has to match them exactly) and they are read
+ * from the other engine with the typed getters of JDBC (getLong, getDouble,
+ * getBigDecimal, getTimestamp, ...), which convert the types of the other
+ * engine.
+ *
+ * Format: 19 bytes of header (signature, flags, length of the header
+ * extension), then for each row: number of fields (int16) and for each field
+ * its length (int32, -1 for null) and the value (big-endian), finally the
+ * trailer (int16: -1). Dates and timestamps are counted from 2000-01-01
+ * (integer datetimes: timestamps in microseconds).
+ */
+public class PostgreSQLBinaryFormat {
+
+	/* log */
+	private static Logger log = Logger.getLogger(PostgreSQLBinaryFormat.class);
+
+	/** Signature at the beginning of the PostgreSQL binary format. */
+	static final byte[] SIGNATURE = { 'P', 'G', 'C', 'O', 'P', 'Y', '\n',
+			(byte) 0xff, '\r', '\n', 0 };
+
+	/** Days between 1970-01-01 and 2000-01-01 (PostgreSQL). */
+	static final long POSTGRES_EPOCH_DAYS = 10957L;
+
+	/** Seconds between 1970-01-01 and 2000-01-01 (PostgreSQL). */
+	static final long POSTGRES_EPOCH_SECONDS = POSTGRES_EPOCH_DAYS * 86400L;
+
+	private static final int BUFFER_SIZE = 1 << 16;
+
+	/* numeric: the sign and the base of the digits */
+	private static final short NUMERIC_POSITIVE = 0x0000;
+	private static final short NUMERIC_NEGATIVE = 0x4000;
+	private static final BigInteger NUMERIC_BASE = BigInteger.valueOf(10000);
+
+	/** The types (in PostgreSQL) of the columns which can be transferred. */
+	public enum ColumnType {
+		BOOL(Types.BOOLEAN),
+		INT2(Types.SMALLINT),
+		INT4(Types.INTEGER),
+		INT8(Types.BIGINT),
+		FLOAT4(Types.REAL),
+		FLOAT8(Types.DOUBLE),
+		NUMERIC(Types.NUMERIC),
+		TEXT(Types.VARCHAR),
+		BYTEA(Types.BINARY),
+		DATE(Types.DATE),
+		TIME(Types.TIME),
+		TIMESTAMP(Types.TIMESTAMP),
+		TIMESTAMPTZ(Types.TIMESTAMP);
+
+		/** The JDBC type for the null values of the column. */
+		private final int sqlType;
+
+		private ColumnType(int sqlType) {
+			this.sqlType = sqlType;
+		}
+
+		/**
+		 * @param type
+		 *            name of the type in PostgreSQL (as given by the JDBC
+		 *            driver)
+		 */
+		static ColumnType fromPostgreSQLType(String type)
+				throws UnsupportedTypeException {
+			switch (type.toLowerCase()) {
+			case "bool":
+				return BOOL;
+			case "int2":
+			case "smallserial":
+				return INT2;
+			case "int4":
+			case "serial":
+				return INT4;
+			case "int8":
+			case "bigserial":
+				return INT8;
+			case "float4":
+				return FLOAT4;
+			case "float8":
+				return FLOAT8;
+			case "numeric":
+				return NUMERIC;
+			case "text":
+			case "varchar":
+			case "bpchar":
+				return TEXT;
+			case "bytea":
+				return BYTEA;
+			case "date":
+				return DATE;
+			case "time":
+				return TIME;
+			case "timestamp":
+				return TIMESTAMP;
+			case "timestamptz":
+				return TIMESTAMPTZ;
+			default:
+				throw new UnsupportedTypeException("The type " + type
+						+ " is not supported in the binary migration.");
+			}
+		}
+	}
+
+	/**
+	 * @param connection
+	 *            connection to PostgreSQL
+	 * @param table
+	 *            table in PostgreSQL
+	 * @return the types of the columns of the table
+	 */
+	public static List<ColumnType> getColumnTypes(Connection connection,
+			String table) throws SQLException, UnsupportedTypeException {
+		List<ColumnType> types = new ArrayList<>();
+		try (Statement st = connection.createStatement();
+				ResultSet rs = st
+						.executeQuery("SELECT * FROM " + table + " LIMIT 0")) {
+			ResultSetMetaData meta = rs.getMetaData();
+			for (int i = 1; i <= meta.getColumnCount(); ++i) {
+				types.add(ColumnType.fromPostgreSQLType(meta.getColumnTypeName(i)));
+			}
+		}
+		return types;
+	}
+
+	/**
+	 * @param connection
+	 *            connection to any relational engine
+	 * @param table
+	 *            table in the engine
+	 * @return the number of columns of the table
+	 */
+	public static int getColumnCount(Connection connection, String table)
+			throws SQLException {
+		try (Statement st = connection.createStatement();
+				ResultSet rs = st
+						.executeQuery("SELECT * FROM " + table + " LIMIT 0")) {
+			return rs.getMetaData().getColumnCount();
+		}
+	}
+
+	/**
+	 * Check if the rows can be transferred between the tables in the binary
+	 * format.
+	 *
+	 * @param postgres
+	 *            connection to PostgreSQL
+	 * @param postgresTable
+	 *            the source or the target table in PostgreSQL
+	 * @param other
+	 *            connection to the other engine
+	 * @param otherTable
+	 *            the table on the other side of the migration
+	 * @return the types of the columns of the table in PostgreSQL or null if
+	 *         the binary format cannot be used (a type which is not supported
+	 *         or the tables do not have the same number of columns)
+	 */
+	public static List<ColumnType> getBinaryColumnTypes(Connection postgres,
+			String postgresTable, Connection other, String otherTable)
+			throws SQLException {
+		List<ColumnType> types;
+		try {
+			types = getColumnTypes(postgres, postgresTable);
+		} catch (UnsupportedTypeException e) {
+			log.debug(e.getMessage() + " The data is migrated as csv.");
+			return null;
+		}
+		int otherColumns = getColumnCount(other, otherTable);
+		if (types.size() != otherColumns) {
+			log.debug("The number of columns differ: " + postgresTable + " ("
+					+ types.size() + ") and " + otherTable + " ("
+					+ otherColumns + "). The data is migrated as csv.");
+			return null;
+		}
+		return types;
+	}
+
+	/**
+	 * @return the throughput of a transfer (for the logs)
+	 */
+	public static String getThroughput(long rows, long bytes, long millis) {
+		double seconds = Math.max(millis, 1) / 1000.0;
+		return String.format("%d rows, %d bytes in %d ms (%.0f rows/s, %.1f MB/s)",
+				rows, bytes, millis, rows / seconds,
+				bytes / 1048576.0 / seconds);
+	}
+
+	/**
+	 * Write the rows of a result set in the binary format.
+	 */
+	public static class Encoder {
+
+		private final DataOutputStream out;
+		private final ColumnType[] types;
+		private long rows = 0;
+		private long bytes = 0;
+
+		/**
+		 * @param output
+		 *            to which the rows are written (the header is written at
+		 *            once)
+		 * @param types
+		 *            the types of the columns in PostgreSQL
+		 */
+		public Encoder(OutputStream output, List<ColumnType> types)
+				throws IOException {
+			this.out = new DataOutputStream(
+					new BufferedOutputStream(output, BUFFER_SIZE));
+			this.types = types.toArray(new ColumnType[types.size()]);
+			out.write(SIGNATURE);
+			/* flags */
+			out.writeInt(0);
+			/* length of the header extension */
+			out.writeInt(0);
+			bytes += SIGNATURE.length + 8;
+		}
+
+		/**
+		 * Write the current row of the result set.
+		 */
+		public void writeRow(ResultSet rs) throws IOException, SQLException {
+			out.writeShort(types.length);
+			bytes += 2;
+			for (int i = 0; i < types.length; ++i) {
+				writeValue(rs, i + 1, types[i]);
+			}
+			++rows;
+		}
+
+		/**
+		 * @return the time with the fraction of a second (java.sql.Time keeps
+		 *         only whole seconds), null for SQL NULL
+		 */
+		private static LocalTime getLocalTime(ResultSet rs, int column)
+				throws SQLException {
+			try {
+				return rs.getObject(column, LocalTime.class);
+			} catch (SQLException | UnsupportedOperationException e) {
+				/* a driver without the java.time types */
+				String value = rs.getString(column);
+				return value == null ? null : LocalTime.parse(value.trim());
+			}
+		}
+
+		private void writeNull() throws IOException {
+			out.writeInt(-1);
+			bytes += 4;
+		}
+
+		private void writeBytes(byte[] value) throws IOException {
+			out.writeInt(value.length);
+			out.write(value);
+			bytes += 4 + value.length;
+		}
+
+		private void writeValue(ResultSet rs, int column, ColumnType type)
+				throws IOException, SQLException {
+			switch (type) {
+			case BOOL: {
+				boolean value = rs.getBoolean(column);
+				if (rs.wasNull()) {
+					writeNull();
+				} else {
+					out.writeInt(1);
+					out.writeByte(value ? 1 : 0);
+					bytes += 5;
+				}
+				break;
+			}
+			case INT2: {
+				short value = rs.getShort(column);
+				if (rs.wasNull()) {
+					writeNull();
+				} else {
+					out.writeInt(2);
+					out.writeShort(value);
+					bytes += 6;
+				}
+				break;
+			}
+			case INT4: {
+				int value = rs.getInt(column);
+				if (rs.wasNull()) {
+					writeNull();
+				} else {
+					out.writeInt(4);
+					out.writeInt(value);
+					bytes += 8;
+				}
+				break;
+			}
+			case INT8: {
+				long value = rs.getLong(column);
+				if (rs.wasNull()) {
+					writeNull();
+				} else {
+					out.writeInt(8);
+					out.writeLong(value);
+					bytes += 12;
+				}
+				break;
+			}
+			case FLOAT4: {
+				float value = rs.getFloat(column);
+				if (rs.wasNull()) {
+					writeNull();
+				} else {
+					out.writeInt(4);
+					out.writeFloat(value);
+					bytes += 8;
+				}
+				break;
+			}
+			case FLOAT8: {
+				double value = rs.getDouble(column);
+				if (rs.wasNull()) {
+					writeNull();
+				} else {
+					out.writeInt(8);
+					out.writeDouble(value);
+					bytes += 12;
+				}
+				break;
+			}
+			case NUMERIC: {
+				BigDecimal value = rs.getBigDecimal(column);
+				if (value == null) {
+					writeNull();
+				} else {
+					writeNumeric(value);
+				}
+				break;
+			}
+			case TEXT: {
+				String value = rs.getString(column);
+				if (value == null) {
+					writeNull();
+				} else {
+					writeBytes(value.getBytes(StandardCharsets.UTF_8));
+				}
+				break;
+			}
+			case BYTEA: {
+				byte[] value = rs.getBytes(column);
+				if (value == null) {
+					writeNull();
+				} else {
+					writeBytes(value);
+				}
+				break;
+			}
+			case DATE: {
+				Date value = rs.getDate(column);
+				if (value == null) {
+					writeNull();
+				} else {
+					out.writeInt(4);
+					out.writeInt((int) (value.toLocalDate().toEpochDay()
+							- POSTGRES_EPOCH_DAYS));
+					bytes += 8;
+				}
+				break;
+			}
+			case TIME: {
+				LocalTime value = getLocalTime(rs, column);
+				if (value == null) {
+					writeNull();
+				} else {
+					out.writeInt(8);
+					out.writeLong(value.toNanoOfDay() / 1000);
+					bytes += 12;
+				}
+				break;
+			}
+			case TIMESTAMP: {
+				Timestamp value = rs.getTimestamp(column);
+				if (value == null) {
+					writeNull();
+				} else {
+					/* the local date and time, without the time zone */
+					out.writeInt(8);
+					out.writeLong(toPostgresMicros(
+							value.toLocalDateTime().toInstant(ZoneOffset.UTC)));
+					bytes += 12;
+				}
+				break;
+			}
+			case TIMESTAMPTZ: {
+				Timestamp value = rs.getTimestamp(column);
+				if (value == null) {
+					writeNull();
+				} else {
+					out.writeInt(8);
+					out.writeLong(toPostgresMicros(value.toInstant()));
+					bytes += 12;
+				}
+				break;
+			}
+			}
+		}
+
+		/**
+		 * numeric: number of the digits (base 10000), weight of the first
+		 * digit, sign, display scale (int16 each), then the digits (int16).
+		 */
+		private void writeNumeric(BigDecimal value) throws IOException {
+			int scale = Math.max(value.scale(), 0);
+			short[] digits = getNumericDigits(value);
+			/* the first digit is multiplied by 10000^weight */
+			int weight = digits.length == 0 ? 0
+					: digits.length - (scale + 3) / 4 - 1;
+			/* trim the zeros at the end (they are implied by the weight) */
+			int length = digits.length;
+			while (length > 0 && digits[length - 1] == 0) {
+				--length;
+			}
+			out.writeInt(8 + 2 * length);
+			out.writeShort(length);
+			out.writeShort(weight);
+			out.writeShort(value.signum() < 0 ? NUMERIC_NEGATIVE
+					: NUMERIC_POSITIVE);
+			out.writeShort(scale);
+			for (int i = 0; i < length; ++i) {
+				out.writeShort(digits[i]);
+			}
+			bytes += 12 + 2 * length;
+		}
+
+		/**
+		 * Write the trailer and flush the data (the output stream is not
+		 * closed).
+		 */
+		public void finish() throws IOException {
+			out.writeShort(-1);
+			bytes += 2;
+			out.flush();
+		}
+
+		public long getRows() {
+			return rows;
+		}
+
+		public long getBytes() {
+			return bytes;
+		}
+	}
+
+	/**
+	 * @return the digits (base 10000) of the absolute value, starting from
+	 *         the most significant one which is not 0 and ending with the
+	 *         last digit of the scale (padded to a full digit)
+	 */
+	static short[] getNumericDigits(BigDecimal value) {
+		int scale = Math.max(value.scale(), 0);
+		int fractionDigits = (scale + 3) / 4;
+		BigInteger unscaled = value.abs().setScale(fractionDigits * 4)
+				.unscaledValue();
+		/* a digit takes more than 13 bits */
+		short[] digits = new short[unscaled.bitLength() / 13 + 2];
+		int first = digits.length;
+		if (unscaled.bitLength() < 63) {
+			for (long rest = unscaled.longValue(); rest > 0; rest /= 10000) {
+				digits[--first] = (short) (rest % 10000);
+			}
+		} else {
+			while (unscaled.signum() > 0) {
+				BigInteger[] qr = unscaled.divideAndRemainder(NUMERIC_BASE);
+				digits[--first] = qr[1].shortValue();
+				unscaled = qr[0];
+			}
+		}
+		return Arrays.copyOfRange(digits, first, digits.length);
+	}
+
+	/**
+	 * @return microseconds since 2000-01-01 00:00:00 UTC
+	 */
+	static long toPostgresMicros(Instant instant) {
+		return (instant.getEpochSecond() - POSTGRES_EPOCH_SECONDS) * 1000000L
+				+ instant.getNano() / 1000;
+	}
+
+	/**
+	 * @return the instant from microseconds since 2000-01-01 00:00:00 UTC
+	 */
+	static Instant fromPostgresMicros(long micros) {
+		return Instant.ofEpochSecond(
+				Math.floorDiv(micros, 1000000L) + POSTGRES_EPOCH_SECONDS,
+				Math.floorMod(micros, 1000000L) * 1000);
+	}
+
+	/**
+	 * Read the rows in the binary format.
+	 */
+	public static class Decoder {
+
+		private final DataInputStream in;
+		private final ColumnType[] types;
+		private boolean header = false;
+		private long rows = 0;
+		private long bytes = 0;
+
+		/**
+		 * @param input
+		 *            from which the rows are read
+		 * @param types
+		 *            the types of the columns in PostgreSQL
+		 */
+		public Decoder(InputStream input, List<ColumnType> types) {
+			this.in = new DataInputStream(
+					new BufferedInputStream(input, BUFFER_SIZE));
+			this.types = types.toArray(new ColumnType[types.size()]);
+		}
+
+		private void readHeader() throws IOException {
+			byte[] signature = new byte[SIGNATURE.length];
+			in.readFully(signature);
+			if (!Arrays.equals(signature, SIGNATURE)) {
+				throw new IOException(
+						"The data is not in the binary format of PostgreSQL.");
+			}
+			/* flags */
+			in.readInt();
+			int extension = in.readInt();
+			in.readFully(new byte[extension]);
+			bytes += SIGNATURE.length + 8 + extension;
+			header = true;
+		}
+
+		/**
+		 * @return the values of the next row (Boolean, Short, Integer, Long,
+		 *         Float, Double, BigDecimal, String, byte[], Date, LocalTime,
+		 *         Timestamp or null) or null at the end of the data
+		 */
+		public Object[] readRow() throws IOException {
+			if (!header) {
+				readHeader();
+			}
+			short fields = in.readShort();
+			bytes += 2;
+			if (fields == -1) {
+				return null;
+			}
+			if (fields != types.length) {
+				throw new IOException("Expected " + types.length
+						+ " fields in a row but got: " + fields);
+			}
+			Object[] row = new Object[fields];
+			for (int i = 0; i < fields; ++i) {
+				int length = in.readInt();
+				bytes += 4;
+				if (length != -1) {
+					row[i] = readValue(types[i], length);
+					bytes += length;
+				}
+			}
+			++rows;
+			return row;
+		}
+
+		private Object readValue(ColumnType type, int length)
+				throws IOException {
+			switch (type) {
+			case BOOL:
+				return in.readByte() != 0;
+			case INT2:
+				return in.readShort();
+			case INT4:
+				return in.readInt();
+			case INT8:
+				return in.readLong();
+			case FLOAT4:
+				return in.readFloat();
+			case FLOAT8:
+				return in.readDouble();
+			case NUMERIC:
+				return readNumeric();
+			case TEXT: {
+				byte[] value = new byte[length];
+				in.readFully(value);
+				return new String(value, StandardCharsets.UTF_8);
+			}
+			case BYTEA: {
+				byte[] value = new byte[length];
+				in.readFully(value);
+				return value;
+			}
+			case DATE:
+				return Date.valueOf(LocalDate
+						.ofEpochDay(in.readInt() + POSTGRES_EPOCH_DAYS));
+			case TIME:
+				/* java.sql.Time would drop the fraction of a second */
+				return LocalTime.ofNanoOfDay(in.readLong() * 1000);
+			case TIMESTAMP:
+				return Timestamp.valueOf(LocalDateTime.ofInstant(
+						fromPostgresMicros(in.readLong()), ZoneOffset.UTC));
+			case TIMESTAMPTZ:
+				return Timestamp.from(fromPostgresMicros(in.readLong()));
+			default:
+				throw new IOException("Unsupported type: " + type);
+			}
+		}
+
+		private BigDecimal readNumeric() throws IOException {
+			int length = in.readShort();
+			int weight = in.readShort();
+			int sign = in.readShort() & 0xffff;
+			int scale = in.readShort();
+			if (sign != NUMERIC_POSITIVE && sign != NUMERIC_NEGATIVE) {
+				throw new IOException(
+						"NaN cannot be migrated as a numeric value.");
+			}
+			BigInteger unscaled = BigInteger.ZERO;
+			for (int i = 0; i < length; ++i) {
+				unscaled = unscaled.multiply(NUMERIC_BASE)
+						.add(BigInteger.valueOf(in.readShort()));
+			}
+			/* the last digit is multiplied by 10000^(weight - length + 1) */
+			BigDecimal value = new BigDecimal(unscaled,
+					-4 * (weight - length + 1)).setScale(scale);
+			return sign == NUMERIC_NEGATIVE ? value.negate() : value;
+		}
+
+		public long getRows() {
+			return rows;
+		}
+
+		public long getBytes() {
+			return bytes;
+		}
+	}
+
+	/**
+	 * Set a value read by the decoder as a parameter of the statement.
+	 */
+	public static void setParameter(PreparedStatement statement, int index,
+			ColumnType type, Object value) throws SQLException {
+		if (value == null) {
+			statement.setNull(index, type.sqlType);
+			return;
+		}
+		switch (type) {
+		case BOOL:
+			statement.setBoolean(index, (Boolean) value);
+			break;
+		case INT2:
+			statement.setShort(index, (Short) value);
+			break;
+		case INT4:
+			statement.setInt(index, (Integer) value);
+			break;
+		case INT8:
+			statement.setLong(index, (Long) value);
+			break;
+		case FLOAT4:
+			statement.setFloat(index, (Float) value);
+			break;
+		case FLOAT8:
+			statement.setDouble(index, (Double) value);
+			break;
+		case NUMERIC:
+			statement.setBigDecimal(index, (BigDecimal) value);
+			break;
+		case TEXT:
+			statement.setString(index, (String) value);
+			break;
+		case BYTEA:
+			statement.setBytes(index, (byte[]) value);
+			break;
+		case DATE:
+			statement.setDate(index, (Date) value);
+			break;
+		case TIME:
+			/* setTime would drop the fraction of a second */
+			statement.setString(index,
+					DateTimeFormatter.ISO_LOCAL_TIME.format((LocalTime) value));
+			break;
+		case TIMESTAMP:
+		case TIMESTAMPTZ:
+			statement.setTimestamp(index, (Timestamp) value);
+			break;
+		}
+	}
+}
@@ -3,7 +3,11 @@
  */
 package istc.bigdawg.migration;
 
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.util.List;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
@@ -13,6 +17,7 @@ import java.util.concurrent.FutureTask;
 import org.apache.log4j.Logger;
 
 import istc.bigdawg.LoggerSetup;
+import istc.bigdawg.exceptions.UnsupportedTypeException;
 import istc.bigdawg.properties.BigDawgConfigProperties;
 import istc.bigdawg.utils.RunShell;
 import istc.bigdawg.utils.StackTrace;
@@ -36,6 +41,11 @@ public class TransformBinExecutor implements Callable<Long> {
 	 * types=int32_t,int32_t:null,double,double:null,string,string
 	 */
 	private final String binFormat;
+	/*
+	 * the types of the columns in PostgreSQL (the source of the data), null
+	 * if they are not known
+	 */
+	private final List<String> sqlTypes;
 
 	/** Path to the migrator. */
 	static private String path;
@@ -50,6 +60,24 @@ public class TransformBinExecutor implements Callable<Long> {
 	 */
 	private final TYPE type;
 
+	/** how the data is transformed */
+	private final MODE mode;
+
+	public enum MODE {
+		/** in the JVM, see {@link BinTransformer} */
+		JAVA,
+		/** by the external c++ migrator: data-migrator-exe */
+		EXTERNAL;
+
+		/**
+		 * @return the mode set in the configuration
+		 */
+		public static MODE getDefault() {
+			return BigDawgConfigProperties.INSTANCE.isBinTransformerJava()
+					? JAVA : EXTERNAL;
+		}
+	}
+
 	public enum TYPE {
 		/**
 		 * the type is the name of the c++ program which executes a given
@@ -82,10 +110,53 @@ public class TransformBinExecutor implements Callable<Long> {
 	 */
 	public TransformBinExecutor(String inputBinPath, String outputBinPath,
 			String binFormat, TYPE type) {
+		this(inputBinPath, outputBinPath, binFormat, null, type);
+	}
+
+	/**
+	 * @param inputBinPath
+	 * @param outputBinPath
+	 * @param binFormat
+	 * @param sqlTypes
+	 *            the types of the columns in PostgreSQL, needed to transform
+	 *            the data from PostgreSQL in the JVM (see
+	 *            {@link MigrationUtils#getPostgreSQLTypes})
+	 * @param type
+	 */
+	public TransformBinExecutor(String inputBinPath, String outputBinPath,
+			String binFormat, List<String> sqlTypes, TYPE type) {
+		this(inputBinPath, outputBinPath, binFormat, sqlTypes, type,
+				MODE.getDefault());
+	}
+
+	/**
+	 * @param inputBinPath
+	 * @param outputBinPath
+	 * @param binFormat
+	 * @param sqlTypes
+	 * @param type
+	 * @param mode
+	 *            transform the data in the JVM or by the external migrator;
+	 *            the external migrator is used anyway if the JVM transformer
+	 *            cannot handle the type of migration or the attributes, or
+	 *            the types of the columns in PostgreSQL are not known
+	 */
+	public TransformBinExecutor(String inputBinPath, String outputBinPath,
+			String binFormat, List<String> sqlTypes, TYPE type, MODE mode) {
 		this.inputBinPath = inputBinPath;
 		this.outputBinPath = outputBinPath;
 		this.binFormat = binFormat;
+		this.sqlTypes = sqlTypes;
 		this.type = type;
+		if (mode == MODE.JAVA && (type == TYPE.FromRESTToSciDB
+				|| (type == TYPE.FromPostgresToSciDB && sqlTypes == null)
+				|| !BinTransformer.isSupported(binFormat))) {
+			log.info("The binary transformation " + type.name()
+					+ " for the format: " + binFormat
+					+ " is done by the external migrator.");
+			mode = MODE.EXTERNAL;
+		}
+		this.mode = mode;
 	}
 
 	/**
@@ -94,6 +165,9 @@ public class TransformBinExecutor implements Callable<Long> {
 	 * @return 0 if process was executed correctly, -1 if something went wrong
 	 */
 	public Long call() {
+		if (mode == MODE.JAVA) {
+			return transformInJVM();
+		}
 		try {
 			/*
 			 * The attributes from the format have to enclosed in a quotation
@@ -115,6 +189,37 @@ public class TransformBinExecutor implements Callable<Long> {
 		}
 	}
 
+	/**
+	 * Transform the data with {@link BinTransformer}, reading from and
+	 * writing to the files (pipes) directly.
+	 * 
+	 * @return 0 if the data was transformed correctly, -1 if something went
+	 *         wrong
+	 */
+	private Long transformInJVM() {
+		try (FileChannel input = new FileInputStream(inputBinPath)
+				.getChannel();
+				FileChannel output = new FileOutputStream(outputBinPath)
+						.getChannel()) {
+			BinTransformer transformer = new BinTransformer(input, output,
+					binFormat, sqlTypes);
+			long rows;
+			if (type == TYPE.FromPostgresToSciDB) {
+				rows = transformer.fromPostgresToSciDB();
+			} else {
+				rows = transformer.fromSciDBToPostgres();
+			}
+			log.debug("The binary transformation " + type.name()
+					+ " in the JVM, transformed rows: " + rows);
+			return 0L;
+		} catch (IOException | UnsupportedTypeException ex) {
+			log.error("The binary transformation " + type.name()
+					+ " in the JVM failed: " + ex.getMessage() + " "
+					+ StackTrace.getFullStackTrace(ex), ex);
+			return -1L;
+		}
+	}
+
 	/**
 	 * @param args
 	 * @throws ExecutionException
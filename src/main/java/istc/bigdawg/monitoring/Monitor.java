@@ -1,15 +1,19 @@
 package istc.bigdawg.monitoring;
 
+import java.io.IOException;
 import java.sql.SQLException;
 import java.util.ArrayList;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
 
+import org.apache.commons.codec.DecoderException;
+import org.apache.commons.codec.binary.Hex;
 import org.apache.log4j.Logger;
 import org.mortbay.log.Log;
 
 import istc.bigdawg.BDConstants;
+import istc.bigdawg.exceptions.BigDawgException;
 import istc.bigdawg.exceptions.MigrationException;
 import istc.bigdawg.exceptions.NotSupportIslandException;
 import istc.bigdawg.executor.Executor;
@@ -23,7 +27,9 @@ import istc.bigdawg.migration.MigrationStatistics;
 import istc.bigdawg.postgresql.PostgreSQLHandler;
 import istc.bigdawg.query.ConnectionInfo;
 import istc.bigdawg.query.ConnectionInfoParser;
+import istc.bigdawg.signature.CompiledSignature;
 import istc.bigdawg.signature.Signature;
+import istc.bigdawg.signature.SignatureIndex;
 
 public class Monitor {
     /**
@@ -34,13 +40,16 @@ public class Monitor {
 
     public static final String stringSeparator = "****";
 
-    private static final String INSERT = "INSERT INTO monitoring (signature, index, lastRan, duration) SELECT '%s', %d, %d, -1 WHERE NOT EXISTS (SELECT 1 FROM monitoring WHERE signature='%s' AND index=%d)";
     private static final String DELETE = "DELETE FROM monitoring WHERE signature='%s'";
-    private static final String UPDATE = "UPDATE monitoring SET lastRan=%d, duration=%d WHERE signature='%s' AND index=%d";
     private static final String RETRIEVE = "SELECT duration FROM monitoring WHERE signature='%s' ORDER BY index";
-    private static final String SIGS = "SELECT DISTINCT(signature) FROM monitoring";
+    private static final String SIGS = "SELECT signature, max(encode(compiled, 'hex')) FROM monitoring GROUP BY signature";
+    private static final String ADDCOMPILED = "DO $$ BEGIN ALTER TABLE monitoring ADD COLUMN compiled bytea; EXCEPTION WHEN duplicate_column THEN NULL; END $$";
     private static final String MINDURATION = "SELECT coalesce(min(duration),0) FROM monitoring";
-    private static final String MIGRATE = "INSERT INTO migrationstats(fromLoc, toLoc, objectFrom, objectTo, startTime, endTime, countExtracted, countLoaded, message) VALUES ('%s', '%s', '%s', '%s', %d, %d, %d, %d, '%s')";
+    /** Signatures of the benchmark queries, loaded from the monitoring table on first use. */
+    private static final SignatureIndex signatureIndex = new SignatureIndex();
+    private static volatile boolean signatureIndexLoaded = false;
+    private static volatile boolean compiledColumnChecked = false;
+
     private static final String RETRIEVEMIGRATE = "SELECT objectFrom, objectTo, startTime, endTime, countExtracted, countLoaded, message FROM migrationstats WHERE fromLoc='%s' AND toLoc='%s'";
 
     /**
@@ -85,6 +94,7 @@ public class Monitor {
 	            }
 	        }
 	        if (isContinue) continue;
+	        signatureIndex.add(signature);
 	        if (!lean) {
 	            try {
 	                runBenchmarks(qeps, signature);
@@ -103,7 +113,11 @@ public class Monitor {
      * @return - true if deleted successfully. false otherwise
      */
     public static boolean removeBenchmarks(Signature signature) {
-        return delete(signature);
+        boolean deleted = delete(signature);
+        if (deleted) {
+            signatureIndex.remove(signature);
+        }
+        return deleted;
     }
 
     /**
@@ -111,6 +125,7 @@ public class Monitor {
      * @return true if all queries have been run at least once. false otherwise
      */
     public static boolean allQueriesDone() {
+        MonitoringWriter.getInstance().flushBenchmarks();
         PostgreSQLHandler handler = new PostgreSQLHandler();
         try {
             JdbcQueryResult qresult = handler.executeQueryOnEngine(MINDURATION);
@@ -143,6 +158,8 @@ public class Monitor {
         List<Long> perfInfo = new ArrayList<>();
         String escapedSignature = signature.toRecoverableString().replace("'", stringSeparator);
 
+        // the timings of the signature may be queued (in the training mode)
+        MonitoringWriter.getInstance().flushBenchmarks(escapedSignature);
         PostgreSQLHandler handler = new PostgreSQLHandler();
         JdbcQueryResult qresult = handler.executeQueryOnEngine(String.format(RETRIEVE, escapedSignature));
         List<List<String>> rows = qresult.getRows();
@@ -167,8 +184,19 @@ public class Monitor {
 
         PostgreSQLHandler handler = new PostgreSQLHandler();
         try {
+            ensureCompiledColumn();
+            MonitoringWriter.getInstance().flushBenchmarks();
             JdbcQueryResult qresult = handler.executeQueryOnEngine(SIGS);
             List<List<String>> rows = qresult.getRows();for (List<String> row: rows){
+                String compiled = row.get(1);
+                if (compiled != null && !compiled.isEmpty()) {
+                    try {
+                        signatures.add(CompiledSignature.fromBytes(Hex.decodeHex(compiled.toCharArray())));
+                        continue;
+                    } catch (BigDawgException | DecoderException e) {
+                        logger.warn("Cannot read the compiled signature, the text form is used: " + e.getMessage());
+                    }
+                }
                 String signature = row.get(0).replace(stringSeparator, "'");
                 signatures.add(new Signature(signature));
             }
@@ -185,39 +213,59 @@ public class Monitor {
      * @return The signature of the benchmark query that is closest to the input signature
      */
     public static Signature getClosestSignature(Signature signature) {
-        // TODO This could be changed to be much more efficient.
-        List<Signature> signatures = getAllSignatures();
-        Signature closest = null;
-        double distance = Double.MAX_VALUE;
-        for (Signature current: signatures){
-            // compare them and pick the closest Signature
-            double curDist = signature.compare(current);
-            if (curDist < distance){
-                distance = curDist;
-                closest = current;
-            }
+        if (!signatureIndexLoaded) {
+            loadSignatureIndex();
         }
-        return closest;
+        return signatureIndex.getClosest(signature);
+    }
+
+    /**
+     * (Re)loads the in-memory index of signatures from the monitoring table.
+     * Called at startup; the index is then kept up to date by addBenchmarks and removeBenchmarks.
+     */
+    public static synchronized void loadSignatureIndex() {
+        long start = System.currentTimeMillis();
+        List<Signature> signatures = getAllSignatures();
+        signatureIndex.clear();
+        signatureIndex.addAll(signatures);
+        signatureIndexLoaded = true;
+        logger.info(String.format("Signature index loaded: %d signatures in %d ms", signatureIndex.size(), System.currentTimeMillis() - start));
     }
 
     /**
      * Inserts a benchmark for a specific QueryExecutionPlan
      * @param signature - signature representing the query
      * @param index - index of the QueryExecutionPlan when generating it from the signature
-     * @return true if successfully inserted. false otherwise.
+     * @return true if successfully inserted (or queued by the MonitoringWriter). false otherwise.
      * @throws NotSupportIslandException
      */
     private static boolean insert(Signature signature, int index) throws NotSupportIslandException {
-        PostgreSQLHandler handler = new PostgreSQLHandler();
         try {
+            ensureCompiledColumn();
             String escapedSignature = signature.toRecoverableString().replace("'", stringSeparator);
-			handler.executeStatementOnConnection(String.format(INSERT, escapedSignature, index, System.currentTimeMillis(), escapedSignature, index));
-			return true;
-		} catch (SQLException e) {
+            String compiled = Hex.encodeHexString(signature.getCompiled().toBytes());
+			return MonitoringWriter.getInstance().addBenchmark(escapedSignature, index, System.currentTimeMillis(), compiled);
+		} catch (SQLException | IOException e) {
 			return false;
 		}
     }
 
+    /**
+     * Adds the column with the compiled signatures to monitoring tables created before it was introduced.
+     * @throws SQLException
+     */
+    private static void ensureCompiledColumn() throws SQLException {
+        if (compiledColumnChecked) {
+            return;
+        }
+        synchronized (Monitor.class) {
+            if (!compiledColumnChecked) {
+                new PostgreSQLHandler().executeStatementOnConnection(ADDCOMPILED);
+                compiledColumnChecked = true;
+            }
+        }
+    }
+
     /**
      * Deletes all QueryExecutionPlans in the Monitor with the given signature
      * @param signature - signature representing the query
@@ -226,7 +274,9 @@ public class Monitor {
     private static boolean delete(Signature signature) {
         PostgreSQLHandler handler = new PostgreSQLHandler();
         try {
+            // the queued rows of the signature must not be written after the delete
             String escapedSignature = signature.toRecoverableString().replace("'", stringSeparator);
+            MonitoringWriter.getInstance().flushBenchmarks(escapedSignature);
 			handler.executeStatementOnConnection(String.format(DELETE, escapedSignature));
 			return true;
 		} catch (SQLException e) {
@@ -249,6 +299,7 @@ public class Monitor {
 
     /**
      * Used by the Executor. Updates the timing information for a QueryExecutionPlan
+     * (written to the catalog by the MonitoringWriter, off the critical path of the query)
      * @param signature - signature representing the query
      * @param index - index of the QueryExecutionPlan when generating it from the signature
      * @param startTime - time the query started running on the Executor in ms
@@ -256,18 +307,16 @@ public class Monitor {
      * @throws SQLException
      */
     public void finishedBenchmark(Signature signature, int index, long startTime, long endTime) throws SQLException {
-        PostgreSQLHandler handler = new PostgreSQLHandler();
         String escapedSignature = signature.toRecoverableString().replace("'", stringSeparator);
-        handler.executeStatementOnConnection(String.format(UPDATE, endTime, endTime-startTime, escapedSignature, index));
+        MonitoringWriter.getInstance().updateBenchmark(escapedSignature, index, endTime, endTime-startTime);
     }
 
     /**
-     * Adds migration statistics to the Monitor
+     * Adds migration statistics to the Monitor (written to the catalog by the MonitoringWriter)
      * @param stats - migration statistics to be added
      * @throws SQLException
      */
     public static void addMigrationStats(MigrationStatistics stats) throws SQLException {
-        PostgreSQLHandler handler = new PostgreSQLHandler();
         String fromLoc = ConnectionInfoParser.connectionInfoToString(stats.getConnectionFrom());
         String toLoc = ConnectionInfoParser.connectionInfoToString(stats.getConnectionTo());
         long countExtracted = -1;
@@ -278,7 +327,7 @@ public class Monitor {
         if (stats.getCountLoadedElements() != null){
             countLoaded = stats.getCountLoadedElements();
         }
-        handler.executeStatementOnConnection(String.format(MIGRATE, fromLoc, toLoc, stats.getObjectFrom(), stats.getObjectTo(), stats.getStartTimeMigration(), stats.getEndTimeMigration(), countExtracted, countLoaded, stats.getMessage()));
+        MonitoringWriter.getInstance().addMigrationStats(fromLoc, toLoc, stats.getObjectFrom(), stats.getObjectTo(), stats.getStartTimeMigration(), stats.getEndTimeMigration(), countExtracted, countLoaded, stats.getMessage());
     }
 
     /**
@@ -291,6 +340,7 @@ public class Monitor {
     public List<MigrationStatistics> getMigrationStats(ConnectionInfo from, ConnectionInfo to) throws SQLException {
         String fromLoc = ConnectionInfoParser.connectionInfoToString(from);
         String toLoc = ConnectionInfoParser.connectionInfoToString(to);
+        MonitoringWriter.getInstance().flushMigrationStats(fromLoc, toLoc);
         PostgreSQLHandler handler = new PostgreSQLHandler();
         JdbcQueryResult qresult = handler.executeQueryOnEngine(String.format(RETRIEVEMIGRATE, fromLoc, toLoc));
         List<MigrationStatistics> results = new ArrayList<>();
@@ -3,32 +3,40 @@ package istc.bigdawg.monitoring;
 import static istc.bigdawg.utils.JdbcUtils.getColumnNames;
 import static istc.bigdawg.utils.JdbcUtils.getRows;
 
-import java.io.BufferedReader;
-import java.io.IOException;
-import java.io.InputStreamReader;
+import java.lang.management.ManagementFactory;
+import java.lang.management.OperatingSystemMXBean;
+import java.lang.reflect.Method;
 import java.sql.Connection;
 import java.sql.ResultSet;
 import java.sql.ResultSetMetaData;
 import java.sql.SQLException;
 import java.sql.Statement;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
 import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
 import java.util.concurrent.TimeUnit;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.concurrent.atomic.AtomicInteger;
 
-import org.apache.commons.lang3.SystemUtils;
 import org.apache.log4j.Level;
 import org.apache.log4j.Logger;
 import org.jgrapht.graph.DefaultEdge;
 
+import istc.bigdawg.executor.Executor;
 import istc.bigdawg.executor.plan.QueryExecutionPlan;
 import istc.bigdawg.islands.CrossIslandCast;
 import istc.bigdawg.islands.IntraIslandQuery;
 import istc.bigdawg.islands.CrossIslandQueryPlan;
 import istc.bigdawg.postgresql.PostgreSQLInstance;
+import istc.bigdawg.properties.BigDawgConfigProperties;
 import istc.bigdawg.query.QueryClient;
 import istc.bigdawg.signature.Signature;
 
@@ -39,159 +47,264 @@ public class MonitoringTask implements Runnable {
     public static final int CHECK_RATE_MS = 100;
     private final int cores;
     private final ScheduledExecutorService executor;
+    private final ExecutorService benchmarkExecutor;
+    private final double maxLoad;
+    private final int maxPlans;
 
     /**
      * Runs in background on each machine. In lean mode, no benchmarks are run except through this.
      *
      * This is currently made with the assumption that each island resides on one machine. To adapt this, would need to add a
      * machine field to the db and choose queries based on that field..
+     *
+     * The QueryExecutionPlans of a benchmark run only while the CPU usage is below the configured share and no user query
+     * is executed on their engines; at most the configured number of plans run at the same time.
      */
     public MonitoringTask () {
         this.executor = Executors.newScheduledThreadPool(1);
-        this.cores = this.getCores();
-    }
-
-    private int getCores() {
-        int cores = 1;
-        try {
-            String command = "";
-            if (SystemUtils.IS_OS_LINUX) {
-                command = "nproc";
-            } else if (SystemUtils.IS_OS_MAC) {
-                command = "sysctl -n hw.physicalcpu";
-            } else if (SystemUtils.IS_OS_WINDOWS) {
-                return Integer.parseInt(System.getenv("NUMBER_OF_PROCESSORS"));
-            }
-            else {
-                throw new RuntimeException("The current OS is not supported.");
-            }
-            Process p = Runtime.getRuntime().exec(command);
-            p.waitFor();
-            BufferedReader reader = new BufferedReader(new InputStreamReader(p.getInputStream()));
-            StringBuilder sb = new StringBuilder();
-            String line = "";
-            while ((line = reader.readLine())!= null) {
-                sb.append(line).append("\n");
-            }
-            String result = sb.toString().replaceAll("[^0-9]", "");
-            cores = Integer.parseInt(result);
-        } catch (IOException | InterruptedException e) {
-            e.printStackTrace();
-        }
-        return cores;
+        this.cores = Runtime.getRuntime().availableProcessors();
+        this.maxLoad = BigDawgConfigProperties.INSTANCE.getMonitorBenchmarkCpuPercent() / 100.0;
+        this.maxPlans = Math.max(1, BigDawgConfigProperties.INSTANCE.getMonitorBenchmarkMaxPlans());
+        this.benchmarkExecutor = Executors.newFixedThreadPool(this.maxPlans);
     }
 
     /**
-     * Checks whether we are below MAX_CPU. If so, runs a query.
+     * Checks whether we are below the CPU budget. If so, runs the plans of a benchmark query on idle engines.
      */
     @Override
     public void run() {
-        this.executor.scheduleAtFixedRate(new Task(this.cores), 0, CHECK_RATE_MS, TimeUnit.MILLISECONDS);
+        this.executor.scheduleAtFixedRate(new Task(this.cores, this.maxLoad, this.maxPlans, this.benchmarkExecutor), 0, CHECK_RATE_MS, TimeUnit.MILLISECONDS);
     }
 
     public void shutdown() {
         this.executor.shutdown();
+        this.benchmarkExecutor.shutdown();
     }
 }
 
 class Task implements Runnable {
+    private static Logger logger = Logger.getLogger(Task.class.getName());
+
     private static final String RETRIEVE = "SELECT signature FROM monitoring WHERE lastRan < %d AND lastRan=(SELECT min(lastRan) FROM monitoring) ORDER BY RANDOM() LIMIT 1";
-    private static final double MAX_LOAD = 0.7;
+    /** How long a plan waits for its engines to become idle before it is skipped. */
+    static final long MAX_WAIT_MS = MonitoringTask.CHECK_RATE_MS * 100;
     private final int cores;
+    private final double maxLoad;
+    private final long maxWaitMs;
+    private final Semaphore permits;
+    private final ExecutorService benchmarkExecutor;
+    private final OperatingSystemMXBean os = ManagementFactory.getOperatingSystemMXBean();
+    /** getCpuLoad of the com.sun.management bean (Java 14+), null on the older JVMs */
+    private final Method cpuLoad = getCpuLoadMethod();
+
+    /** The plans of the current benchmark query waiting for idle engines. */
+    private final Deque<BenchmarkPlan> pending = new ArrayDeque<>();
+    /** The signatures whose plans are waiting or running. */
+    private final Set<String> running = ConcurrentHashMap.newKeySet();
+
+    /** A QueryExecutionPlan of a benchmark query with its engines. */
+    static class BenchmarkPlan {
+        private final Signature signature;
+        /** the recoverable string of the signature */
+        private final String key;
+        private final int index;
+        private final QueryExecutionPlan qep;
+        private final Set<String> engines;
+        /** plans of the signature not finished yet */
+        private final AtomicInteger remaining;
+        /** when the plan was queued */
+        private final long queuedMs = System.currentTimeMillis();
+
+        private BenchmarkPlan(Signature signature, int index, QueryExecutionPlan qep, AtomicInteger remaining) {
+            this(signature, signature.toRecoverableString(), index, qep, QueryActivity.getEngines(qep), remaining);
+        }
+
+        BenchmarkPlan(Signature signature, String key, int index, QueryExecutionPlan qep, Set<String> engines, AtomicInteger remaining) {
+            this.signature = signature;
+            this.key = key;
+            this.index = index;
+            this.qep = qep;
+            this.engines = engines;
+            this.remaining = remaining;
+        }
+
+        int getIndex() {
+            return index;
+        }
+    }
+
+    Task(int cores, double maxLoad, int maxPlans, ExecutorService benchmarkExecutor){
+        this(cores, maxLoad, maxPlans, benchmarkExecutor, MAX_WAIT_MS);
+    }
 
-    Task(int cores){
+    Task(int cores, double maxLoad, int maxPlans, ExecutorService benchmarkExecutor, long maxWaitMs){
         this.cores = cores;
+        this.maxLoad = maxLoad;
+        this.maxWaitMs = maxWaitMs;
+        this.permits = new Semaphore(maxPlans);
+        this.benchmarkExecutor = benchmarkExecutor;
     }
 
     @Override
     public void run(){
-        if (this.can_add()) {
-            try {
-                final Signature signature= this.getSignature();
-                if (signature != null) {
-//                    Map<String, String> crossIslandQuery = UserQueryParser.getUnwrappedQueriesByIslands(signature.getQuery());
-//                    CrossIslandQueryPlan ciqp = new CrossIslandQueryPlan(crossIslandQuery);
-//                    IntraIslandQuery ciqn = (IntraIslandQuery)ciqp.getTerminalNode();
-                	CrossIslandQueryPlan ciqp = new CrossIslandQueryPlan(signature.getQuery(), new HashSet<>());
-                	IntraIslandQuery ciqn = null;
-                    if (ciqp.getTerminalNode() instanceof IntraIslandQuery)
-                    	ciqn = (IntraIslandQuery)ciqp.getTerminalNode();
-                    else {
-                    	ciqp.edgesOf(ciqp.getTerminalNode());
-                    	for (DefaultEdge e : ciqp.edgeSet()) {
-                    		if (ciqp.getEdgeTarget(e) instanceof CrossIslandCast) {
-                    			ciqn = (IntraIslandQuery)(ciqp.getEdgeSource(e));
-                    			break;
-                    		};
-                    	} 
-                    }
-                    List<QueryExecutionPlan> qeps = ciqn.getAllQEPs(true);
-
-                    Monitor.runBenchmarks(qeps, signature);
-                }
-            } catch (Exception e) {
-                e.printStackTrace();
+        try {
+            if (pending.isEmpty() && this.can_add()) {
+                addPlans();
             }
+            startIdlePlans();
+        } catch (Exception e) {
+            logger.error("Cannot schedule the benchmark queries: " + e.getMessage(), e);
         }
     }
 
     /**
-     * Checks whether the load average is below some set threshold
-     * @return true if it is currently under the threshold. false otherwise.
+     * Starts the queued plans whose engines are idle, in order, while the budget allows it. The plans whose engines
+     * are busy stay queued without holding back the plans behind them, and are skipped once they waited too long.
      */
-    private boolean can_add() {
-        if (SystemUtils.IS_OS_WINDOWS) {
-            return this.can_add_windows();
+    void startIdlePlans() {
+        final long now = System.currentTimeMillis();
+        for (Iterator<BenchmarkPlan> it = pending.iterator(); it.hasNext();) {
+            BenchmarkPlan plan = it.next();
+            if (QueryActivity.isIdle(plan.engines)) {
+                if (!this.can_add() || !permits.tryAcquire()) {
+                    return;
+                }
+                it.remove();
+                start(plan);
+            } else if (now - plan.queuedMs >= maxWaitMs) {
+                it.remove();
+                logger.debug("Benchmark plan " + plan.index + " skipped, its engines are busy: " + plan.engines);
+                finished(plan);
+            }
         }
+    }
 
-        try {
-            Process p = Runtime.getRuntime().exec("uptime");
-            p.waitFor();
-            BufferedReader reader = new BufferedReader(new InputStreamReader(p.getInputStream()));
-            StringBuffer sb = new StringBuffer();
-            String line = "";
-            while ((line = reader.readLine()) != null) {
-                sb.append(line).append("\n");
-            }
-            Pattern currentLoad = Pattern.compile("(?<=load average: )([.0-9]+)");
-            Matcher m = currentLoad.matcher(sb);
-            String result = "";
-            if (m.find()) {
-                result = m.group();
+    /**
+     * Queues a plan of a benchmark query.
+     */
+    void queue(BenchmarkPlan plan) {
+        running.add(plan.key);
+        pending.add(plan);
+    }
+
+    /**
+     * @return the plans waiting for idle engines, in order
+     */
+    List<BenchmarkPlan> getPending() {
+        return new ArrayList<>(pending);
+    }
+
+    /**
+     * @param key - recoverable string of a signature
+     * @return true if plans of the signature are waiting or running
+     */
+    boolean isRunning(String key) {
+        return running.contains(key);
+    }
+
+    /**
+     * Takes the least recently run benchmark query and queues its QueryExecutionPlans.
+     */
+    private void addPlans() throws Exception {
+        final Signature signature = this.getSignature();
+        if (signature == null || running.contains(signature.toRecoverableString())) {
+            return;
+        }
+//        Map<String, String> crossIslandQuery = UserQueryParser.getUnwrappedQueriesByIslands(signature.getQuery());
+//        CrossIslandQueryPlan ciqp = new CrossIslandQueryPlan(crossIslandQuery);
+//        IntraIslandQuery ciqn = (IntraIslandQuery)ciqp.getTerminalNode();
+        CrossIslandQueryPlan ciqp = new CrossIslandQueryPlan(signature.getQuery(), new HashSet<>());
+        IntraIslandQuery ciqn = null;
+        if (ciqp.getTerminalNode() instanceof IntraIslandQuery)
+            ciqn = (IntraIslandQuery)ciqp.getTerminalNode();
+        else {
+            ciqp.edgesOf(ciqp.getTerminalNode());
+            for (DefaultEdge e : ciqp.edgeSet()) {
+                if (ciqp.getEdgeTarget(e) instanceof CrossIslandCast) {
+                    ciqn = (IntraIslandQuery)(ciqp.getEdgeSource(e));
+                    break;
+                };
             }
-            double load = Double.parseDouble(result);
-            if (load/this.cores > MAX_LOAD) {
-                return false;
+        }
+        List<QueryExecutionPlan> qeps = ciqn.getAllQEPs(true);
+        if (qeps.isEmpty()) {
+            return;
+        }
+        AtomicInteger remaining = new AtomicInteger(qeps.size());
+        for (int i = 0; i < qeps.size(); i++) {
+            queue(new BenchmarkPlan(signature, i, qeps.get(i), remaining));
+        }
+    }
+
+    private void start(BenchmarkPlan plan) {
+        benchmarkExecutor.submit(() -> {
+            QueryActivity.setBackground(true);
+            try {
+                execute(plan);
+            } catch (Exception e) {
+                logger.error("Benchmark plan " + plan.index + " failed: " + e.getMessage(), e);
+            } finally {
+                permits.release();
+                finished(plan);
             }
-        } catch (IOException|InterruptedException e) {
-            e.printStackTrace();
-            return false;
+        });
+    }
+
+    /**
+     * Executes a plan of a benchmark query and reports its timing to the monitor.
+     */
+    void execute(BenchmarkPlan plan) throws Exception {
+        Executor.executePlan(plan.qep, plan.signature, plan.index);
+    }
+
+    private void finished(BenchmarkPlan plan) {
+        if (plan.remaining.decrementAndGet() == 0) {
+            running.remove(plan.key);
         }
-        return true;
     }
 
-    private boolean can_add_windows() {
+    /**
+     * @return getCpuLoad of com.sun.management.OperatingSystemMXBean, or null if the JVM (before Java 14) does not
+     * have it
+     */
+    private static Method getCpuLoadMethod() {
         try {
-            Process p = Runtime.getRuntime().exec("wmic cpu get loadpercentage");
-            p.waitFor();
-            BufferedReader reader = new BufferedReader(new InputStreamReader(p.getInputStream()));
-            StringBuffer sb = new StringBuffer();
-            String line = "";
-            while ((line = reader.readLine()) != null) {
-                sb.append(line).append("\n");
-            }
-            Pattern currentLoad = Pattern.compile("([.0-9]+)");
-            Matcher m = currentLoad.matcher(sb);
-            String result = "";
-            if (m.find()) {
-                result = m.group();
-            }
-            double load = Double.parseDouble(result);
-            if ((load/100) > MAX_LOAD) {
-                return false;
+            return com.sun.management.OperatingSystemMXBean.class.getMethod("getCpuLoad");
+        } catch (NoSuchMethodException | NoClassDefFoundError e) {
+            return null;
+        }
+    }
+
+    /**
+     * Samples the CPU usage of the machine in the JVM (no processes are spawned).
+     * @return the CPU usage (0.0 - 1.0), or a negative value if it is not available
+     */
+    double getLoad() {
+        if (cpuLoad != null && os instanceof com.sun.management.OperatingSystemMXBean) {
+            try {
+                double load = (Double) cpuLoad.invoke(os);
+                if (load >= 0) {
+                    return load;
+                }
+            } catch (ReflectiveOperationException e) {
+                logger.debug("Cannot sample the CPU usage: " + e.getMessage());
             }
-        } catch (IOException|InterruptedException e) {
-            e.printStackTrace();
+        }
+        double loadAverage = os.getSystemLoadAverage();
+        if (loadAverage >= 0) {
+            return loadAverage / this.cores;
+        }
+        return -1;
+    }
+
+    /**
+     * Checks whether the CPU usage is below the configured share
+     * @return true if it is currently under the threshold (or cannot be measured). false otherwise.
+     */
+    private boolean can_add() {
+        double load = this.getLoad();
+        if (load > maxLoad) {
+            logger.debug("Benchmarks postponed, CPU usage: " + load);
             return false;
         }
         return true;
@@ -207,7 +320,7 @@ class Task implements Runnable {
         Statement st = null;
         ResultSet rs = null;
         try {
-            con = PostgreSQLInstance.getConnection();
+            con = PostgreSQLInstance.getPooledConnection();
             st = con.createStatement();
             rs = st.executeQuery(String.format(RETRIEVE, System.currentTimeMillis() - MonitoringTask.CHECK_RATE_MS * 100));
             ResultSetMetaData rsmd = rs.getMetaData();
@@ -0,0 +1,439 @@
+package istc.bigdawg.monitoring;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import org.apache.log4j.Logger;
+
+import istc.bigdawg.postgresql.PostgreSQLHandler;
+import istc.bigdawg.properties.BigDawgConfigProperties;
+
+/**
+ * Writes the monitoring data (benchmark queries, their timings and the
+ * migration statistics) to the catalog off the critical path of the queries.
+ *
+ * The rows are put in a bounded queue and a background thread writes them in
+ * batches: consecutive rows for the same statement are sent as one multi-row
+ * statement, so the order of the rows is kept (e.g. a benchmark is inserted
+ * before its timing is updated). When the queue is full, the caller either
+ * waits for the writer ({@link Overflow#BLOCK}) or the row is dropped
+ * ({@link Overflow#DROP}). The waiting rows are written on {@link #flush()}
+ * and on {@link #close()}; a read of the monitoring data flushes only if rows
+ * it needs are waiting ({@link #flushBenchmarks(String)},
+ * {@link #flushMigrationStats(String, String)}).
+ *
+ * Only the background thread executes the statements while it runs, so no
+ * lock is held while a statement is executed: a flush waits until the writer
+ * has written the rows added before it.
+ */
+public class MonitoringWriter {
+
+    private static Logger logger = Logger.getLogger(MonitoringWriter.class.getName());
+
+    private static final String INSERT = "INSERT INTO monitoring (signature, index, lastRan, duration, compiled) SELECT v.signature, v.index, v.lastRan, -1, v.compiled FROM (VALUES %s) AS v(signature, index, lastRan, compiled) WHERE NOT EXISTS (SELECT 1 FROM monitoring m WHERE m.signature=v.signature AND m.index=v.index)";
+    private static final String INSERT_VALUES = "('%s', %d, %d::bigint, decode('%s', 'hex'))";
+    private static final String UPDATE = "UPDATE monitoring m SET lastRan=v.lastRan, duration=v.duration FROM (VALUES %s) AS v(signature, index, lastRan, duration) WHERE m.signature=v.signature AND m.index=v.index";
+    private static final String UPDATE_VALUES = "('%s', %d, %d::bigint, %d::bigint)";
+    private static final String MIGRATE = "INSERT INTO migrationstats(fromLoc, toLoc, objectFrom, objectTo, startTime, endTime, countExtracted, countLoaded, message) VALUES %s";
+    private static final String MIGRATE_VALUES = "('%s', '%s', '%s', '%s', %d, %d, %d, %d, '%s')";
+
+    /** The groups of the rows waiting in the queue, see {@link #flushBenchmarks(String)}. */
+    private static final String BENCHMARKS = "benchmarks";
+    private static final String MIGRATIONS = "migrations";
+
+    /** What to do with a new row when the queue is full. */
+    public enum Overflow {
+        BLOCK, DROP
+    }
+
+    /** Executes a statement on the catalog. */
+    public interface StatementExecutor {
+        void execute(String statement) throws SQLException;
+    }
+
+    /** The statements to which the rows are batched. */
+    private enum Kind {
+        INSERT, UPDATE, MIGRATE
+    }
+
+    /** A row of the monitoring data, already formatted as a tuple of SQL values. */
+    private static class Row {
+        private final Kind kind;
+        /** rows with the same key are written once in a batch */
+        private final String key;
+        private final String values;
+        /** the reads which need the row: all the benchmarks (migrations) and the signature (engines) */
+        private final String[] groups;
+
+        private Row(Kind kind, String key, String values, String... groups) {
+            this.kind = kind;
+            this.key = key;
+            this.values = values;
+            this.groups = groups;
+        }
+    }
+
+    private static MonitoringWriter instance = null;
+
+    private final StatementExecutor executor;
+    private final boolean async;
+    private final int capacity;
+    private final int batchSize;
+    private final long flushIntervalNanos;
+    private final Overflow overflow;
+
+    private final Queue<Row> queue = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger queued = new AtomicInteger(0);
+    /** number of rows ever queued and written (or failed) by the writer, for the flushes */
+    private final AtomicLong added = new AtomicLong(0);
+    private final AtomicLong written = new AtomicLong(0);
+    private final Object progress = new Object();
+    /** number of waiting rows by group */
+    private final ConcurrentMap<String, AtomicInteger> pending = new ConcurrentHashMap<>();
+    private final AtomicLong dropped = new AtomicLong(0);
+    private final AtomicLong statements = new AtomicLong(0);
+    private volatile boolean running;
+    private final Thread writer;
+
+    /**
+     * @param executor executes the statements on the catalog
+     * @param async write the rows in a background thread (false: write each row when it is added)
+     * @param capacity maximum number of rows waiting in the queue
+     * @param batchSize maximum number of rows written in one statement
+     * @param flushIntervalMs the waiting rows are written at least that often
+     * @param overflow what to do with a new row when the queue is full
+     */
+    public MonitoringWriter(StatementExecutor executor, boolean async, int capacity, int batchSize,
+            long flushIntervalMs, Overflow overflow) {
+        this.executor = executor;
+        this.async = async;
+        this.capacity = Math.max(1, capacity);
+        this.batchSize = Math.max(1, batchSize);
+        this.flushIntervalNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(1, flushIntervalMs));
+        this.overflow = overflow;
+        this.running = async;
+        if (async) {
+            this.writer = new Thread(this::writeLoop, "bigdawg-monitoring-writer");
+            this.writer.setDaemon(true);
+            this.writer.start();
+        } else {
+            this.writer = null;
+        }
+    }
+
+    /**
+     * @return the writer configured in BigDawgConfigProperties, writing to the catalog;
+     *          the waiting rows are written when the JVM shuts down
+     */
+    public static synchronized MonitoringWriter getInstance() {
+        if (instance == null) {
+            BigDawgConfigProperties config = BigDawgConfigProperties.INSTANCE;
+            Overflow overflow = Overflow.BLOCK;
+            try {
+                overflow = Overflow.valueOf(config.getMonitorWriterOverflow().trim().toUpperCase());
+            } catch (IllegalArgumentException e) {
+                logger.warn("Unknown overflow policy of the monitoring writer: "
+                        + config.getMonitorWriterOverflow() + ", block is used");
+            }
+            final MonitoringWriter monitoringWriter = new MonitoringWriter(
+                    statement -> new PostgreSQLHandler().executeStatementOnConnection(statement),
+                    config.isMonitorWriterAsync(), config.getMonitorWriterQueueSize(),
+                    config.getMonitorWriterBatchSize(), config.getMonitorWriterFlushInterval(), overflow);
+            Runtime.getRuntime().addShutdownHook(
+                    new Thread(monitoringWriter::close, "bigdawg-monitoring-writer-shutdown"));
+            instance = monitoringWriter;
+        }
+        return instance;
+    }
+
+    /**
+     * Adds a benchmark (a QueryExecutionPlan of a signature) that has not run yet.
+     * @param escapedSignature - recoverable string of the signature with escaped quotes
+     * @param index - index of the QueryExecutionPlan
+     * @param lastRan - time of the insert in ms
+     * @param compiledHex - binary form of the signature in hex
+     * @return true if the row was written (or queued), false if it was dropped
+     * @throws SQLException the row could not be written (only if not async)
+     */
+    public boolean addBenchmark(String escapedSignature, int index, long lastRan, String compiledHex)
+            throws SQLException {
+        return add(new Row(Kind.INSERT, index + ":" + escapedSignature,
+                String.format(INSERT_VALUES, escapedSignature, index, lastRan, compiledHex),
+                BENCHMARKS, BENCHMARKS + ":" + escapedSignature));
+    }
+
+    /**
+     * Sets the timing of a benchmark.
+     * @param escapedSignature - recoverable string of the signature with escaped quotes
+     * @param index - index of the QueryExecutionPlan
+     * @param lastRan - time the benchmark finished in ms
+     * @param duration - duration of the benchmark in ms
+     * @return true if the row was written (or queued), false if it was dropped
+     * @throws SQLException the row could not be written (only if not async)
+     */
+    public boolean updateBenchmark(String escapedSignature, int index, long lastRan, long duration)
+            throws SQLException {
+        return add(new Row(Kind.UPDATE, index + ":" + escapedSignature,
+                String.format(UPDATE_VALUES, escapedSignature, index, lastRan, duration),
+                BENCHMARKS, BENCHMARKS + ":" + escapedSignature));
+    }
+
+    /**
+     * Adds the statistics of a migration.
+     * @return true if the row was written (or queued), false if it was dropped
+     * @throws SQLException the row could not be written (only if not async)
+     */
+    public boolean addMigrationStats(String fromLoc, String toLoc, String objectFrom, String objectTo,
+            long startTime, long endTime, long countExtracted, long countLoaded, String message)
+            throws SQLException {
+        return add(new Row(Kind.MIGRATE, null, String.format(MIGRATE_VALUES, escape(fromLoc),
+                escape(toLoc), escape(objectFrom), escape(objectTo), startTime, endTime,
+                countExtracted, countLoaded, escape(message)),
+                MIGRATIONS, getMigrationGroup(fromLoc, toLoc)));
+    }
+
+    private static String getMigrationGroup(String fromLoc, String toLoc) {
+        return MIGRATIONS + ":" + fromLoc + "|" + toLoc;
+    }
+
+    private static String escape(String value) {
+        return value == null ? "" : value.replace("'", "''");
+    }
+
+    private boolean add(Row row) throws SQLException {
+        if (!async || !running) {
+            List<Row> rows = new ArrayList<>(1);
+            rows.add(row);
+            execute(rows);
+            return true;
+        }
+        while (true) {
+            int size = queued.get();
+            if (size < capacity) {
+                if (queued.compareAndSet(size, size + 1)) {
+                    break;
+                }
+                continue;
+            }
+            if (overflow == Overflow.DROP) {
+                if (dropped.incrementAndGet() % capacity == 1) {
+                    logger.warn("The queue of the monitoring writer is full, rows dropped: " + dropped.get());
+                }
+                return false;
+            }
+            LockSupport.unpark(writer);
+            LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(1));
+        }
+        for (String group : row.groups) {
+            pending.computeIfAbsent(group, g -> new AtomicInteger()).incrementAndGet();
+        }
+        // counted before it is queued, so a flush waits for every row queued before it
+        added.incrementAndGet();
+        queue.offer(row);
+        if (!running) {
+            // closed meanwhile, the writer may not take the row any more
+            drain();
+        } else if (queued.get() >= batchSize) {
+            LockSupport.unpark(writer);
+        }
+        return true;
+    }
+
+    private void writeLoop() {
+        while (running) {
+            if (queued.get() < batchSize) {
+                LockSupport.parkNanos(this, flushIntervalNanos);
+            }
+            drain();
+        }
+    }
+
+    /**
+     * Writes the rows waiting in the queue, in the order they were added. It is
+     * called by the background thread while it runs (and by the callers only
+     * after it stopped), so the statements are not executed concurrently.
+     */
+    private void drain() {
+        List<Row> batch = new ArrayList<>();
+        Row row;
+        while ((row = queue.poll()) != null) {
+            queued.decrementAndGet();
+            if (!batch.isEmpty() && (batch.get(0).kind != row.kind || batch.size() >= batchSize)) {
+                write(batch);
+                batch = new ArrayList<>();
+            }
+            batch.add(row);
+        }
+        if (!batch.isEmpty()) {
+            write(batch);
+        }
+    }
+
+    private void write(List<Row> batch) {
+        try {
+            execute(batch);
+        } catch (SQLException e) {
+            logger.error("Cannot write " + batch.size() + " rows of the monitoring data: " + e.getMessage(), e);
+        }
+        for (Row row : batch) {
+            for (String group : row.groups) {
+                pending.get(group).decrementAndGet();
+            }
+        }
+        written.addAndGet(batch.size());
+        synchronized (progress) {
+            progress.notifyAll();
+        }
+    }
+
+    /**
+     * Executes one statement for rows of the same kind.
+     */
+    private void execute(List<Row> rows) throws SQLException {
+        Kind kind = rows.get(0).kind;
+        String statement;
+        switch (kind) {
+        case INSERT:
+            // the first insert of a benchmark wins, as with separate statements
+            statement = String.format(INSERT, joinValues(rows, true));
+            break;
+        case UPDATE:
+            // the last timing of a benchmark wins, as with separate statements
+            statement = String.format(UPDATE, joinValues(rows, false));
+            break;
+        default:
+            statement = String.format(MIGRATE, joinValues(rows, null));
+        }
+        executor.execute(statement);
+        statements.incrementAndGet();
+    }
+
+    /**
+     * @param keepFirst which of the rows with the same key is kept; null: all rows are kept
+     */
+    private static String joinValues(List<Row> rows, Boolean keepFirst) {
+        List<String> values = new ArrayList<>(rows.size());
+        if (keepFirst == null) {
+            for (Row row : rows) {
+                values.add(row.values);
+            }
+        } else {
+            Map<String, String> byKey = new LinkedHashMap<>();
+            for (Row row : rows) {
+                if (!keepFirst || !byKey.containsKey(row.key)) {
+                    byKey.put(row.key, row.values);
+                }
+            }
+            values.addAll(byKey.values());
+        }
+        return String.join(", ", values);
+    }
+
+    /**
+     * Writes all the rows added so far.
+     */
+    public void flush() {
+        if (!async) {
+            return;
+        }
+        long target = added.get();
+        while (written.get() < target) {
+            if (!running || !writer.isAlive() || Thread.currentThread() == writer) {
+                // the writer stopped, the rows are written by the caller
+                drain();
+                return;
+            }
+            LockSupport.unpark(writer);
+            synchronized (progress) {
+                if (written.get() < target) {
+                    try {
+                        progress.wait(10);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        return;
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Writes the rows added so far if some benchmarks are waiting.
+     */
+    public void flushBenchmarks() {
+        flushGroup(BENCHMARKS);
+    }
+
+    /**
+     * Writes the rows added so far if benchmarks of the signature are waiting.
+     * @param escapedSignature - recoverable string of the signature with escaped quotes
+     */
+    public void flushBenchmarks(String escapedSignature) {
+        flushGroup(BENCHMARKS + ":" + escapedSignature);
+    }
+
+    /**
+     * Writes the rows added so far if statistics of the migrations between the engines are waiting.
+     */
+    public void flushMigrationStats(String fromLoc, String toLoc) {
+        flushGroup(getMigrationGroup(fromLoc, toLoc));
+    }
+
+    private void flushGroup(String group) {
+        AtomicInteger count = pending.get(group);
+        if (count != null && count.get() > 0) {
+            flush();
+        }
+    }
+
+    /**
+     * Stops the background thread and writes the waiting rows; the rows added
+     * later are written on the caller's thread.
+     */
+    public void close() {
+        if (!running) {
+            return;
+        }
+        running = false;
+        LockSupport.unpark(writer);
+        try {
+            writer.join(TimeUnit.NANOSECONDS.toMillis(flushIntervalNanos) + 1000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        drain();
+        logger.debug("Monitoring writer closed; statements: " + statements.get() + ", dropped rows: " + dropped.get());
+    }
+
+    /**
+     * @return number of rows waiting in the queue
+     */
+    public int getQueued() {
+        return queued.get();
+    }
+
+    /**
+     * @return number of rows dropped because the queue was full
+     */
+    public long getDropped() {
+        return dropped.get();
+    }
+
+    /**
+     * @return number of statements executed on the catalog
+     */
+    public long getStatements() {
+        return statements.get();
+    }
+}
@@ -0,0 +1,130 @@
+package istc.bigdawg.monitoring;
+
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import istc.bigdawg.executor.plan.ExecutionNode;
+import istc.bigdawg.executor.plan.QueryExecutionPlan;
+import istc.bigdawg.query.ConnectionInfo;
+
+/**
+ * The user queries being executed, in total and on each engine (instance of a
+ * database), so the background benchmarks run only on the idle engines.
+ *
+ * The QueryExecutionPlans executed by the threads of the MonitoringTask are
+ * marked as background work and are not counted.
+ */
+public class QueryActivity {
+
+    private static final AtomicInteger userQueries = new AtomicInteger(0);
+    private static final Map<String, AtomicInteger> userQueriesPerEngine = new ConcurrentHashMap<>();
+    private static final ThreadLocal<Boolean> background = ThreadLocal.withInitial(() -> false);
+
+    /**
+     * @param isBackground - whether the plans executed by the current thread are background work
+     */
+    public static void setBackground(boolean isBackground) {
+        background.set(isBackground);
+    }
+
+    public static boolean isBackground() {
+        return background.get();
+    }
+
+    /**
+     * @param engine - connection to an instance of a database
+     * @return the key of the engine (the host and port of the instance)
+     */
+    public static String getEngineKey(ConnectionInfo engine) {
+        return engine.getHost() + ":" + engine.getPort();
+    }
+
+    /**
+     * @param plan - QueryExecutionPlan
+     * @return the keys of the engines on which the plan is executed
+     */
+    public static Set<String> getEngines(QueryExecutionPlan plan) {
+        Set<String> engines = new HashSet<>();
+        for (ExecutionNode node : plan) {
+            if (node.getEngine() != null) {
+                engines.add(getEngineKey(node.getEngine()));
+            }
+        }
+        return engines;
+    }
+
+    /**
+     * Called when the execution of a plan starts.
+     * @param plan - QueryExecutionPlan
+     * @return the engines marked as busy (null for the background work), to be passed to {@link #finished(Collection)}
+     */
+    public static Collection<String> started(QueryExecutionPlan plan) {
+        if (isBackground()) {
+            return null;
+        }
+        return started(getEngines(plan));
+    }
+
+    /**
+     * Marks the engines as busy with a user query.
+     * @param engines - keys of the engines
+     * @return the engines, to be passed to {@link #finished(Collection)}
+     */
+    static Collection<String> started(Collection<String> engines) {
+        userQueries.incrementAndGet();
+        for (String engine : engines) {
+            userQueriesPerEngine.computeIfAbsent(engine, k -> new AtomicInteger(0)).incrementAndGet();
+        }
+        return engines;
+    }
+
+    /**
+     * Called when the execution of a plan finishes.
+     * @param engines - the result of {@link #started(QueryExecutionPlan)}
+     */
+    public static void finished(Collection<String> engines) {
+        if (engines == null) {
+            return;
+        }
+        userQueries.decrementAndGet();
+        for (String engine : engines) {
+            AtomicInteger count = userQueriesPerEngine.get(engine);
+            if (count != null) {
+                count.decrementAndGet();
+            }
+        }
+    }
+
+    /**
+     * @return number of user queries being executed
+     */
+    public static int getUserQueries() {
+        return userQueries.get();
+    }
+
+    /**
+     * @param engine - key of the engine
+     * @return number of user queries being executed on the engine
+     */
+    public static int getUserQueries(String engine) {
+        AtomicInteger count = userQueriesPerEngine.get(engine);
+        return count == null ? 0 : count.get();
+    }
+
+    /**
+     * @param engines - keys of the engines
+     * @return true if no user query is executed on any of the engines
+     */
+    public static boolean isIdle(Collection<String> engines) {
+        for (String engine : engines) {
+            if (getUserQueries(engine) > 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -111,7 +111,8 @@ public class MySQLHandler implements RelationalHandler {
 	}
 
 	/**
-	 * Establish connection to MySQL for this instance.
+	 * Establish connection to MySQL for this instance. The connection is
+	 * borrowed from the pool of connections to the instance.
 	 *
 	 * @throws SQLException if could not establish a connection
 	 */
@@ -120,7 +121,7 @@ public class MySQLHandler implements RelationalHandler {
 		if (con == null) {
 			if (conInfo != null) {
 				try {
-					con = RelationalHandler.getConnection(conInfo);
+					con = RelationalHandler.getPooledConnection("mysql", conInfo);
 				} catch (SQLException e) {
 					e.printStackTrace();
 					log.error(e.getMessage()
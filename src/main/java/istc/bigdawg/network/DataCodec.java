@@ -0,0 +1,240 @@
+/**
+ *
+ */
+package istc.bigdawg.network;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.OperatingSystemMXBean;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import org.apache.log4j.Logger;
+
+/**
+ * The codecs which compress the blocks of data sent between the nodes by
+ * {@link DataOut} and decompressed by {@link DataIn}.
+ *
+ * The codec of a transfer is announced in the header of each data connection.
+ * It is either set in the configuration (main.network.compression) or chosen
+ * automatically, see {@link #choose(double, double, double, double)}.
+ */
+public enum DataCodec {
+
+	/** The data is sent as is. */
+	NONE {
+		@Override
+		public BlockCodec newBlockCodec() {
+			return new BlockCodec() {
+				@Override
+				public int compress(byte[] src, int length, byte[] dst) {
+					return -1;
+				}
+
+				@Override
+				public void decompress(byte[] src, int length, byte[] dst,
+						int rawLength) throws IOException {
+					throw new IOException(
+							"The codec NONE does not compress the data.");
+				}
+
+				@Override
+				public void close() {
+				}
+			};
+		}
+	},
+
+	/**
+	 * Deflate (zlib, without the header) at the fastest level - a fast codec
+	 * available in the JDK.
+	 */
+	DEFLATE {
+		@Override
+		public BlockCodec newBlockCodec() {
+			return new BlockCodec() {
+				private final Deflater deflater = new Deflater(
+						Deflater.BEST_SPEED, true);
+				private final Inflater inflater = new Inflater(true);
+
+				@Override
+				public int compress(byte[] src, int length, byte[] dst) {
+					deflater.reset();
+					deflater.setInput(src, 0, length);
+					deflater.finish();
+					int count = 0;
+					while (!deflater.finished() && count < dst.length) {
+						count += deflater.deflate(dst, count,
+								dst.length - count);
+					}
+					/* the block did not get smaller */
+					if (!deflater.finished() || count >= length) {
+						return -1;
+					}
+					return count;
+				}
+
+				@Override
+				public void decompress(byte[] src, int length, byte[] dst,
+						int rawLength) throws IOException {
+					inflater.reset();
+					inflater.setInput(src, 0, length);
+					int count = 0;
+					try {
+						while (count < rawLength && !inflater.finished()) {
+							int inflated = inflater.inflate(dst, count,
+									rawLength - count);
+							if (inflated == 0 && (inflater.needsInput()
+									|| inflater.needsDictionary())) {
+								break;
+							}
+							count += inflated;
+						}
+					} catch (DataFormatException e) {
+						throw new IOException(
+								"Corrupted compressed block: " + e.getMessage(),
+								e);
+					}
+					if (count != rawLength) {
+						throw new IOException("The block was decompressed to "
+								+ count + " bytes, expected: " + rawLength);
+					}
+				}
+
+				@Override
+				public void close() {
+					deflater.end();
+					inflater.end();
+				}
+			};
+		}
+	};
+
+	/* log */
+	private static Logger logger = Logger.getLogger(DataCodec.class);
+
+	/**
+	 * Compress only if the compressed data takes at most this fraction of the
+	 * raw data.
+	 */
+	static final double MAX_RATIO = 0.9;
+
+	/**
+	 * Compress only if the transfer is expected to be faster by at least this
+	 * fraction.
+	 */
+	static final double MIN_GAIN = 0.1;
+
+	/**
+	 * Compression and decompression of single blocks. The instance keeps the
+	 * state of the compressor and is used by a single thread.
+	 */
+	public interface BlockCodec {
+
+		/**
+		 * @param src
+		 *            the raw data
+		 * @param length
+		 *            number of bytes in src
+		 * @param dst
+		 *            the buffer for the compressed data
+		 * @return number of compressed bytes in dst or -1 if the block should
+		 *         be sent as is (it does not get smaller)
+		 */
+		int compress(byte[] src, int length, byte[] dst);
+
+		/**
+		 * @param src
+		 *            the compressed data
+		 * @param length
+		 *            number of bytes in src
+		 * @param dst
+		 *            the buffer for the raw data
+		 * @param rawLength
+		 *            number of bytes of the raw data
+		 * @throws IOException
+		 *             the data is corrupted
+		 */
+		void decompress(byte[] src, int length, byte[] dst, int rawLength)
+				throws IOException;
+
+		/** Release the resources of the codec. */
+		void close();
+	}
+
+	/**
+	 * @return a new (stateful) compressor/decompressor of blocks
+	 */
+	public abstract BlockCodec newBlockCodec();
+
+	/**
+	 * @return the identifier of the codec sent in the header of a connection
+	 */
+	public int getId() {
+		return ordinal();
+	}
+
+	/**
+	 * @param id
+	 *            the identifier from the header of a connection
+	 * @return the codec
+	 * @throws IOException
+	 *             the codec is not known
+	 */
+	public static DataCodec fromId(int id) throws IOException {
+		DataCodec[] codecs = values();
+		if (id < 0 || id >= codecs.length) {
+			throw new IOException("Unknown codec of the data: " + id);
+		}
+		return codecs[id];
+	}
+
+	/**
+	 * Decide if the data should be compressed: the transfer with compression
+	 * takes max(time to compress, time to send the compressed data) and
+	 * without compression - the time to send the raw data.
+	 *
+	 * @param linkThroughput
+	 *            bytes per second which can be sent to the remote host
+	 * @param compressThroughput
+	 *            bytes (of raw data) per second compressed by a single core
+	 * @param ratio
+	 *            size of the compressed data divided by the size of the raw
+	 *            data
+	 * @param cpuHeadroom
+	 *            fraction (0-1) of a core which is free for the compression
+	 * @return the codec to use
+	 */
+	public static DataCodec choose(double linkThroughput,
+			double compressThroughput, double ratio, double cpuHeadroom) {
+		if (ratio > MAX_RATIO || cpuHeadroom <= 0 || compressThroughput <= 0
+				|| linkThroughput <= 0) {
+			return NONE;
+		}
+		double timeRaw = 1.0 / linkThroughput;
+		double timeCompressed = Math.max(
+				1.0 / (compressThroughput * cpuHeadroom),
+				ratio / linkThroughput);
+		if (timeCompressed <= timeRaw * (1 - MIN_GAIN)) {
+			return DEFLATE;
+		}
+		return NONE;
+	}
+
+	/**
+	 * @return fraction (0-1) of a core which is not used on this machine, 1 if
+	 *         the load is not known
+	 */
+	public static double getCpuHeadroom() {
+		OperatingSystemMXBean os = ManagementFactory.getOperatingSystemMXBean();
+		double load = os.getSystemLoadAverage();
+		if (load < 0) {
+			return 1.0;
+		}
+		double headroom = os.getAvailableProcessors() - load;
+		logger.debug("System load: " + load + " processors: "
+				+ os.getAvailableProcessors());
+		return Math.max(0.0, Math.min(1.0, headroom));
+	}
+}
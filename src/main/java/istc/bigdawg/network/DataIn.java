@@ -3,18 +3,29 @@
  */
 package istc.bigdawg.network;
 
-import java.io.BufferedOutputStream;
-import java.io.FileNotFoundException;
-import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.OutputStream;
-import java.net.ServerSocket;
-import java.net.Socket;
+import java.io.InterruptedIOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
 
 import org.apache.log4j.Logger;
 
+import istc.bigdawg.properties.BigDawgConfigProperties;
 import istc.bigdawg.utils.StackTrace;
 
 /**
@@ -32,6 +43,10 @@ public class DataIn implements Callable<Object> {
 	/** Chunk size for the buffer to receive data. */
 	private final static int CHUNK_SIZE = 64 * 1024;
 
+	/** The size of the receive buffer of a socket, 0 - the system default. */
+	private final static int SOCKET_BUFFER_SIZE = BigDawgConfigProperties.INSTANCE
+			.getNetworkSocketBufferSize();
+
 	/**
 	 * @see param port in {@link #receive(int, String)}
 	 */
@@ -70,25 +85,38 @@ public class DataIn implements Callable<Object> {
 	 * Receive data to this machine from a remote host. Write the data received
 	 * from network to the filePath.
 	 * 
+	 * The sender ({@link DataOut}) opens one or more connections, the header
+	 * of each connection tells how many connections to accept and which codec
+	 * compressed the data. The data from many connections is merged back in
+	 * the order of the blocks.
+	 * 
 	 * @param port
 	 *            The number of port on which we should listen to get the data
 	 *            transfer request.
 	 * @param filePath
 	 *            Full path to the file/pipe to which we should write the data
 	 *            received via network.
-	 * @return Total number of bytes received from the network.
+	 * @return Total number of bytes received from the network (without the
+	 *         headers).
 	 * @throws IOException
 	 *             The socket for data transfer was not opened.
 	 */
 	public static Long receive(final int port, final String filePath)
 			throws IOException {
-		ServerSocket serverSocket = null;
-		Socket socket = null;
-		InputStream in = null;
-		OutputStream out = null;
+		ServerSocketChannel serverChannel = null;
+		Connections connections = null;
+		SocketChannel[] channels = null;
+		FileChannel out = null;
 		try {
 			try {
-				serverSocket = new ServerSocket(port);
+				serverChannel = ServerSocketChannel.open();
+				/* a larger window has to be set before the socket is bound */
+				if (SOCKET_BUFFER_SIZE > 0) {
+					serverChannel.socket()
+							.setReceiveBufferSize(SOCKET_BUFFER_SIZE);
+				}
+				serverChannel.socket().setReuseAddress(true);
+				serverChannel.bind(new InetSocketAddress(port));
 			} catch (IOException e) {
 				String message = "Could not open socket (bounded to port: "
 						+ port + ") server to receive data from network. ";
@@ -97,7 +125,8 @@ public class DataIn implements Callable<Object> {
 				throw e;
 			}
 			try {
-				socket = serverSocket.accept();
+				connections = acceptAll(serverChannel);
+				channels = connections.channels;
 			} catch (IOException e) {
 				String message = "Socket problem when waiting for"
 						+ " an incoming connection. ";
@@ -106,34 +135,25 @@ public class DataIn implements Callable<Object> {
 				throw e;
 			}
 			try {
-				in = socket.getInputStream();
+				out = FileChannel.open(Paths.get(filePath),
+						StandardOpenOption.WRITE, StandardOpenOption.CREATE,
+						StandardOpenOption.TRUNCATE_EXISTING);
 			} catch (IOException e) {
-				String message = "Could not get input stream from the socket "
-						+ "to read the data from the network. ";
-				logger.error(message + e.getMessage()
-						+ StackTrace.getFullStackTrace(e), e);
-				throw e;
-			}
-			try {
-				out = new BufferedOutputStream(new FileOutputStream(filePath));
-			} catch (FileNotFoundException e) {
 				String message = "Did not find the target file to write the data. ";
 				logger.error(message + e.getMessage()
 						+ StackTrace.getFullStackTrace(e), e);
 				throw e;
 			}
-			byte[] bytes = new byte[CHUNK_SIZE];
-			/*
-			 * Count how many bytes were read from the socket and how many bytes
-			 * should be written to the stream.
-			 */
-			int count;
 			/* Total number of bytes received from network. */
-			long totalCount = 0L;
+			long totalCount;
 			try {
-				while ((count = in.read(bytes)) > 0) {
-					out.write(bytes, 0, count);
-					totalCount += count;
+				if (channels.length == 1
+						&& connections.codec == DataCodec.NONE) {
+					totalCount = receiveSingle(channels[0], out,
+							Files.isRegularFile(Paths.get(filePath)));
+				} else {
+					totalCount = receiveBlocks(channels, out,
+							connections.codec);
 				}
 			} catch (IOException e) {
 				String message = "Problem when reading data from the "
@@ -143,6 +163,8 @@ public class DataIn implements Callable<Object> {
 				throw e;
 			}
 			logger.debug("All data were received from network (port: " + port
+					+ " ; connections: " + channels.length + " ; codec: "
+					+ connections.codec
 					+ " ; data relaied to filePath:" + filePath + ")");
 			return totalCount;
 		} finally {
@@ -156,36 +178,275 @@ public class DataIn implements Callable<Object> {
 							+ StackTrace.getFullStackTrace(e), e);
 				}
 			}
-			if (in != null) {
-				try {
-					in.close();
-				} catch (IOException e) {
-					String message = "Could not close the input stream from "
-							+ "the socket which received data via network. ";
-					logger.error(message + e.getMessage() + " "
-							+ StackTrace.getFullStackTrace(e), e);
+			if (channels != null) {
+				for (SocketChannel channel : channels) {
+					if (channel == null) {
+						continue;
+					}
+					try {
+						channel.close();
+					} catch (IOException e) {
+						String message = "Could not close the socket for "
+								+ "receiving data from network.";
+						logger.error(message + e.getMessage() + " "
+								+ StackTrace.getFullStackTrace(e), e);
+					}
 				}
 			}
-			if (socket != null) {
+			if (serverChannel != null) {
 				try {
-					socket.close();
+					serverChannel.close();
 				} catch (IOException e) {
-					String message = "Could not close the socket for "
-							+ "receiving data from network.";
+					String message = "Could not close the server socket.";
 					logger.error(message + e.getMessage() + " "
 							+ StackTrace.getFullStackTrace(e), e);
 				}
 			}
-			if (serverSocket != null) {
+		}
+	}
+
+	/** The connections of a single transfer. */
+	private static class Connections {
+		/** the connections ordered by their index */
+		private final SocketChannel[] channels;
+		/** the codec of the data */
+		private final DataCodec codec;
+
+		private Connections(SocketChannel[] channels, DataCodec codec) {
+			this.channels = channels;
+			this.codec = codec;
+		}
+	}
+
+	/**
+	 * Accept the connections from the sender, the first header tells how many
+	 * connections there are.
+	 * 
+	 * @return the connections ordered by their index and the codec
+	 */
+	private static Connections acceptAll(ServerSocketChannel serverChannel)
+			throws IOException {
+		SocketChannel[] channels = null;
+		DataCodec codec = null;
+		int accepted = 0;
+		List<SocketChannel> opened = new ArrayList<>();
+		try {
+			do {
+				SocketChannel channel = serverChannel.accept();
+				opened.add(channel);
+				ByteBuffer header = ByteBuffer.allocate(DataOut.HEADER_SIZE);
+				if (!readFully(channel, header)) {
+					throw new IOException("The connection was closed before "
+							+ "the header was received.");
+				}
+				header.flip();
+				int index = header.getInt();
+				int streams = header.getInt();
+				DataCodec connectionCodec = DataCodec.fromId(header.getInt());
+				if (channels == null) {
+					if (streams < 1) {
+						throw new IOException(
+								"Wrong number of connections: " + streams);
+					}
+					channels = new SocketChannel[streams];
+					codec = connectionCodec;
+				}
+				if (streams != channels.length || index < 0
+						|| index >= streams || channels[index] != null
+						|| connectionCodec != codec) {
+					throw new IOException("Wrong header of the connection: "
+							+ index + " of " + streams);
+				}
+				channels[index] = channel;
+				++accepted;
+			} while (accepted < channels.length);
+			return new Connections(channels, codec);
+		} catch (IOException e) {
+			for (SocketChannel channel : opened) {
 				try {
-					serverSocket.close();
-				} catch (IOException e) {
-					String message = "Could not close the server socket.";
-					logger.error(message + e.getMessage() + " "
-							+ StackTrace.getFullStackTrace(e), e);
+					channel.close();
+				} catch (IOException ex) {
+					logger.error("Could not close the socket.", ex);
+				}
+			}
+			throw e;
+		}
+	}
+
+	/**
+	 * Receive all the data through a single connection. A regular file is
+	 * written by the kernel (transferFrom); a pipe has no positions, so the
+	 * data is relayed through a direct buffer.
+	 */
+	private static long receiveSingle(SocketChannel in, FileChannel out,
+			boolean isRegularFile) throws IOException {
+		long totalCount = 0L;
+		if (isRegularFile) {
+			long count;
+			/* the sender closes the connection at the end of the data */
+			while ((count = out.transferFrom(in, totalCount,
+					CHUNK_SIZE)) > 0) {
+				totalCount += count;
+			}
+			return totalCount;
+		}
+		ByteBuffer buffer = ByteBuffer.allocateDirect(CHUNK_SIZE);
+		while (in.read(buffer) >= 0) {
+			buffer.flip();
+			while (buffer.hasRemaining()) {
+				totalCount += out.write(buffer);
+			}
+			buffer.clear();
+		}
+		return totalCount;
+	}
+
+	/**
+	 * Receive the blocks of data round-robin from the connections, decompress
+	 * them and write them in order. Each connection has its own thread which
+	 * receives and decompresses its blocks, this thread writes them. The data
+	 * ends when there is no next block in the connection from which it is
+	 * expected.
+	 */
+	private static long receiveBlocks(SocketChannel[] channels,
+			FileChannel out, DataCodec codec) throws IOException {
+		int count = channels.length;
+		List<Receiver> receivers = new ArrayList<>();
+		List<Future<?>> futures = new ArrayList<>();
+		ExecutorService executor = Executors.newFixedThreadPool(count);
+		try {
+			for (int i = 0; i < count; ++i) {
+				Receiver receiver = new Receiver(channels[i], i, count,
+						codec);
+				receivers.add(receiver);
+				futures.add(executor.submit(receiver));
+			}
+			long totalCount = 0L;
+			for (long blockNumber = 0;; ++blockNumber) {
+				Receiver receiver = receivers
+						.get((int) (blockNumber % count));
+				DataOut.Block block = DataOut.take(receiver.received,
+						futures);
+				if (block == DataOut.END) {
+					logger.debug("Blocks received: " + blockNumber);
+					return totalCount;
 				}
+				ByteBuffer data = ByteBuffer.wrap(block.data, 0,
+						block.length);
+				while (data.hasRemaining()) {
+					totalCount += out.write(data);
+				}
+				receiver.free.put(block);
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException(
+					"Interrupted when receiving the data.");
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	/**
+	 * Receive and decompress the blocks of a single connection: blocks number
+	 * index, index + count, index + 2 * count, ...
+	 */
+	private static class Receiver implements Callable<Void> {
+
+		private final SocketChannel channel;
+		private final int index;
+		private final int count;
+		private final DataCodec codec;
+
+		/** The blocks which can be received. */
+		private final BlockingQueue<DataOut.Block> free = new ArrayBlockingQueue<>(
+				DataOut.BLOCKS_AHEAD);
+
+		/** The received blocks, to be written. */
+		private final BlockingQueue<DataOut.Block> received = new LinkedBlockingQueue<>();
+
+		private Receiver(SocketChannel channel, int index, int count,
+				DataCodec codec) {
+			this.channel = channel;
+			this.index = index;
+			this.count = count;
+			this.codec = codec;
+			for (int i = 0; i < DataOut.BLOCKS_AHEAD; ++i) {
+				free.add(new DataOut.Block(DataOut.BLOCK_SIZE));
+			}
+		}
+
+		@Override
+		public Void call() throws IOException, InterruptedException {
+			ByteBuffer blockHeader = ByteBuffer
+					.allocate(DataOut.BLOCK_HEADER_SIZE);
+			byte[] compressed = null;
+			if (codec != DataCodec.NONE) {
+				compressed = new byte[DataOut.BLOCK_SIZE];
+			}
+			DataCodec.BlockCodec blockCodec = codec.newBlockCodec();
+			try {
+				for (long blockNumber = index;; blockNumber += count) {
+					blockHeader.clear();
+					if (!readFully(channel, blockHeader)) {
+						if (blockHeader.position() > 0) {
+							throw new IOException(
+									"Incomplete header of the block: "
+											+ blockNumber);
+						}
+						received.put(DataOut.END);
+						return null;
+					}
+					blockHeader.flip();
+					int size = blockHeader.getInt();
+					int rawSize = blockHeader.getInt();
+					if (rawSize <= 0 || rawSize > DataOut.BLOCK_SIZE
+							|| size <= 0 || size > rawSize) {
+						throw new IOException("Wrong size of the block "
+								+ blockNumber + ": " + size + " (raw: "
+								+ rawSize + ")");
+					}
+					DataOut.Block block = free.take();
+					/* the block is compressed if it got smaller */
+					if (size < rawSize && compressed == null) {
+						throw new IOException("Compressed block "
+								+ blockNumber + " without a codec.");
+					}
+					ByteBuffer data = size < rawSize
+							? ByteBuffer.wrap(compressed, 0, size)
+							: ByteBuffer.wrap(block.data, 0, size);
+					if (!readFully(channel, data)) {
+						throw new IOException("Incomplete block: "
+								+ blockNumber + " (received "
+								+ data.position() + " of " + size
+								+ " bytes).");
+					}
+					if (size < rawSize) {
+						blockCodec.decompress(compressed, size, block.data,
+								rawSize);
+					}
+					block.length = rawSize;
+					received.put(block);
+				}
+			} finally {
+				blockCodec.close();
+			}
+		}
+	}
+
+	/**
+	 * Fill the buffer from the channel.
+	 * 
+	 * @return false if the connection was closed before the buffer was full
+	 */
+	private static boolean readFully(SocketChannel channel, ByteBuffer buffer)
+			throws IOException {
+		while (buffer.hasRemaining()) {
+			if (channel.read(buffer) < 0) {
+				return false;
 			}
 		}
+		return true;
 	}
 
 	/* (non-Javadoc)
@@ -3,16 +3,27 @@
  */
 package istc.bigdawg.network;
 
-import java.io.BufferedInputStream;
-import java.io.File;
-import java.io.FileInputStream;
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.OutputStream;
 import java.net.InetSocketAddress;
-import java.net.Socket;
 import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.TimeUnit;
 
 import org.apache.log4j.Logger;
@@ -44,10 +55,84 @@ public class DataOut implements Callable<Object> {
 	 */
 	private static final int RETRY_CONNECTION;
 
+	/** The default number of parallel TCP connections for a transfer. */
+	private static final int STREAMS;
+
+	/** The size of the send buffer of a socket, 0 - the system default. */
+	private static final int SOCKET_BUFFER_SIZE;
+
+	/**
+	 * The codec set in the configuration, null - choose it for each transfer
+	 * (auto).
+	 */
+	private static final DataCodec CODEC;
+
+	/**
+	 * The expected throughput of the network (bytes per second) before it is
+	 * measured for a host.
+	 */
+	private static final double DEFAULT_LINK_THROUGHPUT;
+
+	/**
+	 * The throughput of the network to the hosts (bytes per second), measured
+	 * as the number of bytes sent divided by the time when the sender was
+	 * blocked on the sockets.
+	 */
+	private static final ConcurrentMap<String, Double> linkThroughput = new ConcurrentHashMap<>();
+
+	/**
+	 * Header of each connection: index of the connection, all connections,
+	 * identifier of the codec.
+	 */
+	static final int HEADER_SIZE = 12;
+
+	/** Header of each block: bytes sent, bytes of the raw data. */
+	static final int BLOCK_HEADER_SIZE = 8;
+
+	/**
+	 * The maximum size of a block of data sent through one of many parallel
+	 * connections.
+	 */
+	static final int BLOCK_SIZE = 1024 * 1024;
+
+	/**
+	 * The number of blocks per connection which are read (sent) or received
+	 * (written) ahead, it bounds the memory of a transfer.
+	 */
+	static final int BLOCKS_AHEAD = 2;
+
+	/** How often to check if a thread of a transfer failed (Milliseconds). */
+	private static final long POLL_MILLIS = 100;
+
+	/** A block of data handed over between the threads of a transfer. */
+	static final class Block {
+		/** the raw data */
+		final byte[] data;
+		/** number of bytes in data */
+		int length;
+
+		Block(int capacity) {
+			data = new byte[capacity];
+		}
+	}
+
+	/** Marks the end of the blocks for a connection. */
+	static final Block END = new Block(0);
+
 	static {
 		TIMEOUT = BigDawgConfigProperties.INSTANCE.getNetworkRequestTimeout();
 		RETRY_CONNECTION = BigDawgConfigProperties.INSTANCE
 				.getNetworkRetryConnection();
+		STREAMS = Math.max(1,
+				BigDawgConfigProperties.INSTANCE.getNetworkDataStreams());
+		SOCKET_BUFFER_SIZE = BigDawgConfigProperties.INSTANCE
+				.getNetworkSocketBufferSize();
+		String compression = BigDawgConfigProperties.INSTANCE
+				.getNetworkCompression();
+		CODEC = compression.equalsIgnoreCase("auto") ? null
+				: DataCodec.valueOf(compression.toUpperCase());
+		DEFAULT_LINK_THROUGHPUT = BigDawgConfigProperties.INSTANCE
+				.getNetworkLinkThroughput() * 1024.0 * 1024.0;
 	}
 
 	/** @see parameter host at {@link #send(String, int, String)} */
@@ -59,6 +144,18 @@ public class DataOut implements Callable<Object> {
 	/** @see parameter filePath at {@link #send(String, int, String)} */
 	private String filePath;
 
+	/** @see parameter streams at {@link #send(String, int, String, int)} */
+	private int streams;
+
+	/** The codec to use, null - choose it automatically. */
+	private DataCodec codec;
+
+	/** The codec which was used for the transfer. */
+	private volatile DataCodec usedCodec;
+
+	/** Number of bytes of the data sent via network (after compression). */
+	private volatile long bytesOnWire;
+
 	/**
 	 * Create the DataOut object that can read data from filePath and sent them
 	 * via network to the (host,port).
@@ -71,13 +168,36 @@ public class DataOut implements Callable<Object> {
 	 * @see parameter filePath at {@link #send(String, int, String)}
 	 */
 	public DataOut(String host, int port, String filePath) {
+		this(host, port, filePath, STREAMS, CODEC);
+	}
+
+	/**
+	 * @param host
+	 * @param port
+	 * @param filePath
+	 * @param streams
+	 *            The number of parallel TCP connections.
+	 * @param codec
+	 *            The codec which compresses the data, null - choose the codec
+	 *            from the throughput of the network and the compression of
+	 *            the first block of data.
+	 */
+	public DataOut(String host, int port, String filePath, int streams,
+			DataCodec codec) {
+		if (streams < 1) {
+			throw new IllegalArgumentException(
+					"The number of streams has to be positive: " + streams);
+		}
 		this.host = host;
 		this.port = port;
 		this.filePath = filePath;
+		this.streams = streams;
+		this.codec = codec;
 	}
 
 	/**
-	 * Send data from this machine to a remote host.
+	 * Send data from this machine to a remote host through the number of
+	 * parallel TCP connections and with the codec set in the configuration.
 	 * 
 	 * @param host
 	 *            The IP address of the remote machine (can be also localhost).
@@ -93,66 +213,426 @@ public class DataOut implements Callable<Object> {
 	 */
 	public static Long send(final String host, final int port,
 			final String filePath) throws IOException, InterruptedException {
-		/* Connect with timeout. */
-		Socket socket = null;
-		logger.info(
-				"Connection to socket with host: " + host + " port: " + port);
-		for (int trialNumber = 0; trialNumber <= RETRY_CONNECTION; ++trialNumber) {
+		return new DataOut(host, port, filePath).transfer();
+	}
+
+	/**
+	 * Send data from this machine to a remote host, see
+	 * {@link #send(String, int, String)}.
+	 * 
+	 * @param streams
+	 *            The number of parallel TCP connections.
+	 */
+	public static Long send(final String host, final int port,
+			final String filePath, final int streams)
+			throws IOException, InterruptedException {
+		return new DataOut(host, port, filePath, streams, CODEC).transfer();
+	}
+
+	/**
+	 * Send the data.
+	 * 
+	 * Each connection starts with a header: the index of the connection, the
+	 * number of connections and the codec, so the receiver ({@link DataIn})
+	 * knows how many connections to accept and how to decode the data. With a
+	 * single connection and without compression the data follows the header
+	 * as is. Otherwise, the data is split into blocks of at most
+	 * {@link #BLOCK_SIZE} raw bytes, each prefixed with the number of bytes
+	 * sent and the number of raw bytes (equal if the block is not
+	 * compressed), and block number i is sent through the connection number
+	 * (i mod streams). Each connection has its own thread which compresses
+	 * and sends its blocks, so the compression of a block and the sending of
+	 * another one overlap.
+	 * 
+	 * @return Total number of bytes of the data (before compression, without
+	 *         the headers).
+	 */
+	public Long transfer() throws IOException, InterruptedException {
+		logger.info("Connection to socket with host: " + host + " port: "
+				+ port + " streams: " + streams);
+		SocketChannel[] channels = new SocketChannel[streams];
+		FileChannel in = null;
+		try {
+			for (int i = 0; i < streams; ++i) {
+				channels[i] = connect(host, port);
+			}
+			in = FileChannel.open(Paths.get(filePath),
+					StandardOpenOption.READ);
+			boolean isRegularFile = Files.isRegularFile(Paths.get(filePath));
+			ByteBuffer block = ByteBuffer.allocateDirect(BLOCK_SIZE);
+			boolean endOfData = false;
+			if (codec == null) {
+				/* the first block is needed to choose the codec */
+				endOfData = !fill(in, block);
+			}
+			block.flip();
+			usedCodec = codec != null ? codec : chooseCodec(block);
+			writeHeaders(channels, usedCodec);
+			if (usedCodec == DataCodec.NONE && streams == 1) {
+				long totalCount = sendSingle(in, channels[0], isRegularFile,
+						block);
+				bytesOnWire = totalCount;
+				return totalCount;
+			}
+			if (codec != null) {
+				block.clear();
+				endOfData = !fill(in, block);
+				block.flip();
+			}
+			return sendBlocks(in, channels, block, endOfData);
+		} finally {
+			if (in != null) {
+				try {
+					in.close();
+				} catch (IOException e) {
+					logger.error("Could not close the file: " + filePath, e);
+				}
+			}
+			for (SocketChannel channel : channels) {
+				if (channel != null) {
+					try {
+						channel.close();
+					} catch (IOException e) {
+						logger.error("Could not close the socket. ", e);
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * @return the codec which was used for the transfer (null if the transfer
+	 *         did not start)
+	 */
+	public DataCodec getUsedCodec() {
+		return usedCodec;
+	}
+
+	/**
+	 * @return number of bytes of the data sent via network (after compression,
+	 *         without the headers)
+	 */
+	public long getBytesOnWire() {
+		return bytesOnWire;
+	}
+
+	private static void writeHeaders(SocketChannel[] channels,
+			DataCodec codec) throws IOException {
+		for (int i = 0; i < channels.length; ++i) {
+			ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+			header.putInt(i).putInt(channels.length).putInt(codec.getId())
+					.flip();
+			writeFully(channels[i], header);
+		}
+	}
+
+	/**
+	 * Compress the first block of the data and compare the gain with the
+	 * throughput of the network.
+	 */
+	private DataCodec chooseCodec(ByteBuffer block) {
+		int length = block.remaining();
+		if (length == 0) {
+			return DataCodec.NONE;
+		}
+		byte[] raw = new byte[length];
+		block.duplicate().get(raw);
+		byte[] compressed = new byte[length];
+		DataCodec.BlockCodec blockCodec = DataCodec.DEFLATE.newBlockCodec();
+		long start = System.nanoTime();
+		int compressedLength;
+		try {
+			compressedLength = blockCodec.compress(raw, length, compressed);
+		} finally {
+			blockCodec.close();
+		}
+		double seconds = Math.max(System.nanoTime() - start, 1) / 1e9;
+		double ratio = compressedLength < 0 ? 1.0
+				: (double) compressedLength / length;
+		double compressThroughput = length / seconds;
+		double link = linkThroughput.getOrDefault(host,
+				DEFAULT_LINK_THROUGHPUT);
+		double cpuHeadroom = DataCodec.getCpuHeadroom();
+		DataCodec chosen = DataCodec.choose(link, compressThroughput, ratio,
+				cpuHeadroom);
+		logger.info("Codec for the transfer to " + host + ": " + chosen
+				+ " (link MB/s: " + link / (1024 * 1024)
+				+ ", compression MB/s: " + compressThroughput / (1024 * 1024)
+				+ ", ratio: " + ratio + ", cpu headroom: " + cpuHeadroom
+				+ ")");
+		return chosen;
+	}
+
+	/**
+	 * Fill the buffer from the file/pipe.
+	 * 
+	 * @return false if the data ended
+	 */
+	private static boolean fill(FileChannel in, ByteBuffer buffer)
+			throws IOException {
+		while (buffer.hasRemaining()) {
+			if (in.read(buffer) < 0) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Connect to the remote host, retry the connection if the remote host is
+	 * not listening yet.
+	 */
+	private static SocketChannel connect(final String host, final int port)
+			throws IOException, InterruptedException {
+		for (int trialNumber = 0;; ++trialNumber) {
+			/* The socket from which we send the data. */
+			SocketChannel channel = SocketChannel.open();
 			try {
-				/* The socket from which we send the data. */
-				socket = new Socket();
+				if (SOCKET_BUFFER_SIZE > 0) {
+					channel.socket().setSendBufferSize(SOCKET_BUFFER_SIZE);
+				}
+				channel.socket().setTcpNoDelay(true);
 				SocketAddress sockaddr = new InetSocketAddress(host, port);
-				socket.connect(sockaddr, TIMEOUT * 3);
-				break;
-			} catch (Exception ex) {
+				/* Connect with timeout. */
+				channel.socket().connect(sockaddr, TIMEOUT * 3);
+				return channel;
+			} catch (IOException ex) {
 				logger.info(ex.getMessage(), ex);
 				logger.info("host: " + host + "port: " + port);
-				TimeUnit.MILLISECONDS.sleep(TIMEOUT);
 				try {
-					socket.close();
+					channel.close();
 				} catch (IOException e) {
 					logger.error("Could not close (not-connected) socket. ", e);
 				}
-				if (trialNumber == RETRY_CONNECTION) {
+				if (trialNumber >= RETRY_CONNECTION) {
 					String message = "Problem with creating the socket to send data "
 							+ "via network. There were: " + RETRY_CONNECTION
 							+ " trials to reconnect.";
 					logger.error(message + " " + ex.getMessage() + " "
 							+ StackTrace.getFullStackTrace(ex), ex);
-					try {
-						socket.close();
-					} catch (IOException e) {
-						logger.error("Could not close (not-connected) socket. ",
-								e);
-					}
 					throw ex;
 				}
+				TimeUnit.MILLISECONDS.sleep(TIMEOUT);
 			}
 		}
+	}
 
-		File file = new File(filePath);
-		byte[] bytes = new byte[64 * 1024];
-		InputStream in = new BufferedInputStream(new FileInputStream(file));
-		OutputStream out = socket.getOutputStream();
-		/*
-		 * Count how many bytes were read from the stream and how many bytes
-		 * should be sent via network.
-		 */
-		int count;
-		/* Count total number of bytes sent via network. */
-		long totalCount = 0L;
-		while ((count = in.read(bytes)) > 0)
+	/**
+	 * Send the whole file/pipe through a single connection. A regular file is
+	 * sent by the kernel (transferTo), without copying it to the user space.
+	 * A pipe cannot be transferred this way (it has no positions), so it is
+	 * relayed through a direct buffer.
+	 * 
+	 * @param buffer
+	 *            the buffer with the data already read from the file/pipe
+	 */
+	private static long sendSingle(FileChannel in, SocketChannel out,
+			boolean isRegularFile, ByteBuffer buffer) throws IOException {
+		long totalCount = writeFully(out, buffer);
+		if (isRegularFile) {
+			long position = in.position();
+			long count;
+			/* 0 bytes are transferred at the end of the file */
+			while ((count = in.transferTo(position, Integer.MAX_VALUE,
+					out)) > 0) {
+				position += count;
+				totalCount += count;
+			}
+			return totalCount;
+		}
+		buffer.clear();
+		while (in.read(buffer) >= 0) {
+			buffer.flip();
+			totalCount += writeFully(out, buffer);
+			buffer.clear();
+		}
+		return totalCount;
+	}
 
-		{
-			out.write(bytes, 0, count);
-			totalCount += count;
+	/**
+	 * Send the file/pipe in blocks, round-robin through the connections. This
+	 * thread reads the blocks and hands them over to the senders, one per
+	 * connection.
+	 * 
+	 * @param first
+	 *            the first block of the data, already read
+	 * @param endOfData
+	 *            true if the first block is also the last one
+	 */
+	private long sendBlocks(FileChannel in, SocketChannel[] channels,
+			ByteBuffer first, boolean endOfData)
+			throws IOException, InterruptedException {
+		int count = channels.length;
+		/* the blocks go back to the pool when they were sent */
+		BlockingQueue<Block> free = new ArrayBlockingQueue<>(
+				count * BLOCKS_AHEAD);
+		for (int i = 0; i < count * BLOCKS_AHEAD; ++i) {
+			free.add(new Block(BLOCK_SIZE));
 		}
+		List<BlockingQueue<Block>> queues = new ArrayList<>();
+		List<Future<Sender>> senders = new ArrayList<>();
+		ExecutorService executor = Executors.newFixedThreadPool(count);
+		try {
+			for (SocketChannel channel : channels) {
+				BlockingQueue<Block> queue = new LinkedBlockingQueue<>();
+				queues.add(queue);
+				senders.add(executor.submit(
+						new Sender(channel, queue, free, usedCodec)));
+			}
+			long totalCount = 0L;
+			long blockNumber = 0;
+			Block block = take(free, senders);
+			block.length = first.remaining();
+			first.get(block.data, 0, block.length);
+			while (block.length > 0) {
+				totalCount += block.length;
+				queues.get((int) (blockNumber++ % count)).put(block);
+				block = take(free, senders);
+				block.length = 0;
+				if (!endOfData) {
+					ByteBuffer buffer = ByteBuffer.wrap(block.data);
+					endOfData = !fill(in, buffer);
+					block.length = buffer.position();
+				}
+			}
+			for (BlockingQueue<Block> queue : queues) {
+				queue.put(END);
+			}
+			long wireCount = 0L;
+			double throughput = 0;
+			for (Future<Sender> future : senders) {
+				Sender sender = get(future);
+				wireCount += sender.wireCount;
+				/* the network was the bottleneck for at least 10 ms */
+				if (sender.blockedNanos > 10000000L) {
+					throughput += sender.wireCount
+							/ (sender.blockedNanos / 1e9);
+				}
+			}
+			bytesOnWire = wireCount;
+			if (throughput > 0) {
+				linkThroughput.put(host, throughput);
+			}
+			logger.debug("Blocks sent: " + blockNumber + " codec: "
+					+ usedCodec + " raw bytes: " + totalCount
+					+ " bytes sent: " + wireCount);
+			return totalCount;
+		} finally {
+			executor.shutdownNow();
+		}
+	}
 
-		out.close();
-		in.close();
-		socket.close();
-		return totalCount;
+	/**
+	 * Compress and send the blocks of a single connection.
+	 */
+	private static class Sender implements Callable<Sender> {
+
+		private final SocketChannel channel;
+		private final BlockingQueue<Block> queue;
+		private final BlockingQueue<Block> free;
+		private final DataCodec codec;
+
+		/** Number of bytes sent (after compression). */
+		private long wireCount = 0L;
+
+		/** The time when the sender was blocked on the socket. */
+		private long blockedNanos = 0L;
+
+		private Sender(SocketChannel channel, BlockingQueue<Block> queue,
+				BlockingQueue<Block> free, DataCodec codec) {
+			this.channel = channel;
+			this.queue = queue;
+			this.free = free;
+			this.codec = codec;
+		}
+
+		@Override
+		public Sender call() throws IOException, InterruptedException {
+			ByteBuffer blockHeader = ByteBuffer.allocate(BLOCK_HEADER_SIZE);
+			byte[] compressed = null;
+			if (codec != DataCodec.NONE) {
+				compressed = new byte[BLOCK_SIZE];
+			}
+			DataCodec.BlockCodec blockCodec = codec.newBlockCodec();
+			try {
+				for (Block block = queue.take(); block != END; block = queue
+						.take()) {
+					int compressedLength = compressed == null ? -1
+							: blockCodec.compress(block.data, block.length,
+									compressed);
+					ByteBuffer data = compressedLength < 0
+							? ByteBuffer.wrap(block.data, 0, block.length)
+							: ByteBuffer.wrap(compressed, 0, compressedLength);
+					blockHeader.clear();
+					blockHeader.putInt(data.remaining()).putInt(block.length)
+							.flip();
+					long start = System.nanoTime();
+					writeFully(channel, blockHeader);
+					wireCount += writeFully(channel, data);
+					blockedNanos += System.nanoTime() - start;
+					free.put(block);
+				}
+				return this;
+			} finally {
+				blockCodec.close();
+			}
+		}
+	}
+
+	/**
+	 * Take the next element from the queue of a transfer and check that the
+	 * threads of the transfer did not fail in the meantime.
+	 * 
+	 * @param workers
+	 *            the threads which put the elements to the queue
+	 * @throws IOException
+	 *             one of the threads failed
+	 */
+	static <T> T take(BlockingQueue<T> queue,
+			List<? extends Future<?>> workers)
+			throws IOException, InterruptedException {
+		for (;;) {
+			T element = queue.poll(POLL_MILLIS, TimeUnit.MILLISECONDS);
+			if (element != null) {
+				return element;
+			}
+			for (Future<?> worker : workers) {
+				if (worker.isDone()) {
+					get(worker);
+				}
+			}
+		}
+	}
 
+	/**
+	 * @return the result of the thread of a transfer
+	 * @throws IOException
+	 *             the thread failed
+	 */
+	static <T> T get(Future<T> worker)
+			throws IOException, InterruptedException {
+		try {
+			return worker.get();
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof IOException) {
+				throw (IOException) cause;
+			}
+			throw new IOException(cause.getMessage(), cause);
+		}
+	}
+
+	/**
+	 * @return the number of bytes written (all the remaining bytes of the
+	 *         buffer)
+	 */
+	private static long writeFully(SocketChannel channel, ByteBuffer buffer)
+			throws IOException {
+		long count = 0;
+		while (buffer.hasRemaining()) {
+			count += channel.write(buffer);
+		}
+		return count;
 	}
 
 	/*
@@ -162,7 +642,7 @@ public class DataOut implements Callable<Object> {
 	 */
 	@Override
 	public Object call() throws Exception {
-		return send(host, port, filePath);
+		return transfer();
 	}
 
 	/*
@@ -173,7 +653,8 @@ public class DataOut implements Callable<Object> {
 	@Override
 	public String toString() {
 		return "DataOut [host=" + host + ", port=" + port + ", filePath="
-				+ filePath + "]";
+				+ filePath + ", streams=" + streams + ", codec=" + codec
+				+ "]";
 	}
 
 }
@@ -1,5 +1,5 @@
 /**
- * 
+ *
  */
 package istc.bigdawg.network;
 
@@ -7,6 +7,15 @@ import static istc.bigdawg.network.NetworkUtils.THIS_HOST_ADDRESS;
 import static istc.bigdawg.network.NetworkUtils.deserialize;
 import static istc.bigdawg.network.NetworkUtils.serialize;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
 import org.apache.log4j.Logger;
 import org.zeromq.ZMQ;
 
@@ -16,8 +25,19 @@ import istc.bigdawg.properties.BigDawgConfigProperties;
 import istc.bigdawg.utils.StackTrace;
 
 /**
- * Receive a message from the network and execute the received object.
- * 
+ * Receive messages from the network and execute the received objects.
+ *
+ * The requests come to a ROUTER socket, so many clients (REQ or DEALER
+ * sockets) can have requests in progress at the same time. The broker loop
+ * only receives the requests and sends the replies back; the requests are
+ * executed by a pool of worker threads (a long data migration does not block
+ * other requests), except for the {@link HeartBeat} which is answered at once.
+ * A worker sends the reply back to the broker through an inproc PUSH socket,
+ * with the envelope (the identity of the client) of the request, and the
+ * broker relays it to the client. A ZeroMQ socket must not be shared between
+ * threads, so each worker connects its own PUSH socket and closes it when it
+ * stops.
+ *
  * @author Adam Dziedzic
  */
 public class NetworkIn implements Runnable {
@@ -25,116 +45,233 @@ public class NetworkIn implements Runnable {
 	/* log */
 	private static Logger log = Logger.getLogger(NetworkIn.class);
 
+	/** How long the broker waits for messages before it checks interrupts. */
+	private static final int POLL_TIMEOUT = 1000;
+
+	/** Distinguish the inproc addresses of many servers in one JVM. */
+	private static final AtomicInteger serverNumber = new AtomicInteger();
+
+	/** The port on which the requests are received. */
+	private final String port;
+
+	/** Number of threads which execute the requests. */
+	private final int workerThreads;
+
+	public NetworkIn() {
+		this(BigDawgConfigProperties.INSTANCE.getNetworkMessagePort(),
+				BigDawgConfigProperties.INSTANCE.getNetworkServerThreads());
+	}
+
+	/**
+	 * @param port
+	 *            The port on which the requests are received.
+	 * @param workerThreads
+	 *            Number of threads which execute the requests.
+	 */
+	public NetworkIn(String port, int workerThreads) {
+		this.port = port;
+		this.workerThreads = Math.max(1, workerThreads);
+	}
+
 	public void receive() {
 		log.debug("network in: start listening for requests");
 		ZMQ.Context context = ZMQ.context(1);
+		String repliesAddress = "inproc://network-in-replies-"
+				+ serverNumber.incrementAndGet();
 
 		// Socket to talk to clients
-		ZMQ.Socket responder = context.socket(ZMQ.REP);
+		ZMQ.Socket frontend = context.socket(ZMQ.ROUTER);
+		// Replies from the workers
+		ZMQ.Socket replies = context.socket(ZMQ.PULL);
+		/* the socket of a worker, connected by its first reply */
+		ThreadLocal<ZMQ.Socket> workerSocket = new ThreadLocal<>();
+		Supplier<ZMQ.Socket> replySocket = () -> {
+			ZMQ.Socket socket = workerSocket.get();
+			if (socket == null) {
+				socket = context.socket(ZMQ.PUSH);
+				socket.connect(repliesAddress);
+				workerSocket.set(socket);
+			}
+			return socket;
+		};
+		AtomicInteger threadNumber = new AtomicInteger();
+		ExecutorService workers = Executors.newFixedThreadPool(workerThreads,
+				runnable -> {
+					Thread thread = new Thread(() -> {
+						try {
+							runnable.run();
+						} finally {
+							/* the worker stopped after the shutdown signal */
+							ZMQ.Socket socket = workerSocket.get();
+							if (socket != null) {
+								socket.close();
+							}
+						}
+					}, "bigdawg-network-in-" + threadNumber.incrementAndGet());
+					thread.setDaemon(true);
+					return thread;
+				});
 		try {
 			// The * can be replaced by:
 			// BigDawgConfigProperties.INSTANCE.getGrizzlyIpAddress()
-			String fullAddress = "tcp://" + "*" + ":"
-					+ BigDawgConfigProperties.INSTANCE.getNetworkMessagePort();
+			String fullAddress = "tcp://" + "*" + ":" + port;
 			log.debug(fullAddress);
-			responder.bind(fullAddress);
+			frontend.bind(fullAddress);
+			replies.bind(repliesAddress);
+
+			ZMQ.Poller poller = context.poller(2);
+			int frontendIndex = poller.register(frontend, ZMQ.Poller.POLLIN);
+			int repliesIndex = poller.register(replies, ZMQ.Poller.POLLIN);
 
 			while (!Thread.currentThread().isInterrupted()) {
-				log.debug("Wait for the next request from a client ...");
-				byte[] requestBytes = responder.recv(0);
-				log.debug("New message was received!");
-				if (requestBytes == null) {
-					log.error(
-							"ZeroMQ: The message was not received properly (request bytes is null)!");
-					continue; /* go back and wait for a next message */
+				if (poller.poll(POLL_TIMEOUT) < 0) {
+					/* the context was terminated or the thread interrupted */
+					break;
 				}
-				Object requestObject = null;
-				try {
-					requestObject = deserialize(requestBytes);
-					NetworkObject requestCommand = (NetworkObject) requestObject;
-					Object result = requestCommand.execute();
-					// Send reply back
-					boolean isSuccess = responder.send(serialize(result), 0);
-					if (!isSuccess) {
-						log.error(
-								"ZeroMQ: The response was not sent properly!");
+				if (poller.pollin(frontendIndex)) {
+					List<byte[]> message = receiveMultipart(frontend);
+					if (message == null) {
+						continue;
+					}
+					dispatch(message, frontend, workers, replySocket);
+				}
+				if (poller.pollin(repliesIndex)) {
+					List<byte[]> reply = receiveMultipart(replies);
+					if (reply != null) {
+						sendMultipart(frontend, reply);
 					}
-					log.debug("The request was processed.");
-				} catch (Exception ex) {
-					log.debug(
-							"Add information about remote host where the error happened.");
-					String message = " The request command could not be executed on the remote server (host: "
-							+ THIS_HOST_ADDRESS + "; "
-							+ BigDawgConfigProperties.INSTANCE
-									.getGrizzlyIpAddress()
-							+ "). " + ex.getMessage();
-					Exception e = new Exception(ex.getMessage() + message);
-					handleException(message, e, responder);
 				}
 			}
 		} finally {
-			responder.close();
+			/* the workers close their sockets when they stop */
+			workers.shutdownNow();
+			try {
+				if (!workers.awaitTermination(POLL_TIMEOUT,
+						TimeUnit.MILLISECONDS)) {
+					log.warn("Some requests are still executed, the context "
+							+ "is terminated when they finish.");
+				}
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			replies.close();
+			frontend.close();
+			/* waits until the sockets of all the workers are closed */
 			context.term();
 		}
 	}
 
 	/**
-	 * Handler the exception from the network.
-	 * 
+	 * Execute the request: the heart beat at once, other requests in the pool
+	 * of workers.
+	 *
 	 * @param message
-	 * @param ex
-	 * @param responder
+	 *            the envelope (identity of the client and the empty delimiter
+	 *            frame) and the serialized request (the last frame)
 	 */
-	private void handleException(String message, Exception ex,
-			ZMQ.Socket responder) {
-		byte[] exBytes = message.getBytes();
+	private void dispatch(List<byte[]> message, ZMQ.Socket frontend,
+			ExecutorService workers, Supplier<ZMQ.Socket> replySocket) {
+		byte[] requestBytes = message.remove(message.size() - 1);
+		NetworkObject requestCommand;
+		try {
+			requestCommand = (NetworkObject) deserialize(requestBytes);
+		} catch (Exception ex) {
+			message.add(getExceptionReply(ex));
+			sendMultipart(frontend, message);
+			return;
+		}
+		if (requestCommand instanceof HeartBeat) {
+			message.add(execute(requestCommand));
+			sendMultipart(frontend, message);
+			return;
+		}
+		try {
+			workers.submit(() -> {
+				message.add(execute(requestCommand));
+				sendMultipart(replySocket.get(), message);
+			});
+		} catch (RejectedExecutionException ex) {
+			message.add(getExceptionReply(ex));
+			sendMultipart(frontend, message);
+		}
+	}
+
+	/**
+	 * @return the serialized result of the request or the exception
+	 */
+	private byte[] execute(NetworkObject requestCommand) {
+		try {
+			Object result = requestCommand.execute();
+			log.debug("The request was processed.");
+			return serialize(result);
+		} catch (Exception ex) {
+			return getExceptionReply(ex);
+		}
+	}
+
+	/**
+	 * Add information about remote host where the error happened.
+	 *
+	 * @return the serialized exception (or its message if the exception could
+	 *         not be serialized)
+	 */
+	private byte[] getExceptionReply(Exception ex) {
+		String message = " The request command could not be executed on the remote server (host: "
+				+ THIS_HOST_ADDRESS + "; "
+				+ BigDawgConfigProperties.INSTANCE.getGrizzlyIpAddress() + "). "
+				+ ex.getMessage();
+		log.error(message + " " + StackTrace.getFullStackTrace(ex), ex);
+		Exception e = new Exception(ex.getMessage() + message);
 		/* try to send the exception message */
 		try {
-			exBytes = serialize(ex);
+			return serialize(e);
 		} catch (NetworkException exSerialize) {
 			log.error(StackTrace.getFullStackTrace(exSerialize));
+			return message.getBytes();
 		}
-		boolean isSuccess = responder.send(exBytes, 0);
-		if (!isSuccess) {
-			log.error(
-					"ZeroMQ: The response (from NetworkException) was not sent properly!");
+	}
+
+	/**
+	 * @return all the frames of the message or null if the message was not
+	 *         received properly
+	 */
+	private static List<byte[]> receiveMultipart(ZMQ.Socket socket) {
+		List<byte[]> frames = new ArrayList<>();
+		do {
+			byte[] frame = socket.recv(0);
+			if (frame == null) {
+				log.error("ZeroMQ: The message was not received properly!");
+				return null;
+			}
+			frames.add(frame);
+		} while (socket.hasReceiveMore());
+		return frames;
+	}
+
+	private static void sendMultipart(ZMQ.Socket socket, List<byte[]> frames) {
+		for (int i = 0; i < frames.size(); ++i) {
+			int flags = i < frames.size() - 1 ? ZMQ.SNDMORE : 0;
+			if (!socket.send(frames.get(i), flags)) {
+				log.error("ZeroMQ: The response was not sent properly!");
+				return;
+			}
 		}
 	}
 
 	/*
 	 * (non-Javadoc)
-	 * 
+	 *
 	 * @see java.lang.Runnable#run()
 	 */
 	@Override
 	public void run() {
-		new NetworkIn().receive();
+		receive();
 	}
 
 	public static void main(String[] args) throws Exception {
 		LoggerSetup.setLogging();
 		System.out.println("network in: start listening for requests");
 		new NetworkIn().receive();
-		// ZMQ.Context context = ZMQ.context(1);
-		//
-		// // Socket to talk to clients
-		// ZMQ.Socket responder = context.socket(ZMQ.REP);
-		// responder.bind("tcp://*:5555");
-		//
-		// while (!Thread.currentThread().isInterrupted()) {
-		// // Wait for next request from the client
-		// byte[] request = responder.recv(0);
-		// System.out.println("Received Hello: " + new String(request));
-		//
-		// // Do some 'work'
-		// Thread.sleep(1000);
-		//
-		// // Send reply back to client
-		// String reply = "World";
-		// responder.send(reply.getBytes(), 0);
-		// }
-		// responder.close();
-		// context.term();
 	}
 
 }
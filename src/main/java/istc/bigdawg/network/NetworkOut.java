@@ -8,6 +8,10 @@ import static istc.bigdawg.network.NetworkUtils.deserialize;
 import static istc.bigdawg.network.NetworkUtils.serialize;
 
 import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Map;
 
 import org.apache.log4j.Logger;
 import org.zeromq.ZMQ;
@@ -19,6 +23,13 @@ import istc.bigdawg.properties.BigDawgConfigProperties;
 /**
  * Send message (out via the network) to another host.
  * 
+ * A single ZeroMQ context is shared by all the requests and the REQ sockets
+ * connected to a host are kept open and reused by the next requests to the
+ * host. A socket is used by one request at a time (it is taken from the pool
+ * of the host for the request), so many requests to the same host can be in
+ * progress at the same time. A socket which did not get a reply is closed
+ * (a REQ socket cannot send again until it gets the reply).
+ * 
  * @author Adam Dziedzic
  */
 public class NetworkOut {
@@ -26,6 +37,12 @@ public class NetworkOut {
 	/* log */
 	private static Logger log = Logger.getLogger(NetworkOut.class);
 
+	/** The context shared by all the sockets, null if it is not created. */
+	private static ZMQ.Context context = null;
+
+	/** Idle sockets connected to the hosts (full address -> sockets). */
+	private static final Map<String, Deque<ZMQ.Socket>> idleSockets = new HashMap<>();
+
 	/**
 	 * Send the java object to the specified host.
 	 * 
@@ -47,14 +64,23 @@ public class NetworkOut {
 	 */
 	public static Object send(NetworkObject object, String host)
 			throws NetworkException {
-		ZMQ.Context context = ZMQ.context(1);
-		ZMQ.Socket requester = context.socket(ZMQ.REQ);
-		String fullAddress = host + ":"
-				+ BigDawgConfigProperties.INSTANCE.getNetworkMessagePort();
+		return send(object, host,
+				BigDawgConfigProperties.INSTANCE.getNetworkMessagePort());
+	}
+
+	/**
+	 * @see #send(NetworkObject, String)
+	 * 
+	 * @param port
+	 *            the port on which the host receives the messages
+	 */
+	public static Object send(NetworkObject object, String host, String port)
+			throws NetworkException {
+		String fullAddress = host + ":" + port;
+		ZMQ.Socket requester = borrowSocket(fullAddress);
+		/* the socket can be reused only if it got all the replies */
+		boolean isReusable = false;
 		try {
-			requester.setLinger(TIMEOUT);
-			log.debug("Connecting to host: " + fullAddress);
-			requester.connect("tcp://" + fullAddress);
 			/*
 			 * first check if the connection is active before sending the real
 			 * object (the heart beat message is used)
@@ -85,12 +111,66 @@ public class NetworkOut {
 							+ fullAddress);
 
 			Object reply = sendWaitForReply(object, requester, timeout);
+			isReusable = true;
 			log.debug("Reply was received from: " + fullAddress);
 			log.debug("Reply content: " + reply);
 			return reply;
 		} finally {
+			returnSocket(fullAddress, requester, isReusable);
+		}
+	}
+
+	/**
+	 * Take an idle socket connected to the host or connect a new one.
+	 */
+	private static synchronized ZMQ.Socket borrowSocket(String fullAddress) {
+		if (context == null) {
+			context = ZMQ.context(1);
+		}
+		Deque<ZMQ.Socket> sockets = idleSockets.get(fullAddress);
+		if (sockets != null && !sockets.isEmpty()) {
+			return sockets.pop();
+		}
+		ZMQ.Socket requester = context.socket(ZMQ.REQ);
+		requester.setLinger(TIMEOUT);
+		log.debug("Connecting to host: " + fullAddress);
+		requester.connect("tcp://" + fullAddress);
+		return requester;
+	}
+
+	/**
+	 * Give the socket back to the pool of the host or close it.
+	 */
+	private static synchronized void returnSocket(String fullAddress,
+			ZMQ.Socket requester, boolean isReusable) {
+		if (isReusable && context != null) {
+			idleSockets.computeIfAbsent(fullAddress, k -> new ArrayDeque<>())
+					.push(requester);
+		} else {
 			requester.close();
-			context.term();
+		}
+	}
+
+	/**
+	 * Close the idle sockets and the context. The context waits for the
+	 * sockets of the requests in progress, they are closed (not reused) when
+	 * the requests finish.
+	 */
+	public static void close() {
+		ZMQ.Context closed;
+		synchronized (NetworkOut.class) {
+			for (Deque<ZMQ.Socket> sockets : idleSockets.values()) {
+				for (ZMQ.Socket socket : sockets) {
+					socket.close();
+				}
+			}
+			idleSockets.clear();
+			closed = context;
+			context = null;
+		}
+		/* outside of the lock, the requests in progress return their sockets */
+		if (closed != null) {
+			closed.term();
 		}
 	}
 
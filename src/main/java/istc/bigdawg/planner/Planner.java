@@ -1,13 +1,29 @@
 package istc.bigdawg.planner;
 
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
 import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Function;
+import java.util.stream.Collectors;
 
 import javax.ws.rs.core.Response;
+import javax.ws.rs.core.StreamingOutput;
 
 import org.apache.log4j.Logger;
 import org.mortbay.log.Log;
@@ -18,6 +34,8 @@ import istc.bigdawg.catalog.CatalogUtilities;
 import istc.bigdawg.exceptions.BigDawgException;
 import istc.bigdawg.executor.Executor;
 import istc.bigdawg.executor.QueryResult;
+import istc.bigdawg.executor.StreamingQueryResult;
+import istc.bigdawg.executor.StreamingResultOutput;
 import istc.bigdawg.executor.plan.QueryExecutionPlan;
 import istc.bigdawg.islands.CrossIslandCast;
 import istc.bigdawg.islands.CrossIslandNonOperatorNode;
@@ -25,7 +43,10 @@ import istc.bigdawg.islands.CrossIslandQueryNode;
 import istc.bigdawg.islands.CrossIslandQueryPlan;
 import istc.bigdawg.islands.IntraIslandQuery;
 import istc.bigdawg.islands.IslandAndCastResolver;
+import istc.bigdawg.islands.relational.SQLPlanCache;
+import istc.bigdawg.migration.MigratedCopyCache;
 import istc.bigdawg.monitoring.Monitor;
+import istc.bigdawg.properties.BigDawgConfigProperties;
 import istc.bigdawg.query.ConnectionInfo;
 import istc.bigdawg.signature.Signature;
 
@@ -35,6 +56,19 @@ public class Planner {
 
 	private static Logger logger = Logger.getLogger(Planner.class);
 
+	/** Runs the independent nodes of the cross-island plans, shared by all queries. */
+	private static final ExecutorService crossIslandThreadPool = Executors.newFixedThreadPool(
+			BigDawgConfigProperties.INSTANCE.getCrossIslandParallelism(), new ThreadFactory() {
+				private final AtomicInteger count = new AtomicInteger();
+
+				@Override
+				public Thread newThread(Runnable r) {
+					Thread thread = new Thread(r, "bigdawg-cross-island-" + count.incrementAndGet());
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+
 	
 	private static Response processCatalogQuery(String input) throws Exception {
 		/*
@@ -56,43 +90,130 @@ public class Planner {
 	
 
 	
-	private static Set<CrossIslandQueryNode> processCrossIslandPlanNodes (
+	/**
+	 * Run all the nodes of the plan except the terminal one. A node is
+	 * submitted to the bounded thread pool as soon as all the nodes it
+	 * depends on (its incoming edges) are done, so independent subqueries and
+	 * casts run concurrently and the latency is that of the critical path.
+	 * After the first failure no new node is started; the method waits for
+	 * the running ones, so that the caller can clean up all the temporary
+	 * tables, and then throws the failure.
+	 */
+	private static void processCrossIslandPlanNodes (
 			CrossIslandQueryPlan ciqp, 
-			Set<CrossIslandQueryNode> entryNodes,  
 			Map<CrossIslandQueryNode, ConnectionInfo> connectionInfoMap, 
 			Map<ConnectionInfo, Collection<String>> tempTableInfo, 
 			Set<Integer> objectsToDelete) throws Exception {
 		
-		Set<CrossIslandQueryNode> nextNodes = new HashSet<>();
-		for (CrossIslandQueryNode node : entryNodes) {
+		// the iterator of the DAG returns the nodes in a topological order 
+		List<CrossIslandQueryNode> nodes = new ArrayList<>();
+		// the number of casts of each source, it is removed from connectionInfoMap after the last one
+		Map<CrossIslandQueryNode, AtomicInteger> pendingCasts = new HashMap<>();
+		for (CrossIslandQueryNode node : ciqp) {
 
 			// If we arrive at a terminalNode, skip and process later
 			if (node == ciqp.getTerminalNode()) {
 				continue;
 			}
-
+			nodes.add(node);
 			if (node instanceof CrossIslandCast) {
-				// Todo: move this code block to a function
-				// we make the assumption that there is no chain CASTing
-				// we also assume that the user does not directly cast an object 
-				// throw new Exception("Unimplemented feature: CAST");
-				
-				CrossIslandCast castNode = ((CrossIslandCast) node);
-
-				IntraIslandQuery source = (IntraIslandQuery) castNode.getSourceVertex(ciqp);
-				IntraIslandQuery target = (IntraIslandQuery) castNode.getTargetVertex(ciqp);
-
-
-				// get the target, and pick destination -- default location
-				
-				
-				
-				int oid = CastOverseer.cast(castNode, source, target, connectionInfoMap, tempTableInfo);
-				
-				
-				
-
-				// add the temporary objects to be deleted
+				pendingCasts.computeIfAbsent(((CrossIslandCast) node).getSourceVertex(ciqp), n -> new AtomicInteger())
+						.incrementAndGet();
+			}
+		}
+		
+		runNodes(nodes, 
+				node -> ciqp.incomingEdgesOf(node).stream().map(e -> ciqp.getEdgeSource(e)).collect(Collectors.toList()), 
+				node -> processCrossIslandPlanNode(ciqp, node, connectionInfoMap, tempTableInfo, objectsToDelete, pendingCasts), 
+				crossIslandThreadPool);
+	}
+	
+	/**
+	 * Work done for a node of the plan.
+	 */
+	@FunctionalInterface
+	interface NodeTask<N> {
+		void run(N node) throws Exception;
+	}
+	
+	/**
+	 * Run the task of each node on the executor as soon as the tasks of all
+	 * its predecessors are done. After the first failure no new task is
+	 * started; wait for the running ones and throw the failure.
+	 * 
+	 * @param nodes
+	 *            the nodes in a topological order
+	 * @param predecessors
+	 *            the nodes which a node depends on (those not in nodes are
+	 *            ignored)
+	 */
+	static <N> void runNodes(List<N> nodes, Function<N, Collection<N>> predecessors, NodeTask<N> task,
+			ExecutorService executor) throws Exception {
+		
+		final AtomicReference<Exception> failure = new AtomicReference<>();
+		final Map<N, CompletableFuture<Void>> futures = new HashMap<>();
+		
+		for (N node : nodes) {
+			
+			CompletableFuture<?>[] dependencies = predecessors.apply(node).stream()
+					.map(futures::get)
+					.filter(Objects::nonNull)
+					.toArray(CompletableFuture[]::new);
+			
+			futures.put(node, CompletableFuture.allOf(dependencies).thenRunAsync(() -> {
+				if (failure.get() != null) {
+					throw new CancellationException("Cross-island node " + node + " skipped after a failure");
+				}
+				try {
+					task.run(node);
+				} catch (Exception e) {
+					failure.compareAndSet(null, e);
+					throw new CompletionException(e);
+				}
+			}, executor));
+		}
+		
+		try {
+			CompletableFuture.allOf(futures.values().toArray(new CompletableFuture[futures.size()])).join();
+		} catch (CompletionException | CancellationException e) {
+			// the nodes that were skipped fail with a cancellation, report the original failure
+			if (failure.get() != null) {
+				throw failure.get();
+			}
+			throw e;
+		}
+	}
+	
+	private static void processCrossIslandPlanNode (
+			CrossIslandQueryPlan ciqp, 
+			CrossIslandQueryNode node,  
+			Map<CrossIslandQueryNode, ConnectionInfo> connectionInfoMap, 
+			Map<ConnectionInfo, Collection<String>> tempTableInfo, 
+			Set<Integer> objectsToDelete,
+			Map<CrossIslandQueryNode, AtomicInteger> pendingCasts) throws Exception {
+		
+		if (node instanceof CrossIslandCast) {
+			// Todo: move this code block to a function
+			// we make the assumption that there is no chain CASTing
+			// we also assume that the user does not directly cast an object 
+			// throw new Exception("Unimplemented feature: CAST");
+			
+			CrossIslandCast castNode = ((CrossIslandCast) node);
+
+			IntraIslandQuery source = (IntraIslandQuery) castNode.getSourceVertex(ciqp);
+			IntraIslandQuery target = (IntraIslandQuery) castNode.getTargetVertex(ciqp);
+
+
+			// get the target, and pick destination -- default location
+			
+			
+			
+			int oid = CastOverseer.cast(castNode, source, target, connectionInfoMap, tempTableInfo);
+			
+			
+			
+
+			// add the temporary objects to be deleted
 //				if (!tempTableInfo.containsKey(connectionInfoMap.get(source))) {
 //					tempTableInfo.put(connectionInfoMap.get(source), new HashSet<>());
 //				}
@@ -103,47 +224,52 @@ public class Planner {
 //				tempTableInfo.get(targetConnInfo).add(remoteName);
 
 
-				// add catalog entry of the temp table, add to catalog set of destruction
-				// unsafe use of ""
-				objectsToDelete.add(oid); // find the correct DBID for source
-
-				// add target to the next gen
-				nextNodes.add(target);
+			// add catalog entry of the temp table, add to catalog set of destruction
+			// unsafe use of ""
+			objectsToDelete.add(oid); // find the correct DBID for source
 
-				// remove source from connectionInfoMap
+			// remove source from connectionInfoMap after its last cast, other
+			// casts of the same source may be running concurrently
+			if (pendingCasts.get(source).decrementAndGet() == 0) {
 				connectionInfoMap.remove(source);
+			}
 
-			} else if (node instanceof IntraIslandQuery) {
+		} else if (node instanceof IntraIslandQuery) {
 
-				// Todo: move this block to a separate function
-				// business as usual
-				IntraIslandQuery ciqn = (IntraIslandQuery) node;
+			// Todo: move this block to a separate function
+			// business as usual
+			IntraIslandQuery ciqn = (IntraIslandQuery) node;
 
-				// TODO make hte best choice of permutation. We postpone this to the next release, 0.2 
-				// int choice = getGetPerformanceAndPickTheBest(ciqn, isTrainingMode);
-				int choice = 0;
+			// TODO make hte best choice of permutation. We postpone this to the next release, 0.2 
+			// int choice = getGetPerformanceAndPickTheBest(ciqn, isTrainingMode);
+			int choice = 0;
 
-				// currently there should be just one island, therefore one child, root.
-				QueryExecutionPlan qep = ((IntraIslandQuery) node).getQEP(choice, false);
+			// currently there should be just one island, therefore one child, root.
+			QueryExecutionPlan qep = ciqn.applyRenamedInputs(ciqn.getQEP(choice, false));
 
-				// EXECUTE THE RESULT SUB RESULT
-				logger.debug("Executing query cross-island subquery " + node + "...");
-				QueryResult queryResult = Executor.executePlan(qep, ciqn.getSignature(), choice);
-				((IntraIslandQuery)node).setQueryResult(queryResult);
-				connectionInfoMap.put(node, queryResult.getConnectionInfo());
+			// EXECUTE THE RESULT SUB RESULT
+			logger.debug("Executing query cross-island subquery " + node + "...");
+			QueryResult queryResult = Executor.executePlan(qep, ciqn.getSignature(), choice);
+			((IntraIslandQuery)node).setQueryResult(queryResult);
+			connectionInfoMap.put(node, queryResult.getConnectionInfo());
 
-			} else if (node instanceof CrossIslandNonOperatorNode) {
-				connectionInfoMap.put(node, IslandAndCastResolver.runOperatorFreeIslandQuery((CrossIslandNonOperatorNode) node).getConnectionInfo());
-			} else {
-				throw new BigDawgException("Planner::processQuery has unimplemented Cross Island Plan Node: " + node.getClass().getSimpleName());
-			}
-			// add the child node to nextGen
-			nextNodes.add(node.getTargetVertex(ciqp));
+		} else if (node instanceof CrossIslandNonOperatorNode) {
+			connectionInfoMap.put(node, IslandAndCastResolver.runOperatorFreeIslandQuery((CrossIslandNonOperatorNode) node).getConnectionInfo());
+		} else {
+			throw new BigDawgException("Planner::processQuery has unimplemented Cross Island Plan Node: " + node.getClass().getSimpleName());
 		}
-		return nextNodes;
 	}
 
 	public static Response processQuery(String userinput, boolean isTrainingMode) throws Exception {
+		return processQuery(userinput, isTrainingMode, false);
+	}
+
+	/**
+	 * Process the query; if streaming is set, the rows of the final result are
+	 * written to the response entity as they are read from the engine (see
+	 * {@link StreamingQueryResult}) instead of being materialized in a String.
+	 */
+	public static Response processQuery(String userinput, boolean isTrainingMode, boolean streaming) throws Exception {
 		long startTime = System.currentTimeMillis();
 		
 		String input = userinput.replaceAll("[\n]", "").replaceAll("[ \t]+", " ");
@@ -155,8 +281,24 @@ public class Planner {
 		Response r = processCatalogQuery(input);
 		if (r != null) return r;
 
+		// the same read-only query answered before
+		boolean cacheable = !isTrainingMode && !streaming && QueryResultCache.INSTANCE.isEnabled()
+				&& QueryResultCache.isCacheable(input);
+		long cacheGeneration = 0;
+		if (cacheable) {
+			String cached = QueryResultCache.INSTANCE.get(input);
+			if (cached != null) {
+				logger.debug("[BigDAWG] PLANNER: Query result found in the cache. " + QueryResultCache.INSTANCE);
+				return Response.status(200).entity(cached).build();
+			}
+			cacheGeneration = QueryResultCache.INSTANCE.begin();
+		} else {
+			QueryResultCache.INSTANCE.invalidateModified(input);
+		}
+
 		// Track the temporary objects and table info for later deletion
-		Set<Integer> objectsToDelete = new HashSet<>();
+		// (the nodes of the plan add to them concurrently)
+		Set<Integer> objectsToDelete = ConcurrentHashMap.newKeySet();
 
 		// Create cross island query plan (ciqp)
 		CrossIslandQueryPlan ciqp = new CrossIslandQueryPlan(input, objectsToDelete);
@@ -167,15 +309,13 @@ public class Planner {
 				"; #edges: " + ciqp.edgeSet().size() + "; ciqp: " + ciqp.toString());
 
 		// Traverse the graph and run the execution plans
-		Set<CrossIslandQueryNode> entryNodes = new HashSet<>(ciqp.getEntryNodes());
-		Map<CrossIslandQueryNode, ConnectionInfo> connectionInfoMap = new HashMap<>();
-		Map<ConnectionInfo, Collection<String>> tempTableInfo = new HashMap<>();
+		Map<CrossIslandQueryNode, ConnectionInfo> connectionInfoMap = Collections.synchronizedMap(new HashMap<>());
+		Map<ConnectionInfo, Collection<String>> tempTableInfo = Collections.synchronizedMap(new HashMap<>());
 		try {
-			while (!entryNodes.isEmpty()) {
-				entryNodes = processCrossIslandPlanNodes(ciqp, entryNodes, connectionInfoMap, tempTableInfo, objectsToDelete);
-			}
+			processCrossIslandPlanNodes(ciqp, connectionInfoMap, tempTableInfo, objectsToDelete);
 		} catch (Exception e) {
 			cleanUpTemporaryTables(objectsToDelete, tempTableInfo);
+			QueryResultCache.INSTANCE.invalidateModified(input);
 			throw e;
 		} 
 
@@ -201,14 +341,14 @@ public class Planner {
 	
 				// Ask the Monitor for the best QueryExecutionPlan
 				int choice = getGetPerformanceAndPickTheBest(ciqn, isTrainingMode);
-				QueryExecutionPlan qep = ciqn.getQEP(choice, true);
+				QueryExecutionPlan qep = ciqn.applyRenamedInputs(ciqn.getQEP(choice, true));
 	
 				// Execute the plan
 				logger.debug("Executing terminal node...");
 				long endPlanTime = System.currentTimeMillis();
 				long planDuration = endPlanTime - startTime;
-				logger.debug(String.format("Time taken for planning: %d", planDuration));
-				queryResult = Executor.executePlan(qep, ciqn.getSignature(), choice);
+				logger.debug(String.format("Time taken for planning: %d; %s", planDuration, SQLPlanCache.INSTANCE));
+				queryResult = Executor.executePlan(qep, ciqn.getSignature(), choice, streaming);
 	
 			} else if (cipn instanceof CrossIslandNonOperatorNode) {
 				// EXECUTE THE RESULT
@@ -219,14 +359,50 @@ public class Planner {
 				throw new BigDawgException("Planner::processQuery has unimplemented Cross Island Plan Node: " + cipn.getClass().getSimpleName());
 			}
 		} finally {
-			cleanUpTemporaryTables(objectsToDelete, tempTableInfo);
+			if (queryResult instanceof StreamingQueryResult) {
+				// the cursor still reads from the casted objects; remove them once the client is served
+				((StreamingQueryResult) queryResult).addCloseHook(() -> {
+					try {
+						cleanUpTemporaryTables(objectsToDelete, tempTableInfo);
+					} catch (Exception e) {
+						logger.error("Could not clean up the temporary tables of query " + ciqp.getSerial(), e);
+					}
+				});
+			} else {
+				cleanUpTemporaryTables(objectsToDelete, tempTableInfo);
+			}
+			QueryResultCache.INSTANCE.invalidateModified(input);
 		}
 		
 		Response response = compileResults(ciqp.getSerial(), queryResult);
+		if (cacheable && response.getEntity() instanceof String) {
+			QueryResultCache.INSTANCE.put(input, (String) response.getEntity(), getReferencedObjects(ciqp), cacheGeneration);
+		}
 		return response ;
 	}
 
 
+	/**
+	 * @return names of the objects referenced by the intra-island queries of
+	 *         the plan, null if they are not known (a node without operators)
+	 */
+	private static Set<String> getReferencedObjects(CrossIslandQueryPlan ciqp) {
+		Set<String> objects = new HashSet<>();
+		try {
+			for (CrossIslandQueryNode node : ciqp) {
+				if (node instanceof IntraIslandQuery) {
+					objects.addAll(((IntraIslandQuery) node).getInitialRoot().getDataObjectAliasesOrNames().values());
+				} else if (!(node instanceof CrossIslandCast)) {
+					return null;
+				}
+			}
+		} catch (Exception e) {
+			logger.debug("Cannot find the objects of query " + ciqp.getSerial() + ": " + e.getMessage());
+			return null;
+		}
+		return objects;
+	}
+
 	private static void cleanUpTemporaryTables(Set<Integer> catalogSOD, Map<ConnectionInfo, Collection<String>> tempTableMOD) throws Exception{
 		
 		Log.debug("Garbage collection starts; Next up: catalog entries");
@@ -238,7 +414,9 @@ public class Planner {
             Log.debug(String.format("removing %s on %s...", tables, c.getDatabase()));
             try {
             	for (String s : tables) {
-            		c.getLocalQueryExecutor().dropDataSetIfExists(s);
+            		// the migrated copies kept for the next queries are released instead of dropped
+            		if (MigratedCopyCache.isPrivateName(s) || !MigratedCopyCache.INSTANCE.release(c, s))
+            			c.getLocalQueryExecutor().dropDataSetIfExists(s);
             	}
 //            	Collection<String> cs = c.getCleanupQuery(tables);
 //            	for (String cleanupQuery : cs)
@@ -263,6 +441,7 @@ public class Planner {
 		Signature signature = ciqn.getSignature();
 
 		List<QueryExecutionPlan> qeps = ciqn.getAllQEPs(true);
+		qeps.forEach(ciqn::applyRenamedInputs);
 		Log.debug("Number of qeps: " + qeps.size());
 
 		if (qeps.size() <= 1){
@@ -333,6 +512,13 @@ public class Planner {
 		if (result == null) {
 			throw new Exception("Unknown execution error; contact the administrator with query number " + querySerial + "\n");
 		}
+		if (result instanceof StreamingQueryResult) {
+			logger.debug("[BigDAWG] PLANNER: Query "+querySerial+" is completed. Streaming the result...");
+			StreamingOutput output = new StreamingResultOutput(
+					(StreamingQueryResult) result, TimeUnit.SECONDS.toMillis(
+							BigDawgConfigProperties.INSTANCE.getQueryStreamTimeout()));
+			return Response.status(200).entity(output).build();
+		}
 		logger.debug("[BigDAWG] PLANNER: Query "+querySerial+" is completed. Result:\n"+result.toPrettyString());
 		return Response.status(200).entity(result.toPrettyString()).build();
 	}
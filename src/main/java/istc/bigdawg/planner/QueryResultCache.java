@@ -0,0 +1,598 @@
+package istc.bigdawg.planner;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.apache.log4j.Logger;
+
+import istc.bigdawg.properties.BigDawgConfigProperties;
+
+/**
+ * Results of the read-only queries, kept so that a query repeated with the same
+ * text (after normalization of the white spaces) is answered without parsing,
+ * planning and executing it again.
+ *
+ * The results are kept in memory in the LRU order up to the configured size,
+ * the least recently used ones are moved to files in the disk directory (if it
+ * is configured) and are removed from there in the LRU order as well. A result
+ * is dropped when any of the objects referenced by its query is modified
+ * (through {@link istc.bigdawg.catalog.CatalogModifier}, by a migration into
+ * the object or by a statement which names it) and after the time to live, so
+ * changes done outside of BigDAWG are eventually visible. The files are read
+ * and written outside of the lock of the cache.
+ */
+public class QueryResultCache {
+
+	private static Logger logger = Logger.getLogger(QueryResultCache.class);
+
+	public static final QueryResultCache INSTANCE = new QueryResultCache(
+			BigDawgConfigProperties.INSTANCE.isResultCacheEnabled(),
+			BigDawgConfigProperties.INSTANCE.getResultCacheTtl(),
+			BigDawgConfigProperties.INSTANCE.getResultCacheMaxMB() * 1024L * 1024L,
+			BigDawgConfigProperties.INSTANCE.getResultCacheDiskDir(),
+			BigDawgConfigProperties.INSTANCE.getResultCacheDiskMaxMB() * 1024L * 1024L);
+
+	/** Queries with these words can modify the data, their results are not cached. */
+	private static final Pattern WRITE = Pattern.compile(
+			"\\b(insert|update|delete|create|drop|alter|truncate|into|copy|store|remove|redimension_store)\\b",
+			Pattern.CASE_INSENSITIVE);
+
+	/** Names in a statement: identifiers, optionally qualified. */
+	private static final Pattern NAME = Pattern.compile("\\w+(\\.\\w+)*");
+
+	/** Objects modified after this number of invalidations are forgotten. */
+	static final int MAX_TRACKED_OBJECTS = 10000;
+
+	/** Estimated memory used by an entry besides the characters of the query and the result. */
+	private static final long ENTRY_OVERHEAD = 128;
+
+	private static final class Entry {
+		/** null for an entry in the disk tier (the result is in the file) */
+		private String result;
+		private final Set<String> objects;
+		private final long storedAt;
+		private final long bytes;
+		private Path file;
+
+		private Entry(String key, String result, Set<String> objects, long storedAt) {
+			this.result = result;
+			this.objects = objects;
+			this.storedAt = storedAt;
+			this.bytes = 2L * (key.length() + result.length()) + ENTRY_OVERHEAD;
+		}
+	}
+
+	private final boolean enabled;
+	private final long ttl;
+	private final long maxBytes;
+	private final Path diskDir;
+	private final long diskMaxBytes;
+
+	/** both maps in the access order: the first entry is the least recently used */
+	private final LinkedHashMap<String, Entry> memory = new LinkedHashMap<>(16, 0.75f, true);
+	private final LinkedHashMap<String, Entry> disk = new LinkedHashMap<>(16, 0.75f, true);
+	private long memoryBytes = 0;
+	private long diskBytes = 0;
+	private long fileCounter = 0;
+
+	/** Incremented by each invalidation, guards against caching stale results. */
+	private long generation = 0;
+	/** lower case name of an object -> generation of its last invalidation */
+	private final Map<String, Long> invalidatedAt = new HashMap<>();
+	/** results of the queries which began before this generation are not stored */
+	private long oldestTracked = 0;
+
+	private long hits = 0;
+	private long misses = 0;
+	private long invalidations = 0;
+
+	/**
+	 * @param enabled
+	 *            if false then no result is cached
+	 * @param ttl
+	 *            time to live of a result in ms, 0 - no expiry
+	 * @param maxBytes
+	 *            the estimated size of the results kept in memory
+	 * @param diskDir
+	 *            directory of the results evicted from memory, null - the
+	 *            evicted results are dropped
+	 * @param diskMaxBytes
+	 *            the size of the results kept on disk
+	 */
+	QueryResultCache(boolean enabled, long ttl, long maxBytes, String diskDir, long diskMaxBytes) {
+		this.enabled = enabled;
+		this.ttl = ttl;
+		this.maxBytes = maxBytes;
+		this.diskMaxBytes = diskMaxBytes;
+		Path dir = null;
+		if (enabled && diskDir != null && !diskDir.isEmpty()) {
+			try {
+				dir = Files.createDirectories(Paths.get(diskDir));
+			} catch (IOException e) {
+				logger.error("Cannot create the directory of the query result cache: " + diskDir
+						+ ", the results are kept in memory only", e);
+			}
+		}
+		this.diskDir = dir;
+		logger.info("Query result cache enabled: " + enabled + ", ttl (ms): " + ttl + ", memory (bytes): "
+				+ maxBytes + ", disk: " + this.diskDir + ", disk (bytes): " + diskMaxBytes);
+	}
+
+	/**
+	 * @return the query with single spaces between the tokens and without
+	 *         spaces around parentheses, commas and semicolons (outside of the
+	 *         quoted strings) and without the trailing semicolons
+	 */
+	public static String normalize(String query) {
+		StringBuilder sb = new StringBuilder(query.length());
+		char quote = 0;
+		boolean space = false;
+		for (int i = 0; i < query.length(); i++) {
+			char c = query.charAt(i);
+			if (quote != 0) {
+				sb.append(c);
+				if (c == quote) {
+					quote = 0;
+				}
+				continue;
+			}
+			if (Character.isWhitespace(c)) {
+				space = sb.length() > 0;
+				continue;
+			}
+			if (space && !isPunctuation(c) && !isPunctuation(sb.charAt(sb.length() - 1))) {
+				sb.append(' ');
+			}
+			space = false;
+			if (c == '\'' || c == '"') {
+				quote = c;
+			}
+			sb.append(c);
+		}
+		int end = sb.length();
+		while (end > 0 && sb.charAt(end - 1) == ';') {
+			end--;
+		}
+		return sb.substring(0, end);
+	}
+
+	private static boolean isPunctuation(char c) {
+		return c == '(' || c == ')' || c == ',' || c == ';';
+	}
+
+	/**
+	 * @return false if the query can modify data (its result is never cached)
+	 */
+	public static boolean isCacheable(String query) {
+		/* the words in the quoted strings do not matter */
+		String unquoted = query.replaceAll("'[^']*'", "''");
+		return !WRITE.matcher(unquoted).find();
+	}
+
+	/**
+	 * @return the names in the query (the objects it can modify are among
+	 *         them), with the parts of the qualified names
+	 */
+	static Set<String> getNames(String query) {
+		Set<String> names = new HashSet<>();
+		Matcher m = NAME.matcher(query.replaceAll("'[^']*'", "''"));
+		while (m.find()) {
+			names.add(m.group());
+			names.addAll(Arrays.asList(m.group().split("\\.")));
+		}
+		return names;
+	}
+
+	public boolean isEnabled() {
+		return enabled;
+	}
+
+	/**
+	 * @param query
+	 *            the text of the query
+	 * @return the cached result of the query or null
+	 */
+	public String get(String query) {
+		if (!enabled) {
+			return null;
+		}
+		String key = normalize(query);
+		DiskWork work = new DiskWork();
+		Entry stored;
+		synchronized (this) {
+			Entry entry = memory.get(key);
+			if (entry != null && isExpired(entry)) {
+				removeFromMemory(key);
+				entry = null;
+			}
+			if (entry != null) {
+				hits++;
+				return entry.result;
+			}
+			stored = disk.get(key);
+			if (stored != null && isExpired(stored)) {
+				removeFromDisk(key, work);
+				stored = null;
+			}
+			if (stored == null) {
+				misses++;
+			}
+		}
+		String result = null;
+		if (stored != null) {
+			/* the file is read without the lock, the entry is used if it was not dropped meanwhile */
+			Entry read = readFromDisk(key, stored);
+			synchronized (this) {
+				if (disk.get(key) == stored) {
+					removeFromDisk(key, work);
+					if (read != null) {
+						addToMemory(key, read, work);
+						result = read.result;
+					}
+				}
+				if (result == null) {
+					misses++;
+				} else {
+					hits++;
+				}
+			}
+		}
+		finish(work);
+		return result;
+	}
+
+	/**
+	 * Called before a query is planned.
+	 *
+	 * @return the generation to be passed to
+	 *         {@link #put(String, String, Set, long)}
+	 */
+	public synchronized long begin() {
+		return generation;
+	}
+
+	/**
+	 * Store the result of the query unless it can modify data or any of the
+	 * objects was modified after the query began.
+	 *
+	 * @param query
+	 *            the text of the query
+	 * @param result
+	 *            the result returned to the client
+	 * @param objects
+	 *            names of the objects referenced by the query, null if not
+	 *            known (then the result is not stored)
+	 * @param beganAt
+	 *            the result of {@link #begin()} called before the query was
+	 *            planned
+	 */
+	public void put(String query, String result, Set<String> objects, long beganAt) {
+		if (!enabled || result == null || objects == null || !isCacheable(query)) {
+			return;
+		}
+		Set<String> names = new HashSet<>();
+		for (String object : objects) {
+			String name = object.toLowerCase();
+			names.add(name);
+			/* a statement can name the object without the schema */
+			names.add(name.substring(name.lastIndexOf('.') + 1));
+		}
+		String key = normalize(query);
+		Entry entry = new Entry(key, result, Collections.unmodifiableSet(names), System.currentTimeMillis());
+		if (entry.bytes > maxBytes) {
+			return;
+		}
+		DiskWork work = new DiskWork();
+		synchronized (this) {
+			if (isModifiedAfter(names, beganAt)) {
+				logger.debug("The result is not cached, an object was modified during the query");
+				return;
+			}
+			removeFromMemory(key);
+			removeFromDisk(key, work);
+			addToMemory(key, entry, work);
+		}
+		finish(work);
+	}
+
+	/**
+	 * Drop the results of the queries which reference the object (the data of
+	 * the object were modified).
+	 *
+	 * @param object
+	 *            name of the object
+	 */
+	public void invalidate(String object) {
+		if (!enabled) {
+			return;
+		}
+		DiskWork work = new DiskWork();
+		synchronized (this) {
+			invalidate(object, work);
+		}
+		finish(work);
+	}
+
+	/**
+	 * Drop the results of the queries which reference any of the objects;
+	 * called before and after a statement which can modify them is executed.
+	 *
+	 * @param objects
+	 *            names of the objects, null if they are not known (then all
+	 *            the results are dropped)
+	 */
+	public void invalidate(Collection<String> objects) {
+		if (!enabled) {
+			return;
+		}
+		if (objects == null) {
+			invalidateAll();
+			return;
+		}
+		DiskWork work = new DiskWork();
+		synchronized (this) {
+			for (String object : objects) {
+				invalidate(object, work);
+			}
+		}
+		finish(work);
+	}
+
+	/**
+	 * Drop the results which reference any of the names in the statement if it
+	 * can modify data; called before and after the statement is executed, so
+	 * neither the results stored before it nor the ones of the queries running
+	 * concurrently with it are served.
+	 *
+	 * @param statement
+	 *            the text of the statement
+	 */
+	public void invalidateModified(String statement) {
+		if (enabled && !isCacheable(statement)) {
+			invalidate(getNames(statement));
+		}
+	}
+
+	private void invalidate(String object, DiskWork work) {
+		String name = object.toLowerCase();
+		generation++;
+		invalidations++;
+		if (invalidatedAt.size() >= MAX_TRACKED_OBJECTS) {
+			invalidatedAt.clear();
+			oldestTracked = generation;
+		}
+		invalidatedAt.put(name, generation);
+		removeIf(memory, name, false, work);
+		removeIf(disk, name, true, work);
+	}
+
+	/**
+	 * Drop all the cached results.
+	 */
+	public void invalidateAll() {
+		DiskWork work = new DiskWork();
+		synchronized (this) {
+			generation++;
+			invalidations++;
+			invalidatedAt.clear();
+			oldestTracked = generation;
+			memory.clear();
+			memoryBytes = 0;
+			for (Entry entry : disk.values()) {
+				work.delete(entry);
+			}
+			disk.clear();
+			diskBytes = 0;
+		}
+		finish(work);
+	}
+
+	public synchronized long getHitCount() {
+		return hits;
+	}
+
+	public synchronized long getMissCount() {
+		return misses;
+	}
+
+	public synchronized double getHitRatio() {
+		return hits + misses == 0 ? 0 : hits * 1.0 / (hits + misses);
+	}
+
+	public synchronized long getInvalidationCount() {
+		return invalidations;
+	}
+
+	/**
+	 * @return the estimated memory used by the results kept in memory
+	 */
+	public synchronized long getMemoryBytes() {
+		return memoryBytes;
+	}
+
+	public synchronized long getDiskBytes() {
+		return diskBytes;
+	}
+
+	public synchronized int size() {
+		return memory.size() + disk.size();
+	}
+
+	@Override
+	public synchronized String toString() {
+		return "QueryResultCache [enabled=" + enabled + ", ttl=" + ttl + ", memoryResults=" + memory.size()
+				+ ", memoryBytes=" + memoryBytes + ", diskResults=" + disk.size() + ", diskBytes=" + diskBytes
+				+ ", hits=" + hits + ", misses=" + misses + ", hitRatio=" + String.format("%.3f", getHitRatio())
+				+ ", invalidations=" + invalidations + "]";
+	}
+
+	private boolean isExpired(Entry entry) {
+		return ttl > 0 && System.currentTimeMillis() - entry.storedAt > ttl;
+	}
+
+	/**
+	 * @return true if any of the objects was modified after the generation
+	 *         (or it is not known)
+	 */
+	private boolean isModifiedAfter(Set<String> names, long beganAt) {
+		if (beganAt < oldestTracked) {
+			return true;
+		}
+		for (String name : names) {
+			Long modified = invalidatedAt.get(name);
+			if (modified != null && modified > beganAt) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * The files to write and delete, collected under the lock and handled by
+	 * {@link QueryResultCache#finish(DiskWork)} after it is released.
+	 */
+	private static final class DiskWork {
+		/** the results evicted from memory, with the generation of the eviction */
+		private final List<Map.Entry<String, Entry>> spilled = new ArrayList<>();
+		private long spilledAt;
+		private final List<Path> deleted = new ArrayList<>();
+
+		private void delete(Entry entry) {
+			if (entry.file != null) {
+				deleted.add(entry.file);
+			}
+		}
+	}
+
+	/**
+	 * Write the evicted results to disk and delete the dropped files, without
+	 * holding the lock.
+	 */
+	private void finish(DiskWork work) {
+		for (Map.Entry<String, Entry> spilled : work.spilled) {
+			String key = spilled.getKey();
+			Entry entry = spilled.getValue();
+			if (!writeToDisk(entry)) {
+				work.delete(entry);
+				continue;
+			}
+			synchronized (this) {
+				/* not stored if it was invalidated or a newer result was stored while the file was written */
+				if (isModifiedAfter(entry.objects, work.spilledAt) || memory.containsKey(key)
+						|| disk.containsKey(key)) {
+					work.delete(entry);
+					continue;
+				}
+				entry.result = null;
+				disk.put(key, entry);
+				diskBytes += entry.bytes;
+				Iterator<Entry> lru = disk.values().iterator();
+				while (diskBytes > diskMaxBytes && lru.hasNext()) {
+					Entry evicted = lru.next();
+					lru.remove();
+					diskBytes -= evicted.bytes;
+					work.delete(evicted);
+				}
+			}
+		}
+		for (Path file : work.deleted) {
+			try {
+				Files.deleteIfExists(file);
+			} catch (IOException e) {
+				logger.warn("Cannot delete the cached result " + file + ": " + e.getMessage());
+			}
+		}
+	}
+
+	private void addToMemory(String key, Entry entry, DiskWork work) {
+		memory.put(key, entry);
+		memoryBytes += entry.bytes;
+		Iterator<Map.Entry<String, Entry>> lru = memory.entrySet().iterator();
+		while (memoryBytes > maxBytes && lru.hasNext()) {
+			Map.Entry<String, Entry> evicted = lru.next();
+			lru.remove();
+			memoryBytes -= evicted.getValue().bytes;
+			Entry spilled = evicted.getValue();
+			if (diskDir != null && spilled.bytes <= diskMaxBytes && !isExpired(spilled)) {
+				spilled.file = diskDir.resolve("result-" + (fileCounter++) + ".txt");
+				work.spilled.add(new AbstractMap.SimpleEntry<>(evicted.getKey(), spilled));
+				work.spilledAt = generation;
+			}
+		}
+	}
+
+	private void removeFromMemory(String key) {
+		Entry entry = memory.remove(key);
+		if (entry != null) {
+			memoryBytes -= entry.bytes;
+		}
+	}
+
+	private void removeFromDisk(String key, DiskWork work) {
+		Entry entry = disk.remove(key);
+		if (entry != null) {
+			diskBytes -= entry.bytes;
+			work.delete(entry);
+		}
+	}
+
+	private void removeIf(LinkedHashMap<String, Entry> tier, String object, boolean onDisk, DiskWork work) {
+		Iterator<Entry> entries = tier.values().iterator();
+		while (entries.hasNext()) {
+			Entry entry = entries.next();
+			if (entry.objects.contains(object)) {
+				entries.remove();
+				if (onDisk) {
+					diskBytes -= entry.bytes;
+					work.delete(entry);
+				} else {
+					memoryBytes -= entry.bytes;
+				}
+			}
+		}
+	}
+
+	/**
+	 * @return true if the result was written to the file of the entry
+	 */
+	private boolean writeToDisk(Entry entry) {
+		try {
+			Files.write(entry.file, entry.result.getBytes(StandardCharsets.UTF_8));
+			return true;
+		} catch (IOException e) {
+			logger.warn("Cannot write the cached result to " + entry.file + ": " + e.getMessage());
+			return false;
+		}
+	}
+
+	/**
+	 * @return the entry with the result read from its file or null if it
+	 *         cannot be read
+	 */
+	private Entry readFromDisk(String key, Entry entry) {
+		try {
+			String result = new String(Files.readAllBytes(entry.file), StandardCharsets.UTF_8);
+			return new Entry(key, result, entry.objects, entry.storedAt);
+		} catch (IOException e) {
+			logger.warn("Cannot read the cached result from " + entry.file + ": " + e.getMessage());
+			return null;
+		}
+	}
+}
@@ -152,15 +152,21 @@ public class PostgreSQLConnectionInfo implements ConnectionInfo {
 		// TODO: handle non-numerical data
 		long[] result = new long[numBuckets];
 
-		String query = "SELECT width_bucket(%s, %s, %s, %s), COUNT(*) FROM %s GROUP BY 1 ORDER BY 1;";
+		String query = "SELECT width_bucket(%s, %s, %s, %s), COUNT(*) FROM %s WHERE %s IS NOT NULL GROUP BY 1 ORDER BY 1;";
 		List<List<String>> raw = ((JdbcQueryResult) new PostgreSQLHandler(this)
 				.execute(String.format(query, attribute, start, end, numBuckets,
-						object))
+						object, attribute))
 				.get()).getRows();
 
 		for (int i = 0; i < raw.size(); i++) {
 			List<String> row = raw.get(i);
-			result[Integer.parseInt(row.get(0))] = Long.parseLong(row.get(1));
+			/*
+			 * width_bucket returns 1..numBuckets for the values in the range, 0
+			 * below and numBuckets + 1 at and above the end (the maximum)
+			 */
+			int bucket = Math.max(0,
+					Math.min(numBuckets - 1, Integer.parseInt(row.get(0)) - 1));
+			result[bucket] += Long.parseLong(row.get(1));
 		}
 
 		return result;
@@ -14,6 +14,7 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.regex.Pattern;
 
 import javax.ws.rs.core.Response;
 
@@ -26,11 +27,13 @@ import org.apache.log4j.Logger;
 import istc.bigdawg.BDConstants.Shim;
 import istc.bigdawg.catalog.CatalogViewer;
 import istc.bigdawg.database.AttributeMetaData;
+import istc.bigdawg.database.ConnectionPool;
 import istc.bigdawg.exceptions.BigDawgCatalogException;
 import istc.bigdawg.exceptions.NoTargetArrayException;
 import istc.bigdawg.exceptions.UnsupportedTypeException;
 import istc.bigdawg.executor.IslandQueryResult;
 import istc.bigdawg.executor.JdbcQueryResult;
+import istc.bigdawg.executor.JdbcStreamingQueryResult;
 import istc.bigdawg.executor.QueryResult;
 import istc.bigdawg.properties.BigDawgConfigProperties;
 import istc.bigdawg.query.ConnectionInfo;
@@ -52,6 +55,19 @@ public class PostgreSQLHandler implements RelationalHandler {
 	private static int defaultSchemaServerDBID = BigDawgConfigProperties.INSTANCE
 			.getPostgresSchemaServerDBID();
 
+	/** Name of the engine for the configuration of the connection pools. */
+	static final String POOL_ENGINE = "postgresql";
+
+	/**
+	 * Restores the run-time parameters (e.g. search_path) of a connection
+	 * returned to the pool.
+	 */
+	static final String POOL_RESET_STATEMENT = "RESET ALL";
+
+	/** An identifier which can be used without quotes. */
+	private static final Pattern SIMPLE_IDENTIFIER = Pattern
+			.compile("[A-Za-z_][A-Za-z0-9_$]*");
+
 	/**
 	 * Information about connection to PostgreSQL (e.g. IP, port, etc.).
 	 */
@@ -125,7 +141,9 @@ public class PostgreSQLHandler implements RelationalHandler {
 	}
 
 	/**
-	 * Establish connection to PostgreSQL for this instance.
+	 * Establish connection to PostgreSQL for this instance. The connection is
+	 * borrowed from the pool of connections to the instance and returned to it
+	 * when the resources of the handler are cleaned.
 	 * 
 	 * @throws SQLException
 	 *             if could not establish a connection
@@ -134,7 +152,7 @@ public class PostgreSQLHandler implements RelationalHandler {
 		if (con == null) {
 			if (conInfo != null) {
 				try {
-					con = getConnection(conInfo);
+					con = getPooledConnection(conInfo);
 				} catch (SQLException e) {
 					e.printStackTrace();
 					log.error(e.getMessage()
@@ -143,12 +161,30 @@ public class PostgreSQLHandler implements RelationalHandler {
 					throw e;
 				}
 			} else {
-				con = PostgreSQLInstance.getConnection();
+				con = PostgreSQLInstance.getPooledConnection();
 			}
 		}
 		return con;
 	}
 
+	/**
+	 * Borrow a JDBC connection to the database from the pool of connections
+	 * to this instance of PostgreSQL (see {@link ConnectionPool}). Closing the
+	 * connection returns it to the pool.
+	 * 
+	 * Use {@link #getConnection(PostgreSQLConnectionInfo)} for a connection
+	 * that is owned by the caller, e.g. for COPY in migrations.
+	 * 
+	 * @param conInfo
+	 *            connection information (host, port, database name, etc.)
+	 * @return the pooled JDBC connection to the database
+	 */
+	public static Connection getPooledConnection(
+			final PostgreSQLConnectionInfo conInfo) throws SQLException {
+		return ConnectionPool.getConnection(POOL_ENGINE, conInfo,
+				() -> getConnection(conInfo), true, POOL_RESET_STATEMENT);
+	}
+
 	/**
 	 * Get the JDBC connection to the database. see:
 	 * {@link #getConnection(PostgreSQLConnectionInfo)}
@@ -384,6 +420,63 @@ public class PostgreSQLHandler implements RelationalHandler {
 		}
 	}
 
+	/**
+	 * It executes the SQL command on a dedicated connection and returns a
+	 * result read through a server side cursor: the PostgreSQL driver fetches
+	 * fetchSize rows at a time when auto-commit is off and the result set is
+	 * forward only. The connection is released when the returned result is
+	 * closed.
+	 *
+	 * @param query
+	 * @param fetchSize
+	 *            number of rows fetched from PostgreSQL in one round trip
+	 * @return #Optional<QueryResult>
+	 * @throws LocalQueryExecutionException
+	 */
+	@Override
+	public Optional<QueryResult> executeStreaming(final String query,
+			int fetchSize) throws LocalQueryExecutionException {
+		if (conInfo == null) {
+			return execute(query);
+		}
+		Connection streamCon = null;
+		Statement streamSt = null;
+		try {
+			log.debug("PostgreSQLHandler is attempting streaming query: "
+					+ LogUtils.replace(query) + "");
+			log.debug("ConnectionInfo:\n" + this.conInfo.toString());
+
+			streamCon = getPooledConnection(conInfo);
+			streamCon.setAutoCommit(false);
+			streamSt = streamCon.createStatement(ResultSet.TYPE_FORWARD_ONLY,
+					ResultSet.CONCUR_READ_ONLY);
+			streamSt.setFetchSize(fetchSize);
+			if (streamSt.execute(query)) {
+				return Optional.of(new JdbcStreamingQueryResult(streamCon,
+						streamSt, streamSt.getResultSet(), this.conInfo));
+			}
+			streamCon.commit();
+			streamSt.close();
+			streamCon.close();
+			return Optional.of(new IslandQueryResult(this.conInfo));
+		} catch (SQLException ex) {
+			log.error(ex.getMessage() + "; query: " + LogUtils.replace(query),
+					ex);
+			try {
+				if (streamSt != null) {
+					streamSt.close();
+				}
+				if (streamCon != null) {
+					streamCon.close();
+				}
+			} catch (SQLException closeEx) {
+				log.info("Could not release the streaming connection: "
+						+ closeEx.getMessage(), closeEx);
+			}
+			throw new LocalQueryExecutionException(ex);
+		}
+	}
+
 	/**
 	 * It executes the query and releases the resources at the end.
 	 * 
@@ -471,6 +564,28 @@ public class PostgreSQLHandler implements RelationalHandler {
 		}
 	}
 
+	/**
+	 * Run EXPLAIN on the given connection, which stays open (e.g. the
+	 * temporary tables of a planning session exist only on this connection).
+	 * 
+	 * @param connection
+	 *            connection to the schema server
+	 * @param query
+	 *            the EXPLAIN (FORMAT XML) query
+	 * @return the String of XML execution tree plan generated by PSQL
+	 * @throws SQLException
+	 */
+	public static String generatePostgreSQLQueryXML(Connection connection,
+			final String query) throws SQLException {
+		try (Statement statement = connection.createStatement();
+				ResultSet result = statement.executeQuery(query)) {
+			if (result.next()) {
+				return result.getString(1);
+			}
+			throw new SQLException("No result is returned.");
+		}
+	}
+
 	/**
 	 * NEW FUNCTION: this is written for generating the dummy tables in PSQL,
 	 * which is also used to construct Operator tree, which will be used for
@@ -479,7 +594,11 @@ public class PostgreSQLHandler implements RelationalHandler {
 	 * @param query
 	 * @return the String of XML execution tree plan generated by PSQL
 	 * @throws SQLException
+	 * @deprecated drops the shared schema; the relational island plans with
+	 *             the transition schemas kept in memory (see
+	 *             BigDawgConfigProperties#isPlanningWithTemporaryTables())
 	 */
+	@Deprecated
 	public void populateSchemasSchema(final String query, boolean drop)
 			throws SQLException {
 		try {
@@ -1061,6 +1180,25 @@ public class PostgreSQLHandler implements RelationalHandler {
 		}
 	}
 
+	/**
+	 * Quote the name of a column given by the user (e.g. the partition
+	 * column), unless it is a simple identifier which is not a reserved word
+	 * (these are left as they are, so that PostgreSQL folds them to lower
+	 * case as usual).
+	 *
+	 * @param name
+	 *            the name of the column
+	 * @return the name which can be put into a query
+	 */
+	public static String quoteIdentifier(String name) {
+		if (SIMPLE_IDENTIFIER.matcher(name).matches()
+				&& !PostgresSQLReserved.reservedWords
+						.containsKey(name.toUpperCase())) {
+			return name;
+		}
+		return "\"" + name.replace("\"", "\"\"") + "\"";
+	}
+
 	/**
 	 * @return Create statement for a table in PostgreSQL from a given list of
 	 *         attributes.
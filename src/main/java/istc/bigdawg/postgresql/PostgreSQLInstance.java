@@ -10,6 +10,7 @@ import java.util.Properties;
 
 import org.apache.log4j.Logger;
 
+import istc.bigdawg.database.ConnectionPool;
 import istc.bigdawg.properties.BigDawgConfigProperties;
 
 /**
@@ -54,6 +55,17 @@ public enum PostgreSQLInstance {
 		}
 	}
 
+	/**
+	 * Borrow a connection to the PostgreSQL instance from the configuration
+	 * file from its pool of connections. Closing the connection returns it to
+	 * the pool.
+	 */
+	public static Connection getPooledConnection() throws SQLException {
+		return ConnectionPool.getConnection(PostgreSQLHandler.POOL_ENGINE, URL,
+				USER, PASSWORD, PostgreSQLInstance::getConnection, true,
+				PostgreSQLHandler.POOL_RESET_STATEMENT);
+	}
+
 	public static String getStringRepresentation() {
 		return "URL: " + URL + " USER: " + USER + " PASSWORD: this is not supposed to be displayed here";
 	}
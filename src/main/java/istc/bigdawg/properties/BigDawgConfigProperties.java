@@ -3,6 +3,8 @@ package istc.bigdawg.properties;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.HashMap;
+import java.util.Map;
 import java.util.Properties;
 
 public enum BigDawgConfigProperties {
@@ -70,12 +72,74 @@ public enum BigDawgConfigProperties {
 	private int networkRequestTimeout;
 	private int networkDataPort;
 	private int networkRetryConnection;
+	private int networkDataStreams;
+	private int networkSocketBufferSize;
+	private String networkCompression;
+	private int networkLinkThroughput;
+	private int networkServerThreads;
 
 	private String migratorTempDir;
 	private String cmigratorDir;
 
 	private String zooKeepers;
 
+	private int queryStreamFetchSize;
+	private int queryStreamTimeout;
+
+	private boolean connectionPoolEnabled;
+	private Map<String, Integer> connectionPoolMaxSizes = new HashMap<>();
+	private int connectionPoolMaxWait;
+	private int connectionPoolIdleTimeout;
+
+	private boolean catalogCacheEnabled;
+	private int catalogCacheTtl;
+	private int catalogCacheMaxEntries;
+
+	private int crossIslandParallelism;
+	private int plannerJoinMaxPlans;
+	private int plannerJoinGreedyThreshold;
+
+	private boolean monitorWriterAsync;
+	private int monitorWriterQueueSize;
+	private int monitorWriterBatchSize;
+	private int monitorWriterFlushInterval;
+	private String monitorWriterOverflow;
+	private int monitorBenchmarkCpuPercent;
+	private int monitorBenchmarkMaxPlans;
+	private int statisticsTimeToLive;
+	private int statisticsThreads;
+	private boolean resultCacheEnabled;
+	private int resultCacheTtl;
+	private int resultCacheMaxMB;
+	private String resultCacheDiskDir;
+	private int resultCacheDiskMaxMB;
+
+	private boolean copyCacheEnabled;
+
+	private int copyCacheTtl;
+
+	private int copyCacheMaxRows;
+
+	private boolean planCacheEnabled;
+
+	private int planCacheMaxEntries;
+
+	private boolean planningWithTemporaryTables;
+
+	private int postgreSQLMigrationParallelism;
+
+	private boolean binTransformerJava;
+
+	private int migrationPipeChunkSize;
+
+	private int migrationPipeChunks;
+
+	private boolean migrationJdbcBinary;
+
+	private int accumuloScanThreads;
+
+	private int migrationAccumuloCopyStreams;
+
 	BigDawgConfigProperties() throws AssertionError {
 		Properties prop = new Properties();
 		String propFileName = "bigdawg-config.properties";
@@ -171,11 +235,164 @@ public enum BigDawgConfigProperties {
 		this.networkDataPort = Integer.valueOf(prop.getProperty("main.network.data.port"));
 		this.networkRequestTimeout = Integer.valueOf(prop.getProperty("main.network.request.timeout"));
 		this.networkRetryConnection = Integer.valueOf(prop.getProperty("main.network.retry.connection"));
+		this.networkDataStreams = getIntProperty(prop,
+				"main.network.data.streams", 1);
+		this.networkSocketBufferSize = getIntProperty(prop,
+				"main.network.socket.buffer.size", 0);
+		this.networkCompression = getStringProperty(prop,
+				"main.network.compression", "auto");
+		this.networkLinkThroughput = getIntProperty(prop,
+				"main.network.link.throughput", 100);
+		this.networkServerThreads = getIntProperty(prop,
+				"main.network.server.threads", 16);
 
 		this.migratorTempDir = prop.getProperty("main.migrator.temp.dir");
 		this.cmigratorDir = prop.getProperty("main.cmigrator.dir");
 
 		this.zooKeepers = prop.getProperty("main.zooKeepers");
+
+		this.queryStreamFetchSize = getIntProperty(prop,
+				"main.query.stream.fetchsize", 10000);
+		this.queryStreamTimeout = getIntProperty(prop,
+				"main.query.stream.timeout", 300);
+
+		this.connectionPoolEnabled = getBooleanProperty(prop,
+				"main.pool.enabled", true);
+		for (String engine : new String[] { "postgresql", "mysql", "vertica",
+				"sstore", "scidb" }) {
+			this.connectionPoolMaxSizes.put(engine, getIntProperty(prop,
+					"main.pool." + engine + ".maxsize", 16));
+		}
+		this.connectionPoolMaxWait = getIntProperty(prop,
+				"main.pool.maxwait.ms", 30000);
+		this.connectionPoolIdleTimeout = getIntProperty(prop,
+				"main.pool.idle.timeout.ms", 60000);
+
+		this.catalogCacheEnabled = getBooleanProperty(prop,
+				"main.catalog.cache.enabled", true);
+		this.catalogCacheTtl = getIntProperty(prop,
+				"main.catalog.cache.ttl.ms", 0);
+		this.catalogCacheMaxEntries = getIntProperty(prop,
+				"main.catalog.cache.max.entries", 10000);
+
+		this.crossIslandParallelism = getIntProperty(prop,
+				"main.planner.crossisland.threads", 8);
+		this.plannerJoinMaxPlans = getIntProperty(prop,
+				"main.planner.join.max.plans", 8);
+		this.plannerJoinGreedyThreshold = getIntProperty(prop,
+				"main.planner.join.greedy.threshold", 10);
+
+		this.monitorWriterAsync = getBooleanProperty(prop,
+				"main.monitor.writer.async", true);
+		this.monitorWriterQueueSize = getIntProperty(prop,
+				"main.monitor.writer.queue.size", 10000);
+		this.monitorWriterBatchSize = getIntProperty(prop,
+				"main.monitor.writer.batch.size", 500);
+		this.monitorWriterFlushInterval = getIntProperty(prop,
+				"main.monitor.writer.flush.ms", 100);
+		this.monitorWriterOverflow = getStringProperty(prop,
+				"main.monitor.writer.overflow", "block");
+		this.monitorBenchmarkCpuPercent = getIntProperty(prop,
+				"main.monitor.benchmark.cpu.percent", 70);
+		this.monitorBenchmarkMaxPlans = getIntProperty(prop,
+				"main.monitor.benchmark.max.plans", 1);
+		this.statisticsTimeToLive = getIntProperty(prop,
+				"main.statistics.ttl.ms", 600000);
+		this.statisticsThreads = getIntProperty(prop,
+				"main.statistics.threads", 4);
+		this.resultCacheEnabled = getBooleanProperty(prop,
+				"main.cache.result.enabled", true);
+		this.resultCacheTtl = getIntProperty(prop,
+				"main.cache.result.ttl.ms", 60000);
+		this.resultCacheMaxMB = getIntProperty(prop,
+				"main.cache.result.max.mb", 64);
+		this.resultCacheDiskDir = getStringProperty(prop,
+				"main.cache.result.disk.dir", null);
+		this.resultCacheDiskMaxMB = getIntProperty(prop,
+				"main.cache.result.disk.max.mb", 512);
+		this.copyCacheEnabled = getBooleanProperty(prop,
+				"main.cache.copy.enabled", true);
+		this.copyCacheTtl = getIntProperty(prop, "main.cache.copy.ttl.ms",
+				600000);
+		this.copyCacheMaxRows = getIntProperty(prop,
+				"main.cache.copy.max.rows", 10000000);
+		this.planCacheEnabled = getBooleanProperty(prop,
+				"main.cache.plan.enabled", true);
+		this.planCacheMaxEntries = getIntProperty(prop,
+				"main.cache.plan.max.entries", 1000);
+		this.planningWithTemporaryTables = getBooleanProperty(prop,
+				"main.planning.temporary.tables", true);
+
+		this.postgreSQLMigrationParallelism = getIntProperty(prop,
+				"main.migrator.postgresql.parallelism", 1);
+
+		this.binTransformerJava = getBooleanProperty(prop,
+				"main.migrator.bin.transformer.java", true);
+
+		this.migrationPipeChunkSize = getIntProperty(prop,
+				"main.migrator.pipe.chunk.size", 65536);
+		this.migrationPipeChunks = getIntProperty(prop,
+				"main.migrator.pipe.chunks", 16);
+
+		this.migrationJdbcBinary = getBooleanProperty(prop,
+				"main.migrator.jdbc.binary", true);
+
+		this.accumuloScanThreads = getIntProperty(prop,
+				"main.accumulo.scan.threads", 4);
+
+		this.migrationAccumuloCopyStreams = getIntProperty(prop,
+				"main.migrator.accumulo.copy.streams", 4);
+	}
+
+	/**
+	 * Read an optional integer property. The default value is used when the
+	 * property is absent or was not set by the build profile (the placeholder
+	 * ${...} was not filtered).
+	 * 
+	 * @param prop
+	 *            the loaded properties
+	 * @param key
+	 *            the name of the property
+	 * @param defaultValue
+	 *            value used when the property is not set
+	 * @return the value of the property
+	 */
+	private static int getIntProperty(Properties prop, String key,
+			int defaultValue) {
+		String value = prop.getProperty(key);
+		if (value == null || value.trim().isEmpty()
+				|| value.trim().startsWith("${")) {
+			return defaultValue;
+		}
+		return Integer.parseInt(value.trim());
+	}
+
+	/**
+	 * Read an optional string property, see
+	 * {@link #getIntProperty(Properties, String, int)}.
+	 */
+	private static String getStringProperty(Properties prop, String key,
+			String defaultValue) {
+		String value = prop.getProperty(key);
+		if (value == null || value.trim().isEmpty()
+				|| value.trim().startsWith("${")) {
+			return defaultValue;
+		}
+		return value.trim();
+	}
+
+	/**
+	 * Read an optional boolean property, see
+	 * {@link #getIntProperty(Properties, String, int)}.
+	 */
+	private static boolean getBooleanProperty(Properties prop, String key,
+			boolean defaultValue) {
+		String value = prop.getProperty(key);
+		if (value == null || value.trim().isEmpty()
+				|| value.trim().startsWith("${")) {
+			return defaultValue;
+		}
+		return Boolean.valueOf(value.trim());
 	}
 
 	/**
@@ -524,4 +741,348 @@ public enum BigDawgConfigProperties {
 	public boolean isVerticaDropDataSet() {
 		return verticaDropDataSet;
 	}
+
+	/**
+	 * @return the number of rows fetched from an engine in one round trip
+	 *         when a query result is streamed to the client
+	 */
+	public int getQueryStreamFetchSize() {
+		return queryStreamFetchSize;
+	}
+
+	/**
+	 * @return the number of seconds after which a streamed result which the
+	 *         client did not start to read is closed
+	 */
+	public int getQueryStreamTimeout() {
+		return queryStreamTimeout;
+	}
+
+	/**
+	 * @return whether the handlers borrow their JDBC connections from a pool
+	 */
+	public boolean isConnectionPoolEnabled() {
+		return connectionPoolEnabled;
+	}
+
+	/**
+	 * @param engine
+	 *            name of the engine: postgresql, mysql, vertica, sstore or
+	 *            scidb
+	 * @return the maximum number of connections in a pool to one instance of
+	 *         the engine
+	 */
+	public int getConnectionPoolMaxSize(String engine) {
+		Integer maxSize = connectionPoolMaxSizes.get(engine);
+		return maxSize == null ? 16 : maxSize;
+	}
+
+	/**
+	 * @return how long (in ms) to wait for a free connection in a pool
+	 */
+	public int getConnectionPoolMaxWait() {
+		return connectionPoolMaxWait;
+	}
+
+	/**
+	 * @return after how long (in ms) an idle pooled connection is closed
+	 */
+	public int getConnectionPoolIdleTimeout() {
+		return connectionPoolIdleTimeout;
+	}
+
+	/**
+	 * @return whether the lookups in the catalog are cached in memory
+	 */
+	public boolean isCatalogCacheEnabled() {
+		return catalogCacheEnabled;
+	}
+
+	/**
+	 * @return after how long (in ms) a cached catalog entry expires; 0 means
+	 *         that the entries are only dropped when the catalog is modified
+	 */
+	public int getCatalogCacheTtl() {
+		return catalogCacheTtl;
+	}
+
+	/**
+	 * @return the maximum number of object placements (and of object lists)
+	 *         kept in the catalog cache; the least recently used are evicted
+	 */
+	public int getCatalogCacheMaxEntries() {
+		return catalogCacheMaxEntries;
+	}
+
+	/**
+	 * @return the number of threads which run the independent nodes of the
+	 *         cross-island query plans
+	 */
+	public int getCrossIslandParallelism() {
+		return crossIslandParallelism;
+	}
+
+	/**
+	 * @return the default number of concurrent COPY streams for a migration
+	 *         between instances of PostgreSQL (1 - sequential migration)
+	 */
+	public int getPostgreSQLMigrationParallelism() {
+		return postgreSQLMigrationParallelism;
+	}
+
+	/**
+	 * @return true if the binary data between PostgreSQL and SciDB is
+	 *         transformed in the JVM, false - by the external c++ migrator
+	 */
+	public boolean isBinTransformerJava() {
+		return binTransformerJava;
+	}
+
+	/**
+	 * @return the size (bytes) of a chunk of the in-memory pipe between the
+	 *         export and the load of a local migration
+	 */
+	public int getMigrationPipeChunkSize() {
+		return migrationPipeChunkSize;
+	}
+
+	/**
+	 * @return the number of chunks which can be buffered in the in-memory pipe
+	 *         between the export and the load of a local migration
+	 */
+	public int getMigrationPipeChunks() {
+		return migrationPipeChunks;
+	}
+
+	/**
+	 * @return true if the data between PostgreSQL and MySQL/Vertica is
+	 *         migrated in the binary format of PostgreSQL, false - as csv
+	 */
+	public boolean isMigrationJdbcBinary() {
+		return migrationJdbcBinary;
+	}
+
+	/**
+	 * @return the maximum number of query threads of a batch scanner which
+	 *         reads the tablets of an Accumulo table in parallel
+	 */
+	public int getAccumuloScanThreads() {
+		return accumuloScanThreads;
+	}
+
+	/**
+	 * @return the maximum number of parallel COPY streams (each with its own
+	 *         connection) through which a table is migrated from Accumulo to
+	 *         PostgreSQL
+	 */
+	public int getMigrationAccumuloCopyStreams() {
+		return migrationAccumuloCopyStreams;
+	}
+
+	/**
+	 * @return the number of parallel TCP connections through which the data
+	 *         of a single migration is sent to a remote host
+	 */
+	public int getNetworkDataStreams() {
+		return networkDataStreams;
+	}
+
+	/**
+	 * @return the size (in bytes) of the send/receive buffers of the sockets
+	 *         which transfer data for migrations; 0 - the default of the
+	 *         operating system
+	 */
+	public int getNetworkSocketBufferSize() {
+		return networkSocketBufferSize;
+	}
+
+	/**
+	 * @return the codec of the data sent to remote hosts for migrations: none,
+	 *         deflate or auto (chosen for each transfer)
+	 */
+	public String getNetworkCompression() {
+		return networkCompression;
+	}
+
+	/**
+	 * @return the expected throughput of the network (MB/s) used to choose the
+	 *         codec until the throughput to a host is measured
+	 */
+	public int getNetworkLinkThroughput() {
+		return networkLinkThroughput;
+	}
+
+	/**
+	 * @return the number of threads which execute the requests received from
+	 *         other BigDAWG nodes
+	 */
+	public int getNetworkServerThreads() {
+		return networkServerThreads;
+	}
+
+	/**
+	 * @return the maximum number of join orders kept for each set of joined
+	 *         objects (and for the whole query) of a relational island query
+	 */
+	public int getPlannerJoinMaxPlans() {
+		return plannerJoinMaxPlans;
+	}
+
+	/**
+	 * @return the number of objects joined in a relational island query above
+	 *         which the join orders are built by a greedy beam search
+	 */
+	public int getPlannerJoinGreedyThreshold() {
+		return plannerJoinGreedyThreshold;
+	}
+
+	/**
+	 * @return true if the monitoring data (benchmark timings, migration
+	 *         statistics) is written to the catalog by a background thread
+	 */
+	public boolean isMonitorWriterAsync() {
+		return monitorWriterAsync;
+	}
+
+	/**
+	 * @return the maximum number of monitoring rows waiting to be written
+	 */
+	public int getMonitorWriterQueueSize() {
+		return monitorWriterQueueSize;
+	}
+
+	/**
+	 * @return the maximum number of monitoring rows written in one statement
+	 */
+	public int getMonitorWriterBatchSize() {
+		return monitorWriterBatchSize;
+	}
+
+	/**
+	 * @return the time (in ms) after which the waiting monitoring rows are
+	 *         written even if the batch is not full
+	 */
+	public int getMonitorWriterFlushInterval() {
+		return monitorWriterFlushInterval;
+	}
+
+	/**
+	 * @return what happens when the queue of monitoring rows is full: block
+	 *         (wait for the writer) or drop (discard the row)
+	 */
+	public String getMonitorWriterOverflow() {
+		return monitorWriterOverflow;
+	}
+
+	/**
+	 * @return the CPU usage (in percent) of the machine below which the
+	 *         background benchmarks are run
+	 */
+	public int getMonitorBenchmarkCpuPercent() {
+		return monitorBenchmarkCpuPercent;
+	}
+
+	/**
+	 * @return the maximum number of query execution plans of the background
+	 *         benchmarks run at the same time
+	 */
+	public int getMonitorBenchmarkMaxPlans() {
+		return monitorBenchmarkMaxPlans;
+	}
+
+	/**
+	 * @return time (in ms) after which the cached statistics (histograms, row
+	 *         counts) of the data objects are stale
+	 */
+	public int getStatisticsTimeToLive() {
+		return statisticsTimeToLive;
+	}
+
+	/**
+	 * @return number of threads which collect the statistics of the data
+	 *         objects in parallel
+	 */
+	public int getStatisticsThreads() {
+		return statisticsThreads;
+	}
+
+	/**
+	 * @return true if the results of the read-only queries are cached
+	 */
+	public boolean isResultCacheEnabled() {
+		return resultCacheEnabled;
+	}
+
+	/**
+	 * @return time to live (in ms) of a cached query result, 0 - no expiry
+	 */
+	public int getResultCacheTtl() {
+		return resultCacheTtl;
+	}
+
+	/**
+	 * @return the size (in MB) of the query results cached in memory
+	 */
+	public int getResultCacheMaxMB() {
+		return resultCacheMaxMB;
+	}
+
+	/**
+	 * @return the directory of the query results evicted from memory, null if
+	 *         they are not kept on disk
+	 */
+	public String getResultCacheDiskDir() {
+		return resultCacheDiskDir;
+	}
+
+	/**
+	 * @return the size (in MB) of the query results cached on disk
+	 */
+	public int getResultCacheDiskMaxMB() {
+		return resultCacheDiskMaxMB;
+	}
+
+	/**
+	 * @return true if the migrated copies are kept and reused by the next
+	 *         queries
+	 */
+	public boolean isCopyCacheEnabled() {
+		return copyCacheEnabled;
+	}
+
+	/**
+	 * @return the time to live (in ms) of a migrated copy, 0 - no expiry
+	 */
+	public int getCopyCacheTtl() {
+		return copyCacheTtl;
+	}
+
+	/**
+	 * @return the number of rows of the migrated copies kept on an engine
+	 */
+	public int getCopyCacheMaxRows() {
+		return copyCacheMaxRows;
+	}
+
+	/**
+	 * @return true if the plans of the relational queries are cached
+	 */
+	public boolean isPlanCacheEnabled() {
+		return planCacheEnabled;
+	}
+
+	/**
+	 * @return the number of the cached plans of the relational queries
+	 */
+	public int getPlanCacheMaxEntries() {
+		return planCacheMaxEntries;
+	}
+
+	/**
+	 * @return true if the transition schemas of the casts are kept in memory
+	 *         during planning instead of being created in the schema server
+	 */
+	public boolean isPlanningWithTemporaryTables() {
+		return planningWithTemporaryTables;
+	}
 }
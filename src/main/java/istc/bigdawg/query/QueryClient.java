@@ -8,6 +8,7 @@ import java.util.Scanner;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
+import javax.ws.rs.GET;
 import javax.ws.rs.POST;
 import javax.ws.rs.Path;
 import javax.ws.rs.core.Response;
@@ -19,7 +20,9 @@ import org.apache.log4j.Logger;
 import org.json.JSONException;
 
 import istc.bigdawg.exceptions.AccumuloShellScriptException;
+import istc.bigdawg.islands.relational.SQLPlanCache;
 import istc.bigdawg.planner.Planner;
+import istc.bigdawg.planner.QueryResultCache;
 /**
  * @author Adam Dziedzic
  * 
@@ -65,6 +68,19 @@ public class QueryClient {
 //		}
 //	}
 
+	/**
+	 * Statistics of the query result cache (the number and size of the cached
+	 * results, hits, misses and the hit ratio) and of the plan cache (hits,
+	 * misses and the average time to get a plan on each).
+	 * 
+	 * @return Response with the statistics as text
+	 */
+	@Path("cachestats")
+	@GET
+	public Response cacheStats() {
+		return Response.ok(QueryResultCache.INSTANCE.toString() + "\n" + SQLPlanCache.INSTANCE.toString()).build();
+	}
+	
 	/**
 	 * Answer a query from a client.
 	 * 
@@ -90,6 +106,26 @@ public class QueryClient {
 		}
 	}
 	
+	/**
+	 * Answer a query from a client. The rows of the result are written to the
+	 * response while they are read from the database engine, so the result is
+	 * never materialized in the memory of BigDAWG.
+	 * 
+	 * @param queryString Query string from the client
+	 * @return Response with a streamed entity
+	 */
+	@Path("streamquery")
+	@POST
+	public Response streamQuery(String queryString) {
+		log.info("QueryClient received streaming query. Passing to Planner. Query string: " + queryString.replaceAll("[\"']", "*"));
+		try {
+			return Planner.processQuery(queryString, false, true);
+		} catch (Exception e) {
+			e.printStackTrace();
+			return Response.status(412).entity(e.getMessage()).build();
+		}
+	}
+	
 	/**
 	 * Answer a query from a client.
 	 * 
@@ -4,6 +4,7 @@
 package istc.bigdawg.relational;
 
 import istc.bigdawg.database.AttributeMetaData;
+import istc.bigdawg.database.ConnectionPool;
 import istc.bigdawg.executor.ExecutorEngine;
 import istc.bigdawg.executor.JdbcQueryResult;
 import istc.bigdawg.executor.QueryResult;
@@ -69,6 +70,24 @@ public interface RelationalHandler extends DBHandler, ExecutorEngine {
 		return con;
 	}
 
+	/**
+	 * Borrow a JDBC connection to the database from the pool of connections
+	 * to the instance (see {@link ConnectionPool}). Closing the connection
+	 * returns it to the pool.
+	 *
+	 * @param engine
+	 *            name of the engine for the configuration of the pool (mysql,
+	 *            vertica)
+	 * @param conInfo
+	 *            connection information (host, port, database name, etc.)
+	 * @return the pooled JDBC connection to the database
+	 */
+	public static Connection getPooledConnection(String engine,
+			final ConnectionInfo conInfo) throws SQLException {
+		return ConnectionPool.getConnection(engine, conInfo,
+				() -> getConnection(conInfo), true, null);
+	}
+
 	/*
 	 * (non-Javadoc)
 	 *
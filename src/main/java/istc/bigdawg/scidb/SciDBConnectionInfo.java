@@ -3,13 +3,23 @@
  */
 package istc.bigdawg.scidb;
 
+import java.sql.SQLException;
+import java.text.NumberFormat;
 import java.text.ParseException;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.List;
+import java.util.Locale;
+import java.util.Optional;
 import java.util.stream.Collectors;
 
+import istc.bigdawg.executor.ConstructedQueryResult;
 import istc.bigdawg.executor.ExecutorEngine;
+import istc.bigdawg.executor.JdbcQueryResult;
+import istc.bigdawg.executor.QueryResult;
 import istc.bigdawg.properties.BigDawgConfigProperties;
 import istc.bigdawg.query.ConnectionInfo;
+import org.apache.commons.lang3.tuple.ImmutablePair;
 import org.apache.commons.lang3.tuple.Pair;
 
 /**
@@ -114,18 +124,127 @@ public class SciDBConnectionInfo implements ConnectionInfo {
 				.collect(Collectors.toSet());
 	}
 
+	/**
+	 * The values are assigned to the buckets by an attribute computed with
+	 * apply and counted by redimension along this attribute (the values out of
+	 * the range go to the first or the last bucket).
+	 */
 	@Override
 	public long[] computeHistogram(String object, String attribute,
-			double start, double end, int numBuckets) {
-		// TODO(ankush) implement histogram computation
-		throw new UnsupportedOperationException();
+			double start, double end, int numBuckets)
+					throws ExecutorEngine.LocalQueryExecutionException {
+		long[] result = new long[numBuckets];
+		double step = (end - start) / numBuckets;
+		String bucket = "int64(0)";
+		if (step > 0) {
+			String value = String.format("int64(floor((double(%s) - %s) / %s))",
+					attribute, start, step);
+			bucket = String.format("iif(%s < 0, 0, iif(%s > %d, %d, %s))",
+					value, value, numBuckets - 1, numBuckets - 1, value);
+		}
+		String query = String.format(
+				"redimension(apply(filter(%s, %s is not null), bucket, %s, bucket_id, %s), "
+						+ "<bucket_id:int64 null, bucket_count:uint64 null>[bucket=0:%d,%d,0], "
+						+ "min(bucket_id) as bucket_id, count(*) as bucket_count)",
+				object, attribute, bucket, bucket, numBuckets - 1, numBuckets);
+		/* the dimension may be returned as well, the attributes are the last */
+		for (List<String> row : getRows(query)) {
+			int size = row.size();
+			if (size < 2 || row.get(size - 2) == null
+					|| "null".equals(row.get(size - 2))) {
+				continue;
+			}
+			result[Integer.parseInt(row.get(size - 2))] = Long
+					.parseLong(row.get(size - 1));
+		}
+		return result;
 	}
 
 	@Override
 	public Pair<Number, Number> getMinMax(String object, String attribute)
 			throws ExecutorEngine.LocalQueryExecutionException, ParseException {
-		// TODO(ankush) implement min/max computation
-		throw new UnsupportedOperationException();
+		String query = String.format("aggregate(%s, min(%s) as min_value, max(%s) as max_value)",
+				object, attribute, attribute);
+		List<List<String>> rows = getRows(query);
+		if (rows.isEmpty()) {
+			return null;
+		}
+		List<String> row = rows.get(0);
+		int size = row.size();
+		if (size < 2 || row.get(size - 2) == null
+				|| "null".equals(row.get(size - 2))) {
+			/* an empty array */
+			return null;
+		}
+		NumberFormat nf = NumberFormat.getInstance(Locale.US);
+		return new ImmutablePair<>(nf.parse(row.get(size - 2)),
+				nf.parse(row.get(size - 1)));
+	}
+
+	/**
+	 * The summary of the array for the planner: the number of its cells.
+	 * 
+	 * @return the number of cells of the array or null if it is not known
+	 */
+	public Long getRowCount(String object)
+			throws ExecutorEngine.LocalQueryExecutionException {
+		List<List<String>> rows = getRows(
+				String.format("op_count(%s)", object));
+		if (rows.isEmpty()) {
+			return null;
+		}
+		List<String> row = rows.get(0);
+		String count = row.get(row.size() - 1);
+		if (count == null || "null".equals(count)) {
+			return null;
+		}
+		return Long.parseLong(count);
+	}
+
+	/**
+	 * Execute the query of the statistics in SciDB.
+	 */
+	Optional<QueryResult> execute(String query)
+			throws ExecutorEngine.LocalQueryExecutionException {
+		SciDBHandler handler;
+		try {
+			handler = new SciDBHandler(this);
+		} catch (SQLException e) {
+			throw new ExecutorEngine.LocalQueryExecutionException(e);
+		}
+		return handler.execute(query);
+	}
+
+	private List<List<String>> getRows(String query)
+			throws ExecutorEngine.LocalQueryExecutionException {
+		return getRows(execute(query));
+	}
+
+	/**
+	 * @return the non-empty rows of the result (SciDB returns a
+	 *         {@link ConstructedQueryResult} with a single empty row for an
+	 *         empty result)
+	 */
+	static List<List<String>> getRows(Optional<QueryResult> result) {
+		List<List<String>> rows = new ArrayList<>();
+		if (!result.isPresent()) {
+			return rows;
+		}
+		List<List<String>> resultRows;
+		if (result.get() instanceof JdbcQueryResult) {
+			resultRows = ((JdbcQueryResult) result.get()).getRows();
+		} else if (result.get() instanceof ConstructedQueryResult) {
+			resultRows = ((ConstructedQueryResult) result.get()).getRows();
+		} else {
+			/* a statement without rows */
+			return rows;
+		}
+		for (List<String> row : resultRows) {
+			if (row != null && !row.isEmpty()) {
+				rows.add(row);
+			}
+		}
+		return rows;
 	}
 
 	public ExecutorEngine getLocalQueryExecutor()
@@ -28,6 +28,7 @@ import istc.bigdawg.BDConstants;
 import istc.bigdawg.BDConstants.Shim;
 import istc.bigdawg.catalog.CatalogViewer;
 import istc.bigdawg.database.AttributeMetaData;
+import istc.bigdawg.database.ConnectionPool;
 import istc.bigdawg.exceptions.MigrationException;
 import istc.bigdawg.exceptions.NoTargetArrayException;
 import istc.bigdawg.exceptions.SciDBException;
@@ -35,6 +36,7 @@ import istc.bigdawg.exceptions.UnsupportedTypeException;
 import istc.bigdawg.executor.ConstructedQueryResult;
 import istc.bigdawg.executor.ExecutorEngine;
 import istc.bigdawg.executor.JdbcQueryResult;
+import istc.bigdawg.executor.JdbcStreamingQueryResult;
 import istc.bigdawg.executor.QueryResult;
 import istc.bigdawg.migration.datatypes.FromSciDBToSQLTypes;
 import istc.bigdawg.postgresql.PostgreSQLTableMetaData;
@@ -217,6 +219,23 @@ public class SciDBHandler implements DBHandler, ExecutorEngine {
 		}
 	}
 
+	/**
+	 * Borrow a JDBC connection to SciDB from the pool of connections to the
+	 * instance (see {@link ConnectionPool}), instead of connecting for every
+	 * statement. Closing the connection returns it to the pool. SciDB does not
+	 * support transactions, so there is nothing to roll back.
+	 * 
+	 * @param connectionInfo
+	 *            Information on the conection (host,port,etc.).
+	 * @return the pooled JDBC connection to SciDB
+	 * @throws SQLException
+	 */
+	public static Connection getPooledConnection(
+			final ConnectionInfo connectionInfo) throws SQLException {
+		return ConnectionPool.getConnection("scidb", connectionInfo,
+				() -> getConnection(connectionInfo), false, null);
+	}
+
 	/**
 	 * Commit the transaction in SciDB.
 	 * 
@@ -371,7 +390,7 @@ public class SciDBHandler implements DBHandler, ExecutorEngine {
 		Connection connection = null; 
 		Statement statement = null;
 		try {
-			connection = getConnection(this.conInfo);
+			connection = getPooledConnection(this.conInfo);
 			statement = connection.createStatement();
 			IStatementWrapper statementWrapper = statement
 					.unwrap(IStatementWrapper.class);
@@ -409,7 +428,7 @@ public class SciDBHandler implements DBHandler, ExecutorEngine {
 		Statement statement = null;
 		ResultSet rs = null;
 		try {
-			con = SciDBHandler.getConnection(conTo);
+			con = SciDBHandler.getPooledConnection(conTo);
 			statement = con.createStatement();
 			String statementString = "select name from list('arrays') where name = '"
 					+ arrayName + "'";
@@ -476,7 +495,7 @@ public class SciDBHandler implements DBHandler, ExecutorEngine {
 		Connection con = null;
 		Statement statement = null;
 		try {
-			con = SciDBHandler.getConnection(conTo);
+			con = SciDBHandler.getPooledConnection(conTo);
 			statement = con.createStatement();
 			String statementString = "drop array " + array;
 			log.debug("Statement to be executed in SciDB: " + statementString);
@@ -527,7 +546,7 @@ public class SciDBHandler implements DBHandler, ExecutorEngine {
 		Statement statement = null;
 		ResultSet resultSet = null;
 		try {
-			connection = getConnection(conInfo);
+			connection = getPooledConnection(conInfo);
 			statement = connection.createStatement();
 
 			// this unwraps to afl
@@ -607,7 +626,7 @@ public class SciDBHandler implements DBHandler, ExecutorEngine {
 		Statement st = null;
 		ResultSet rs = null;
 		try {
-			connection = getConnection(this.conInfo);
+			connection = getPooledConnection(this.conInfo);
 			
 			try {
 				st = connection.createStatement();
@@ -668,6 +687,67 @@ public class SciDBHandler implements DBHandler, ExecutorEngine {
 		}
 	}
 
+	/**
+	 * Execute the AFL query and return a result that is read from SciDB chunk
+	 * by chunk while it is consumed. The connection is released when the
+	 * returned result is closed.
+	 * 
+	 * The SciDB JDBC driver always fetches whole chunks, so fetchSize is
+	 * ignored.
+	 */
+	@Override
+	public Optional<QueryResult> executeStreaming(String query, int fetchSize)
+			throws LocalQueryExecutionException {
+		Connection connection = null;
+		Statement st = null;
+		try {
+			connection = getPooledConnection(this.conInfo);
+			st = connection.createStatement();
+			IStatementWrapper statementWrapper = st
+					.unwrap(IStatementWrapper.class);
+			statementWrapper.setAfl(true);
+
+			log.debug("streaming query: " + LogUtils.replace(query) + "");
+			log.debug("ConnectionInfo: " + this.conInfo.toString() + "\n");
+
+			st.setQueryTimeout(30);
+			boolean ret = st.execute(query);
+			connection.commit();
+			if (ret) {
+				ResultSet rs = null;
+				try {
+					rs = st.getResultSet();
+				} catch (ArrayIndexOutOfBoundsException e) {
+					/* empty result, see: execute(String) */
+				}
+				if (rs != null) {
+					return Optional.of(new JdbcStreamingQueryResult(connection,
+							st, rs, this.conInfo));
+				}
+			}
+			closeStatement(st);
+			closeConnection(connection);
+			if (ret) {
+				List<List<String>> results = new ArrayList<>();
+				results.add(new ArrayList<>());
+				return Optional
+						.of(new ConstructedQueryResult(results, this.conInfo));
+			}
+			return Optional.empty();
+		} catch (SQLException ex) {
+			log.error(ex.getMessage() + "; query: " + LogUtils.replace(query),
+					ex);
+			try {
+				closeStatement(st);
+				closeConnection(connection);
+			} catch (SQLException closeEx) {
+				log.error("Could not release the streaming connection to SciDB. "
+						+ closeEx.getMessage());
+			}
+			throw new LocalQueryExecutionException(ex);
+		}
+	}
+
 	/**
 	 * Execute query in SciDB using command line iquery;
 	 * 
@@ -751,7 +831,7 @@ public class SciDBHandler implements DBHandler, ExecutorEngine {
 		ResultSet resultSetDimensions = null;
 		ResultSet resultSetAttributes = null;
 		try {
-			connection = getConnection(this.conInfo);
+			connection = getPooledConnection(this.conInfo);
 			statement = connection.createStatement();
 			/*
 			 * query which fetches dimensions of the array with name arrayName
@@ -0,0 +1,204 @@
+package istc.bigdawg.signature;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import costmodel.StringUnitCostModel;
+import distance.APTED;
+import istc.bigdawg.exceptions.BigDawgException;
+import istc.bigdawg.islands.IslandAndCastResolver.Scope;
+import node.Node;
+import node.StringNodeData;
+import parser.BracketStringInputParser;
+
+/**
+ * The parts of a {@link Signature} needed to compare it with other signatures,
+ * computed once: the parsed sig1 and sig4k trees with their sizes (the tree
+ * edit distance to the empty tree) and the set of sig2 elements with its hash.
+ *
+ * The compiled signature is also persisted in the monitoring table in a compact
+ * binary form ({@link #toBytes()}), with the sizes of the trees, so the stored
+ * signatures are loaded without splitting the recoverable string and without
+ * computing the sizes again.
+ */
+public class CompiledSignature {
+
+	/** Version of the binary form. */
+	private static final byte version = 1;
+
+	private static final Node<StringNodeData> emptyTree = new BracketStringInputParser().fromString("{}");
+
+	private final Signature signature;
+
+	private Node<StringNodeData> sig1Tree = null;
+	private final double sig1Size;
+	private List<Node<StringNodeData>> sig4kTrees = null;
+	private final double[] sig4kSizes;
+	private final double sig4kTotalSize;
+	private final Set<String> sig2Set;
+	private final int sig2Hash;
+
+	CompiledSignature(Signature signature) {
+		this(signature, null, null);
+	}
+
+	private CompiledSignature(Signature signature, Double sig1Size, double[] sig4kSizes) {
+		this.signature = signature;
+		this.sig2Set = new HashSet<>(signature.getSig2());
+		this.sig2Hash = sig2Set.hashCode();
+
+		if (sig1Size == null) {
+			this.sig1Size = getTreeEditDistance(getSig1Tree(), emptyTree);
+		} else {
+			this.sig1Size = sig1Size;
+		}
+
+		List<String> sig4k = signature.getSig4k();
+		if (sig4kSizes == null || sig4kSizes.length != sig4k.size()) {
+			sig4kSizes = new double[sig4k.size()];
+			for (int i = 0; i < sig4kSizes.length; i++) {
+				sig4kSizes[i] = getTreeEditDistance(getSig4kTrees().get(i), emptyTree);
+			}
+		}
+		this.sig4kSizes = sig4kSizes;
+		double total = 0;
+		for (double size : sig4kSizes) total += size;
+		this.sig4kTotalSize = total;
+	}
+
+	/**
+	 * With unit costs the edit distance is computed without the edit mapping.
+	 */
+	static double getTreeEditDistance(Node<StringNodeData> t1, Node<StringNodeData> t2) {
+		APTED<StringUnitCostModel, StringNodeData> apted = new APTED<>(new StringUnitCostModel());
+		return apted.computeEditDistance(t1, t2);
+	}
+
+	public Signature getSignature() {
+		return signature;
+	}
+
+	public synchronized Node<StringNodeData> getSig1Tree() {
+		if (sig1Tree == null) sig1Tree = new BracketStringInputParser().fromString(signature.getSig1());
+		return sig1Tree;
+	}
+
+	public synchronized List<Node<StringNodeData>> getSig4kTrees() {
+		if (sig4kTrees == null) {
+			BracketStringInputParser parser = new BracketStringInputParser();
+			List<Node<StringNodeData>> trees = new ArrayList<>();
+			for (String s : signature.getSig4k()) trees.add(parser.fromString(s));
+			sig4kTrees = trees;
+		}
+		return sig4kTrees;
+	}
+
+	/**
+	 * @return the tree edit distance from sig1 to the empty tree
+	 */
+	public double getSig1Size() {
+		return sig1Size;
+	}
+
+	/**
+	 * @return the tree edit distances from the sig4k trees to the empty tree
+	 */
+	public double[] getSig4kSizes() {
+		return sig4kSizes;
+	}
+
+	public double getSig4kTotalSize() {
+		return sig4kTotalSize;
+	}
+
+	public Set<String> getSig2Set() {
+		return sig2Set;
+	}
+
+	public int getSig2Hash() {
+		return sig2Hash;
+	}
+
+	/**
+	 * @return the compact binary form of the signature (with the sizes of its trees)
+	 * @throws IOException
+	 */
+	public byte[] toBytes() throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(bytes);
+		out.writeByte(version);
+		writeString(out, signature.getIsland().name());
+		writeString(out, signature.getSig1());
+		out.writeDouble(sig1Size);
+		writeStrings(out, signature.getSig2());
+		writeStrings(out, signature.getSig3());
+		writeString(out, signature.getRawQuery());
+		writeStrings(out, signature.getSig4k());
+		for (double size : sig4kSizes) out.writeDouble(size);
+		out.flush();
+		return bytes.toByteArray();
+	}
+
+	/**
+	 * @param bytes the binary form from {@link #toBytes()}
+	 * @return the signature (already compiled)
+	 * @throws BigDawgException the bytes do not contain a signature
+	 */
+	public static Signature fromBytes(byte[] bytes) throws BigDawgException {
+		try {
+			DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes));
+			byte v = in.readByte();
+			if (v != version) throw new BigDawgException("Unknown version of the compiled signature: " + v);
+			Scope island = Scope.valueOf(readString(in));
+			String sig1 = readString(in);
+			double sig1Size = in.readDouble();
+			List<String> sig2 = readStrings(in);
+			List<String> sig3 = readStrings(in);
+			String query = readString(in);
+			List<String> sig4k = readStrings(in);
+			double[] sig4kSizes = new double[sig4k.size()];
+			for (int i = 0; i < sig4kSizes.length; i++) sig4kSizes[i] = in.readDouble();
+
+			Signature signature = new Signature(island, sig1, sig2, sig3, query, sig4k);
+			signature.setCompiled(new CompiledSignature(signature, sig1Size, sig4kSizes));
+			return signature;
+		} catch (IOException | IllegalArgumentException e) {
+			throw new BigDawgException("Ill-formed compiled signature: " + e.getMessage());
+		}
+	}
+
+	private static void writeString(DataOutputStream out, String s) throws IOException {
+		byte[] b = s.getBytes(StandardCharsets.UTF_8);
+		out.writeInt(b.length);
+		out.write(b);
+	}
+
+	private static void writeStrings(DataOutputStream out, List<String> strings) throws IOException {
+		out.writeInt(strings.size());
+		for (String s : strings) writeString(out, s);
+	}
+
+	private static String readString(DataInputStream in) throws IOException {
+		int length = in.readInt();
+		if (length < 0 || length > in.available()) throw new IOException("wrong length of a string: " + length);
+		byte[] b = new byte[length];
+		in.readFully(b);
+		return new String(b, StandardCharsets.UTF_8);
+	}
+
+	private static List<String> readStrings(DataInputStream in) throws IOException {
+		int count = in.readInt();
+		if (count < 0 || count > in.available()) throw new IOException("wrong number of strings: " + count);
+		List<String> strings = new ArrayList<>(count);
+		for (int i = 0; i < count; i++) strings.add(readString(in));
+		return strings;
+	}
+}
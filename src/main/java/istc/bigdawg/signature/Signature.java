@@ -4,15 +4,12 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.HashSet;
-import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
 import org.apache.log4j.Logger;
 
-import costmodel.StringUnitCostModel;
-import distance.APTED;
 import istc.bigdawg.exceptions.BigDawgException;
 import istc.bigdawg.exceptions.IslandException;
 import istc.bigdawg.islands.IslandAndCastResolver;
@@ -37,6 +34,12 @@ public class Signature {
 	private static String elementSeparator = "&&&&&";
 	private static String elementSeparatorRest = "[&][&][&][&][&]";
 	
+	// weights of the parts of a signature in the distance between signatures
+	static final double sig1Weight = 2;
+	static final double sig2Weight = 1;
+	static final double sig3Weight = 1;
+	static final double sig4kWeight = 2;
+	
 	private Scope island;
 	private String sig1;
 	private List<String> sig2;
@@ -44,6 +47,7 @@ public class Signature {
 	private String query;
 	private List<String> sig4k;
 	private List<Map<String, Set<String>>> objectExpressionMapping = null;
+	private CompiledSignature compiled = null;
 //	private String identifier; 
 	
 //	private static Pattern possibleObjectsPattern	= Pattern.compile("[_@a-zA-Z0-9]+");
@@ -107,20 +111,37 @@ public class Signature {
 		}
 	}
 	
+	/**
+	 * Signature recovered from its parts, see {@link CompiledSignature#fromBytes(byte[])}
+	 */
+	Signature(Scope island, String sig1, List<String> sig2, List<String> sig3, String query, List<String> sig4k) {
+		this.island = island;
+		this.sig1 = sig1;
+		this.sig2 = sig2;
+		this.sig3 = sig3;
+		this.query = query;
+		this.sig4k = sig4k;
+	}
+	
 	public static double getTreeEditDistance(String s1, String s2) {
 		
 	    BracketStringInputParser parser = new BracketStringInputParser();
 	    Node<StringNodeData> t1 = parser.fromString(s1);
 	    Node<StringNodeData> t2 = parser.fromString(s2);
-	    // Initialise APTED.
-	    APTED<StringUnitCostModel, StringNodeData> apted = new APTED<>(new StringUnitCostModel());
-	    // Although we don't need TED value yet, TED must be computed before the
-	    // mapping. This cast is safe due to unit cost.
-	    apted.computeEditDistance(t1, t2);
-	    // Get TED value corresponding to the computed mapping.
-	    LinkedList<int[]> mapping = apted.computeEditMapping();
-	    // This cast is safe due to unit cost.
-	    return apted.mappingCost(mapping);
+	    // With unit costs the cost of the edit mapping is the computed TED value.
+	    return CompiledSignature.getTreeEditDistance(t1, t2);
+	}
+	
+	/**
+	 * @return the parsed trees and the sizes of this signature, computed on the first call
+	 */
+	public synchronized CompiledSignature getCompiled() {
+		if (compiled == null) compiled = new CompiledSignature(this);
+		return compiled;
+	}
+	
+	synchronized void setCompiled(CompiledSignature compiled) {
+		this.compiled = compiled;
 	}
 	
 	@Override
@@ -147,6 +168,7 @@ public class Signature {
 
 	public void setSig1(String sig1) {
 		this.sig1 = sig1;
+		setCompiled(null);
 	}
 
 	public List<String> getSig2() {
@@ -155,6 +177,7 @@ public class Signature {
 
 	public void setSig2(List<String> sig2) {
 		this.sig2 = sig2;
+		setCompiled(null);
 	}
 
 	public List<String> getSig3() {
@@ -163,6 +186,7 @@ public class Signature {
 
 	public void setSig3(List<String> sig3) {
 		this.sig3 = sig3;
+		setCompiled(null);
 	}
 
 	public String getQuery() throws IslandException {
@@ -172,6 +196,13 @@ public class Signature {
 	public void setQuery(String query) {
 		this.query = query;
 	}
+	
+	/**
+	 * @return the query without the island identifier
+	 */
+	String getRawQuery() {
+		return query;
+	}
 
 	public Scope getIsland() {
 		return island;
@@ -187,6 +218,7 @@ public class Signature {
 
 	public void setSig4k(List<String> sig4k) {
 		this.sig4k = sig4k;
+		setCompiled(null);
 	}
 	
 	public List<Map<String, Set<String>>> getObjectToExpressionMapping() {
@@ -289,62 +321,50 @@ public class Signature {
 	
 	
 	public double compare(Signature sig) {
-		logger.debug("SIGNATURE 1: " + this.toRecoverableString());
-		logger.debug("SIGNATURE 2: " + sig.toRecoverableString());
+		boolean debug = logger.isDebugEnabled();
+		if (debug) {
+			logger.debug("SIGNATURE 1: " + this.toRecoverableString());
+			logger.debug("SIGNATURE 2: " + sig.toRecoverableString());
+		}
+		CompiledSignature c1 = getCompiled();
+		CompiledSignature c2 = sig.getCompiled();
 
 		double dist = 0;
 
-		double sig1Weight = 2;
-		double sig2Weight = 1;
-		double sig3Weight = 1;
-		double sig4kWeight = 2;
-
 		// sig1
-		double treeEdit1 = getTreeEditDistance(sig1, "{}");
-		double treeEdit2 = getTreeEditDistance(sig.sig1, "{}");
+		double treeEdit1 = c1.getSig1Size();
+		double treeEdit2 = c2.getSig1Size();
 		double sig1Max = treeEdit1 > treeEdit2 ? treeEdit1 : treeEdit2;
-		double sig1Dist = getTreeEditDistance(sig1, sig.sig1);
-		sig1Dist /= sig1Max;
-		logger.debug("SIGNATURE sig1 dist: " + sig1Dist);
+		double sig1Dist = sig1.equals(sig.sig1) ? 0 : CompiledSignature.getTreeEditDistance(c1.getSig1Tree(), c2.getSig1Tree());
+		sig1Dist = normalize(sig1Dist, sig1Max);
+		if (debug) logger.debug("SIGNATURE sig1 dist: " + sig1Dist);
 
 		// sig2
-		List<String> l2;
-		double sig2Max = sig2.size() > sig.sig2.size() ? sig2.size() : sig.sig2.size();
-		if (sig2.size() > sig.sig2.size()) {
-			l2 = new ArrayList<>(sig2);
-			l2.retainAll(sig.sig2);
-		} else { 
-			l2 = new ArrayList<>(sig.sig2);
-			l2.retainAll(sig2);
-		}
-		double sig2Dist = sig2Max - (double)l2.size();
-		sig2Dist /= sig2Max;
-		logger.debug("SIGNATURE sig2 dist: " + sig2Dist);
+		double sig2Dist = getSig2Distance(sig);
+		if (debug) logger.debug("SIGNATURE sig2 dist: " + sig2Dist);
 		
 		// sig3
-		double sig3Max = (sig3.size() > sig.sig3.size()) ? sig3.size() : sig.sig3.size();
-		double sig3Dist = (sig3.size() > sig.sig3.size()) ? sig3.size() - sig.sig3.size() : sig.sig3.size() - sig3.size();
-		sig3Dist /= sig3Max;
-		logger.debug("SIGNATURE sig3 dist: " + sig3Dist);
+		double sig3Dist = getSig3Distance(sig);
+		if (debug) logger.debug("SIGNATURE sig3 dist: " + sig3Dist);
 		
 		// sig4k
-		List<String> l4k2 = new ArrayList<>(sig.sig4k);
+		List<Integer> l4k2 = new ArrayList<>();
+		for (int i = 0; i < sig.sig4k.size(); i++) l4k2.add(i);
 		double sig4kMax = sig4k.size() > sig.sig4k.size() ? sig4k.size() : sig.sig4k.size();
 		double sig4kDist = sig4k.size() < sig.sig4k.size() ? sig.sig4k.size() - sig4k.size() : sig4k.size() - sig.sig4k.size();
 		double tree4k1 = 0.0;
-		double tree4k2 = 0.0;
+		double tree4k2 = c2.getSig4kTotalSize();
 
-		for (String aSig4k: l4k2){
-			tree4k2 += getTreeEditDistance(aSig4k, "{}");
-		}
-
-		for (String aSig4k : sig4k) {
-			tree4k1 += getTreeEditDistance(aSig4k, "{}");
+		for (int i = 0; i < sig4k.size(); i++) {
+			String aSig4k = sig4k.get(i);
+			tree4k1 += c1.getSig4kSizes()[i];
 			double result = Double.MAX_VALUE;
 			int j = 0;
 			int holder = -1;
 			while (!l4k2.isEmpty() && j < l4k2.size()) {
-				double temp = getTreeEditDistance(aSig4k, l4k2.get(j));
+				int k = l4k2.get(j);
+				double temp = aSig4k.equals(sig.sig4k.get(k)) ? 0 
+						: CompiledSignature.getTreeEditDistance(c1.getSig4kTrees().get(i), c2.getSig4kTrees().get(k));
 				if (temp < result) {
 					result = temp;
 					holder = j;
@@ -358,15 +378,59 @@ public class Signature {
 				break;
 		}
 		sig4kMax += tree4k1 > tree4k2 ? tree4k1 : tree4k2;
-		sig4kDist /= sig4kMax;
-		logger.debug("SIGNATURE sig4k dist: " + sig4kDist);
+		sig4kDist = normalize(sig4kDist, sig4kMax);
+		if (debug) logger.debug("SIGNATURE sig4k dist: " + sig4kDist);
 
 		dist += sig1Dist*sig1Weight + sig2Dist*sig2Weight + sig3Dist*sig3Weight + sig4kDist*sig4kWeight;
 		dist /= sig1Weight + sig2Weight + sig3Weight + sig4kWeight;
-		logger.debug("SIGNATURE final dist: " + dist);
+		if (debug) logger.debug("SIGNATURE final dist: " + dist);
 		return dist;
 	}
 	
+	/**
+	 * @param sig
+	 * @return the fraction of object references (join predicates) that are not shared by the signatures
+	 */
+	double getSig2Distance(Signature sig) {
+		double sig2Max = sig2.size() > sig.sig2.size() ? sig2.size() : sig.sig2.size();
+		if (sig2.size() == sig.sig2.size() && getCompiled().getSig2Hash() == sig.getCompiled().getSig2Hash() && sig2.equals(sig.sig2)) {
+			return 0;
+		}
+		// elements of the longer list that are also in the other one
+		List<String> longer;
+		Set<String> other;
+		if (sig2.size() > sig.sig2.size()) {
+			longer = sig2;
+			other = sig.getCompiled().getSig2Set();
+		} else { 
+			longer = sig.sig2;
+			other = getCompiled().getSig2Set();
+		}
+		int common = 0;
+		for (String s : longer) if (other.contains(s)) common++;
+		double sig2Dist = sig2Max - (double)common;
+		return normalize(sig2Dist, sig2Max);
+	}
+	
+	/**
+	 * @param sig
+	 * @return the relative difference of the numbers of constants of the signatures
+	 */
+	double getSig3Distance(Signature sig) {
+		double sig3Max = (sig3.size() > sig.sig3.size()) ? sig3.size() : sig.sig3.size();
+		double sig3Dist = (sig3.size() > sig.sig3.size()) ? sig3.size() - sig.sig3.size() : sig.sig3.size() - sig3.size();
+		return normalize(sig3Dist, sig3Max);
+	}
+	
+	/**
+	 * @param dist
+	 * @param max the largest possible distance
+	 * @return the distance relative to max, 0 if both parts are empty (max is 0)
+	 */
+	static double normalize(double dist, double max) {
+		return max == 0 ? 0 : dist / max;
+	}
+	
 	
 	
 }
\ No newline at end of file
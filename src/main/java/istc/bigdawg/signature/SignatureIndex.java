@@ -0,0 +1,201 @@
+package istc.bigdawg.signature;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.apache.log4j.Logger;
+
+/**
+ * In-memory index of the signatures of the benchmarked queries, used to find
+ * the signature closest to the signature of a new query.
+ *
+ * The result is the same as comparing the new signature with every stored one
+ * ({@link Signature#compare(Signature)}), but most of the stored signatures are
+ * skipped without the tree edit distance computations. For each stored
+ * signature we keep the sizes of its trees; from them (and the cheap parts of
+ * the distance: sig2 and sig3) we get a lower bound of the distance. The
+ * signatures are grouped by the size of the sig1 tree and the groups are
+ * visited from the size closest to the size of the new signature, until the
+ * lower bound of the remaining groups is not smaller than the best distance
+ * found so far.
+ */
+public class SignatureIndex {
+
+	private static Logger logger = Logger.getLogger(SignatureIndex.class.getName());
+
+	private static final double totalWeight = Signature.sig1Weight + Signature.sig2Weight
+			+ Signature.sig3Weight + Signature.sig4kWeight;
+
+	/** A signature with the sizes of its trees. */
+	private static class Entry {
+		private final Signature signature;
+		private final double sig1Size;
+		private final int sig4kCount;
+		private final double sig4kSize;
+		private double lowerBound;
+
+		private Entry(Signature signature) {
+			CompiledSignature compiled = signature.getCompiled();
+			this.signature = signature;
+			this.sig1Size = compiled.getSig1Size();
+			this.sig4kCount = signature.getSig4k().size();
+			this.sig4kSize = compiled.getSig4kTotalSize();
+		}
+	}
+
+	private final Map<String, Entry> entries = new HashMap<>();
+	private final TreeMap<Double, List<Entry>> bySig1Size = new TreeMap<>();
+
+	/** Number of exact comparisons done by the last lookup. */
+	private int lastComparisons = 0;
+
+	/**
+	 * @param signature
+	 * @return true if the signature was added, false if it was already indexed
+	 */
+	public synchronized boolean add(Signature signature) {
+		String key = signature.toRecoverableString();
+		if (entries.containsKey(key)) return false;
+		Entry entry = new Entry(signature);
+		entries.put(key, entry);
+		bySig1Size.computeIfAbsent(entry.sig1Size, k -> new ArrayList<>()).add(entry);
+		return true;
+	}
+
+	public synchronized void addAll(Collection<Signature> signatures) {
+		for (Signature signature : signatures) {
+			add(signature);
+		}
+	}
+
+	/**
+	 * @param signature
+	 * @return true if the signature was removed, false if it was not indexed
+	 */
+	public synchronized boolean remove(Signature signature) {
+		Entry entry = entries.remove(signature.toRecoverableString());
+		if (entry == null) return false;
+		List<Entry> group = bySig1Size.get(entry.sig1Size);
+		group.remove(entry);
+		if (group.isEmpty()) bySig1Size.remove(entry.sig1Size);
+		return true;
+	}
+
+	public synchronized void clear() {
+		entries.clear();
+		bySig1Size.clear();
+	}
+
+	public synchronized int size() {
+		return entries.size();
+	}
+
+	/**
+	 * @return number of exact comparisons of signatures done by the last lookup
+	 */
+	public synchronized int getLastComparisons() {
+		return lastComparisons;
+	}
+
+	/**
+	 * @param signature - signature representing the query
+	 * @return the indexed signature closest to the input signature, null if there is none
+	 */
+	public synchronized Signature getClosest(Signature signature) {
+		Entry query = new Entry(signature);
+		double distance = Double.MAX_VALUE;
+		Signature closest = null;
+		lastComparisons = 0;
+
+		// groups with smaller and larger sig1 trees, from the closest size
+		Iterator<Map.Entry<Double, List<Entry>>> smaller = bySig1Size.headMap(query.sig1Size, false)
+				.descendingMap().entrySet().iterator();
+		Iterator<Map.Entry<Double, List<Entry>>> larger = bySig1Size.tailMap(query.sig1Size, true)
+				.entrySet().iterator();
+		Map.Entry<Double, List<Entry>> nextSmaller = smaller.hasNext() ? smaller.next() : null;
+		Map.Entry<Double, List<Entry>> nextLarger = larger.hasNext() ? larger.next() : null;
+
+		while (nextSmaller != null || nextLarger != null) {
+			double smallerBound = nextSmaller == null ? Double.MAX_VALUE : getSig1Distance(query.sig1Size, nextSmaller.getKey());
+			double largerBound = nextLarger == null ? Double.MAX_VALUE : getSig1Distance(query.sig1Size, nextLarger.getKey());
+			List<Entry> group;
+			double groupBound;
+			if (smallerBound <= largerBound) {
+				group = nextSmaller.getValue();
+				groupBound = smallerBound;
+				nextSmaller = smaller.hasNext() ? smaller.next() : null;
+			} else {
+				group = nextLarger.getValue();
+				groupBound = largerBound;
+				nextLarger = larger.hasNext() ? larger.next() : null;
+			}
+			// the bounds of the groups only grow from here
+			if (Signature.sig1Weight * groupBound / totalWeight >= distance) break;
+
+			for (Entry e : group) e.lowerBound = getLowerBound(query, e);
+			List<Entry> candidates = new ArrayList<>(group);
+			candidates.sort(Comparator.comparingDouble(e -> e.lowerBound));
+			for (Entry e : candidates) {
+				if (!(e.lowerBound < distance)) break;
+				lastComparisons++;
+				double curDist = signature.compare(e.signature);
+				if (curDist < distance) {
+					distance = curDist;
+					closest = e.signature;
+				}
+			}
+		}
+		logger.debug(String.format("Closest signature found with %d of %d comparisons; distance: %s",
+				lastComparisons, entries.size(), distance));
+		return closest;
+	}
+
+	/**
+	 * Compare the signature with all the given signatures.
+	 * @param signature
+	 * @param signatures
+	 * @return the closest of the signatures, null if there is none
+	 */
+	public static Signature getClosestByScan(Signature signature, Collection<Signature> signatures) {
+		Signature closest = null;
+		double distance = Double.MAX_VALUE;
+		for (Signature current : signatures) {
+			double curDist = signature.compare(current);
+			if (curDist < distance) {
+				distance = curDist;
+				closest = current;
+			}
+		}
+		return closest;
+	}
+
+	/**
+	 * The tree edit distance is a metric, so it is at least the difference of
+	 * the distances of both trees to the empty tree.
+	 * @return the lower bound of the normalized sig1 distance
+	 */
+	private static double getSig1Distance(double size1, double size2) {
+		return Signature.normalize(Math.abs(size1 - size2), Math.max(size1, size2));
+	}
+
+	/**
+	 * @return the lower bound of {@link Signature#compare(Signature)}
+	 */
+	private static double getLowerBound(Entry query, Entry e) {
+		double sig1Dist = getSig1Distance(query.sig1Size, e.sig1Size);
+		double sig2Dist = query.signature.getSig2Distance(e.signature);
+		double sig3Dist = query.signature.getSig3Distance(e.signature);
+		// each unmatched sig4k tree adds at least 1, the matched ones at least 0
+		double sig4kDist = Signature.normalize(Math.abs(query.sig4kCount - e.sig4kCount),
+				Math.max(query.sig4kCount, e.sig4kCount) + Math.max(query.sig4kSize, e.sig4kSize));
+		double dist = sig1Dist * Signature.sig1Weight + sig2Dist * Signature.sig2Weight
+				+ sig3Dist * Signature.sig3Weight + sig4kDist * Signature.sig4kWeight;
+		return dist / totalWeight;
+	}
+}
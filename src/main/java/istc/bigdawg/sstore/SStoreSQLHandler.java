@@ -24,6 +24,7 @@ import org.apache.log4j.Logger;
 
 import istc.bigdawg.BDConstants.Shim;
 import istc.bigdawg.catalog.CatalogViewer;
+import istc.bigdawg.database.ConnectionPool;
 import istc.bigdawg.database.ObjectMetaData;
 import istc.bigdawg.exceptions.BigDawgException;
 import istc.bigdawg.executor.QueryResult;
@@ -78,7 +79,8 @@ public class SStoreSQLHandler implements DBHandler {
     }
 
     /**
-     * Establish connection to SStoreSQL for this instance.
+     * Establish connection to SStoreSQL for this instance. The connection is
+     * borrowed from the pool of connections to the instance.
      * 
      * @throws SQLException
      *             if could not establish a connection
@@ -87,7 +89,7 @@ public class SStoreSQLHandler implements DBHandler {
 	if (con == null) {
 	    if (conInfo != null) {
 		try {
-		    con = getConnection(conInfo);
+		    con = getPooledConnection(conInfo);
 		} catch (SQLException e) {
 		    e.printStackTrace();
 		    log.error(e.getMessage() + " Could not connect to SStoreSQL database using: " + conInfo.toString(),
@@ -101,6 +103,15 @@ public class SStoreSQLHandler implements DBHandler {
 	return con;
     }
 
+    /**
+     * Borrow a JDBC connection to SStore from the pool of connections to the
+     * instance (see {@link ConnectionPool}). Closing the connection returns it
+     * to the pool. S-Store has no client side transactions to reset.
+     */
+    public static Connection getPooledConnection(final ConnectionInfo conInfo) throws SQLException {
+	return ConnectionPool.getConnection("sstore", conInfo, () -> getConnection(conInfo), false, null);
+    }
+
     public static Connection getConnection(ConnectionInfo conInfo) throws SQLException {
 	if (conInfo instanceof SStoreSQLConnectionInfo) {
 		return getConnection((SStoreSQLConnectionInfo) conInfo);
@@ -0,0 +1,155 @@
+package istc.bigdawg.statistics;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.LongSummaryStatistics;
+import java.util.Map;
+import java.util.stream.Stream;
+
+/**
+ * Statistics of an attribute of an object (table/array) on an engine: the
+ * number of rows, the number of distinct values, the most common values with
+ * their counts and a histogram of the other values.
+ *
+ * The histogram is given by its bounds and the number of values between each
+ * two consecutive bounds, so both the equi-depth histograms of PostgreSQL and
+ * the equi-width histograms computed by
+ * {@link istc.bigdawg.query.ConnectionInfo#computeHistogram(String, String, double, double, int)}
+ * can be represented.
+ */
+public class ColumnStatistics {
+
+    /** The number of distinct values is not known. */
+    public static final double UNKNOWN = -1;
+
+    private final long rowCount;
+    private final double distinctCount;
+    private final Map<Long, Long> commonValueCounts;
+    private final List<Long> bounds;
+    private final long[] boundCounts;
+    private final long collectedAt;
+
+    /**
+     * @param rowCount - number of rows of the object
+     * @param distinctCount - number of distinct values of the attribute or {@link #UNKNOWN}
+     * @param commonValueCounts - the most common values and their counts (they are not in the histogram)
+     * @param bounds - bounds of the histogram
+     * @param boundCounts - number of values between the bounds i and i+1
+     */
+    public ColumnStatistics(long rowCount, double distinctCount, Map<Long, Long> commonValueCounts, List<Long> bounds,
+            long[] boundCounts) {
+        if (bounds.size() > 1 && boundCounts.length != bounds.size() - 1) {
+            throw new IllegalArgumentException(
+                    "Expected " + (bounds.size() - 1) + " counts for " + bounds.size() + " bounds, got " + boundCounts.length);
+        }
+        this.rowCount = rowCount;
+        this.distinctCount = distinctCount;
+        this.commonValueCounts = Collections.unmodifiableMap(commonValueCounts);
+        this.bounds = Collections.unmodifiableList(bounds);
+        this.boundCounts = boundCounts;
+        this.collectedAt = System.currentTimeMillis();
+    }
+
+    public long getRowCount() {
+        return rowCount;
+    }
+
+    public double getDistinctCount() {
+        return distinctCount;
+    }
+
+    public Map<Long, Long> getCommonValueCounts() {
+        return commonValueCounts;
+    }
+
+    public List<Long> getBounds() {
+        return bounds;
+    }
+
+    public long[] getBoundCounts() {
+        return boundCounts.clone();
+    }
+
+    /**
+     * @return time (in ms) when the statistics were collected
+     */
+    public long getCollectedAt() {
+        return collectedAt;
+    }
+
+    /**
+     * @return the range of the bounds and the common values (count is 0 if there are no statistics of the values)
+     */
+    public LongSummaryStatistics getRange() {
+        return Stream.concat(bounds.stream(), commonValueCounts.keySet().stream()).mapToLong(Long::longValue)
+                .summaryStatistics();
+    }
+
+    /**
+     * @return histogram of the (not common) values in numBuckets buckets of equal width between min and max
+     */
+    public long[] getHistogram(long min, long max, int numBuckets) {
+        return rescale(bounds, boundCounts, min, max, numBuckets);
+    }
+
+    /**
+     * Spreads the values of a histogram over numBuckets buckets of equal width
+     * between min and max (the values of a bucket are assumed to be uniformly
+     * distributed between its bounds).
+     *
+     * @param bounds the bounds of the histogram
+     * @param counts number of values between the bounds i and i+1
+     */
+    public static long[] rescale(List<Long> bounds, long[] counts, long min, long max, int numBuckets) {
+        double stepSize = (max - min) * 1.0 / numBuckets;
+        double[] rescaled = new double[numBuckets];
+
+        for (int j = 0; j + 1 < bounds.size(); j++) {
+            double start = bounds.get(j);
+            double end = bounds.get(j + 1);
+            if (stepSize <= 0 || end <= start) {
+                rescaled[getBucket(start, min, stepSize, numBuckets)] += counts[j];
+                continue;
+            }
+            int first = getBucket(start, min, stepSize, numBuckets);
+            int last = getBucket(end, min, stepSize, numBuckets);
+            for (int i = first; i <= last; i++) {
+                double overlap = Math.min(end, min + (i + 1) * stepSize) - Math.max(start, min + i * stepSize);
+                if (i == last && i == numBuckets - 1) {
+                    // the last bucket includes the maximum
+                    overlap = end - Math.max(start, min + i * stepSize);
+                }
+                if (overlap > 0) {
+                    rescaled[i] += counts[j] * overlap / (end - start);
+                }
+            }
+        }
+
+        // round the cumulative counts, so the total number of values is kept
+        long[] result = new long[numBuckets];
+        double cumulative = 0;
+        long rounded = 0;
+        for (int i = 0; i < numBuckets; i++) {
+            cumulative += rescaled[i];
+            result[i] = Math.round(cumulative) - rounded;
+            rounded += result[i];
+        }
+        return result;
+    }
+
+    /**
+     * @return the bucket of the value in the buckets of equal width (values out of the range go to the first or the last bucket)
+     */
+    public static int getBucket(double value, long min, double stepSize, int numBuckets) {
+        if (stepSize <= 0) {
+            return 0;
+        }
+        return (int) Math.max(0, Math.min(numBuckets - 1, Math.floor((value - min) / stepSize)));
+    }
+
+    @Override
+    public String toString() {
+        return "ColumnStatistics [rowCount=" + rowCount + ", distinctCount=" + distinctCount + ", commonValues="
+                + commonValueCounts.size() + ", bounds=" + bounds.size() + ", collectedAt=" + collectedAt + "]";
+    }
+}
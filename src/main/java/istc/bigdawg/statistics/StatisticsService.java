@@ -0,0 +1,350 @@
+package istc.bigdawg.statistics;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+
+import org.apache.commons.lang3.tuple.Pair;
+import org.apache.log4j.Logger;
+import org.json.simple.JSONArray;
+import org.json.simple.JSONValue;
+
+import istc.bigdawg.executor.ExecutorEngine;
+import istc.bigdawg.executor.JdbcQueryResult;
+import istc.bigdawg.postgresql.PostgreSQLConnectionInfo;
+import istc.bigdawg.properties.BigDawgConfigProperties;
+import istc.bigdawg.query.ConnectionInfo;
+import istc.bigdawg.scidb.SciDBConnectionInfo;
+
+/**
+ * Statistics of the data objects shared by the queries: histograms, distinct
+ * counts and row counts per (engine, object, attribute).
+ *
+ * The statistics are collected in parallel by a pool of threads, a request for
+ * statistics which are being collected waits for the same collection. The
+ * collected statistics are cached until they are older than the configured
+ * time to live or until the object is invalidated (e.g. when data are
+ * migrated into it).
+ */
+public class StatisticsService {
+
+    private static Logger log = Logger.getLogger(StatisticsService.class);
+
+    /** Number of buckets of the histograms computed by the engines which do not keep statistics. */
+    public static final int NUM_BUCKETS = 100;
+
+    private static final String PG_STATS_PREP_TEMPLATE = "ANALYZE %s (%s)";
+    private static final String PG_STATS_TEMPLATE = "SELECT array_to_json(s.most_common_vals) AS most_common_vals, array_to_json(s.most_common_freqs) AS most_common_freqs, array_to_json(s.histogram_bounds) AS histogram_bounds, c.reltuples::bigint AS count, s.n_distinct FROM pg_class c JOIN pg_namespace n ON n.oid = c.relnamespace JOIN pg_stats s ON s.schemaname = n.nspname AND s.tablename = c.relname WHERE c.oid = '%s'::regclass AND s.attname = lower('%s');";
+    private static final String PG_ROW_COUNT_TEMPLATE = "SELECT c.reltuples::bigint FROM pg_class c JOIN pg_namespace n ON n.oid = c.relnamespace WHERE lower(c.relname) = lower('%s') AND lower(n.nspname) = lower('%s')";
+
+    private static StatisticsService instance;
+
+    /**
+     * Collects the statistics from an engine.
+     */
+    public interface Collector {
+        /**
+         * @return statistics of the attribute of the object
+         */
+        ColumnStatistics collect(ConnectionInfo engine, String object, String attribute) throws Exception;
+
+        /**
+         * @return the number of rows of the object or null if the engine does not keep it
+         */
+        Long getRowCount(ConnectionInfo engine, String object) throws Exception;
+    }
+
+    private final Collector collector;
+    private final long timeToLive;
+    private final ExecutorService executor;
+    private final Map<String, CompletableFuture<ColumnStatistics>> columns = new ConcurrentHashMap<>();
+    private final Map<String, Pair<Long, Long>> rowCounts = new ConcurrentHashMap<>();
+
+    /**
+     * @param collector - collects the statistics from the engines
+     * @param timeToLive - time (in ms) after which the statistics are stale
+     * @param threads - number of statistics collected in parallel
+     */
+    public StatisticsService(Collector collector, long timeToLive, int threads) {
+        this.collector = collector;
+        this.timeToLive = timeToLive;
+        AtomicInteger count = new AtomicInteger(0);
+        this.executor = Executors.newFixedThreadPool(Math.max(1, threads), r -> {
+            Thread thread = new Thread(r, "bigdawg-statistics-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * @return the statistics service configured in the BigDAWG properties
+     */
+    public static synchronized StatisticsService getInstance() {
+        if (instance == null) {
+            BigDawgConfigProperties config = BigDawgConfigProperties.INSTANCE;
+            instance = new StatisticsService(new EngineCollector(), config.getStatisticsTimeToLive(),
+                    config.getStatisticsThreads());
+        }
+        return instance;
+    }
+
+    /**
+     * @param engine - connection to an instance of a database
+     * @return the key of the engine (the host, port and database of the instance)
+     */
+    public static String getEngineKey(ConnectionInfo engine) {
+        return engine.getHost() + ":" + engine.getPort() + "/" + engine.getDatabase();
+    }
+
+    private static String getKey(ConnectionInfo engine, String object, String attribute) {
+        return getEngineKey(engine) + "|" + object.toLowerCase() + "|" + (attribute == null ? "" : attribute.toLowerCase());
+    }
+
+    private boolean isStale(long collectedAt) {
+        return System.currentTimeMillis() - collectedAt > timeToLive;
+    }
+
+    /**
+     * Start the collection of the statistics (if they are not cached), so
+     * statistics of many attributes can be collected in parallel.
+     *
+     * @return the statistics of the attribute of the object on the engine
+     */
+    public CompletableFuture<ColumnStatistics> request(ConnectionInfo engine, String object, String attribute) {
+        return columns.compute(getKey(engine, object, attribute), (key, cached) -> {
+            if (cached != null && (!cached.isDone() || (!cached.isCompletedExceptionally()
+                    && !isStale(cached.join().getCollectedAt())))) {
+                return cached;
+            }
+            log.debug("Collect statistics of " + key);
+            return CompletableFuture.supplyAsync(() -> {
+                try {
+                    return collector.collect(engine, object, attribute);
+                } catch (Exception e) {
+                    throw new StatisticsException(
+                            "Cannot collect statistics of " + object + "." + attribute + " on " + getEngineKey(engine), e);
+                }
+            }, executor);
+        });
+    }
+
+    /**
+     * @return the statistics of the attribute of the object on the engine
+     * @throws StatisticsException
+     */
+    public ColumnStatistics getStatistics(ConnectionInfo engine, String object, String attribute) {
+        return get(request(engine, object, attribute));
+    }
+
+    /**
+     * Wait for the statistics requested with {@link #request(ConnectionInfo, String, String)}.
+     * @throws StatisticsException
+     */
+    public static ColumnStatistics get(CompletableFuture<ColumnStatistics> statistics) {
+        try {
+            return statistics.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new StatisticsException("Interrupted while collecting statistics", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof StatisticsException) {
+                throw (StatisticsException) e.getCause();
+            }
+            throw new StatisticsException(e.getMessage(), e.getCause());
+        }
+    }
+
+    /**
+     * @return the number of rows of the object on the engine or null if it is not known
+     */
+    public Long getRowCount(ConnectionInfo engine, String object) {
+        String key = getKey(engine, object, null);
+        Pair<Long, Long> cached = rowCounts.get(key);
+        if (cached != null && !isStale(cached.getLeft())) {
+            return cached.getRight();
+        }
+        Long count = null;
+        try {
+            count = collector.getRowCount(engine, object);
+        } catch (Exception e) {
+            log.debug("No row count of " + object + " on " + getEngineKey(engine) + ": " + e.getMessage());
+        }
+        if (count == null) {
+            // the row count from the statistics of any of the attributes
+            String prefix = getEngineKey(engine) + "|" + object.toLowerCase() + "|";
+            for (Map.Entry<String, CompletableFuture<ColumnStatistics>> e : columns.entrySet()) {
+                CompletableFuture<ColumnStatistics> f = e.getValue();
+                if (e.getKey().startsWith(prefix) && f.isDone() && !f.isCompletedExceptionally()
+                        && !isStale(f.join().getCollectedAt())) {
+                    count = f.join().getRowCount();
+                    break;
+                }
+            }
+        }
+        if (count != null) {
+            rowCounts.put(key, Pair.of(System.currentTimeMillis(), count));
+        }
+        return count;
+    }
+
+    /**
+     * Drop the cached statistics of the object on the engine (after the data
+     * of the object were changed).
+     */
+    public void invalidate(ConnectionInfo engine, String object) {
+        String prefix = getEngineKey(engine) + "|" + object.toLowerCase() + "|";
+        rowCounts.keySet().removeIf(k -> k.startsWith(prefix));
+        columns.keySet().removeIf(k -> k.startsWith(prefix));
+    }
+
+    /**
+     * Drop all the cached statistics.
+     */
+    public void invalidateAll() {
+        rowCounts.clear();
+        columns.clear();
+    }
+
+    /**
+     * @return number of the cached statistics of attributes
+     */
+    public int getCached() {
+        return columns.size();
+    }
+
+    /**
+     * Thrown when the statistics cannot be collected.
+     */
+    public static class StatisticsException extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        public StatisticsException(String message, Throwable cause) {
+            super(message, cause);
+        }
+    }
+
+    /**
+     * Statistics from the engines: the planner statistics of PostgreSQL (after
+     * ANALYZE of the attribute), otherwise a histogram of equal width buckets
+     * between the min and max computed by the engine.
+     */
+    static class EngineCollector implements Collector {
+
+        @Override
+        public ColumnStatistics collect(ConnectionInfo engine, String object, String attribute) throws Exception {
+            if (engine instanceof PostgreSQLConnectionInfo) {
+                return collectPostgreSQL(engine, object, attribute);
+            }
+            Pair<Number, Number> minMax = engine.getMinMax(object, attribute);
+            if (minMax == null || minMax.getLeft() == null || minMax.getRight() == null) {
+                return new ColumnStatistics(0, ColumnStatistics.UNKNOWN, new HashMap<>(), new ArrayList<>(), new long[0]);
+            }
+            long min = (long) Math.floor(minMax.getLeft().doubleValue());
+            long max = (long) Math.ceil(minMax.getRight().doubleValue());
+            long[] counts = engine.computeHistogram(object, attribute, min, max, NUM_BUCKETS);
+            if (counts == null) {
+                counts = new long[NUM_BUCKETS];
+            }
+            List<Long> bounds = new ArrayList<>();
+            double step = (max - min) * 1.0 / counts.length;
+            for (int i = 0; i <= counts.length; i++) {
+                bounds.add(min + Math.round(i * step));
+            }
+            long rows = 0;
+            for (long count : counts) {
+                rows += count;
+            }
+            return new ColumnStatistics(rows, ColumnStatistics.UNKNOWN, new HashMap<>(), bounds, counts);
+        }
+
+        @SuppressWarnings("unchecked")
+        private ColumnStatistics collectPostgreSQL(ConnectionInfo engine, String object, String attribute)
+                throws Exception {
+            ExecutorEngine e = engine.getLocalQueryExecutor();
+            e.execute(String.format(PG_STATS_PREP_TEMPLATE, object, attribute));
+            JdbcQueryResult r = (JdbcQueryResult) e.execute(String.format(PG_STATS_TEMPLATE, object, attribute)).get();
+
+            Map<Long, Long> commonValCounts = new HashMap<>();
+            List<Long> histogramBounds = new ArrayList<>();
+            long count = 0;
+            long hotspotTotal = 0;
+            double distinct = ColumnStatistics.UNKNOWN;
+
+            // no statistics for an empty table
+            if (!r.getRows().isEmpty()) {
+                List<String> row = r.getRows().get(0);
+                count = Long.parseLong(row.get(3));
+
+                // the arrays are null if there are no common values (or all values are common)
+                if (row.get(0) != null && row.get(1) != null) {
+                    Iterator<Object> ids = ((JSONArray) JSONValue.parse(row.get(0))).iterator();
+                    Iterator<Object> freqs = ((JSONArray) JSONValue.parse(row.get(1))).iterator();
+                    while (ids.hasNext() && freqs.hasNext()) {
+                        long hotspotCount = (long) (Double.parseDouble(freqs.next().toString()) * count);
+                        commonValCounts.put(Long.parseLong(ids.next().toString()), hotspotCount);
+                        hotspotTotal += hotspotCount;
+                    }
+                }
+
+                if (row.get(2) != null) {
+                    histogramBounds = ((List<Object>) JSONValue.parse(row.get(2))).stream()
+                            .map(v -> Long.parseLong(v.toString())).collect(Collectors.toList());
+                }
+
+                // a negative n_distinct is the fraction of the rows
+                if (row.get(4) != null) {
+                    double nDistinct = Double.parseDouble(row.get(4));
+                    distinct = nDistinct >= 0 ? nDistinct : -nDistinct * count;
+                }
+            }
+
+            // the bounds of an equi-depth histogram: each of the (bounds - 1) buckets has the same number of values
+            long[] boundCounts = new long[Math.max(0, histogramBounds.size() - 1)];
+            if (boundCounts.length > 0) {
+                Arrays.fill(boundCounts, Math.max(0, count - hotspotTotal) / boundCounts.length);
+            }
+            return new ColumnStatistics(count, distinct, commonValCounts, histogramBounds, boundCounts);
+        }
+
+        /**
+         * The number of rows from pg_class (maintained by ANALYZE and VACUUM)
+         * or the number of cells of a SciDB array.
+         */
+        @Override
+        public Long getRowCount(ConnectionInfo engine, String object) throws Exception {
+            if (engine instanceof SciDBConnectionInfo) {
+                return ((SciDBConnectionInfo) engine).getRowCount(object);
+            }
+            if (!(engine instanceof PostgreSQLConnectionInfo)) {
+                return null;
+            }
+            String schema = "public";
+            String table = object;
+            int dot = object.indexOf('.');
+            if (dot > 0) {
+                schema = object.substring(0, dot);
+                table = object.substring(dot + 1);
+            }
+            JdbcQueryResult result = (JdbcQueryResult) engine.getLocalQueryExecutor()
+                    .execute(String.format(PG_ROW_COUNT_TEMPLATE, table.replace("'", "''"), schema.replace("'", "''")))
+                    .get();
+            List<List<String>> rows = result.getRows();
+            if (rows.isEmpty()) {
+                return null;
+            }
+            long count = Long.parseLong(rows.get(0).get(0));
+            // a table which was not analyzed yet has 0 (or -1) reltuples
+            return count > 0 ? count : null;
+        }
+    }
+}
@@ -29,18 +29,8 @@ public class JdbcUtils {
         List<List<String>> rows = new ArrayList<>();
         try {
             ResultSetMetaData rsmd = rs.getMetaData();
-            int NumOfCol = rsmd.getColumnCount();
             while (rs.next()) {
-                List<String> current_row = new ArrayList<String>();
-                for (int i = 1; i <= NumOfCol; i++) {
-                    Object value = rs.getObject(i);
-                    if (value == null) {
-                        current_row.add("null");
-                    } else {
-                        current_row.add(value.toString());
-                    }
-                }
-                rows.add(current_row);
+                rows.add(getRow(rs, rsmd));
             }
             return rows;
         } catch (SQLException e) {
@@ -55,44 +45,8 @@ public class JdbcUtils {
         List<List<String>> rows = new ArrayList<>();
         try {
             ResultSetMetaData rsmd = rs.getMetaData();
-            int NumOfCol = rsmd.getColumnCount();
             while (!rs.isAfterLast()) {
-                List<String> current_row = new ArrayList<String>();
-                for (int i = 1; i <= NumOfCol; i++) {
-                	Object value = null;
-                	switch (rsmd.getColumnTypeName(i).toLowerCase()) {
-                		case "int64":
-                			value = rs.getLong(i);
-                			break;
-                		case "int32":
-                			value = rs.getInt(i);
-                			break;
-                		case "string":
-                			value = rs.getString(i);
-                			break;
-                		case "float":
-                			value = rs.getFloat(i);
-                			break;
-                		case "double":
-                			value = rs.getDouble(i);
-                			break;
-                		case "datetime":
-                			value = rs.getDate(i);
-                			break;
-                		case "bool":
-                			value = rs.getBoolean(i);
-                			break;
-                		default:
-                			throw new SQLException("SciDB JDBC result set row retrieval does not support type: "+rsmd.getColumnTypeName(i).toLowerCase());
-                	}
-                    if (value == null) {
-                        current_row.add("null");
-                    } else {
-                        current_row.add(value.toString());
-                    }
-                }
-                rows.add(current_row);
-                
+                rows.add(getRowSciDB(rs, rsmd));
                 rs.next();
             }
             return rows;
@@ -102,6 +56,77 @@ public class JdbcUtils {
         }
     }
     
+    /**
+     * Read the row on which the result set is currently positioned.
+     * 
+     * For SciDB, use getRowSciDB instead.
+     * 
+     * @param rs the result set positioned on a row
+     * @param rsmd meta data of the result set
+     * @return values of the current row, "null" for SQL NULLs
+     * @throws SQLException
+     */
+    public static List<String> getRow(final ResultSet rs, final ResultSetMetaData rsmd) throws SQLException {
+        int NumOfCol = rsmd.getColumnCount();
+        List<String> current_row = new ArrayList<String>(NumOfCol);
+        for (int i = 1; i <= NumOfCol; i++) {
+            Object value = rs.getObject(i);
+            if (value == null) {
+                current_row.add("null");
+            } else {
+                current_row.add(value.toString());
+            }
+        }
+        return current_row;
+    }
+
+    /**
+     * Read the row on which the SciDB result set is currently positioned.
+     * 
+     * @param rs the result set positioned on a row
+     * @param rsmd meta data of the result set
+     * @return values of the current row, "null" for SQL NULLs
+     * @throws SQLException
+     */
+    public static List<String> getRowSciDB(final ResultSet rs, final ResultSetMetaData rsmd) throws SQLException {
+        int NumOfCol = rsmd.getColumnCount();
+        List<String> current_row = new ArrayList<String>(NumOfCol);
+        for (int i = 1; i <= NumOfCol; i++) {
+        	Object value = null;
+        	switch (rsmd.getColumnTypeName(i).toLowerCase()) {
+        		case "int64":
+        			value = rs.getLong(i);
+        			break;
+        		case "int32":
+        			value = rs.getInt(i);
+        			break;
+        		case "string":
+        			value = rs.getString(i);
+        			break;
+        		case "float":
+        			value = rs.getFloat(i);
+        			break;
+        		case "double":
+        			value = rs.getDouble(i);
+        			break;
+        		case "datetime":
+        			value = rs.getDate(i);
+        			break;
+        		case "bool":
+        			value = rs.getBoolean(i);
+        			break;
+        		default:
+        			throw new SQLException("SciDB JDBC result set row retrieval does not support type: "+rsmd.getColumnTypeName(i).toLowerCase());
+        	}
+            if (value == null) {
+                current_row.add("null");
+            } else {
+                current_row.add(value.toString());
+            }
+        }
+        return current_row;
+    }
+
     public static List<String> getColumnNames(final ResultSetMetaData rsmd) throws SQLException {
         List<String> columnNames = new ArrayList<String>();
         for (int i = 1; i <= rsmd.getColumnCount(); ++i) {
@@ -71,7 +71,8 @@ public class VerticaHandler implements RelationalHandler {
     }
 
     /**
-     * Establish connection to Vertica for this instance.
+     * Establish connection to Vertica for this instance. The connection is
+     * borrowed from the pool of connections to the instance.
      *
      * @throws SQLException if could not establish a connection
      */
@@ -80,7 +81,7 @@ public class VerticaHandler implements RelationalHandler {
         if (con == null) {
             if (conInfo != null) {
                 try {
-                    con = RelationalHandler.getConnection(conInfo);
+                    con = RelationalHandler.getPooledConnection("vertica", conInfo);
                 } catch (SQLException e) {
                     e.printStackTrace();
                     log.error(e.getMessage()
@@ -0,0 +1,172 @@
+package istc.bigdawg.accumulo;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+import org.apache.accumulo.core.client.BatchWriter;
+import org.apache.accumulo.core.client.BatchWriterConfig;
+import org.apache.accumulo.core.client.Connector;
+import org.apache.accumulo.core.client.mock.MockInstance;
+import org.apache.accumulo.core.client.security.tokens.PasswordToken;
+import org.apache.accumulo.core.data.Key;
+import org.apache.accumulo.core.data.Mutation;
+import org.apache.accumulo.core.data.Range;
+import org.apache.accumulo.core.data.Value;
+import org.apache.hadoop.io.Text;
+import org.junit.Before;
+import org.junit.Test;
+
+import istc.bigdawg.LoggerSetupForTests;
+import istc.bigdawg.executor.QueryResult;
+import istc.bigdawg.executor.StreamingQueryResult;
+import istc.bigdawg.islands.text.operators.TextScan;
+
+/**
+ * Split the scans of Accumulo at the tablet boundaries, stream their results
+ * and push the filters and aggregates down to the tablet servers.
+ */
+public class AccumuloExecutionEngineTest {
+
+	private static final String TABLE = "engine_test";
+
+	private static final List<Text> SPLITS = Arrays.asList(new Text("r3"),
+			new Text("r6"));
+
+	private AccumuloExecutionEngine engine;
+
+	@Before
+	public void setUp() throws Exception {
+		LoggerSetupForTests.setTestLogging();
+		Connector conn = new MockInstance("engine_test_instance")
+				.getConnector("root", new PasswordToken(""));
+		if (conn.tableOperations().exists(TABLE)) {
+			conn.tableOperations().delete(TABLE);
+		}
+		conn.tableOperations().create(TABLE);
+		conn.tableOperations().addSplits(TABLE, new TreeSet<>(SPLITS));
+		BatchWriter writer = conn.createBatchWriter(TABLE,
+				new BatchWriterConfig());
+		for (int i = 0; i < 10; ++i) {
+			Mutation mutation = new Mutation(new Text("r" + i));
+			mutation.put(new Text("cf"), new Text("cq"),
+					new Value(("v" + i).getBytes(StandardCharsets.UTF_8)));
+			mutation.put(new Text("n"), new Text(""), new Value(
+					Integer.toString(i).getBytes(StandardCharsets.UTF_8)));
+			writer.addMutation(mutation);
+		}
+		writer.close();
+		engine = new AccumuloExecutionEngine(conn, new AccumuloConnectionInfo(
+				"localhost", "2181", "engine_test_instance", "root", ""));
+	}
+
+	@Test
+	public void testSplitRange() {
+		assertEquals(Collections.singletonList(new Range()),
+				AccumuloExecutionEngine.splitRange(null,
+						Collections.<Text> emptyList()));
+
+		List<Range> whole = AccumuloExecutionEngine.splitRange(new Range(),
+				SPLITS);
+		assertEquals(Arrays.asList(new Range(null, false, "r3", true),
+				new Range("r3", false, "r6", true),
+				new Range("r6", false, null, true)), whole);
+
+		/* only the tablets which overlap the range are scanned */
+		List<Range> part = AccumuloExecutionEngine
+				.splitRange(new Range("r4", "r5"), SPLITS);
+		assertEquals(Collections.singletonList(new Range("r4", "r5")), part);
+
+		part = AccumuloExecutionEngine.splitRange(new Range("r1", "r7"),
+				SPLITS);
+		assertEquals(3, part.size());
+		assertEquals(new Range("r1", true, "r3", true), part.get(0));
+		assertEquals(new Range("r6", false, "r7", true), part.get(2));
+	}
+
+	@Test
+	public void testStreaming() throws Exception {
+		String query = "engine_test_scan";
+		AccumuloExecutionEngine.addExecutionTree(query,
+				new TextScan(TABLE, new Range("r2", "r7")));
+
+		String constructed = engine.execute(query).get().toPrettyString();
+
+		QueryResult result = engine.executeStreaming(query, 100).get();
+		assertTrue(result instanceof StreamingQueryResult);
+		ByteArrayOutputStream output = new ByteArrayOutputStream();
+		((StreamingQueryResult) result).writeTo(output);
+		String streamed = output.toString(StandardCharsets.UTF_8.name());
+
+		/* the tablets are read in parallel, the rows come in the key order */
+		List<String> streamedRows = Arrays.asList(streamed.split("\n"));
+		List<String> sortedRows = new ArrayList<>(streamedRows);
+		Collections.sort(sortedRows);
+		assertEquals(12, streamedRows.size());
+		assertEquals("r2\tcf:cq\tv2", streamedRows.get(0));
+		assertEquals(sortedRows, streamedRows);
+		assertEquals(constructed, streamed);
+	}
+
+	private String execute(TextScan scan) throws Exception {
+		String query = "engine_test_pushdown";
+		AccumuloExecutionEngine.addExecutionTree(query, scan);
+		/* the rows are in the key order, without the last line break */
+		return engine.execute(query).get().toPrettyString().replaceAll("\n$",
+				"");
+	}
+
+	@Test
+	public void testPushdown() throws Exception {
+		TextScan scan = new TextScan(TABLE, new Range());
+		Map<String, String> filter = new HashMap<>();
+		filter.put("row", "r[2-4]");
+		filter.put("cf", "cf");
+		scan.setFilter(filter);
+		assertEquals("r2\tcf:cq\tv2\nr3\tcf:cq\tv3\nr4\tcf:cq\tv4",
+				execute(scan));
+
+		scan = new TextScan(TABLE, new Range());
+		scan.setColumns(Arrays.asList("n"));
+		scan.setAggregate(TextScan.Aggregate.sum);
+		assertEquals("45", execute(scan));
+
+		/* the values which are not numbers are skipped by the sum */
+		scan.setColumns(Collections.<String> emptyList());
+		assertEquals("45", execute(scan));
+
+		scan = new TextScan(TABLE, new Range("r2", "r4"));
+		scan.setAggregate(TextScan.Aggregate.count);
+		scan.setGroupByRow(true);
+		assertEquals("r2\t2\nr3\t2\nr4\t2", execute(scan));
+
+		scan.setGroupByRow(false);
+		scan.setFilter(Collections.singletonMap("row", "none"));
+		assertEquals("0", execute(scan));
+	}
+
+	@Test
+	public void testMergeAggregates() {
+		Map<Key, Value> partials = new TreeMap<>();
+		partials.put(new Key("r1", "cf", "a"), new Value("2".getBytes()));
+		partials.put(new Key("r1", "cf", "b"), new Value("1.5".getBytes()));
+		partials.put(new Key("r2", "cf", "a"), new Value("3".getBytes()));
+		assertEquals(Arrays.asList(Arrays.asList("r1", "3.5"),
+				Arrays.asList("r2", "3")),
+				AccumuloExecutionEngine.mergeAggregates(partials.entrySet(),
+						true));
+		assertEquals(Arrays.asList(Arrays.asList("6.5")),
+				AccumuloExecutionEngine.mergeAggregates(partials.entrySet(),
+						false));
+	}
+}
@@ -1,7 +1,11 @@
 package istc.bigdawg.accumulo;
 
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
+import java.util.Arrays;
+
 import org.json.simple.JSONObject;
 import org.json.simple.parser.JSONParser;
 import org.json.simple.parser.ParseException;
@@ -9,6 +13,7 @@ import org.junit.Before;
 import org.junit.Test;
 
 import istc.bigdawg.islands.text.AccumuloJSONQueryParser;
+import istc.bigdawg.islands.text.operators.TextScan;
 
 public class AccumuloJSONQueryParserTest {
 
@@ -57,4 +62,35 @@ public class AccumuloJSONQueryParserTest {
 			fail();
 		}
 	}
+
+	@Test
+	public void testPushdown() throws Exception {
+		String s ="{ 'op' : 'scan', "
+				+ "  'table' : 'testtable', "
+				+ "  'columns' : ['cf1', 'cf2:cq'], "
+				+ "  'filter' : { 'row' : 'S01.*', 'value' : '[0-9]+' }, "
+				+ "  'aggregate' : 'sum', "
+				+ "  'groupby' : 'row' }";
+		TextScan scan = (TextScan) aparser.parse(s);
+		assertEquals(Arrays.asList("cf1", "cf2:cq"), scan.getColumns());
+		assertEquals("S01.*", scan.getFilter().get("row"));
+		assertEquals("[0-9]+", scan.getFilter().get("value"));
+		assertEquals(TextScan.Aggregate.sum, scan.getAggregate());
+		assertTrue(scan.isGroupByRow());
+		assertEquals("(TextScan, testtable, FULL_RANGE, (Columns, cf1, cf2:cq), "
+				+ "(Filter, {row=S01.*, value=[0-9]+}), (Aggregate, sum, row))",
+				scan.getTreeRepresentation(true));
+
+		for (String invalid : new String[] {
+				"{ 'op' : 'scan', 'table' : 't', 'filter' : { 'ts' : '1' } }",
+				"{ 'op' : 'scan', 'table' : 't', 'aggregate' : 'avg' }",
+				"{ 'op' : 'scan', 'table' : 't', 'groupby' : 'row' }" }) {
+			try {
+				aparser.parse(invalid);
+				fail(invalid);
+			} catch (ParseException e) {
+				/* expected */
+			}
+		}
+	}
 }
@@ -0,0 +1,174 @@
+/**
+ *
+ */
+package istc.bigdawg.benchmark;
+
+import java.io.File;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Collections;
+import java.util.Map;
+import java.util.SortedSet;
+import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.regex.Pattern;
+
+import org.apache.accumulo.core.client.BatchScanner;
+import org.apache.accumulo.core.client.BatchWriter;
+import org.apache.accumulo.core.client.BatchWriterConfig;
+import org.apache.accumulo.core.client.Connector;
+import org.apache.accumulo.core.data.Key;
+import org.apache.accumulo.core.data.Mutation;
+import org.apache.accumulo.core.data.Range;
+import org.apache.accumulo.core.data.Value;
+import org.apache.accumulo.core.security.Authorizations;
+import org.apache.accumulo.minicluster.MiniAccumuloCluster;
+import org.apache.hadoop.io.Text;
+import org.apache.log4j.Logger;
+
+import istc.bigdawg.LoggerSetup;
+import istc.bigdawg.accumulo.AccumuloConnectionInfo;
+import istc.bigdawg.accumulo.AccumuloExecutionEngine;
+import istc.bigdawg.islands.text.operators.TextScan;
+
+/**
+ * Compare the queries of the text island evaluated in BigDAWG after a scan of
+ * the whole range (every entry is sent from the tablet servers) with the
+ * queries pushed down to Accumulo as scan-time iterators, in a local
+ * MiniAccumuloCluster:
+ *
+ * - selective: the entries with a column qualifier which matches a regular
+ * expression (1% of the entries),
+ *
+ * - aggregate: the sum of all the values.
+ *
+ * Run: AccumuloPushdownBenchmark [number of rows] [number of tablets]
+ * [iterations]
+ */
+public class AccumuloPushdownBenchmark {
+
+	private static Logger log = Logger
+			.getLogger(AccumuloPushdownBenchmark.class);
+
+	private static final String TABLE = "pushdown_benchmark";
+
+	private static final String PASSWORD = "bigdawg";
+
+	/** Matches the qualifiers of 1% of the entries. */
+	private static final String SELECTIVE_QUALIFIER = "word00[0-9]";
+
+	private static final int WORDS = 1000;
+
+	private static String getRowId(long row) {
+		return String.format("doc%010d", row);
+	}
+
+	private static void load(Connector conn, long rows, int tablets)
+			throws Exception {
+		conn.tableOperations().create(TABLE);
+		SortedSet<Text> splits = new TreeSet<>();
+		for (int i = 1; i < tablets; ++i) {
+			splits.add(new Text(getRowId(rows * i / tablets)));
+		}
+		conn.tableOperations().addSplits(TABLE, splits);
+		BatchWriter writer = conn.createBatchWriter(TABLE,
+				new BatchWriterConfig());
+		for (long row = 0; row < rows; ++row) {
+			Mutation mutation = new Mutation(new Text(getRowId(row)));
+			mutation.put(new Text("word"),
+					new Text(String.format("word%03d", row % WORDS)),
+					new Value(Long.toString(row % 100)
+							.getBytes(StandardCharsets.UTF_8)));
+			writer.addMutation(mutation);
+		}
+		writer.close();
+		conn.tableOperations().flush(TABLE, null, null, true);
+	}
+
+	/**
+	 * Scan every entry of the table and evaluate the query in the client.
+	 *
+	 * @return the number of selected entries or the sum of the values
+	 */
+	private static String scanAll(Connector conn, boolean aggregate)
+			throws Exception {
+		BatchScanner scanner = conn.createBatchScanner(TABLE,
+				Authorizations.EMPTY, 8);
+		scanner.setRanges(AccumuloExecutionEngine.splitRange(new Range(),
+				conn.tableOperations().listSplits(TABLE)));
+		Pattern pattern = Pattern.compile(SELECTIVE_QUALIFIER);
+		long selected = 0;
+		BigDecimal sum = BigDecimal.ZERO;
+		try {
+			for (Map.Entry<Key, Value> entry : scanner) {
+				if (aggregate) {
+					sum = sum.add(new BigDecimal(entry.getValue().toString()));
+				} else if (pattern.matcher(
+						entry.getKey().getColumnQualifier().toString())
+						.matches()) {
+					++selected;
+				}
+			}
+		} finally {
+			scanner.close();
+		}
+		return aggregate ? sum.toPlainString() : Long.toString(selected);
+	}
+
+	/**
+	 * Push the query down to Accumulo through the execution engine.
+	 *
+	 * @return the number of selected entries or the sum of the values
+	 */
+	private static String pushDown(AccumuloExecutionEngine engine,
+			boolean aggregate) throws Exception {
+		TextScan scan = new TextScan(TABLE, new Range());
+		if (aggregate) {
+			scan.setAggregate(TextScan.Aggregate.sum);
+		} else {
+			scan.setFilter(Collections.singletonMap("cq", SELECTIVE_QUALIFIER));
+		}
+		String query = "pushdown_benchmark_" + aggregate;
+		AccumuloExecutionEngine.addExecutionTree(query, scan);
+		String result = engine.execute(query).get().toPrettyString();
+		return aggregate ? result.trim()
+				: Long.toString(result.split("\n").length);
+	}
+
+	private static void measure(String name, Callable<String> query)
+			throws Exception {
+		long start = System.currentTimeMillis();
+		String result = query.call();
+		log.info(String.format("%s: %d ms (result: %s)", name,
+				System.currentTimeMillis() - start, result));
+	}
+
+	public static void main(String[] args) throws Exception {
+		LoggerSetup.setLogging();
+		long rows = args.length > 0 ? Long.parseLong(args[0]) : 1000000;
+		int tablets = args.length > 1 ? Integer.parseInt(args[1]) : 8;
+		int iterations = args.length > 2 ? Integer.parseInt(args[2]) : 3;
+		File dir = Files.createTempDirectory("accumulo-benchmark").toFile();
+		/* the tablet servers load the iterators from the class path */
+		MiniAccumuloCluster cluster = new MiniAccumuloCluster(dir, PASSWORD);
+		cluster.start();
+		try {
+			Connector conn = cluster.getConnector("root", PASSWORD);
+			load(conn, rows, tablets);
+			AccumuloExecutionEngine engine = new AccumuloExecutionEngine(conn,
+					new AccumuloConnectionInfo("localhost", "2181", TABLE,
+							"root", PASSWORD));
+			/* warm up the JIT and the block cache */
+			scanAll(conn, true);
+			for (int i = 0; i < iterations; ++i) {
+				measure("selective, scan all", () -> scanAll(conn, false));
+				measure("selective, pushed down", () -> pushDown(engine, false));
+				measure("aggregate, scan all", () -> scanAll(conn, true));
+				measure("aggregate, pushed down", () -> pushDown(engine, true));
+			}
+		} finally {
+			cluster.stop();
+		}
+	}
+}
@@ -0,0 +1,144 @@
+/**
+ *
+ */
+package istc.bigdawg.benchmark;
+
+import java.io.File;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Collections;
+import java.util.List;
+import java.util.SortedSet;
+import java.util.TreeSet;
+
+import org.apache.accumulo.core.client.BatchWriter;
+import org.apache.accumulo.core.client.BatchWriterConfig;
+import org.apache.accumulo.core.client.Connector;
+import org.apache.accumulo.core.client.Scanner;
+import org.apache.accumulo.core.data.Mutation;
+import org.apache.accumulo.core.data.Range;
+import org.apache.accumulo.core.data.Value;
+import org.apache.accumulo.core.security.Authorizations;
+import org.apache.accumulo.minicluster.MiniAccumuloCluster;
+import org.apache.hadoop.io.Text;
+import org.apache.log4j.Logger;
+
+import istc.bigdawg.LoggerSetup;
+import istc.bigdawg.accumulo.AccumuloConnectionInfo;
+import istc.bigdawg.accumulo.AccumuloExecutionEngine;
+import istc.bigdawg.accumulo.AccumuloStreamingQueryResult;
+import istc.bigdawg.accumulo.OrderedTabletScan;
+
+/**
+ * Measure the throughput (entries/s) of a streamed scan of an Accumulo table
+ * in a local MiniAccumuloCluster: a single range read by one thread (the
+ * previous scan of AccumuloExecutionEngine) against the range split at the
+ * tablet boundaries and read by 1, 2, 4 and 8 threads (in the order of the
+ * keys, see OrderedTabletScan).
+ *
+ * Run: AccumuloScanBenchmark [number of rows] [number of tablets]
+ * [iterations]
+ */
+public class AccumuloScanBenchmark {
+
+	private static Logger log = Logger.getLogger(AccumuloScanBenchmark.class);
+
+	private static final String TABLE = "scan_benchmark";
+
+	private static final String PASSWORD = "bigdawg";
+
+	private static final int[] THREADS = { 1, 2, 4, 8 };
+
+	/** Counts the bytes instead of keeping them. */
+	private static class CountingStream extends OutputStream {
+		private long bytes = 0;
+
+		@Override
+		public void write(int b) {
+			++bytes;
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) {
+			bytes += len;
+		}
+	}
+
+	private static String getRowId(long row) {
+		return String.format("row%010d", row);
+	}
+
+	private static void load(Connector conn, long rows, int tablets)
+			throws Exception {
+		conn.tableOperations().create(TABLE);
+		SortedSet<Text> splits = new TreeSet<>();
+		for (int i = 1; i < tablets; ++i) {
+			splits.add(new Text(getRowId(rows * i / tablets)));
+		}
+		conn.tableOperations().addSplits(TABLE, splits);
+		BatchWriter writer = conn.createBatchWriter(TABLE,
+				new BatchWriterConfig());
+		for (long row = 0; row < rows; ++row) {
+			Mutation mutation = new Mutation(new Text(getRowId(row)));
+			mutation.put(new Text("cf"), new Text("cq"), new Value(
+					("value of the row " + row).getBytes(StandardCharsets.UTF_8)));
+			writer.addMutation(mutation);
+		}
+		writer.close();
+		/* read the data from the files, not from the in-memory maps */
+		conn.tableOperations().flush(TABLE, null, null, true);
+	}
+
+	/**
+	 * @return entries/s of the scan of the ranges
+	 */
+	private static double scan(Connector conn, List<Range> ranges,
+			int threads, long rows) throws Exception {
+		long start = System.currentTimeMillis();
+		OrderedTabletScan scanner = new OrderedTabletScan(ranges, threads,
+				range -> {
+					Scanner tablet = conn.createScanner(TABLE,
+							Authorizations.EMPTY);
+					tablet.setRange(range);
+					return tablet;
+				});
+		CountingStream output = new CountingStream();
+		new AccumuloStreamingQueryResult(scanner, threads,
+				new AccumuloConnectionInfo("localhost", "2181", TABLE, "root",
+						PASSWORD)).writeTo(output);
+		long millis = Math.max(System.currentTimeMillis() - start, 1);
+		return rows * 1000.0 / millis;
+	}
+
+	public static void main(String[] args) throws Exception {
+		LoggerSetup.setLogging();
+		long rows = args.length > 0 ? Long.parseLong(args[0]) : 1000000;
+		int tablets = args.length > 1 ? Integer.parseInt(args[1]) : 8;
+		int iterations = args.length > 2 ? Integer.parseInt(args[2]) : 3;
+		File dir = Files.createTempDirectory("accumulo-benchmark").toFile();
+		MiniAccumuloCluster cluster = new MiniAccumuloCluster(dir, PASSWORD);
+		cluster.start();
+		try {
+			Connector conn = cluster.getConnector("root", PASSWORD);
+			load(conn, rows, tablets);
+			List<Range> single = Collections.singletonList(new Range());
+			List<Range> split = AccumuloExecutionEngine.splitRange(
+					new Range(), conn.tableOperations().listSplits(TABLE));
+			/* warm up the JIT and the block cache */
+			scan(conn, split, THREADS[THREADS.length - 1], rows);
+			for (int i = 0; i < iterations; ++i) {
+				log.info(String.format("single range, 1 thread: %.0f entries/s",
+						scan(conn, single, 1, rows)));
+				for (int threads : THREADS) {
+					log.info(String.format(
+							"%d tablet ranges, %d threads: %.0f entries/s",
+							split.size(), threads,
+							scan(conn, split, threads, rows)));
+				}
+			}
+		} finally {
+			cluster.stop();
+		}
+	}
+}
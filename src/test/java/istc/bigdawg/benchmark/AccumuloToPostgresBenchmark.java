@@ -0,0 +1,77 @@
+/**
+ *
+ */
+package istc.bigdawg.benchmark;
+
+import java.sql.Connection;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.log4j.Logger;
+
+import istc.bigdawg.LoggerSetup;
+import istc.bigdawg.accumulo.AccumuloInstance;
+import istc.bigdawg.migration.FromAccumuloToPostgres;
+import istc.bigdawg.migration.MigrationResult;
+import istc.bigdawg.migration.TestTpchPostgresAccumulo;
+import istc.bigdawg.postgresql.PostgreSQLConnectionInfo;
+import istc.bigdawg.postgresql.PostgreSQLConnectionInfoTest;
+import istc.bigdawg.postgresql.PostgreSQLHandler;
+
+/**
+ * The scenario of {@link TestTpchPostgresAccumulo} as a measured benchmark:
+ * migrate the TPC-H tables from Accumulo (loaded before, e.g. with
+ * FromPostgresToAccumulo) to PostgreSQL with 1, 2, 4 and 8 parallel COPY
+ * streams and report the rows/s of each table.
+ *
+ * Run: AccumuloToPostgresBenchmark [scale factor] [iterations]
+ */
+public class AccumuloToPostgresBenchmark {
+
+	private static Logger log = Logger
+			.getLogger(AccumuloToPostgresBenchmark.class);
+
+	private static final List<String> TABLES = Arrays.asList("region",
+			"nation", "customer", "part", "supplier", "partsupp", "orders",
+			"lineitem");
+
+	private static final int[] STREAMS = { 1, 2, 4, 8 };
+
+	public static void main(String[] args) throws Exception {
+		LoggerSetup.setLogging();
+		String scaleFactor = args.length > 0 ? args[0] : "";
+		int iterations = args.length > 1 ? Integer.parseInt(args[1]) : 1;
+		AccumuloInstance accumulo = AccumuloInstance.getInstance();
+		PostgreSQLConnectionInfo conTo = new PostgreSQLConnectionInfoTest();
+		for (int i = 0; i < iterations; ++i) {
+			for (int streams : STREAMS) {
+				long totalRows = 0;
+				long totalMillis = 0;
+				for (String table : TABLES) {
+					try (Connection con = PostgreSQLHandler
+							.getConnection(conTo)) {
+						con.setAutoCommit(true);
+						PostgreSQLHandler.executeStatement(con,
+								"delete from " + table);
+					}
+					MigrationResult result = new FromAccumuloToPostgres(
+							accumulo, conTo, streams)
+									.fromAccumuloToPostgres(table, table);
+					long millis = Math.max(result.getDurationMsec(), 1);
+					log.info(String.format(
+							"%s: %d streams: %d rows in %d ms (%.0f rows/s)",
+							table, streams, result.getCountLoadedElements(),
+							millis, result.getCountLoadedElements() * 1000.0
+									/ millis));
+					totalRows += result.getCountLoadedElements();
+					totalMillis += millis;
+				}
+				log.info(TestTpchPostgresAccumulo.getFullLog(String.format(
+						"From Accumulo to PostgreSQL: scale factor: %s: %d "
+								+ "streams: %d rows in %d ms (%.0f rows/s)",
+						scaleFactor, streams, totalRows, totalMillis,
+						totalRows * 1000.0 / Math.max(totalMillis, 1))));
+			}
+		}
+	}
+}
@@ -0,0 +1,112 @@
+/**
+ *
+ */
+package istc.bigdawg.benchmark;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.log4j.Logger;
+
+import istc.bigdawg.LoggerSetup;
+import istc.bigdawg.migration.TransformBinExecutor;
+import istc.bigdawg.migration.TransformBinExecutor.MODE;
+import istc.bigdawg.migration.TransformBinExecutor.TYPE;
+
+/**
+ * Compare the binary transformation from PostgreSQL to SciDB done in the JVM
+ * with the one done by the external c++ migrator (data-migrator-exe from
+ * cmigrator.dir).
+ *
+ * Run: BinTransformerBenchmark [number of rows] [iterations]
+ */
+public class BinTransformerBenchmark {
+
+	private static Logger log = Logger
+			.getLogger(BinTransformerBenchmark.class);
+
+	private static final String FORMAT = "int64 null,string,double,int32";
+
+	/** The types of the columns in PostgreSQL. */
+	private static final List<String> SQL_TYPES = Arrays.asList("bigint",
+			"text", "double precision", "integer");
+
+	/**
+	 * Generate a file in the PostgreSQL binary format (the same as the export
+	 * of a table with the types from {@link #FORMAT}).
+	 */
+	private static void generatePostgresData(File file, long rows)
+			throws IOException {
+		try (DataOutputStream out = new DataOutputStream(
+				new BufferedOutputStream(new FileOutputStream(file)))) {
+			out.write("PGCOPY\n".getBytes(StandardCharsets.US_ASCII));
+			out.write(new byte[] { (byte) 0xff, '\r', '\n', 0 });
+			out.writeInt(0);
+			out.writeInt(0);
+			for (long row = 0; row < rows; ++row) {
+				out.writeShort(4);
+				if (row % 10 == 0) {
+					out.writeInt(-1);
+				} else {
+					out.writeInt(8);
+					out.writeLong(row);
+				}
+				byte[] name = ("name of the row " + row)
+						.getBytes(StandardCharsets.US_ASCII);
+				out.writeInt(name.length);
+				out.write(name);
+				out.writeInt(8);
+				out.writeDouble(row * 0.5);
+				out.writeInt(4);
+				out.writeInt((int) row);
+			}
+			out.writeShort(-1);
+		}
+	}
+
+	private static long run(File input, File output, MODE mode, int iterations)
+			throws Exception {
+		long best = Long.MAX_VALUE;
+		for (int i = 0; i < iterations; ++i) {
+			long start = System.nanoTime();
+			long result = new TransformBinExecutor(input.getAbsolutePath(),
+					output.getAbsolutePath(), FORMAT, SQL_TYPES,
+					TYPE.FromPostgresToSciDB, mode).call();
+			long time = System.nanoTime() - start;
+			if (result != 0) {
+				throw new IllegalStateException(
+						"The transformation in mode " + mode + " failed.");
+			}
+			best = Math.min(best, time);
+		}
+		return best / 1000000;
+	}
+
+	public static void main(String[] args) throws Exception {
+		LoggerSetup.setLogging();
+		long rows = args.length > 0 ? Long.parseLong(args[0]) : 1000000;
+		int iterations = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+		File input = File.createTempFile("bigdawg_postgres_", ".bin");
+		File output = File.createTempFile("bigdawg_scidb_", ".bin");
+		try {
+			generatePostgresData(input, rows);
+			log.info("Rows: " + rows + ", size of the PostgreSQL data: "
+					+ input.length() + " bytes");
+			/* warm up the JIT */
+			run(input, output, MODE.JAVA, iterations);
+			log.info("The best time in the JVM (ms): "
+					+ run(input, output, MODE.JAVA, iterations));
+			log.info("The best time of the external migrator (ms): "
+					+ run(input, output, MODE.EXTERNAL, iterations));
+		} finally {
+			input.delete();
+			output.delete();
+		}
+	}
+}
@@ -0,0 +1,119 @@
+/**
+ *
+ */
+package istc.bigdawg.benchmark;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PipedInputStream;
+import java.io.PipedOutputStream;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.apache.log4j.Logger;
+
+import istc.bigdawg.LoggerSetup;
+import istc.bigdawg.migration.DataPipe;
+
+/**
+ * Compare the throughput of the in-memory pipe between the export and the
+ * load of a migration ({@link DataPipe}) with PipedInputStream /
+ * PipedOutputStream, for different sizes of the writes (the copy manager of
+ * PostgreSQL writes a row at a time) and chunk sizes of the data pipe.
+ *
+ * Run: DataPipeBenchmark [megabytes] [iterations]
+ */
+public class DataPipeBenchmark {
+
+	private static Logger log = Logger.getLogger(DataPipeBenchmark.class);
+
+	private static final int[] WRITE_SIZES = { 64, 1024, 8192, 65536 };
+
+	private static final int[] CHUNK_SIZES = { 8192, 65536, 1048576 };
+
+	/**
+	 * @return the best time (ms) to pass the bytes from the output to the
+	 *         input
+	 */
+	private static long run(ExecutorService executor, OutputStream output,
+			InputStream input, long bytes, int writeSize) throws Exception {
+		long start = System.nanoTime();
+		Future<Object> writer = executor.submit(() -> {
+			byte[] buffer = new byte[writeSize];
+			for (long written = 0; written < bytes; written += writeSize) {
+				output.write(buffer, 0,
+						(int) Math.min(writeSize, bytes - written));
+			}
+			output.close();
+			return null;
+		});
+		byte[] buffer = new byte[65536];
+		long read = 0;
+		int n;
+		while ((n = input.read(buffer)) != -1) {
+			read += n;
+		}
+		input.close();
+		writer.get();
+		if (read != bytes) {
+			throw new IllegalStateException(
+					"Read " + read + " bytes instead of " + bytes);
+		}
+		return (System.nanoTime() - start) / 1000000;
+	}
+
+	private static long runPiped(ExecutorService executor, long bytes,
+			int writeSize, int iterations) throws Exception {
+		long best = Long.MAX_VALUE;
+		for (int i = 0; i < iterations; ++i) {
+			PipedOutputStream output = new PipedOutputStream();
+			PipedInputStream input = new PipedInputStream(output);
+			best = Math.min(best,
+					run(executor, output, input, bytes, writeSize));
+		}
+		return best;
+	}
+
+	private static long runDataPipe(ExecutorService executor, long bytes,
+			int writeSize, int chunkSize, int iterations) throws Exception {
+		long best = Long.MAX_VALUE;
+		for (int i = 0; i < iterations; ++i) {
+			DataPipe pipe = new DataPipe(chunkSize, 16);
+			best = Math.min(best, run(executor, pipe.getOutputStream(),
+					pipe.getInputStream(), bytes, writeSize));
+		}
+		return best;
+	}
+
+	private static String throughput(long bytes, long millis) {
+		return String.format("%.1f MB/s",
+				bytes / 1048576.0 / Math.max(millis, 1) * 1000);
+	}
+
+	public static void main(String[] args) throws Exception {
+		LoggerSetup.setLogging();
+		long bytes = (args.length > 0 ? Long.parseLong(args[0]) : 256)
+				* 1048576;
+		int iterations = args.length > 1 ? Integer.parseInt(args[1]) : 3;
+		ExecutorService executor = Executors.newSingleThreadExecutor();
+		try {
+			/* warm up the JIT */
+			runPiped(executor, bytes / 4, 8192, 1);
+			runDataPipe(executor, bytes / 4, 8192, 65536, 1);
+			for (int writeSize : WRITE_SIZES) {
+				long piped = runPiped(executor, bytes, writeSize, iterations);
+				log.info("write size: " + writeSize + " PipedInputStream: "
+						+ throughput(bytes, piped));
+				for (int chunkSize : CHUNK_SIZES) {
+					long pipe = runDataPipe(executor, bytes, writeSize,
+							chunkSize, iterations);
+					log.info("write size: " + writeSize + " DataPipe (chunk "
+							+ chunkSize + "): " + throughput(bytes, pipe));
+				}
+			}
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+}
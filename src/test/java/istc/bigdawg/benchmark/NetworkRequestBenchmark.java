@@ -0,0 +1,133 @@
+/**
+ *
+ */
+package istc.bigdawg.benchmark;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.log4j.Logger;
+
+import istc.bigdawg.LoggerSetup;
+import istc.bigdawg.network.DebugMessage;
+import istc.bigdawg.network.NetworkIn;
+import istc.bigdawg.network.NetworkObject;
+import istc.bigdawg.network.NetworkOut;
+
+/**
+ * Throughput and latency of concurrent requests sent to a node (the server
+ * {@link NetworkIn} runs in this JVM).
+ *
+ * The first part sends short requests from many clients at the same time.
+ * The second part measures the latency of short requests while long requests
+ * (e.g. remote data loading) are executed on the same node.
+ *
+ * Run: NetworkRequestBenchmark [clients] [requests per client]
+ */
+public class NetworkRequestBenchmark {
+
+	private static Logger log = Logger
+			.getLogger(NetworkRequestBenchmark.class);
+
+	private static final String PORT = "9981";
+
+	/** A request which takes some time to execute on the remote node. */
+	private static class LongRequest implements NetworkObject {
+
+		private static final long serialVersionUID = 1L;
+
+		private final long sleepMsec;
+
+		LongRequest(long sleepMsec) {
+			this.sleepMsec = sleepMsec;
+		}
+
+		@Override
+		public Object execute() throws Exception {
+			TimeUnit.MILLISECONDS.sleep(sleepMsec);
+			return true;
+		}
+	}
+
+	/**
+	 * @return latencies of the requests in microseconds, sorted
+	 */
+	private static long[] sendRequests(ExecutorService executor, int clients,
+			int requests, NetworkObject request) throws Exception {
+		List<Callable<long[]>> tasks = new ArrayList<>();
+		for (int client = 0; client < clients; ++client) {
+			tasks.add(() -> {
+				long[] latencies = new long[requests];
+				for (int i = 0; i < requests; ++i) {
+					long start = System.nanoTime();
+					Object result = NetworkOut.send(request, "localhost", PORT);
+					if (result instanceof Exception) {
+						throw (Exception) result;
+					}
+					latencies[i] = (System.nanoTime() - start) / 1000;
+				}
+				return latencies;
+			});
+		}
+		long[] all = new long[clients * requests];
+		int index = 0;
+		for (Future<long[]> result : executor.invokeAll(tasks)) {
+			for (long latency : result.get()) {
+				all[index++] = latency;
+			}
+		}
+		Arrays.sort(all);
+		return all;
+	}
+
+	private static String summary(long[] latencies, long durationNanos) {
+		return "requests: " + latencies.length + ", requests/sec: "
+				+ (latencies.length * 1e9 / durationNanos) + ", p50 (us): "
+				+ latencies[latencies.length / 2] + ", p99 (us): "
+				+ latencies[(int) (latencies.length * 0.99)] + ", max (us): "
+				+ latencies[latencies.length - 1];
+	}
+
+	public static void main(String[] args) throws Exception {
+		LoggerSetup.setLogging();
+		int clients = args.length > 0 ? Integer.parseInt(args[0]) : 8;
+		int requests = args.length > 1 ? Integer.parseInt(args[1]) : 1000;
+		ExecutorService server = Executors.newSingleThreadExecutor();
+		ExecutorService executor = Executors.newCachedThreadPool();
+		try {
+			server.submit(new NetworkIn(PORT, 16));
+			/* warm up */
+			sendRequests(executor, clients, requests / 10,
+					new DebugMessage("warm up"));
+
+			long start = System.nanoTime();
+			long[] latencies = sendRequests(executor, clients, requests,
+					new DebugMessage("benchmark"));
+			log.info("Short requests from " + clients + " clients: "
+					+ summary(latencies, System.nanoTime() - start));
+
+			/* long requests keep some of the workers busy */
+			Future<long[]> longRequests = executor
+					.submit(() -> sendRequests(executor, 4, 1,
+							new LongRequest(5000)));
+			TimeUnit.MILLISECONDS.sleep(500);
+			start = System.nanoTime();
+			latencies = sendRequests(executor, clients, requests / 10,
+					new DebugMessage("benchmark"));
+			log.info("Short requests during long requests: "
+					+ summary(latencies, System.nanoTime() - start));
+			longRequests.get();
+		} finally {
+			executor.shutdownNow();
+			server.shutdownNow();
+			server.awaitTermination(5, TimeUnit.SECONDS);
+			NetworkOut.close();
+		}
+	}
+}
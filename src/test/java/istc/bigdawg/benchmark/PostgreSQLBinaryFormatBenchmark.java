@@ -0,0 +1,147 @@
+/**
+ *
+ */
+package istc.bigdawg.benchmark;
+
+import java.io.BufferedWriter;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.lang.reflect.Proxy;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.sql.ResultSet;
+import java.sql.Timestamp;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.log4j.Logger;
+
+import istc.bigdawg.LoggerSetup;
+import istc.bigdawg.migration.FileFormat;
+import istc.bigdawg.migration.PostgreSQLBinaryFormat;
+import istc.bigdawg.migration.PostgreSQLBinaryFormat.ColumnType;
+
+/**
+ * Compare the export of rows from a JDBC result set (MySQL, Vertica) as csv
+ * (the values printed with getString, as in ExportMySQL and ExportVertica)
+ * with the export directly in the binary format of PostgreSQL: rows/s and
+ * bytes/s of the encoding, without the database on either side.
+ *
+ * Run: PostgreSQLBinaryFormatBenchmark [number of rows] [iterations]
+ */
+public class PostgreSQLBinaryFormatBenchmark {
+
+	private static Logger log = Logger
+			.getLogger(PostgreSQLBinaryFormatBenchmark.class);
+
+	/** A row of a typical table: id, name, amount, price, created. */
+	private static final List<ColumnType> TYPES = Arrays.asList(
+			ColumnType.INT8, ColumnType.TEXT, ColumnType.INT4,
+			ColumnType.NUMERIC, ColumnType.TIMESTAMP);
+
+	/** Counts the bytes instead of keeping them. */
+	private static class CountingStream extends OutputStream {
+		private long bytes = 0;
+
+		@Override
+		public void write(int b) {
+			++bytes;
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) {
+			bytes += len;
+		}
+	}
+
+	/**
+	 * @return result set with the given number of generated rows
+	 */
+	private static ResultSet generate(long rows) {
+		long[] row = { 0 };
+		Timestamp created = Timestamp.valueOf("2017-03-01 12:00:00.25");
+		return (ResultSet) Proxy.newProxyInstance(
+				ResultSet.class.getClassLoader(),
+				new Class<?>[] { ResultSet.class }, (proxy, method, args) -> {
+					switch (method.getName()) {
+					case "next":
+						return ++row[0] <= rows;
+					case "wasNull":
+						return false;
+					case "getLong":
+						return row[0];
+					case "getInt":
+						return (int) (row[0] % 1000);
+					case "getBigDecimal":
+						return BigDecimal.valueOf(row[0] * 37 % 100000, 2);
+					case "getTimestamp":
+						return created;
+					case "getString":
+						switch ((Integer) args[0]) {
+						case 1:
+							return Long.toString(row[0]);
+						case 2:
+							return "name of the row " + row[0];
+						case 3:
+							return Integer.toString((int) (row[0] % 1000));
+						case 4:
+							return BigDecimal.valueOf(row[0] * 37 % 100000, 2)
+									.toString();
+						default:
+							return created.toString();
+						}
+					default:
+						throw new UnsupportedOperationException(
+								method.getName());
+					}
+				});
+	}
+
+	private static String csv(long rows) throws Exception {
+		CountingStream output = new CountingStream();
+		long start = System.currentTimeMillis();
+		ResultSet rs = generate(rows);
+		int columns = TYPES.size();
+		try (Writer writer = new BufferedWriter(new OutputStreamWriter(
+				output, StandardCharsets.UTF_8), 1 << 16)) {
+			while (rs.next()) {
+				for (int i = 1; i < columns; i++) {
+					writer.append(rs.getString(i));
+					writer.append(FileFormat.getCsvDelimiter());
+				}
+				writer.append(rs.getString(columns));
+				writer.append("\n");
+			}
+		}
+		return PostgreSQLBinaryFormat.getThroughput(rows, output.bytes,
+				System.currentTimeMillis() - start);
+	}
+
+	private static String binary(long rows) throws Exception {
+		CountingStream output = new CountingStream();
+		long start = System.currentTimeMillis();
+		ResultSet rs = generate(rows);
+		PostgreSQLBinaryFormat.Encoder encoder = new PostgreSQLBinaryFormat.Encoder(
+				output, TYPES);
+		while (rs.next()) {
+			encoder.writeRow(rs);
+		}
+		encoder.finish();
+		return PostgreSQLBinaryFormat.getThroughput(encoder.getRows(),
+				encoder.getBytes(), System.currentTimeMillis() - start);
+	}
+
+	public static void main(String[] args) throws Exception {
+		LoggerSetup.setLogging();
+		long rows = args.length > 0 ? Long.parseLong(args[0]) : 1000000;
+		int iterations = args.length > 1 ? Integer.parseInt(args[1]) : 3;
+		/* warm up the JIT */
+		csv(rows / 10);
+		binary(rows / 10);
+		for (int i = 0; i < iterations; ++i) {
+			log.info("csv: " + csv(rows));
+			log.info("binary: " + binary(rows));
+		}
+	}
+}
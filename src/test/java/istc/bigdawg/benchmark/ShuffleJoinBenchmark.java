@@ -0,0 +1,122 @@
+/**
+ *
+ */
+package istc.bigdawg.benchmark;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.log4j.Logger;
+
+import istc.bigdawg.LoggerSetup;
+import istc.bigdawg.executor.plan.BinaryJoinExecutionNode.JoinOperand;
+import istc.bigdawg.executor.shuffle.ShuffleJoinExecutor;
+import istc.bigdawg.migration.Migrator;
+import istc.bigdawg.postgresql.PostgreSQLConnectionInfo;
+import istc.bigdawg.postgresql.PostgreSQLHandler;
+import istc.bigdawg.properties.BigDawgConfigProperties;
+
+/**
+ * A 3-way equijoin of tables placed on 3 instances of PostgreSQL: the shuffle
+ * join ({@link ShuffleJoinExecutor}) versus the broadcast join (all the tables
+ * migrated to the destination engine and joined there).
+ *
+ * The keys of the fact table are skewed (most of the rows have small keys),
+ * the other two tables have one row per key.
+ *
+ * Run: ShuffleJoinBenchmark [rows of the fact table] [host:port/database of
+ * the 3 engines...] (the default engines are localhost:5431/test,
+ * localhost:5430/test and localhost:5432/test; the user and password are from
+ * the configuration)
+ */
+public class ShuffleJoinBenchmark {
+
+	private static Logger log = Logger.getLogger(ShuffleJoinBenchmark.class);
+
+	private static final String[] TABLES = { "shuffle_fact", "shuffle_dim_b",
+			"shuffle_dim_c" };
+	private static final String RESULT = "shuffle_result";
+	private static final String JOIN = "SELECT shuffle_fact.id, shuffle_fact.val, shuffle_dim_b.val AS b, shuffle_dim_c.val AS c INTO "
+			+ RESULT
+			+ " FROM shuffle_fact JOIN shuffle_dim_b ON shuffle_fact.id = shuffle_dim_b.id JOIN shuffle_dim_c ON shuffle_fact.id = shuffle_dim_c.id";
+
+	private static PostgreSQLConnectionInfo parse(String engine) {
+		String[] hostPortDb = engine.split("[:/]");
+		BigDawgConfigProperties config = BigDawgConfigProperties.INSTANCE;
+		return new PostgreSQLConnectionInfo(hostPortDb[0], hostPortDb[1],
+				hostPortDb[2], config.getPostgreSQLUser(),
+				config.getPostgreSQLPassword());
+	}
+
+	private static void dropResults(List<PostgreSQLConnectionInfo> engines,
+			List<JoinOperand> operands) throws Exception {
+		for (PostgreSQLConnectionInfo engine : engines) {
+			new PostgreSQLHandler(engine).executeStatementOnConnection(
+					"DROP TABLE IF EXISTS " + RESULT);
+		}
+		// the copies of the tables of the broadcast join
+		for (JoinOperand operand : operands) {
+			if (!operand.engine.equals(engines.get(0))) {
+				new PostgreSQLHandler(engines.get(0))
+						.executeStatementOnConnection(
+								"DROP TABLE IF EXISTS " + operand.table);
+			}
+		}
+	}
+
+	public static void main(String[] args) throws Exception {
+		LoggerSetup.setLogging();
+		long rows = args.length > 0 ? Long.parseLong(args[0]) : 1000000;
+		List<PostgreSQLConnectionInfo> engines = new ArrayList<>();
+		for (int i = 1; i < args.length; ++i) {
+			engines.add(parse(args[i]));
+		}
+		if (engines.isEmpty()) {
+			engines.add(parse("localhost:5431/test"));
+			engines.add(parse("localhost:5430/test"));
+			engines.add(parse("localhost:5432/test"));
+		}
+		long keys = Math.max(1, rows / 10);
+
+		// the fact table with skewed keys on the first engine, one dimension table on each other engine
+		new PostgreSQLHandler(engines.get(0)).executeStatementOnConnection(
+				"DROP TABLE IF EXISTS " + TABLES[0] + "; CREATE TABLE "
+						+ TABLES[0] + " AS SELECT floor(power(random(), 4) * "
+						+ keys + ")::bigint AS id, i AS val FROM generate_series(1, "
+						+ rows + ") i");
+		List<JoinOperand> operands = new ArrayList<>();
+		operands.add(new JoinOperand(engines.get(0), TABLES[0], "id", null));
+		for (int i = 1; i < TABLES.length; ++i) {
+			PostgreSQLConnectionInfo engine = engines.get(i % engines.size());
+			new PostgreSQLHandler(engine).executeStatementOnConnection(
+					"DROP TABLE IF EXISTS " + TABLES[i] + "; CREATE TABLE "
+							+ TABLES[i]
+							+ " AS SELECT i::bigint AS id, i % 100 AS val FROM generate_series(0, "
+							+ keys + ") i");
+			operands.add(new JoinOperand(engine, TABLES[i], "id", null));
+		}
+		dropResults(engines, operands);
+
+		long start = System.currentTimeMillis();
+		new ShuffleJoinExecutor(operands, JOIN, engines.get(0), RESULT)
+				.execute();
+		long shuffle = System.currentTimeMillis() - start;
+		dropResults(engines, operands);
+
+		start = System.currentTimeMillis();
+		for (JoinOperand operand : operands) {
+			if (!operand.engine.equals(engines.get(0))) {
+				Migrator.migrate(operand.engine, operand.table, engines.get(0),
+						operand.table);
+			}
+		}
+		new PostgreSQLHandler(engines.get(0))
+				.executeStatementOnConnection(JOIN);
+		long broadcast = System.currentTimeMillis() - start;
+		dropResults(engines, operands);
+
+		log.info("Rows of the fact table: " + rows + ", keys: " + keys
+				+ ", shuffle join (ms): " + shuffle + ", broadcast join (ms): "
+				+ broadcast);
+	}
+}
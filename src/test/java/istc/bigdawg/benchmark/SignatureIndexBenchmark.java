@@ -0,0 +1,76 @@
+/**
+ *
+ */
+package istc.bigdawg.benchmark;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.apache.log4j.Logger;
+
+import istc.bigdawg.LoggerSetup;
+import istc.bigdawg.signature.Signature;
+import istc.bigdawg.signature.SignatureIndex;
+import istc.bigdawg.signature.SignatureIndexTest;
+
+/**
+ * Time of finding the closest signature (the production mode of the planner)
+ * with the {@link SignatureIndex} and by comparing with all the signatures (as
+ * it was done by Monitor.getClosestSignature).
+ *
+ * Run: SignatureIndexBenchmark [number of queries] [sizes of the index...]
+ * (the default sizes are 10000 and 100000 signatures)
+ */
+public class SignatureIndexBenchmark {
+
+	private static Logger log = Logger
+			.getLogger(SignatureIndexBenchmark.class);
+
+	public static void main(String[] args) throws Exception {
+		LoggerSetup.setLogging();
+		int queries = args.length > 0 ? Integer.parseInt(args[0]) : 20;
+		List<Integer> sizes = new ArrayList<>();
+		for (int i = 1; i < args.length; ++i) {
+			sizes.add(Integer.parseInt(args[i]));
+		}
+		if (sizes.isEmpty()) {
+			sizes.add(10000);
+			sizes.add(100000);
+		}
+		for (int size : sizes) {
+			Random random = new Random(size);
+			List<Signature> signatures = new ArrayList<>(size);
+			SignatureIndex index = new SignatureIndex();
+			long start = System.nanoTime();
+			for (int i = 0; i < size; ++i) {
+				Signature signature = SignatureIndexTest.randomSignature(random);
+				signatures.add(signature);
+				index.add(signature);
+			}
+			log.info("Signatures: " + size + ", index built in (ms): "
+					+ (System.nanoTime() - start) / 1000000);
+
+			List<Signature> probes = new ArrayList<>(queries);
+			for (int i = 0; i < queries; ++i) {
+				probes.add(SignatureIndexTest.randomSignature(random));
+			}
+			long comparisons = 0;
+			start = System.nanoTime();
+			for (Signature probe : probes) {
+				index.getClosest(probe);
+				comparisons += index.getLastComparisons();
+			}
+			long indexTime = System.nanoTime() - start;
+			start = System.nanoTime();
+			for (Signature probe : probes) {
+				SignatureIndex.getClosestByScan(probe, signatures);
+			}
+			long scanTime = System.nanoTime() - start;
+			log.info("Signatures: " + size + ", index lookup (ms): "
+					+ indexTime / queries / 1000000.0
+					+ ", comparisons per lookup: " + comparisons / queries
+					+ ", full scan (ms): " + scanTime / queries / 1000000.0);
+		}
+	}
+}
@@ -0,0 +1,131 @@
+/**
+ *
+ */
+package istc.bigdawg.catalog;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import istc.bigdawg.islands.IslandAndCastResolver.Engine;
+
+/**
+ * Check the hits, misses and invalidation of the catalog cache. The loaders
+ * stand in for the catalog, no database is needed.
+ */
+public class CatalogCacheTest {
+
+	private AtomicInteger loads;
+
+	@Before
+	public void setUp() {
+		loads = new AtomicInteger();
+	}
+
+	private Engine loadEngine(int dbid) {
+		loads.incrementAndGet();
+		return Engine.PostgreSQL;
+	}
+
+	@Test
+	public void testEngineIsLoadedOnce() throws Exception {
+		CatalogCache cache = new CatalogCache(true, 0, 1000);
+		assertEquals(Engine.PostgreSQL, cache.getEngine(1, this::loadEngine));
+		assertEquals(Engine.PostgreSQL, cache.getEngine(1, this::loadEngine));
+		assertEquals(1, loads.get());
+		assertEquals(1, cache.getHitCount());
+		assertEquals(1, cache.getMissCount());
+	}
+
+	@Test
+	public void testInvalidateReloads() throws Exception {
+		CatalogCache cache = new CatalogCache(true, 0, 1000);
+		cache.getEngine(1, this::loadEngine);
+		cache.invalidate();
+		cache.getEngine(1, this::loadEngine);
+		assertEquals(2, loads.get());
+		assertEquals(0, cache.getHitCount());
+	}
+
+	@Test
+	public void testExpiredEntryIsReloaded() throws Exception {
+		CatalogCache cache = new CatalogCache(true, 10, 1000);
+		cache.getEngine(1, this::loadEngine);
+		Thread.sleep(50);
+		cache.getEngine(1, this::loadEngine);
+		assertEquals(2, loads.get());
+	}
+
+	@Test
+	public void testDisabledCacheAlwaysLoads() throws Exception {
+		CatalogCache cache = new CatalogCache(false, 0, 1000);
+		cache.getEngine(1, this::loadEngine);
+		cache.getEngine(1, this::loadEngine);
+		assertEquals(2, loads.get());
+		assertEquals(0, cache.size());
+	}
+
+	@Test
+	public void testOnlyMissingObjectsAreLoaded() throws Exception {
+		CatalogCache cache = new CatalogCache(true, 0, 1000);
+		Map<String, List<String>> catalog = new HashMap<>();
+		catalog.put("region", Arrays.asList("1"));
+		catalog.put("nation", Arrays.asList("1", "2"));
+		List<List<String>> requested = new ArrayList<>();
+		CatalogCache.Loader<List<String>, Map<String, List<String>>> loader = missing -> {
+			requested.add(missing);
+			Map<String, List<String>> rows = new HashMap<>();
+			for (String name : missing) {
+				if (catalog.containsKey(name.toLowerCase())) {
+					rows.put(name.toLowerCase(), catalog.get(name.toLowerCase()));
+				}
+			}
+			return rows;
+		};
+
+		Map<String, List<String>> first = cache
+				.getDBMappingByObj(Arrays.asList("REGION"), "RELATION", loader);
+		assertEquals(Arrays.asList("1"), first.get("region"));
+
+		Map<String, List<String>> second = cache.getDBMappingByObj(
+				Arrays.asList("region", "nation"), "RELATION", loader);
+		assertEquals(2, second.size());
+		assertEquals(Arrays.asList("1", "2"), second.get("nation"));
+		assertEquals(Arrays.asList(Arrays.asList("REGION"),
+				Arrays.asList("nation")), requested);
+
+		/* other island - separate entries */
+		cache.getDBMappingByObj(Arrays.asList("region"), "ARRAY", loader);
+		assertEquals(3, requested.size());
+		assertTrue(cache.getHitCount() > 0);
+	}
+
+	@Test
+	public void testObjectListsAreBounded() throws Exception {
+		CatalogCache cache = new CatalogCache(true, 0, 2);
+		CatalogCache.Loader<String, String> loader = terms -> {
+			loads.incrementAndGet();
+			return terms;
+		};
+		cache.getObjectsFromList("a", loader);
+		cache.getObjectsFromList("b", loader);
+		/* a is now the most recently used */
+		cache.getObjectsFromList("a", loader);
+		cache.getObjectsFromList("c", loader);
+		assertEquals(2, cache.size());
+		cache.getObjectsFromList("a", loader);
+		assertEquals(3, loads.get());
+		/* b was evicted */
+		cache.getObjectsFromList("b", loader);
+		assertEquals(4, loads.get());
+	}
+}
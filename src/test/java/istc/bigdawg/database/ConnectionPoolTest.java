@@ -0,0 +1,151 @@
+/**
+ * 
+ */
+package istc.bigdawg.database;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import istc.bigdawg.properties.BigDawgConfigProperties;
+
+/**
+ * Check that the pooled connections are reused and reset when they are
+ * returned. The physical connections are fakes, no database is needed.
+ */
+public class ConnectionPoolTest {
+
+	private AtomicInteger connected;
+	private AtomicInteger rolledBack;
+	private String url;
+	/** The result of isValid for the fake connections. */
+	private boolean valid;
+
+	/**
+	 * @return a fake physical connection that has auto-commit off
+	 */
+	private Connection fakeConnection() {
+		connected.incrementAndGet();
+		boolean[] state = { false, false }; // autoCommit, closed
+		return (Connection) Proxy.newProxyInstance(
+				Connection.class.getClassLoader(),
+				new Class<?>[] { Connection.class }, (proxy, method, args) -> {
+					switch (method.getName()) {
+					case "getAutoCommit":
+						return state[0];
+					case "setAutoCommit":
+						state[0] = (Boolean) args[0];
+						return null;
+					case "rollback":
+						rolledBack.incrementAndGet();
+						return null;
+					case "isClosed":
+						return state[1];
+					case "close":
+						state[1] = true;
+						return null;
+					case "isValid":
+						return valid && !state[1];
+					case "createStatement":
+						return Proxy.newProxyInstance(
+								Statement.class.getClassLoader(),
+								new Class<?>[] { Statement.class },
+								(statement, m, a) -> m.getName()
+										.equals("getConnection") ? proxy
+												: null);
+					default:
+						return null;
+					}
+				});
+	}
+
+	@Before
+	public void setUp() {
+		connected = new AtomicInteger();
+		rolledBack = new AtomicInteger();
+		url = "jdbc:fake://localhost/" + System.nanoTime();
+		valid = true;
+	}
+
+	@Test
+	public void testConnectionIsReused() throws SQLException {
+		Connection first = ConnectionPool.getConnection("postgresql", url,
+				"user", "password", this::fakeConnection, true, null);
+		first.close();
+		assertTrue(first.isClosed());
+		Connection second = ConnectionPool.getConnection("postgresql", url,
+				"user", "password", this::fakeConnection, true, null);
+		assertFalse(second.isClosed());
+		second.close();
+		int expected = BigDawgConfigProperties.INSTANCE
+				.isConnectionPoolEnabled() ? 1 : 2;
+		assertEquals(expected, connected.get());
+	}
+
+	@Test
+	public void testTransactionIsRolledBackOnRelease() throws SQLException {
+		if (!BigDawgConfigProperties.INSTANCE.isConnectionPoolEnabled()) {
+			return;
+		}
+		Connection connection = ConnectionPool.getConnection("postgresql",
+				url, "user", "password", this::fakeConnection, true, null);
+		connection.close();
+		assertEquals(1, rolledBack.get());
+		connection = ConnectionPool.getConnection("postgresql", url, "user",
+				"password", this::fakeConnection, true, null);
+		assertTrue(connection.getAutoCommit());
+		connection.close();
+	}
+
+	@Test(expected = SQLException.class)
+	public void testClosedConnectionCannotBeUsed() throws SQLException {
+		Connection connection = ConnectionPool.getConnection("postgresql",
+				url, "user", "password", this::fakeConnection, true, null);
+		connection.close();
+		connection.createStatement();
+	}
+
+	@Test
+	public void testStatementReturnsPooledConnection() throws SQLException {
+		if (!BigDawgConfigProperties.INSTANCE.isConnectionPoolEnabled()) {
+			return;
+		}
+		Connection connection = ConnectionPool.getConnection("postgresql",
+				url, "user", "password", this::fakeConnection, true, null);
+		Statement statement = connection.createStatement();
+		assertSame(connection, statement.getConnection());
+		connection.close();
+		try {
+			statement.execute("select 1");
+			fail("A statement of a returned connection was used.");
+		} catch (SQLException e) {
+			/* expected */
+		}
+		/* a statement can still be closed after its connection */
+		statement.close();
+	}
+
+	@Test
+	public void testInvalidConnectionIsNotReused() throws SQLException {
+		Connection connection = ConnectionPool.getConnection("postgresql",
+				url, "user", "password", this::fakeConnection, true, null);
+		valid = false;
+		connection.close();
+		valid = true;
+		connection = ConnectionPool.getConnection("postgresql", url, "user",
+				"password", this::fakeConnection, true, null);
+		connection.close();
+		assertEquals(2, connected.get());
+	}
+}
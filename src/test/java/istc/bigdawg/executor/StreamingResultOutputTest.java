@@ -0,0 +1,111 @@
+package istc.bigdawg.executor;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.lang.reflect.Proxy;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.Statement;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+import istc.bigdawg.postgresql.PostgreSQLConnectionInfo;
+
+/**
+ * Write a streamed JDBC result to the client and release its resources, also
+ * when the client never reads it.
+ */
+public class StreamingResultOutputTest {
+
+	private static final List<Object[]> ROWS = Arrays.asList(
+			new Object[] { 1, "a" }, new Object[] { 2, null });
+
+	/** Counts the closed JDBC objects. */
+	private final AtomicInteger closed = new AtomicInteger();
+
+	private <T> T proxy(Class<T> type, ResultSet rs, int[] cursor) {
+		return type.cast(Proxy.newProxyInstance(type.getClassLoader(),
+				new Class<?>[] { type }, (proxy, method, args) -> {
+					switch (method.getName()) {
+					case "close":
+						closed.incrementAndGet();
+						return null;
+					case "next":
+						return ++cursor[0] < ROWS.size();
+					case "getObject":
+						return ROWS.get(cursor[0])[(Integer) args[0] - 1];
+					case "getMetaData":
+						return proxy(ResultSetMetaData.class, rs, cursor);
+					case "getColumnCount":
+						return 2;
+					case "getColumnLabel":
+						return (Integer) args[0] == 1 ? "id" : "name";
+					case "getColumnTypeName":
+						return (Integer) args[0] == 1 ? "int4" : "text";
+					default:
+						throw new UnsupportedOperationException(
+								method.getName());
+					}
+				}));
+	}
+
+	private JdbcStreamingQueryResult createResult() throws Exception {
+		int[] cursor = { -1 };
+		ResultSet rs = proxy(ResultSet.class, null, cursor);
+		return new JdbcStreamingQueryResult(
+				proxy(Connection.class, rs, cursor),
+				proxy(Statement.class, rs, cursor), rs,
+				new PostgreSQLConnectionInfo("localhost", "5432", "test",
+						"postgres", ""));
+	}
+
+	@Test
+	public void testWrite() throws Exception {
+		JdbcStreamingQueryResult result = createResult();
+		CountDownLatch hook = new CountDownLatch(1);
+		result.addCloseHook(hook::countDown);
+		StreamingResultOutput output = new StreamingResultOutput(result,
+				TimeUnit.MINUTES.toMillis(1));
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		output.write(bytes);
+		assertEquals("id\tname\n1\ta\n2\tnull\n",
+				bytes.toString(StandardCharsets.UTF_8.name()));
+		/* the result set, the statement and the connection */
+		assertEquals(3, closed.get());
+		assertEquals(0, hook.getCount());
+		try {
+			output.write(new ByteArrayOutputStream());
+			fail("The result can be written only once.");
+		} catch (IOException e) {
+			/* expected */
+		}
+	}
+
+	@Test
+	public void testNeverWritten() throws Exception {
+		JdbcStreamingQueryResult result = createResult();
+		CountDownLatch hook = new CountDownLatch(1);
+		result.addCloseHook(hook::countDown);
+		StreamingResultOutput output = new StreamingResultOutput(result, 50);
+		assertTrue("The result was not closed after the timeout.",
+				hook.await(10, TimeUnit.SECONDS));
+		assertEquals(3, closed.get());
+		try {
+			output.write(new ByteArrayOutputStream());
+			fail("A closed result cannot be written.");
+		} catch (IOException e) {
+			/* expected */
+		}
+	}
+}
@@ -0,0 +1,169 @@
+package istc.bigdawg.executor.shuffle;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+
+import istc.bigdawg.executor.plan.BinaryJoinExecutionNode.JoinOperand;
+import istc.bigdawg.executor.plan.ExecutionNode;
+import istc.bigdawg.executor.plan.QueryExecutionPlan;
+import istc.bigdawg.query.ConnectionInfo;
+
+public class ShuffleJoinExecutorTest {
+
+    /** An engine that is only compared by identity. */
+    private static ConnectionInfo engine(String host) {
+        return (ConnectionInfo) Proxy.newProxyInstance(ConnectionInfo.class.getClassLoader(),
+                new Class<?>[] { ConnectionInfo.class }, (proxy, method, args) -> {
+                    switch (method.getName()) {
+                    case "equals":
+                        return proxy == args[0];
+                    case "hashCode":
+                        return System.identityHashCode(proxy);
+                    case "toString":
+                    case "getHost":
+                        return host;
+                    default:
+                        return null;
+                    }
+                });
+    }
+
+    private static Histogram histogram(long min, long max, JoinOperand operand) {
+        return new Histogram(new long[4], Collections.emptyMap(), min, max, operand);
+    }
+
+    @Test
+    public void testReplaceTables() {
+        Map<String, List<String>> renames = new HashMap<>();
+        renames.put("BIGDAWGTAG_1", Arrays.asList("BIGDAWGTAG_1_SHUFFLE_0"));
+        renames.put("orders", Arrays.asList("BIGDAWGTAG_1_SHUFFLE_0_TO_0"));
+        renames.put("orders_items", Arrays.asList("BIGDAWGTAG_1_SHUFFLE_1_TO_0"));
+        String query = "SELECT orders.id, orders_items.item INTO BIGDAWGTAG_1 FROM orders JOIN orders_items ON orders.id = orders_items.id;";
+        assertEquals("SELECT BIGDAWGTAG_1_SHUFFLE_0_TO_0.id, BIGDAWGTAG_1_SHUFFLE_1_TO_0.item INTO BIGDAWGTAG_1_SHUFFLE_0 "
+                + "FROM BIGDAWGTAG_1_SHUFFLE_0_TO_0 JOIN BIGDAWGTAG_1_SHUFFLE_1_TO_0 ON BIGDAWGTAG_1_SHUFFLE_0_TO_0.id = BIGDAWGTAG_1_SHUFFLE_1_TO_0.id;",
+                ShuffleJoinExecutor.replaceTables(query, renames));
+    }
+
+    @Test
+    public void testReplaceTablesOfSelfJoin() {
+        Map<String, List<String>> renames = new HashMap<>();
+        renames.put("BIGDAWGTAG_1", Arrays.asList("BIGDAWGTAG_1_SHUFFLE_0"));
+        renames.put("parts", Arrays.asList("BIGDAWGTAG_1_SHUFFLE_0_TO_0", "BIGDAWGTAG_1_SHUFFLE_1_TO_0"));
+        String query = "SELECT a.id, b.id INTO BIGDAWGTAG_1 FROM parts AS a JOIN parts AS b ON a.id = b.parent;";
+        assertEquals("SELECT a.id, b.id INTO BIGDAWGTAG_1_SHUFFLE_0 FROM BIGDAWGTAG_1_SHUFFLE_0_TO_0 AS a "
+                + "JOIN BIGDAWGTAG_1_SHUFFLE_1_TO_0 AS b ON a.id = b.parent;",
+                ShuffleJoinExecutor.replaceTables(query, renames));
+    }
+
+    @Test
+    public void testGetHashFunction() {
+        assertEquals(ShuffleJoinExecutor.NUMERIC_HASH, ShuffleJoinExecutor.getHashFunction(Arrays.asList("integer", "numeric")));
+        assertEquals(ShuffleJoinExecutor.NUMERIC_HASH, ShuffleJoinExecutor.getHashFunction(Arrays.asList("bigint")));
+        assertEquals(ShuffleJoinExecutor.TEXT_HASH, ShuffleJoinExecutor.getHashFunction(Arrays.asList("integer", "text")));
+        assertEquals(ShuffleJoinExecutor.TEXT_HASH, ShuffleJoinExecutor.getHashFunction(Collections.emptyList()));
+    }
+
+    @Test
+    public void testGetPartitionPredicate() {
+        ConnectionInfo e0 = engine("e0");
+        ConnectionInfo e1 = engine("e1");
+        JoinOperand left = new JoinOperand(e0, "orders", "id", null);
+        JoinOperand right = new JoinOperand(e1, "items", "order_id", null);
+        ShuffleJoinExecutor executor = new ShuffleJoinExecutor(Arrays.asList(left, right), "", e0, "BIGDAWGTAG_1");
+
+        assertEquals("mod(abs(hash_numeric(id::numeric)::bigint), 2) = 1",
+                executor.getPartitionPredicate("id", 1, null, ShuffleJoinExecutor.NUMERIC_HASH));
+
+        // 4 buckets of [0, 100]: the first two and the hotspot 7 to the left, the others to the right
+        Assignments assignments = new Assignments(4, Arrays.asList(histogram(0, 100, left), histogram(0, 100, right)), e0);
+        assignments.assignBucket(0, left);
+        assignments.assignBucket(1, left);
+        assignments.assignBucket(2, right);
+        assignments.assignBucket(3, right);
+        assignments.assignHotspot(7, left);
+        assertEquals("id IN (7) OR (id NOT IN (7) AND LEAST(GREATEST(floor((id::float8 - (0)::float8) / 25.0)::bigint, 0), 3) IN (0, 1))",
+                executor.getPartitionPredicate("id", 0, assignments, ShuffleJoinExecutor.TEXT_HASH));
+        assertEquals("(id NOT IN (7) AND LEAST(GREATEST(floor((id::float8 - (0)::float8) / 25.0)::bigint, 0), 3) IN (2, 3))",
+                executor.getPartitionPredicate("id", 1, assignments, ShuffleJoinExecutor.TEXT_HASH));
+
+        ShuffleJoinExecutor local = new ShuffleJoinExecutor(Arrays.asList(left, new JoinOperand(e0, "items", "order_id", null)), "", e0, "BIGDAWGTAG_1");
+        assertEquals("TRUE", local.getPartitionPredicate("id", 0, null, ShuffleJoinExecutor.TEXT_HASH));
+    }
+
+    @Test
+    public void testCreateQueryExecutionPlan() throws Exception {
+        ConnectionInfo e0 = engine("e0");
+        ConnectionInfo e1 = engine("e1");
+        // a self-join with the operands on two engines
+        List<JoinOperand> operands = Arrays.asList(new JoinOperand(e0, "parts", "id", null), new JoinOperand(e1, "parts", "parent", null));
+        String query = "SELECT a.id, b.id INTO BIGDAWGTAG_1 FROM parts AS a JOIN parts AS b ON a.id = b.parent;";
+        QueryExecutionPlan plan = new ShuffleJoinExecutor(operands, query, e1, "BIGDAWGTAG_1").createQueryExecutionPlan(null, ShuffleJoinExecutor.TEXT_HASH);
+
+        // 2 operands x 2 sites partitions, 2 local joins and the union
+        assertEquals(7, plan.vertexSet().size());
+        ExecutionNode terminal = plan.getTerminalTableNode();
+        assertEquals("BIGDAWGTAG_1", plan.getTerminalTableName());
+        assertEquals(e1, terminal.getEngine());
+        assertEquals("SELECT * INTO BIGDAWGTAG_1 FROM BIGDAWGTAG_1_SHUFFLE_0 UNION ALL SELECT * FROM BIGDAWGTAG_1_SHUFFLE_1;",
+                terminal.getQueryString().get());
+
+        List<ExecutionNode> localJoins = new ArrayList<>(plan.getDependencies(terminal));
+        localJoins.sort((a, b) -> a.getTableName().get().compareTo(b.getTableName().get()));
+        assertEquals(2, localJoins.size());
+        for (int site = 0; site < 2; site++) {
+            ExecutionNode localJoin = localJoins.get(site);
+            assertEquals(site == 0 ? e0 : e1, localJoin.getEngine());
+            assertEquals(String.format("SELECT a.id, b.id INTO BIGDAWGTAG_1_SHUFFLE_%d FROM BIGDAWGTAG_1_SHUFFLE_0_TO_%d AS a "
+                    + "JOIN BIGDAWGTAG_1_SHUFFLE_1_TO_%d AS b ON a.id = b.parent;", site, site, site), localJoin.getQueryString().get());
+
+            Map<String, ExecutionNode> partitions = new HashMap<>();
+            for (ExecutionNode partition : plan.getDependencies(localJoin)) {
+                partitions.put(partition.getTableName().get(), partition);
+            }
+            assertEquals(2, partitions.size());
+            for (int operand = 0; operand < 2; operand++) {
+                ExecutionNode partition = partitions.get(String.format("BIGDAWGTAG_1_SHUFFLE_%d_TO_%d", operand, site));
+                // every operand is partitioned on its engine by its own attribute
+                assertEquals(operands.get(operand).engine, partition.getEngine());
+                assertEquals(String.format("SELECT * INTO BIGDAWGTAG_1_SHUFFLE_%d_TO_%d FROM parts WHERE mod(abs(hashtext(%s::text)::bigint), 2) = %d;",
+                        operand, site, operands.get(operand).attribute, site), partition.getQueryString().get());
+                assertTrue(plan.getDependencies(partition).isEmpty());
+            }
+        }
+    }
+
+    @Test
+    public void testRescaleHistogramBounds() {
+        // 4 buckets of 10 values each, denser at the start
+        long[] rescaled = ShuffleEngine.rescaleHistogramBounds(Arrays.asList(0L, 10L, 20L, 60L, 100L), 0, 100, 10, 10);
+        long total = 0;
+        for (long count : rescaled) {
+            total += count;
+        }
+        assertEquals(40, total);
+        assertEquals(10, rescaled[0]);
+        assertEquals(10, rescaled[1]);
+        assertEquals(3, rescaled[2]);
+        assertEquals(2, rescaled[3]);
+        assertEquals(2, rescaled[9]);
+    }
+
+    @Test
+    public void testGetBucket() {
+        assertEquals(0, ShuffleEngine.getBucket(-5, 0, 10.0, 10));
+        assertEquals(3, ShuffleEngine.getBucket(35, 0, 10.0, 10));
+        assertEquals(9, ShuffleEngine.getBucket(100, 0, 10.0, 10));
+        assertEquals(9, ShuffleEngine.getBucket(1000, 0, 10.0, 10));
+        assertEquals(0, ShuffleEngine.getBucket(7, 7, 0.0, 10));
+    }
+}
@@ -0,0 +1,126 @@
+package istc.bigdawg.islands.relational;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+
+import istc.bigdawg.islands.operators.Join;
+import istc.bigdawg.islands.operators.Operator;
+
+/**
+ * Check the estimates of the sizes and costs of join orders.
+ */
+public class JoinCostModelTest {
+
+	private static final Map<String, Long> ROWS = new HashMap<>();
+	static {
+		ROWS.put("lineitem", 6000000L);
+		ROWS.put("orders", 1500000L);
+		ROWS.put("nation", 25L);
+	}
+
+	private final JoinCostModel costModel = new JoinCostModel(ROWS::get);
+
+	/** A leaf of a plan which scans the object. */
+	static Operator scan(String object) {
+		return operator(Operator.class, new ArrayList<>(), object, null, null);
+	}
+
+	/**
+	 * A join of the two plans, with the join predicate and join filter (each
+	 * can be null).
+	 */
+	static Operator join(Operator left, Operator right, String predicate,
+			String filter) {
+		return operator(Join.class, Arrays.asList(left, right), null,
+				predicate, filter);
+	}
+
+	private static Operator operator(Class<? extends Operator> type,
+			List<Operator> children, String object, String predicate,
+			String filter) {
+		return (Operator) Proxy.newProxyInstance(type.getClassLoader(),
+				new Class<?>[] { type }, (proxy, method, args) -> {
+					switch (method.getName()) {
+					case "getChildren":
+						return children;
+					case "getDataObjectAliasesOrNames":
+						Map<String, String> objects = new HashMap<>();
+						if (object != null) {
+							objects.put(object, object);
+						}
+						for (Operator c : children) {
+							objects.putAll(c.getDataObjectAliasesOrNames());
+						}
+						return objects;
+					case "generateJoinPredicate":
+						return predicate;
+					case "generateJoinFilter":
+						return filter;
+					case "hashCode":
+						return System.identityHashCode(proxy);
+					case "equals":
+						return proxy == args[0];
+					case "toString":
+						return object != null ? object : children.toString();
+					default:
+						throw new UnsupportedOperationException(
+								method.getName());
+					}
+				});
+	}
+
+	@Test
+	public void testScan() throws Exception {
+		assertEquals(25, costModel.getRows(scan("nation")), 0);
+		assertEquals(0, costModel.getCost(scan("nation")), 0);
+		/* an object without statistics */
+		assertEquals(JoinCostModel.DEFAULT_ROW_COUNT,
+				costModel.getRows(scan("region")), 0);
+	}
+
+	@Test
+	public void testJoin() throws Exception {
+		Operator orders = scan("orders");
+		Operator nation = scan("nation");
+		/* key - foreign key join */
+		Operator equiJoin = join(orders, nation, "o_nationkey = n_nationkey",
+				null);
+		assertEquals(1500000, costModel.getRows(equiJoin), 0);
+		assertEquals(1500000, costModel.getCost(equiJoin), 0);
+		/* cross product */
+		Operator cross = join(orders, nation, null, null);
+		assertEquals(1500000 * 25, costModel.getRows(cross), 0);
+		/* join filter only */
+		Operator filter = join(orders, nation, null, "o_nationkey < n_nationkey");
+		assertEquals(1500000 * 25 * JoinCostModel.FILTER_SELECTIVITY,
+				costModel.getRows(filter), 1);
+	}
+
+	@Test
+	public void testCostSumsIntermediateResults() throws Exception {
+		Operator lineitem = scan("lineitem");
+		Operator orders = scan("orders");
+		Operator nation = scan("nation");
+		/* the cross product with nation after the join of the large tables */
+		Operator crossLast = join(
+				join(lineitem, orders, "l_orderkey = o_orderkey", null),
+				nation, null, null);
+		/* the cross product of the large tables */
+		Operator crossFirst = join(join(lineitem, nation, null, null), orders,
+				"l_orderkey = o_orderkey", null);
+		assertEquals(6000000 + 6000000.0 * 25,
+				costModel.getCost(crossLast), 0);
+		assertEquals(6000000.0 * 25 * 2, costModel.getCost(crossFirst), 0);
+		assertTrue(costModel.getCost(crossLast) < costModel
+				.getCost(crossFirst));
+	}
+}
@@ -0,0 +1,24 @@
+package istc.bigdawg.islands.relational;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.util.Collections;
+
+import org.junit.Test;
+
+import istc.bigdawg.postgresql.PostgreSQLConnectionInfo;
+
+public class PlanningSessionTest {
+
+    @Test
+    public void testTransitionSchemasInMemory() {
+        PostgreSQLConnectionInfo schemaServer = new PostgreSQLConnectionInfo("localhost", "5431", "test", "user", "pass");
+        // no connection to the schema server is needed until the query is explained
+        try (PlanningSession session = new PlanningSession(schemaServer,
+                Collections.singletonMap("Cast_A", "CREATE TABLE Cast_A (a integer, b text)"))) {
+            assertEquals("CREATE TABLE Cast_A (a integer, b text)", session.getCreateTableString("cast_a"));
+            assertNull(session.getCreateTableString("patients"));
+        }
+    }
+}
@@ -0,0 +1,80 @@
+package istc.bigdawg.islands.relational;
+
+import static istc.bigdawg.islands.relational.JoinCostModelTest.join;
+import static istc.bigdawg.islands.relational.JoinCostModelTest.scan;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+
+import istc.bigdawg.islands.operators.Operator;
+
+/**
+ * Check that the enumeration of join orders keeps the cheapest plans, not the
+ * first ones.
+ */
+public class RelationalIslandPermuterTest {
+
+	/** Objects a..j with 1..10 rows. */
+	private static final Map<String, Long> ROWS = new HashMap<>();
+	static {
+		for (int i = 0; i < 10; ++i) {
+			ROWS.put(String.valueOf((char) ('a' + i)), (long) (i + 1));
+		}
+	}
+
+	private final JoinCostModel costModel = new JoinCostModel(ROWS::get);
+
+	/** Cross products of x with a..j, the most expensive first. */
+	private List<Operator> crossProducts() {
+		List<Operator> plans = new ArrayList<>();
+		for (int i = 9; i >= 0; --i) {
+			plans.add(join(scan("x"), scan(String.valueOf((char) ('a' + i))),
+					null, null));
+		}
+		return plans;
+	}
+
+	@Test
+	public void testCheapestPlans() throws Exception {
+		RelationalIslandPermuter.CheapestPlans cheapest = new RelationalIslandPermuter.CheapestPlans(
+				costModel, 3);
+		List<Operator> plans = crossProducts();
+		for (Operator plan : plans) {
+			cheapest.add(plan);
+		}
+		/* the cheapest plans were enumerated last */
+		assertEquals(Arrays.asList(plans.get(9), plans.get(8), plans.get(7)),
+				cheapest.getPlans());
+		assertFalse(cheapest.add(plans.get(0)));
+		assertTrue(cheapest.add(join(scan("a"), scan("b"), "a.id = b.id", null)));
+		assertEquals(3, cheapest.getPlans().size());
+	}
+
+	@Test
+	public void testKeepCheapest() throws Exception {
+		List<Operator> plans = crossProducts();
+		List<Operator> kept = RelationalIslandPermuter.keepCheapest(plans,
+				costModel, 2, false);
+		assertEquals(Arrays.asList(plans.get(9), plans.get(8)), kept);
+	}
+
+	@Test
+	public void testKeepCheapestPerDataObjects() throws Exception {
+		Operator de = join(scan("d"), scan("e"), null, null);
+		Operator ed = join(scan("e"), scan("d"), "d.id = e.id", null);
+		Operator jc = join(scan("j"), scan("c"), null, null);
+		Operator cj = join(scan("c"), scan("j"), "c.id = j.id", null);
+		/* the cheapest plan of each set of objects, ordered by cost */
+		List<Operator> kept = RelationalIslandPermuter.keepCheapest(
+				Arrays.asList(de, ed, jc, cj), costModel, 1, true);
+		assertEquals(Arrays.asList(ed, cj), kept);
+	}
+}
@@ -0,0 +1,66 @@
+package istc.bigdawg.islands.relational;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.util.Arrays;
+
+import org.junit.Test;
+
+public class SQLPlanCacheTest {
+
+    private static final String QUERY = "select name from patients where id = 5 and name = 'a<b' limit 10";
+
+    private static final String PLAN = "<Plan><Node-Type>Limit</Node-Type><Plans><Plan>"
+            + "<Node-Type>Seq Scan</Node-Type><Relation-Name>patients</Relation-Name>"
+            + "<Output><Item>name</Item></Output>"
+            + "<Filter>((id = 5) AND (name = 'a&lt;b'::text))</Filter></Plan></Plans></Plan>";
+
+    @Test
+    public void testShape() {
+        assertEquals("select name from patients where id = ? and name = ? limit ?", SQLPlanCache.getShape(QUERY));
+        assertEquals("select t1.a5 from t1 where t1.x > ?", SQLPlanCache.getShape("select t1.a5 from t1 where t1.x >  2.5;"));
+        assertEquals(Arrays.asList("5", "'a&lt;b'", "10"), SQLPlanCache.getLiterals(QUERY));
+    }
+
+    @Test
+    public void testRebind() {
+        SQLPlanCache cache = new SQLPlanCache(true, 10);
+        assertNull(cache.get(QUERY, ""));
+        cache.put(QUERY, "", PLAN, 20);
+        assertEquals(PLAN, cache.get(QUERY, ""));
+        // the plan depends on the transition tables
+        assertNull(cache.get(QUERY, "CREATE TABLE t (a int)"));
+
+        assertEquals(PLAN.replace("id = 5", "id = 7").replace("'a&lt;b'", "'it''s'"),
+                cache.get("select name from patients where id = 7 and name = 'it''s' limit 10", ""));
+        // the literals are replaced in one pass
+        assertEquals(PLAN.replace("id = 5", "id = 10"),
+                cache.get("select name from patients where id = 10 and name = 'a<b' limit 10", ""));
+        assertEquals(3, cache.getHitCount());
+        assertEquals(2, cache.getRebindCount());
+    }
+
+    @Test
+    public void testCannotRebind() {
+        SQLPlanCache cache = new SQLPlanCache(true, 10);
+        cache.put(QUERY, "", PLAN, 20);
+        // the limit is not printed in the plan
+        assertNull(cache.get("select name from patients where id = 5 and name = 'a<b' limit 20", ""));
+        // 5 is printed once, it cannot be changed to two values
+        cache.put("select a from t where a = 5 or b = 5", "", "<Filter>((a = 5) OR (b = 5))</Filter>", 20);
+        assertNull(cache.get("select a from t where a = 6 or b = 7", ""));
+        assertEquals("<Filter>((a = 6) OR (b = 6))</Filter>", cache.get("select a from t where a = 6 or b = 6", ""));
+        assertEquals(2, cache.getMissCount());
+        assertEquals(20.0, cache.getAverageMissMillis(), 0.001);
+    }
+
+    @Test
+    public void testEviction() {
+        SQLPlanCache cache = new SQLPlanCache(true, 1);
+        cache.put("select a from t1", "", "<Plan/>", 1);
+        cache.put("select a from t2", "", "<Plan/>", 1);
+        assertEquals(1, cache.size());
+        assertNull(cache.get("select a from t1", ""));
+    }
+}
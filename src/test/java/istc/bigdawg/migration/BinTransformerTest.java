@@ -0,0 +1,225 @@
+/**
+ *
+ */
+package istc.bigdawg.migration;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+/**
+ * Transform the binary data between PostgreSQL and SciDB in the JVM, with
+ * small buffers so that the values cross the boundaries of the buffers.
+ */
+public class BinTransformerTest {
+
+	private static final String FORMAT = "int64 null,string,double,bool null,string null";
+
+	private static final List<String> SQL_TYPES = Arrays.asList("bigint",
+			"text", "double precision", "boolean", "text");
+
+	/** The row: (id, name, value, flag, comment). */
+	private static void writePostgresRow(DataOutputStream out, Long id,
+			String name, double value, Boolean flag, String comment)
+			throws IOException {
+		out.writeShort(5);
+		if (id == null) {
+			out.writeInt(-1);
+		} else {
+			out.writeInt(8);
+			out.writeLong(id);
+		}
+		byte[] bytes = name.getBytes(StandardCharsets.UTF_8);
+		out.writeInt(bytes.length);
+		out.write(bytes);
+		out.writeInt(8);
+		out.writeDouble(value);
+		if (flag == null) {
+			out.writeInt(-1);
+		} else {
+			out.writeInt(1);
+			out.writeByte(flag ? 1 : 0);
+		}
+		if (comment == null) {
+			out.writeInt(-1);
+		} else {
+			bytes = comment.getBytes(StandardCharsets.UTF_8);
+			out.writeInt(bytes.length);
+			out.write(bytes);
+		}
+	}
+
+	private static byte[] getPostgresData() throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(bytes);
+		out.write("PGCOPY\n".getBytes(StandardCharsets.US_ASCII));
+		out.write(new byte[] { (byte) 0xff, '\r', '\n', 0 });
+		out.writeInt(0);
+		out.writeInt(0);
+		writePostgresRow(out, 1L, "region", 1.5, true, "");
+		writePostgresRow(out, null, "a longer name of the nation", -2.25,
+				null, null);
+		writePostgresRow(out, 3L, "", 0, false, "comment");
+		out.writeShort(-1);
+		return bytes.toByteArray();
+	}
+
+	private static byte[] transform(byte[] data, boolean toSciDB,
+			String format, List<String> sqlTypes) throws Exception {
+		ByteArrayOutputStream output = new ByteArrayOutputStream();
+		BinTransformer transformer = new BinTransformer(
+				Channels.newChannel(new ByteArrayInputStream(data)),
+				Channels.newChannel(output), format, sqlTypes, 16);
+		if (toSciDB) {
+			transformer.fromPostgresToSciDB();
+		} else {
+			transformer.fromSciDBToPostgres();
+		}
+		return output.toByteArray();
+	}
+
+	@Test
+	public void testPostgresToSciDB() throws Exception {
+		ByteBuffer scidb = ByteBuffer
+				.wrap(transform(getPostgresData(), true, FORMAT, SQL_TYPES))
+				.order(ByteOrder.LITTLE_ENDIAN);
+		/* the first row */
+		assertEquals(-1, scidb.get());
+		assertEquals(1L, scidb.getLong());
+		assertEquals(7, scidb.getInt());
+		byte[] name = new byte[7];
+		scidb.get(name);
+		assertArrayEquals("region\0".getBytes(StandardCharsets.US_ASCII),
+				name);
+		assertEquals(1.5, scidb.getDouble(), 0.0);
+		assertEquals(-1, scidb.get());
+		assertEquals(1, scidb.get());
+		assertEquals(-1, scidb.get());
+		assertEquals(1, scidb.getInt());
+		assertEquals(0, scidb.get());
+		/* the second row starts with a null */
+		assertEquals(0, scidb.get());
+		assertEquals(0L, scidb.getLong());
+	}
+
+	@Test
+	public void testRoundTrip() throws Exception {
+		byte[] postgres = getPostgresData();
+		byte[] scidb = transform(postgres, true, FORMAT, SQL_TYPES);
+		assertArrayEquals(postgres, transform(scidb, false, FORMAT, null));
+	}
+
+	/**
+	 * @return the PostgreSQL binary data with a single row of one field
+	 */
+	private static byte[] getPostgresField(byte[] field) {
+		ByteBuffer postgres = ByteBuffer.allocate(19 + 2 + 4 + field.length + 2);
+		postgres.put("PGCOPY\n".getBytes(StandardCharsets.US_ASCII));
+		postgres.put(new byte[] { (byte) 0xff, '\r', '\n', 0 });
+		postgres.putInt(0).putInt(0).putShort((short) 1).putInt(field.length);
+		postgres.put(field);
+		postgres.putShort((short) -1);
+		return postgres.array();
+	}
+
+	@Test
+	public void testDateTime() throws Exception {
+		/* 2000-01-02 00:00:01 */
+		byte[] postgres = getPostgresField(
+				ByteBuffer.allocate(8).putLong(86401L * 1000000L).array());
+		ByteBuffer scidb = ByteBuffer
+				.wrap(transform(postgres, true, "(datetime)",
+						Arrays.asList("timestamp without time zone")))
+				.order(ByteOrder.LITTLE_ENDIAN);
+		assertEquals(BinTransformer.POSTGRES_EPOCH_SECONDS + 86401L,
+				scidb.getLong());
+		assertArrayEquals(postgres,
+				transform(scidb.array(), false, "(datetime)", null));
+	}
+
+	@Test
+	public void testDate() throws Exception {
+		/* 2000-01-03 */
+		byte[] postgres = getPostgresField(
+				ByteBuffer.allocate(4).putInt(2).array());
+		ByteBuffer scidb = ByteBuffer
+				.wrap(transform(postgres, true, "(datetime)",
+						Arrays.asList("date")))
+				.order(ByteOrder.LITTLE_ENDIAN);
+		assertEquals(BinTransformer.POSTGRES_EPOCH_SECONDS + 2 * 86400L,
+				scidb.getLong());
+	}
+
+	/**
+	 * @return a numeric in the PostgreSQL binary format
+	 */
+	private static byte[] getNumeric(int weight, int sign, int scale,
+			int... digits) {
+		ByteBuffer numeric = ByteBuffer.allocate(8 + 2 * digits.length);
+		numeric.putShort((short) digits.length).putShort((short) weight)
+				.putShort((short) sign).putShort((short) scale);
+		for (int digit : digits) {
+			numeric.putShort((short) digit);
+		}
+		return numeric.array();
+	}
+
+	@Test
+	public void testNumeric() throws Exception {
+		/* numeric(15,2): -1234567.89 = -(123 4567.8900) in base 10000 */
+		byte[] postgres = getPostgresField(
+				getNumeric(1, 0x4000, 2, 123, 4567, 8900));
+		ByteBuffer scidb = ByteBuffer
+				.wrap(transform(postgres, true, "double",
+						Arrays.asList("numeric(15,2)")))
+				.order(ByteOrder.LITTLE_ENDIAN);
+		assertEquals(-1234567.89, scidb.getDouble(), 0.0);
+		/* 0.05: weight -1 */
+		scidb = ByteBuffer
+				.wrap(transform(getPostgresField(getNumeric(-1, 0, 2, 500)),
+						true, "double", Arrays.asList("numeric(15,2)")))
+				.order(ByteOrder.LITTLE_ENDIAN);
+		assertEquals(0.05, scidb.getDouble(), 0.0);
+		/* zero: no digits, 8 bytes as a double would have */
+		scidb = ByteBuffer
+				.wrap(transform(getPostgresField(getNumeric(0, 0, 2)), true,
+						"double", Arrays.asList("numeric(15,2)")))
+				.order(ByteOrder.LITTLE_ENDIAN);
+		assertEquals(0.0, scidb.getDouble(), 0.0);
+		/* numeric(20): 120000 = 12 0000 */
+		scidb = ByteBuffer
+				.wrap(transform(getPostgresField(getNumeric(1, 0, 0, 12)),
+						true, "int64", Arrays.asList("numeric(20)")))
+				.order(ByteOrder.LITTLE_ENDIAN);
+		assertEquals(120000L, scidb.getLong());
+	}
+
+	@Test(expected = IOException.class)
+	public void testTruncatedInput() throws Exception {
+		byte[] postgres = getPostgresData();
+		byte[] truncated = new byte[postgres.length - 10];
+		System.arraycopy(postgres, 0, truncated, 0, truncated.length);
+		transform(truncated, true, FORMAT, SQL_TYPES);
+	}
+
+	@Test
+	public void testSupportedFormats() {
+		assertTrue(BinTransformer.isSupported("int32_t,int32_t null,double"));
+		assertTrue(BinTransformer.isSupported("(string, char null)"));
+		assertFalse(BinTransformer.isSupported("int64,datetimetz"));
+	}
+}
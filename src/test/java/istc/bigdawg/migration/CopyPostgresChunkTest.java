@@ -0,0 +1,63 @@
+/**
+ *
+ */
+package istc.bigdawg.migration;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+import istc.bigdawg.postgresql.PostgreSQLHandler;
+
+/**
+ * Check how a table is split into chunks for the parallel migration between
+ * instances of PostgreSQL.
+ */
+public class CopyPostgresChunkTest {
+
+	@Test
+	public void testCtidRanges() {
+		List<String> predicates = CopyPostgresChunk.getCtidRangePredicates(10,
+				4);
+		assertEquals(Arrays.asList("ctid < '(3,0)'::tid",
+				"ctid >= '(3,0)'::tid AND ctid < '(6,0)'::tid",
+				"ctid >= '(6,0)'::tid AND ctid < '(9,0)'::tid",
+				"ctid >= '(9,0)'::tid"), predicates);
+	}
+
+	@Test
+	public void testCtidRangesSmallTable() {
+		assertEquals(Arrays.asList("true"),
+				CopyPostgresChunk.getCtidRangePredicates(1, 4));
+		assertEquals(0, CopyPostgresChunk.getCtidRangePredicates(0, 4).size());
+	}
+
+	@Test
+	public void testKeyRanges() {
+		List<String> predicates = CopyPostgresChunk.getKeyRangePredicates("id",
+				0, 10, 4);
+		assertEquals(Arrays.asList("(id < 3 OR id IS NULL)",
+				"id >= 3 AND id < 6", "id >= 6 AND id < 9", "id >= 9"),
+				predicates);
+	}
+
+	@Test
+	public void testKeyRangesSingleValue() {
+		assertEquals(Arrays.asList("true"),
+				CopyPostgresChunk.getKeyRangePredicates("id", 5, 5, 4));
+	}
+
+	@Test
+	public void testKeyRangesQuotedColumn() {
+		String column = PostgreSQLHandler.quoteIdentifier("id) OR (true");
+		assertEquals("\"id) OR (true\"", column);
+		assertEquals(Arrays.asList("(\"id) OR (true\" < 6 OR \"id) OR (true\" IS NULL)",
+				"\"id) OR (true\" >= 6"),
+				CopyPostgresChunk.getKeyRangePredicates(column, 0, 10, 2));
+		assertEquals("id", PostgreSQLHandler.quoteIdentifier("id"));
+		assertEquals("\"order\"", PostgreSQLHandler.quoteIdentifier("order"));
+	}
+}
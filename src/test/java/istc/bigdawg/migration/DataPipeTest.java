@@ -0,0 +1,119 @@
+/**
+ *
+ */
+package istc.bigdawg.migration;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+/**
+ * Check the transfer through the data pipe and the propagation of the failures
+ * between its sides.
+ */
+public class DataPipeTest {
+
+	@Test(timeout = 10000)
+	public void testTransfer() throws Exception {
+		byte[] data = new byte[100000];
+		new Random(7).nextBytes(data);
+		/* the chunks are smaller than the writes and the reads */
+		DataPipe pipe = new DataPipe(1000, 3);
+		ExecutorService executor = Executors.newSingleThreadExecutor();
+		try {
+			Future<Object> writer = executor.submit(() -> {
+				OutputStream output = pipe.getOutputStream();
+				output.write(data[0]);
+				output.write(data, 1, 4999);
+				output.flush();
+				output.write(data, 5000, data.length - 5000);
+				output.close();
+				return null;
+			});
+			InputStream input = pipe.getInputStream();
+			ByteArrayOutputStream result = new ByteArrayOutputStream();
+			result.write(input.read());
+			byte[] buffer = new byte[1500];
+			int n;
+			while ((n = input.read(buffer)) != -1) {
+				result.write(buffer, 0, n);
+			}
+			assertEquals(-1, input.read());
+			input.close();
+			writer.get();
+			assertArrayEquals(data, result.toByteArray());
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	@Test(timeout = 10000)
+	public void testWriterFailure() throws Exception {
+		DataPipe pipe = new DataPipe(10, 2);
+		ExecutorService executor = Executors.newSingleThreadExecutor();
+		try {
+			executor.submit(pipe.failOnError(() -> {
+				pipe.getOutputStream().write(new byte[15]);
+				throw new IllegalStateException("export failed");
+			}));
+			InputStream input = pipe.getInputStream();
+			try {
+				/* the load must not see the end of the data */
+				while (input.read() != -1) {
+				}
+				fail("The failure of the writer was not propagated.");
+			} catch (IOException e) {
+				assertEquals("export failed", e.getCause().getMessage());
+			}
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	@Test(timeout = 10000)
+	public void testReaderFailure() throws Exception {
+		DataPipe pipe = new DataPipe(10, 2);
+		ExecutorService executor = Executors.newSingleThreadExecutor();
+		try {
+			/* the writer is blocked on the full pipe */
+			Future<Object> writer = executor.submit(() -> {
+				pipe.getOutputStream().write(new byte[1000]);
+				return null;
+			});
+			executor.awaitTermination(100, TimeUnit.MILLISECONDS);
+			pipe.fail(new IllegalStateException("load failed"));
+			try {
+				writer.get();
+				fail("The failure of the reader was not propagated.");
+			} catch (Exception e) {
+				assertTrue(e.getCause() instanceof IOException);
+			}
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	@Test(timeout = 10000)
+	public void testReaderClosed() throws Exception {
+		DataPipe pipe = new DataPipe(10, 1);
+		pipe.getInputStream().close();
+		try {
+			pipe.getOutputStream().write(new byte[100]);
+			fail("The writer did not notice that the reader is gone.");
+		} catch (IOException e) {
+		}
+	}
+}
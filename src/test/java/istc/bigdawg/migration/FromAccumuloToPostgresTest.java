@@ -5,22 +5,39 @@ package istc.bigdawg.migration;
 
 import static org.junit.Assert.assertEquals;
 
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
 import java.sql.Connection;
 import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.TreeSet;
 
 import org.apache.accumulo.core.client.AccumuloException;
 import org.apache.accumulo.core.client.AccumuloSecurityException;
+import org.apache.accumulo.core.client.BatchWriter;
+import org.apache.accumulo.core.client.BatchWriterConfig;
+import org.apache.accumulo.core.client.Connector;
 import org.apache.accumulo.core.client.TableNotFoundException;
+import org.apache.accumulo.core.client.mock.MockInstance;
+import org.apache.accumulo.core.client.security.tokens.PasswordToken;
+import org.apache.accumulo.core.data.Mutation;
+import org.apache.accumulo.core.data.Range;
+import org.apache.accumulo.core.data.Value;
+import org.apache.hadoop.io.Text;
 import org.apache.log4j.Logger;
 import org.jfree.util.Log;
 import org.junit.Test;
 
 import istc.bigdawg.LoggerSetup;
 import istc.bigdawg.accumulo.AccumuloConnectionInfo;
+import istc.bigdawg.accumulo.AccumuloExecutionEngine;
 import istc.bigdawg.accumulo.AccumuloInstance;
 import istc.bigdawg.exceptions.AccumuloBigDawgException;
 import istc.bigdawg.exceptions.MigrationException;
+import istc.bigdawg.islands.text.operators.TextScan;
 import istc.bigdawg.postgresql.PostgreSQLConnectionInfo;
 import istc.bigdawg.postgresql.PostgreSQLConnectionInfoTest;
 import istc.bigdawg.postgresql.PostgreSQLHandler;
@@ -52,6 +69,55 @@ public class FromAccumuloToPostgresTest {
 		LoggerSetup.setLogging();
 	}
 
+	@Test
+	public void csvRow() throws Exception {
+		StringWriter writer = new StringWriter();
+		FromAccumuloToPostgres.writeCsvRow(new String[] { "a", null, "",
+				"x|y", "say \"hi\"", "two\nlines" }, '|', writer);
+		assertEquals("a||\"\"|\"x|y\"|\"say \"\"hi\"\"\"|\"two\nlines\"\n",
+				writer.toString());
+	}
+
+	/**
+	 * The migration of a cast text scan exports only the entries of its
+	 * columns which match its filter, from all the tablets of the table.
+	 */
+	@Test
+	public void exportFilteredScan() throws Exception {
+		String table = "filtered_scan_test";
+		Connector conn = new MockInstance("filtered_scan_instance")
+				.getConnector("root", new PasswordToken(""));
+		conn.tableOperations().create(table);
+		conn.tableOperations().addSplits(table,
+				new TreeSet<>(Arrays.asList(new Text("r3"), new Text("r6"))));
+		BatchWriter writer = conn.createBatchWriter(table,
+				new BatchWriterConfig());
+		for (int i = 0; i < 10; ++i) {
+			Mutation mutation = new Mutation(new Text("r" + i));
+			mutation.put(new Text("cf"), new Text("cq"),
+					new Value(("v" + i).getBytes(StandardCharsets.UTF_8)));
+			/* not a column of the target table */
+			mutation.put(new Text("n"), new Text("other"), new Value(
+					Integer.toString(i).getBytes(StandardCharsets.UTF_8)));
+			writer.addMutation(mutation);
+		}
+		writer.close();
+
+		TextScan scan = new TextScan(table, new Range());
+		scan.setColumns(Arrays.asList("cf"));
+		scan.setFilter(Collections.singletonMap("row", "r[2-7]"));
+		FromAccumuloToPostgres migrator = new FromAccumuloToPostgres(
+				new AccumuloInstance(conn), (Connection) null);
+		ByteArrayOutputStream output = new ByteArrayOutputStream();
+		long rows = migrator.exportRows(table, scan,
+				AccumuloExecutionEngine.splitRange(scan.getRange(),
+						conn.tableOperations().listSplits(table)),
+				Collections.singletonMap("cq", 0), output);
+		assertEquals(6, rows);
+		assertEquals("v2\nv3\nv4\nv5\nv6\nv7\n",
+				new String(output.toByteArray(), StandardCharsets.UTF_8));
+	}
+
 	@Test
 	public void fromAccumuloToPostgres() throws Exception {
 		// TableOperations tabOp = null;
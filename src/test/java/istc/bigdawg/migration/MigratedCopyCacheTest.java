@@ -0,0 +1,249 @@
+/**
+ *
+ */
+package istc.bigdawg.migration;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.Test;
+
+import istc.bigdawg.postgresql.PostgreSQLConnectionInfo;
+import istc.bigdawg.query.ConnectionInfo;
+
+/**
+ * Check the reuse, the release and the eviction of the migrated copies.
+ */
+public class MigratedCopyCacheTest {
+
+	private static final ConnectionInfo ENGINE = new PostgreSQLConnectionInfo(
+			"localhost", "5431", "test", "user", "pass");
+	private static final ConnectionInfo OTHER = new PostgreSQLConnectionInfo(
+			"localhost", "5430", "test", "user", "pass");
+	/** the engine from which the data of the copies come */
+	private static final ConnectionInfo SOURCE = new PostgreSQLConnectionInfo(
+			"localhost", "5429", "test", "user", "pass");
+
+	private final List<String> dropped = Collections
+			.synchronizedList(new ArrayList<>());
+
+	private MigratedCopyCache getCache(long ttl, long maxRows) {
+		return new MigratedCopyCache(true, ttl, maxRows,
+				(engine, table) -> dropped
+						.add(MigratedCopyCache.getEngineKey(engine) + "|"
+								+ table));
+	}
+
+	private static String getKey(ConnectionInfo engine, String table) {
+		return MigratedCopyCache.getEngineKey(engine) + "|" + table;
+	}
+
+	@Test
+	public void testReuse() {
+		MigratedCopyCache cache = getCache(0, 1000);
+		assertFalse(cache.acquire(ENGINE, "cast_a", "src"));
+		assertTrue(cache.register(ENGINE, "cast_a", "src", SOURCE,
+				Collections.singleton("Patients"), 100, cache.begin()));
+		/* the query keeps the copy */
+		assertTrue(cache.release(ENGINE, "cast_a"));
+		/* a temporary table of a query */
+		assertFalse(cache.release(ENGINE, "tmp"));
+
+		assertTrue(cache.acquire(ENGINE, "CAST_A", "src"));
+		assertFalse(cache.acquire(ENGINE, "cast_a", "other source"));
+		assertFalse(cache.acquire(OTHER, "cast_a", "src"));
+		assertTrue(cache.release(ENGINE, "cast_a"));
+		assertEquals(1, cache.getHitCount());
+		assertEquals(3, cache.getMissCount());
+		assertEquals(100, cache.getRows(ENGINE));
+		cache.dropQueued();
+		assertEquals(0, dropped.size());
+	}
+
+	@Test
+	public void testInvalidateInUse() {
+		MigratedCopyCache cache = getCache(0, 1000);
+		cache.register(ENGINE, "cast_a", "src", SOURCE,
+				Collections.singleton("patients"), 100, cache.begin());
+		cache.invalidate("other");
+		assertEquals(1, cache.size());
+		cache.invalidate("PATIENTS");
+		assertEquals(0, cache.size());
+		assertEquals(0, cache.getRows(ENGINE));
+		/* still used by the query which registered it */
+		cache.dropQueued();
+		assertEquals(0, dropped.size());
+		assertTrue(cache.release(ENGINE, "cast_a"));
+		cache.dropQueued();
+		assertEquals(Collections.singletonList(getKey(ENGINE, "cast_a")),
+				dropped);
+		assertFalse(cache.release(ENGINE, "cast_a"));
+	}
+
+	@Test
+	public void testModifiedDuringMigration() {
+		MigratedCopyCache cache = getCache(0, 1000);
+		long began = cache.begin();
+		cache.invalidate("patients");
+		assertFalse(cache.register(ENGINE, "cast_a", "src", SOURCE,
+				Collections.singleton("patients"), 100, began));
+		assertFalse(cache.release(ENGINE, "cast_a"));
+	}
+
+	@Test
+	public void testEvictLeastRecentlyUsed() {
+		MigratedCopyCache cache = getCache(0, 250);
+		for (String table : new String[] { "a", "b" }) {
+			cache.register(ENGINE, table, "src", SOURCE,
+					Collections.singleton(table), 100, cache.begin());
+			cache.release(ENGINE, table);
+		}
+		/* the copies on other engines do not count */
+		cache.register(OTHER, "c", "src", SOURCE, Collections.singleton("c"), 200,
+				cache.begin());
+		/* a is the most recently used */
+		assertTrue(cache.acquire(ENGINE, "a", "src"));
+		cache.register(ENGINE, "d", "src", SOURCE, Collections.singleton("d"), 100,
+				cache.begin());
+		cache.dropQueued();
+		assertEquals(Collections.singletonList(getKey(ENGINE, "b")), dropped);
+		assertEquals(200, cache.getRows(ENGINE));
+		assertEquals(3, cache.size());
+		/* too large to be kept */
+		assertFalse(cache.register(ENGINE, "e", "src", SOURCE,
+				Collections.singleton("e"), 300, cache.begin()));
+	}
+
+	@Test
+	public void testExpired() throws Exception {
+		MigratedCopyCache cache = getCache(1, 1000);
+		cache.register(ENGINE, "a", "src", SOURCE, Collections.singleton("a"), 10,
+				cache.begin());
+		cache.register(ENGINE, "b", "src", SOURCE, Collections.singleton("b"), 10,
+				cache.begin());
+		cache.release(ENGINE, "a");
+		Thread.sleep(5);
+		assertFalse(cache.acquire(ENGINE, "a", "src"));
+		cache.sweep();
+		cache.dropQueued();
+		assertEquals(Collections.singletonList(getKey(ENGINE, "a")), dropped);
+		/* dropped when released */
+		assertTrue(cache.release(ENGINE, "b"));
+		cache.dropQueued();
+		assertEquals(2, dropped.size());
+		assertEquals(0, cache.size());
+	}
+
+	@Test
+	public void testPrepare() {
+		MigratedCopyCache cache = getCache(0, 1000);
+		assertTrue(cache.prepare(ENGINE, "a"));
+		cache.register(ENGINE, "a", "src", SOURCE, Collections.singleton("a"), 10,
+				cache.begin());
+		/* used by a query */
+		assertFalse(cache.prepare(ENGINE, "a"));
+		cache.release(ENGINE, "a");
+		/* other data are migrated to the table */
+		assertTrue(cache.prepare(ENGINE, "a"));
+		assertEquals(Collections.singletonList(getKey(ENGINE, "a")), dropped);
+		assertEquals(0, cache.size());
+		assertEquals(0, cache.getRows(ENGINE));
+	}
+
+	@Test
+	public void testPrepareQueuedDrop() {
+		MigratedCopyCache cache = getCache(0, 1000);
+		cache.register(ENGINE, "a", "src", SOURCE, Collections.singleton("a"),
+				10, cache.begin());
+		cache.release(ENGINE, "a");
+		cache.invalidate("a");
+		/* the copy waits to be dropped, its table still exists */
+		assertFalse(cache.register(ENGINE, "a", "src", SOURCE,
+				Collections.singleton("a"), 10, cache.begin()));
+		assertFalse(cache.acquire(ENGINE, "a", "src"));
+		assertTrue(cache.prepare(ENGINE, "a"));
+		assertEquals(Collections.singletonList(getKey(ENGINE, "a")), dropped);
+		/* not dropped again */
+		cache.dropQueued();
+		assertEquals(1, dropped.size());
+		assertTrue(cache.register(ENGINE, "a", "src", SOURCE,
+				Collections.singleton("a"), 10, cache.begin()));
+	}
+
+	@Test
+	public void testPrepareRetiredInUse() {
+		MigratedCopyCache cache = getCache(0, 1000);
+		cache.register(ENGINE, "a", "src", SOURCE, Collections.singleton("a"),
+				10, cache.begin());
+		cache.invalidate("a");
+		/* the stale copy is still read by the query which registered it */
+		assertFalse(cache.prepare(ENGINE, "a"));
+		assertTrue(cache.release(ENGINE, "a"));
+		assertTrue(cache.prepare(ENGINE, "a"));
+		assertEquals(1, dropped.size());
+	}
+
+	@Test
+	public void testPrepareWaitsForDrop() throws Exception {
+		CountDownLatch dropping = new CountDownLatch(1);
+		CountDownLatch release = new CountDownLatch(1);
+		MigratedCopyCache cache = new MigratedCopyCache(true, 0, 1000,
+				(engine, table) -> {
+					dropping.countDown();
+					release.await();
+					dropped.add(getKey(engine, table));
+				});
+		cache.register(ENGINE, "a", "src", SOURCE, Collections.singleton("a"),
+				10, cache.begin());
+		cache.release(ENGINE, "a");
+		cache.invalidate("a");
+		Thread dropper = new Thread(cache::dropQueued);
+		dropper.start();
+		dropping.await();
+		AtomicBoolean prepared = new AtomicBoolean();
+		Thread query = new Thread(
+				() -> prepared.set(cache.prepare(ENGINE, "a")));
+		query.start();
+		query.join(100);
+		assertTrue(query.isAlive());
+		release.countDown();
+		query.join();
+		dropper.join();
+		assertTrue(prepared.get());
+		assertEquals(1, dropped.size());
+	}
+
+	@Test
+	public void testInvalidateOnEngine() {
+		MigratedCopyCache cache = getCache(0, 1000);
+		long began = cache.begin();
+		/* the data were migrated to a table with the same name elsewhere */
+		cache.invalidate(ENGINE, "a");
+		assertTrue(cache.register(ENGINE, "a", "src", SOURCE,
+				Collections.singleton("a"), 10, began));
+		cache.invalidate(OTHER, "a");
+		assertEquals(1, cache.size());
+		cache.invalidate(SOURCE, "A");
+		assertEquals(0, cache.size());
+		assertFalse(cache.register(ENGINE, "b", "src", SOURCE,
+				Collections.singleton("a"), 10, began));
+	}
+
+	@Test
+	public void testPrivateName() {
+		MigratedCopyCache cache = getCache(0, 1000);
+		String name = MigratedCopyCache.getPrivateName("a");
+		assertFalse(name.equals(MigratedCopyCache.getPrivateName("a")));
+		assertTrue(MigratedCopyCache.isPrivateName(name));
+		assertFalse(MigratedCopyCache.isPrivateName("a"));
+		assertFalse(cache.register(ENGINE, name, "src", SOURCE,
+				Collections.singleton("a"), 10, cache.begin()));
+	}
+}
@@ -0,0 +1,177 @@
+/**
+ *
+ */
+package istc.bigdawg.migration;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.lang.reflect.Proxy;
+import java.math.BigDecimal;
+import java.sql.Date;
+import java.sql.ResultSet;
+import java.sql.SQLFeatureNotSupportedException;
+import java.sql.Timestamp;
+import java.time.LocalTime;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+import istc.bigdawg.migration.PostgreSQLBinaryFormat.ColumnType;
+
+/**
+ * Encode rows of a result set in the binary format of PostgreSQL and decode
+ * them back.
+ */
+public class PostgreSQLBinaryFormatTest {
+
+	private static final List<ColumnType> TYPES = Arrays.asList(
+			ColumnType.BOOL, ColumnType.INT2, ColumnType.INT4, ColumnType.INT8,
+			ColumnType.FLOAT4, ColumnType.FLOAT8, ColumnType.NUMERIC,
+			ColumnType.TEXT, ColumnType.BYTEA, ColumnType.DATE,
+			ColumnType.TIME, ColumnType.TIMESTAMP, ColumnType.TIMESTAMPTZ);
+
+	/**
+	 * @return the value returned by a getter of a primitive type for null
+	 */
+	private static Object zero(Class<?> type) {
+		if (type == boolean.class) {
+			return false;
+		} else if (type == short.class) {
+			return (short) 0;
+		} else if (type == int.class) {
+			return 0;
+		} else if (type == long.class) {
+			return 0L;
+		} else if (type == float.class) {
+			return 0f;
+		}
+		return 0d;
+	}
+
+	/**
+	 * @return result set with the given rows (the values have the types
+	 *         returned by the getters)
+	 */
+	static ResultSet resultSet(List<Object[]> rows) {
+		int[] cursor = { -1 };
+		boolean[] wasNull = { false };
+		return (ResultSet) Proxy.newProxyInstance(
+				ResultSet.class.getClassLoader(),
+				new Class<?>[] { ResultSet.class }, (proxy, method, args) -> {
+					String name = method.getName();
+					if (name.equals("next")) {
+						return ++cursor[0] < rows.size();
+					} else if (name.equals("wasNull")) {
+						return wasNull[0];
+					} else if (name.equals("close")) {
+						return null;
+					} else if (name.startsWith("get") && args != null
+							&& args[0] instanceof Integer) {
+						Object value = rows.get(cursor[0])[(Integer) args[0]
+								- 1];
+						wasNull[0] = value == null;
+						Class<?> type = method.getReturnType();
+						if (value == null && type.isPrimitive()) {
+							return zero(type);
+						}
+						if (name.equals("getString") && value != null) {
+							return value.toString();
+						}
+						if (args.length == 2 && args[1] instanceof Class
+								&& value != null
+								&& !((Class<?>) args[1]).isInstance(value)) {
+							/* getObject(column, type) of an older driver */
+							throw new SQLFeatureNotSupportedException(name);
+						}
+						return value;
+					}
+					throw new UnsupportedOperationException(name);
+				});
+	}
+
+	@Test
+	public void testRoundTrip() throws Exception {
+		Object[] values = { true, (short) 7, -5, 1L << 40, 1.5f, -2.25,
+				new BigDecimal("12345.678"), "za\u017c\u00f3\u0142\u0107 | \"x\"",
+				new byte[] { 1, 0, -1 }, Date.valueOf("2016-02-29"),
+				LocalTime.parse("12:34:56.789123"),
+				Timestamp.valueOf("1999-12-31 23:59:59.123456"),
+				Timestamp.valueOf("2017-06-01 10:00:00.5") };
+		Object[] nulls = new Object[TYPES.size()];
+		ByteArrayOutputStream output = new ByteArrayOutputStream();
+		PostgreSQLBinaryFormat.Encoder encoder = new PostgreSQLBinaryFormat.Encoder(
+				output, TYPES);
+		ResultSet rs = resultSet(Arrays.asList(values, nulls));
+		while (rs.next()) {
+			encoder.writeRow(rs);
+		}
+		encoder.finish();
+		byte[] data = output.toByteArray();
+		assertEquals(data.length, encoder.getBytes());
+		assertArrayEquals(PostgreSQLBinaryFormat.SIGNATURE,
+				Arrays.copyOf(data, PostgreSQLBinaryFormat.SIGNATURE.length));
+
+		PostgreSQLBinaryFormat.Decoder decoder = new PostgreSQLBinaryFormat.Decoder(
+				new ByteArrayInputStream(data), TYPES);
+		Object[] row = decoder.readRow();
+		for (int i = 0; i < values.length; ++i) {
+			if (values[i] instanceof byte[]) {
+				assertArrayEquals((byte[]) values[i], (byte[]) row[i]);
+			} else {
+				assertEquals(TYPES.get(i).toString(), values[i], row[i]);
+			}
+		}
+		assertArrayEquals(nulls, decoder.readRow());
+		assertNull(decoder.readRow());
+		assertEquals(2, decoder.getRows());
+		assertEquals(data.length, decoder.getBytes());
+	}
+
+	@Test
+	public void testTimeFraction() throws Exception {
+		List<ColumnType> types = Arrays.asList(ColumnType.TIME);
+		/* a driver which returns the time only as a string */
+		ResultSet rs = resultSet(Arrays.<Object[]> asList(
+				new Object[] { "23:59:59.5" }));
+		ByteArrayOutputStream output = new ByteArrayOutputStream();
+		PostgreSQLBinaryFormat.Encoder encoder = new PostgreSQLBinaryFormat.Encoder(
+				output, types);
+		rs.next();
+		encoder.writeRow(rs);
+		encoder.finish();
+		assertEquals(LocalTime.of(23, 59, 59, 500000000),
+				new PostgreSQLBinaryFormat.Decoder(
+						new ByteArrayInputStream(output.toByteArray()), types)
+								.readRow()[0]);
+	}
+
+	@Test
+	public void testNumeric() throws Exception {
+		assertArrayEquals(new short[] { 1, 2345, 6780 }, PostgreSQLBinaryFormat
+				.getNumericDigits(new BigDecimal("12345.678")));
+		List<ColumnType> types = Arrays.asList(ColumnType.NUMERIC);
+		for (String number : new String[] { "0", "0.00", "-0.00001", "1E+5",
+				"10000", "-98765432109876543210.0123456789" }) {
+			ByteArrayOutputStream output = new ByteArrayOutputStream();
+			PostgreSQLBinaryFormat.Encoder encoder = new PostgreSQLBinaryFormat.Encoder(
+					output, types);
+			ResultSet rs = resultSet(Arrays.<Object[]> asList(
+					new Object[] { new BigDecimal(number) }));
+			rs.next();
+			encoder.writeRow(rs);
+			encoder.finish();
+			BigDecimal decoded = (BigDecimal) new PostgreSQLBinaryFormat.Decoder(
+					new ByteArrayInputStream(output.toByteArray()), types)
+							.readRow()[0];
+			assertEquals(number, 0,
+					new BigDecimal(number).compareTo(decoded));
+			assertEquals(number, Math.max(new BigDecimal(number).scale(), 0),
+					decoded.scale());
+		}
+	}
+}
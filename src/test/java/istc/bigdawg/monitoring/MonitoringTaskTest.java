@@ -0,0 +1,123 @@
+package istc.bigdawg.monitoring;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import istc.bigdawg.monitoring.Task.BenchmarkPlan;
+
+public class MonitoringTaskTest {
+
+    private ExecutorService benchmarkExecutor;
+    private final List<Integer> executed = Collections.synchronizedList(new ArrayList<>());
+    private final List<Collection<String>> busy = new ArrayList<>();
+    /** keeps the executed plans running */
+    private CountDownLatch release = new CountDownLatch(0);
+
+    /** A Task whose plans only record that they were executed. */
+    private Task task(double load, int maxPlans, long maxWaitMs) {
+        return new Task(1, 0.5, maxPlans, benchmarkExecutor, maxWaitMs) {
+            @Override
+            void execute(BenchmarkPlan plan) throws InterruptedException {
+                executed.add(plan.getIndex());
+                release.await();
+            }
+
+            @Override
+            double getLoad() {
+                return load;
+            }
+        };
+    }
+
+    private static void queue(Task task, String key, String... engines) {
+        AtomicInteger remaining = new AtomicInteger(engines.length);
+        for (int i = 0; i < engines.length; i++) {
+            task.queue(new BenchmarkPlan(null, key, i, null, new HashSet<>(Collections.singleton(engines[i])), remaining));
+        }
+    }
+
+    private void busy(String... engines) {
+        busy.add(QueryActivity.started(Arrays.asList(engines)));
+    }
+
+    private void await() throws InterruptedException {
+        benchmarkExecutor.shutdown();
+        assertTrue(benchmarkExecutor.awaitTermination(10, TimeUnit.SECONDS));
+    }
+
+    @Before
+    public void setUp() {
+        benchmarkExecutor = Executors.newFixedThreadPool(2);
+    }
+
+    @After
+    public void tearDown() {
+        for (Collection<String> engines : busy) {
+            QueryActivity.finished(engines);
+        }
+        benchmarkExecutor.shutdownNow();
+    }
+
+    @Test
+    public void testBusyPlanDoesNotBlockOthers() throws Exception {
+        busy("busy:1");
+        Task task = task(0.0, 3, Long.MAX_VALUE);
+        queue(task, "q", "busy:1", "idle:1", "idle:2");
+        task.startIdlePlans();
+        await();
+
+        assertEquals(new HashSet<>(Arrays.asList(1, 2)), new HashSet<>(executed));
+        assertEquals(1, task.getPending().size());
+        assertEquals(0, task.getPending().get(0).getIndex());
+        assertTrue(task.isRunning("q"));
+    }
+
+    @Test
+    public void testBusyPlanIsSkippedAfterWaiting() throws Exception {
+        busy("busy:1");
+        Task task = task(0.0, 3, 0);
+        queue(task, "q", "busy:1", "idle:1");
+        task.startIdlePlans();
+        await();
+
+        assertEquals(Collections.singletonList(1), executed);
+        assertTrue(task.getPending().isEmpty());
+        // the skipped plan counts as done, so the next benchmark query can be queued
+        assertFalse(task.isRunning("q"));
+    }
+
+    @Test
+    public void testLimits() throws Exception {
+        Task loaded = task(0.9, 3, Long.MAX_VALUE);
+        queue(loaded, "q1", "idle:1");
+        loaded.startIdlePlans();
+        assertEquals(1, loaded.getPending().size());
+
+        release = new CountDownLatch(1);
+        Task task = task(0.0, 1, Long.MAX_VALUE);
+        queue(task, "q2", "idle:1", "idle:2");
+        task.startIdlePlans();
+        release.countDown();
+        await();
+        assertEquals(Collections.singletonList(0), executed);
+        assertEquals(1, task.getPending().size());
+        assertEquals(1, task.getPending().get(0).getIndex());
+    }
+}
@@ -0,0 +1,124 @@
+package istc.bigdawg.monitoring;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import org.junit.Test;
+
+import istc.bigdawg.monitoring.MonitoringWriter.Overflow;
+
+public class MonitoringWriterTest {
+
+    private static int count(String s, String part) {
+        int count = 0;
+        for (int i = s.indexOf(part); i >= 0; i = s.indexOf(part, i + 1)) {
+            count++;
+        }
+        return count;
+    }
+
+    @Test
+    public void testBatchesKeepOrder() throws Exception {
+        List<String> statements = Collections.synchronizedList(new ArrayList<>());
+        MonitoringWriter writer = new MonitoringWriter(statements::add, true, 1000, 100, 60000, Overflow.BLOCK);
+        for (int i = 0; i < 10; i++) {
+            writer.addBenchmark("sig", i, 1, "00");
+        }
+        writer.addBenchmark("sig", 0, 2, "00");
+        writer.updateBenchmark("sig", 0, 5, 3);
+        writer.updateBenchmark("sig", 0, 9, 4);
+        writer.addMigrationStats("a", "b", "t'1", "t2", 1, 2, 3, 3, "it's done");
+        writer.flush();
+        writer.close();
+
+        // the rows may be written in more batches, but in the order they were added
+        String all = String.join("\n", statements);
+        assertTrue(all.startsWith("INSERT INTO monitoring"));
+        assertTrue(all.lastIndexOf("INSERT INTO monitoring") < all.indexOf("UPDATE monitoring"));
+        assertTrue(all.lastIndexOf("UPDATE monitoring") < all.indexOf("INSERT INTO migrationstats"));
+        // the benchmark added twice is inserted at most twice (once in a batch)
+        int inserted = count(all, "decode(");
+        assertTrue(inserted == 10 || inserted == 11);
+        assertTrue(all.indexOf("('sig', 0, 1::bigint") >= 0);
+        // the last timing is written last
+        assertTrue(all.lastIndexOf("('sig', 0, 9::bigint, 4::bigint)") > all.lastIndexOf("('sig', 0, 5::bigint, 3::bigint)"));
+        assertTrue(all.contains("'t''1'"));
+        assertTrue(all.contains("'it''s done'"));
+    }
+
+    @Test
+    public void testFlushOnlyNeededRows() throws Exception {
+        List<String> statements = Collections.synchronizedList(new ArrayList<>());
+        MonitoringWriter writer = new MonitoringWriter(statements::add, true, 1000, 100, 60000, Overflow.BLOCK);
+        writer.addMigrationStats("a", "b", "t1", "t2", 1, 2, 3, 3, "");
+        // nothing of the read is waiting
+        writer.flushBenchmarks("sig");
+        writer.flushMigrationStats("a", "c");
+        assertEquals(0, statements.size());
+        assertEquals(1, writer.getQueued());
+        writer.flushMigrationStats("a", "b");
+        assertEquals(1, statements.size());
+        assertEquals(0, writer.getQueued());
+        writer.updateBenchmark("sig", 0, 5, 3);
+        writer.flushBenchmarks();
+        assertEquals(2, statements.size());
+        writer.close();
+    }
+
+    @Test
+    public void testBatchSize() throws Exception {
+        List<String> statements = Collections.synchronizedList(new ArrayList<>());
+        MonitoringWriter writer = new MonitoringWriter(statements::add, true, 1000, 4, 60000, Overflow.BLOCK);
+        for (int i = 0; i < 10; i++) {
+            writer.addMigrationStats("a", "b", "t" + i, "t" + i, i, i, i, i, "");
+        }
+        writer.close();
+        int rows = 0;
+        for (String statement : statements) {
+            int batch = count(statement, "'a', 'b'");
+            assertTrue(batch <= 4);
+            rows += batch;
+        }
+        assertEquals(10, rows);
+        assertEquals(0, writer.getQueued());
+    }
+
+    @Test
+    public void testDropWhenFull() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        List<String> statements = Collections.synchronizedList(new ArrayList<>());
+        MonitoringWriter writer = new MonitoringWriter(statement -> {
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            statements.add(statement);
+        }, true, 2, 1, 1, Overflow.DROP);
+        int added = 0;
+        for (int i = 0; i < 20; i++) {
+            if (writer.updateBenchmark("sig", i, i, i)) {
+                added++;
+            }
+        }
+        assertTrue("rows should be dropped: " + writer.getDropped(), writer.getDropped() > 0);
+        assertEquals(20, added + writer.getDropped());
+        release.countDown();
+        writer.close();
+        assertEquals(added, statements.size());
+    }
+
+    @Test
+    public void testSynchronous() throws Exception {
+        List<String> statements = new ArrayList<>();
+        MonitoringWriter writer = new MonitoringWriter(statements::add, false, 10, 10, 10, Overflow.BLOCK);
+        writer.updateBenchmark("sig", 1, 2, 3);
+        assertEquals(1, statements.size());
+        assertEquals(1, writer.getStatements());
+    }
+}
@@ -0,0 +1,56 @@
+package istc.bigdawg.monitoring;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Test;
+
+import istc.bigdawg.executor.plan.QueryExecutionPlan;
+
+public class QueryActivityTest {
+
+    @Test
+    public void testStartedAndFinished() {
+        int before = QueryActivity.getUserQueries();
+        Collection<String> first = QueryActivity.started(Arrays.asList("h1:5432", "h2:5432"));
+        Collection<String> second = QueryActivity.started(Collections.singletonList("h1:5432"));
+        assertEquals(before + 2, QueryActivity.getUserQueries());
+        assertEquals(2, QueryActivity.getUserQueries("h1:5432"));
+        assertEquals(1, QueryActivity.getUserQueries("h2:5432"));
+        assertFalse(QueryActivity.isIdle(Collections.singletonList("h2:5432")));
+        assertTrue(QueryActivity.isIdle(Collections.singletonList("h3:5432")));
+
+        QueryActivity.finished(first);
+        assertEquals(1, QueryActivity.getUserQueries("h1:5432"));
+        assertTrue(QueryActivity.isIdle(Collections.singletonList("h2:5432")));
+        assertFalse(QueryActivity.isIdle(Arrays.asList("h1:5432", "h2:5432")));
+
+        QueryActivity.finished(second);
+        assertEquals(before, QueryActivity.getUserQueries());
+        assertTrue(QueryActivity.isIdle(Arrays.asList("h1:5432", "h2:5432")));
+    }
+
+    @Test
+    public void testBackgroundIsNotCounted() throws Exception {
+        int before = QueryActivity.getUserQueries();
+        AtomicReference<Collection<String>> engines = new AtomicReference<>(Collections.emptySet());
+        Thread thread = new Thread(() -> {
+            // the plans of the benchmarks are not even looked at
+            QueryActivity.setBackground(true);
+            engines.set(QueryActivity.started((QueryExecutionPlan) null));
+            QueryActivity.finished(engines.get());
+        });
+        thread.start();
+        thread.join();
+        assertNull(engines.get());
+        assertEquals(before, QueryActivity.getUserQueries());
+        assertFalse(QueryActivity.isBackground());
+    }
+}
@@ -0,0 +1,73 @@
+/**
+ *
+ */
+package istc.bigdawg.network;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.charset.StandardCharsets;
+
+import org.junit.Test;
+
+/**
+ * Check the codecs of the data sent via network and the choice of the codec.
+ */
+public class DataCodecTest {
+
+	private static final double MB = 1024 * 1024;
+
+	@Test
+	public void testDeflateBlock() throws Exception {
+		StringBuilder rows = new StringBuilder();
+		for (int i = 0; i < 10000; ++i) {
+			rows.append(i).append(",AFRICA,lar deposits. blithely final\n");
+		}
+		byte[] raw = rows.toString().getBytes(StandardCharsets.UTF_8);
+		byte[] compressed = new byte[raw.length];
+		DataCodec.BlockCodec codec = DataCodec.DEFLATE.newBlockCodec();
+		try {
+			int length = codec.compress(raw, raw.length, compressed);
+			assertTrue(length > 0 && length < raw.length / 2);
+			byte[] decompressed = new byte[raw.length];
+			codec.decompress(compressed, length, decompressed, raw.length);
+			assertArrayEquals(raw, decompressed);
+		} finally {
+			codec.close();
+		}
+	}
+
+	@Test
+	public void testNoneDoesNotCompress() {
+		byte[] raw = new byte[100];
+		assertEquals(-1, DataCodec.NONE.newBlockCodec().compress(raw,
+				raw.length, new byte[100]));
+	}
+
+	@Test
+	public void testChooseCodec() {
+		/* slow link, fast compression, good ratio */
+		assertEquals(DataCodec.DEFLATE,
+				DataCodec.choose(10 * MB, 200 * MB, 0.3, 1.0));
+		/* the compression is slower than the link */
+		assertEquals(DataCodec.NONE,
+				DataCodec.choose(1000 * MB, 200 * MB, 0.3, 1.0));
+		/* the data does not compress */
+		assertEquals(DataCodec.NONE,
+				DataCodec.choose(10 * MB, 200 * MB, 0.95, 1.0));
+		/* no free CPU */
+		assertEquals(DataCodec.NONE,
+				DataCodec.choose(10 * MB, 200 * MB, 0.3, 0.0));
+		/* the free CPU is not enough to keep up with the link */
+		assertEquals(DataCodec.NONE,
+				DataCodec.choose(10 * MB, 200 * MB, 0.3, 0.05));
+	}
+
+	@Test
+	public void testCodecIds() throws Exception {
+		for (DataCodec codec : DataCodec.values()) {
+			assertEquals(codec, DataCodec.fromId(codec.getId()));
+		}
+	}
+}
@@ -3,6 +3,7 @@
  */
 package istc.bigdawg.network;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNull;
 
@@ -15,6 +16,7 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 import java.sql.SQLException;
 import java.util.ArrayList;
 import java.util.List;
@@ -231,6 +233,36 @@ public class DataInOutTest {
 		fileReceive.delete();
 	}
 
+	/**
+	 * Test the transfer of data through a few parallel connections: the data
+	 * is striped in blocks and has to be received in the same order.
+	 */
+	@Test
+	public void testParallelStreamsDataTransfer() throws Exception {
+		byte[] dataSend = new byte[3 * DataOut.BLOCK_SIZE + 1234];
+		for (int i = 0; i < dataSend.length; ++i) {
+			dataSend[i] = (byte) (i % 251);
+		}
+		File fileSend = new File(
+				systemTempDir + "/__test_file_send_streams.bin");
+		File fileReceive = new File(
+				systemTempDir + "/__test_file_receive_streams.bin");
+		Files.write(fileSend.toPath(), dataSend);
+
+		List<Callable<Object>> tasks = new ArrayList<>();
+		tasks.add(() -> DataIn.receive(4444, fileReceive.getAbsolutePath()));
+		tasks.add(() -> DataOut.send("localhost", 4444,
+				fileSend.getAbsolutePath(), 3));
+		ExecutorService executor = Executors.newFixedThreadPool(tasks.size());
+		List<Future<Object>> results = TaskExecutor.execute(executor, tasks);
+		assertEquals((long) dataSend.length, results.get(0).get());
+		assertEquals((long) dataSend.length, results.get(1).get());
+		assertArrayEquals(dataSend, Files.readAllBytes(fileReceive.toPath()));
+
+		fileSend.delete();
+		fileReceive.delete();
+	}
+
 	@Test
 	/** Test transfer of big data via network. */
 	public void testBigDataTransfer() throws Exception {
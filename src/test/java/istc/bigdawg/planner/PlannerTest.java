@@ -0,0 +1,80 @@
+package istc.bigdawg.planner;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Test;
+
+/**
+ * Check that the nodes of a cross-island plan run in parallel when they are
+ * independent and after their predecessors otherwise.
+ */
+public class PlannerTest {
+
+	private final ExecutorService executor = Executors.newFixedThreadPool(4);
+
+	/** the plan: two independent subqueries, each cast to the terminal island */
+	private static final List<String> NODES = Arrays.asList("rel", "array", "cast1", "cast2");
+
+	private static final Map<String, Collection<String>> PREDECESSORS = new HashMap<>();
+	static {
+		PREDECESSORS.put("rel", Collections.emptyList());
+		PREDECESSORS.put("array", Collections.emptyList());
+		PREDECESSORS.put("cast1", Arrays.asList("rel"));
+		PREDECESSORS.put("cast2", Arrays.asList("array"));
+	}
+
+	@After
+	public void tearDown() {
+		executor.shutdownNow();
+	}
+
+	@Test
+	public void testIndependentNodesRunInParallel() throws Exception {
+		/* each subquery waits until the other one started */
+		CountDownLatch started = new CountDownLatch(2);
+		List<String> done = new CopyOnWriteArrayList<>();
+		Planner.runNodes(NODES, PREDECESSORS::get, node -> {
+			if (PREDECESSORS.get(node).isEmpty()) {
+				started.countDown();
+				assertTrue("The subqueries did not run in parallel.", started.await(10, TimeUnit.SECONDS));
+			}
+			done.add(node);
+		}, executor);
+		assertEquals(4, done.size());
+		assertTrue(done.indexOf("rel") < done.indexOf("cast1"));
+		assertTrue(done.indexOf("array") < done.indexOf("cast2"));
+	}
+
+	@Test
+	public void testFailureStopsDependentNodes() throws Exception {
+		List<String> done = new CopyOnWriteArrayList<>();
+		Exception failure = new Exception("rel failed");
+		try {
+			Planner.runNodes(NODES, PREDECESSORS::get, node -> {
+				if (node.equals("rel")) {
+					throw failure;
+				}
+				done.add(node);
+			}, executor);
+			fail("The failure of a node was not reported.");
+		} catch (Exception e) {
+			assertTrue(e == failure);
+		}
+		assertTrue(!done.contains("cast1"));
+	}
+}
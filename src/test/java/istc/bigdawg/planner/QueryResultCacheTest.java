@@ -0,0 +1,121 @@
+package istc.bigdawg.planner;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+
+import org.junit.Test;
+
+/**
+ * Check the normalization of the queries, the LRU order of the memory and disk
+ * tiers and the invalidation of the query result cache.
+ */
+public class QueryResultCacheTest {
+
+	private static final String QUERY = "bdrel(select * from patients where id = 'a  b')";
+
+	@Test
+	public void testNormalize() {
+		assertEquals("bdrel(select * from patients where id = 'a  b')",
+				QueryResultCache.normalize("  bdrel( select  *\tfrom patients\nwhere id = 'a  b' ) ;"));
+		assertEquals("bdarray(filter(myarray,dim1>150))",
+				QueryResultCache.normalize("bdarray(filter(myarray, dim1>150))"));
+	}
+
+	@Test
+	public void testCacheable() {
+		assertTrue(QueryResultCache.isCacheable(QUERY));
+		assertTrue(QueryResultCache.isCacheable("bdrel(select * from t where name = 'insert')"));
+		assertTrue(QueryResultCache.isCacheable("bdrel(select last_update from t)"));
+		assertFalse(QueryResultCache.isCacheable("bdrel(select * into t2 from t)"));
+		assertFalse(QueryResultCache.isCacheable("bdarray(store(apply(a, b, 1), c))"));
+	}
+
+	@Test
+	public void testHitAndInvalidate() {
+		QueryResultCache cache = new QueryResultCache(true, 0, 1 << 20, null, 0);
+		assertNull(cache.get(QUERY));
+		cache.put(QUERY, "result", new HashSet<>(Arrays.asList("Patients")), cache.begin());
+		assertEquals("result", cache.get("bdrel(select * from  patients where id = 'a  b');"));
+		assertEquals(1, cache.getHitCount());
+		assertEquals(1, cache.getMissCount());
+		assertEquals(0.5, cache.getHitRatio(), 0.001);
+		assertTrue(cache.getMemoryBytes() > 0);
+
+		cache.invalidate("other");
+		assertEquals("result", cache.get(QUERY));
+		cache.invalidate("PATIENTS");
+		assertNull(cache.get(QUERY));
+		assertEquals(0, cache.getMemoryBytes());
+	}
+
+	@Test
+	public void testModifiedDuringQuery() {
+		QueryResultCache cache = new QueryResultCache(true, 0, 1 << 20, null, 0);
+		long began = cache.begin();
+		cache.invalidate("patients");
+		cache.put(QUERY, "stale", Collections.singleton("patients"), began);
+		assertNull(cache.get(QUERY));
+		// unknown objects
+		cache.put(QUERY, "result", null, cache.begin());
+		assertNull(cache.get(QUERY));
+		// a query which modifies data
+		cache.put("bdrel(delete from patients)", "result", Collections.emptySet(), cache.begin());
+		assertEquals(0, cache.size());
+	}
+
+	@Test
+	public void testStatementInvalidates() {
+		QueryResultCache cache = new QueryResultCache(true, 0, 1 << 20, null, 0);
+		cache.put(QUERY, "result", Collections.singleton("public.patients"), cache.begin());
+		cache.put("bdrel(select * from doctors)", "doctors", Collections.singleton("doctors"), cache.begin());
+		long began = cache.begin();
+
+		// a read does not drop anything
+		cache.invalidateModified("bdrel(select * from patients)");
+		assertEquals(2, cache.size());
+		cache.invalidateModified("bdrel(insert into patients select * from new_patients where name = 'doctors')");
+		assertNull(cache.get(QUERY));
+		assertEquals("doctors", cache.get("bdrel(select * from doctors)"));
+		// a query which ran concurrently with the statement
+		cache.put(QUERY, "stale", Collections.singleton("patients"), began);
+		assertNull(cache.get(QUERY));
+
+		assertTrue(QueryResultCache.getNames("bdrel(update public.t set a = 'x y')").containsAll(
+				Arrays.asList("update", "public.t", "public", "t", "a")));
+	}
+
+	@Test
+	public void testEvictionToDisk() throws Exception {
+		File dir = Files.createTempDirectory("bigdawg-result-cache").toFile();
+		// room for one result in memory and two on disk
+		QueryResultCache cache = new QueryResultCache(true, 0, 600, dir.getPath(), 1200);
+		char[] chars = new char[200];
+		Arrays.fill(chars, 'x');
+		String result = new String(chars);
+		for (int i = 0; i < 4; i++) {
+			cache.put("bdrel(select * from t" + i + ")", result + i, Collections.singleton("t" + i), cache.begin());
+		}
+		assertEquals(576, cache.getMemoryBytes());
+		assertEquals(3, cache.size());
+		assertEquals(2, dir.listFiles().length);
+		// the oldest one is dropped
+		assertNull(cache.get("bdrel(select * from t0)"));
+		// read from disk and moved back to memory
+		assertEquals(result + 1, cache.get("bdrel(select * from t1)"));
+		assertEquals(3, cache.size());
+		cache.invalidate("t2");
+		assertEquals(2, cache.size());
+		cache.invalidateAll();
+		assertEquals(0, cache.size());
+		assertEquals(0, dir.listFiles().length);
+		dir.delete();
+	}
+}
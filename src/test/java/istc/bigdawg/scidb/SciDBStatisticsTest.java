@@ -0,0 +1,61 @@
+package istc.bigdawg.scidb;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+
+import org.junit.Test;
+
+import istc.bigdawg.executor.ConstructedQueryResult;
+import istc.bigdawg.executor.QueryResult;
+
+public class SciDBStatisticsTest {
+
+	/**
+	 * Returns the given rows for every query, as SciDBHandler does.
+	 */
+	private static class FakeSciDB extends SciDBConnectionInfo {
+		private static final long serialVersionUID = 1L;
+		private final List<List<String>> rows;
+
+		FakeSciDB(List<List<String>> rows) {
+			super("localhost", "1239", "scidb", "pass", "/opt/scidb/bin/");
+			this.rows = rows;
+		}
+
+		@Override
+		Optional<QueryResult> execute(String query) {
+			return Optional.of(new ConstructedQueryResult(rows, this));
+		}
+	}
+
+	/** SciDB returns a single empty row for an empty array. */
+	private static final List<List<String>> EMPTY = Collections
+			.singletonList(Collections.emptyList());
+
+	@Test
+	public void testEmptyArray() throws Exception {
+		FakeSciDB scidb = new FakeSciDB(EMPTY);
+		assertNull(scidb.getRowCount("empty"));
+		assertNull(scidb.getMinMax("empty", "val"));
+		assertArrayEquals(new long[4],
+				scidb.computeHistogram("empty", "val", 0, 10, 4));
+	}
+
+	@Test
+	public void testConstructedResult() throws Exception {
+		FakeSciDB scidb = new FakeSciDB(
+				Arrays.asList(Arrays.asList("0", "0", "3"),
+						Arrays.asList("1", "2", "5")));
+		assertEquals(Long.valueOf(8), new FakeSciDB(Collections
+				.singletonList(Collections.singletonList("8")))
+						.getRowCount("array"));
+		assertArrayEquals(new long[] { 3, 0, 5, 0 },
+				scidb.computeHistogram("array", "val", 0, 10, 4));
+	}
+}
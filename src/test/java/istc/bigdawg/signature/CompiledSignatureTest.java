@@ -0,0 +1,62 @@
+package istc.bigdawg.signature;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Random;
+
+import org.junit.Test;
+
+import istc.bigdawg.islands.IslandAndCastResolver.Scope;
+
+public class CompiledSignatureTest {
+
+	@Test
+	public void testBinaryForm() throws Exception {
+		Random random = new Random(3);
+		for (int i = 0; i < 100; i++) {
+			Signature signature = SignatureIndexTest.randomSignature(random);
+			Signature other = SignatureIndexTest.randomSignature(random);
+			Signature recovered = CompiledSignature.fromBytes(signature.getCompiled().toBytes());
+			assertEquals(signature.toRecoverableString(), recovered.toRecoverableString());
+			assertEquals(signature.getCompiled().getSig1Size(), recovered.getCompiled().getSig1Size(), 0.0);
+			assertEquals(signature.compare(other), recovered.compare(other), 0.0);
+		}
+	}
+
+	@Test
+	public void testTreeSizes() throws Exception {
+		Signature signature = new Signature("RELATIONAL|||||{Join{Scan}{Scan}}|||||a.id = b.id|||||1&&&&&2|||||select 1|||||{Scan}&&&&&{Sort{Scan}}");
+		CompiledSignature compiled = signature.getCompiled();
+		assertEquals(Signature.getTreeEditDistance("{Join{Scan}{Scan}}", "{}"), compiled.getSig1Size(), 0.0);
+		assertEquals(3, compiled.getSig1Size(), 0.0);
+		assertEquals(1 + 2, compiled.getSig4kTotalSize(), 0.0);
+		assertEquals(0, signature.compare(new Signature(signature.toRecoverableString())), 0.0);
+	}
+
+	@Test
+	public void testEmptyParts() throws Exception {
+		// no join predicates, no constants and no containers
+		Signature signature = new Signature(Scope.RELATIONAL, "{Scan}", Collections.<String> emptyList(),
+				Collections.<String> emptyList(), "select * from a", Collections.<String> emptyList());
+		Signature recovered = CompiledSignature.fromBytes(signature.getCompiled().toBytes());
+		assertEquals(0, signature.compare(recovered), 0.0);
+		assertEquals(0, recovered.compare(signature), 0.0);
+
+		Signature other = new Signature(Scope.RELATIONAL, "{Sort{Scan}}", Collections.<String> emptyList(),
+				Collections.<String> emptyList(), "select * from a order by x", Collections.<String> emptyList());
+		double dist = signature.compare(other);
+		assertEquals(0.5 * Signature.sig1Weight
+				/ (Signature.sig1Weight + Signature.sig2Weight + Signature.sig3Weight + Signature.sig4kWeight),
+				dist, 1e-9);
+
+		// only one of the signatures has predicates and constants
+		Signature full = new Signature(Scope.RELATIONAL, "{Scan}", Arrays.asList("a.id = b.id"), Arrays.asList("1"),
+				"select * from a", Arrays.asList("{Scan}"));
+		assertEquals(1, signature.getSig2Distance(full), 0.0);
+		assertEquals(1, signature.getSig3Distance(full), 0.0);
+		assertEquals(0, signature.getSig2Distance(recovered), 0.0);
+		assertEquals(0, signature.getSig3Distance(recovered), 0.0);
+	}
+}
@@ -0,0 +1,103 @@
+package istc.bigdawg.signature;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+import istc.bigdawg.exceptions.BigDawgException;
+import istc.bigdawg.islands.IslandAndCastResolver.Scope;
+
+public class SignatureIndexTest {
+
+	private static final String[] operators = {"Join", "Scan", "Aggregate", "Sort", "Limit", "Merge"};
+	private static final String[] predicates = {"a.id = b.id", "b.x = c.x", "c.y = d.y", "a.z = d.z", "b.w = e.w"};
+
+	private static String randomTree(Random random, int depth) {
+		StringBuilder sb = new StringBuilder("{");
+		sb.append(operators[random.nextInt(operators.length)]);
+		if (depth > 0) {
+			int children = random.nextInt(3);
+			for (int i = 0; i < children; i++) sb.append(randomTree(random, depth - 1));
+		}
+		return sb.append("}").toString();
+	}
+
+	/**
+	 * @return a signature with random trees, predicates and constants in the recoverable form
+	 */
+	public static Signature randomSignature(Random random) throws BigDawgException {
+		List<String> sig2 = new ArrayList<>();
+		for (String p : predicates) if (random.nextBoolean()) sig2.add(p);
+		if (sig2.isEmpty()) sig2.add(predicates[0]);
+		List<String> sig3 = new ArrayList<>();
+		int constants = 1 + random.nextInt(5);
+		for (int i = 0; i < constants; i++) sig3.add(Integer.toString(random.nextInt(100)));
+		List<String> sig4k = new ArrayList<>();
+		int containers = 1 + random.nextInt(2);
+		for (int i = 0; i < containers; i++) sig4k.add(randomTree(random, 2));
+
+		String s = "RELATIONAL|||||" + randomTree(random, 4) + "|||||" + String.join("&&&&&", sig2)
+				+ "|||||" + String.join("&&&&&", sig3) + "|||||select " + random.nextInt();
+		if (!sig4k.isEmpty()) s += "|||||" + String.join("&&&&&", sig4k);
+		return new Signature(s);
+	}
+
+	@Test
+	public void testSameResultAsScan() throws Exception {
+		Random random = new Random(7);
+		List<Signature> signatures = new ArrayList<>();
+		SignatureIndex index = new SignatureIndex();
+		for (int i = 0; i < 500; i++) {
+			Signature signature = randomSignature(random);
+			signatures.add(signature);
+			index.add(signature);
+		}
+		assertEquals(500, index.size());
+
+		int comparisons = 0;
+		for (int i = 0; i < 50; i++) {
+			Signature query = randomSignature(random);
+			Signature expected = SignatureIndex.getClosestByScan(query, signatures);
+			Signature closest = index.getClosest(query);
+			assertEquals(query.compare(expected), query.compare(closest), 0.0);
+			comparisons += index.getLastComparisons();
+		}
+		assertTrue("the index should skip signatures: " + comparisons, comparisons < 50 * 500);
+	}
+
+	@Test
+	public void testAddAndRemove() throws Exception {
+		Random random = new Random(11);
+		SignatureIndex index = new SignatureIndex();
+		Signature signature = randomSignature(random);
+		assertNull(index.getClosest(signature));
+		assertTrue(index.add(signature));
+		assertTrue(!index.add(new Signature(signature.toRecoverableString())));
+		assertEquals(signature, index.getClosest(signature));
+		assertTrue(index.remove(signature));
+		assertEquals(0, index.size());
+		assertNull(index.getClosest(signature));
+	}
+
+	@Test
+	public void testEmptyParts() throws Exception {
+		Random random = new Random(13);
+		SignatureIndex index = new SignatureIndex();
+		for (int i = 0; i < 50; i++) index.add(randomSignature(random));
+		// no join predicates, no constants and no containers
+		Signature exact = new Signature(Scope.RELATIONAL, "{Aggregate{Scan}}", Collections.<String> emptyList(),
+				Collections.<String> emptyList(), "select count(*) from a", Collections.<String> emptyList());
+		index.add(exact);
+		Signature query = CompiledSignature.fromBytes(exact.getCompiled().toBytes());
+		Signature closest = index.getClosest(query);
+		assertEquals(0, query.compare(closest), 0.0);
+		assertEquals(exact.toRecoverableString(), closest.toRecoverableString());
+	}
+}
@@ -0,0 +1,113 @@
+package istc.bigdawg.statistics;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+import istc.bigdawg.postgresql.PostgreSQLConnectionInfo;
+import istc.bigdawg.query.ConnectionInfo;
+
+public class StatisticsServiceTest {
+
+    private static final ConnectionInfo ENGINE = new PostgreSQLConnectionInfo("localhost", "5431", "test", "user", "pass");
+    private static final ConnectionInfo OTHER = new PostgreSQLConnectionInfo("localhost", "5430", "test", "user", "pass");
+
+    /**
+     * Counts the collections, each one waits for the latch.
+     */
+    private static class CountingCollector implements StatisticsService.Collector {
+        final AtomicInteger collections = new AtomicInteger(0);
+        final CountDownLatch release;
+
+        CountingCollector(CountDownLatch release) {
+            this.release = release;
+        }
+
+        @Override
+        public ColumnStatistics collect(ConnectionInfo engine, String object, String attribute) throws Exception {
+            collections.incrementAndGet();
+            release.await();
+            return new ColumnStatistics(40, 20, Collections.singletonMap(7L, 5L), Arrays.asList(0L, 10L, 20L),
+                    new long[] { 20, 15 });
+        }
+
+        @Override
+        public Long getRowCount(ConnectionInfo engine, String object) {
+            return null;
+        }
+    }
+
+    @Test
+    public void testCachedAndShared() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        CountingCollector collector = new CountingCollector(release);
+        StatisticsService service = new StatisticsService(collector, 60000, 4);
+
+        // the requests during the collection wait for the same collection
+        CompletableFuture<ColumnStatistics> first = service.request(ENGINE, "orders", "id");
+        CompletableFuture<ColumnStatistics> second = service.request(ENGINE, "ORDERS", "id");
+        CompletableFuture<ColumnStatistics> other = service.request(OTHER, "orders", "id");
+        assertSame(first, second);
+        release.countDown();
+        assertSame(StatisticsService.get(first), StatisticsService.get(second));
+        StatisticsService.get(other);
+        assertEquals(2, collector.collections.get());
+
+        // cached
+        service.getStatistics(ENGINE, "orders", "id");
+        assertEquals(2, collector.collections.get());
+        // the row count is taken from the statistics of the attributes
+        assertEquals(Long.valueOf(40), service.getRowCount(ENGINE, "orders"));
+
+        service.invalidate(ENGINE, "orders");
+        assertEquals(1, service.getCached());
+        assertNull(service.getRowCount(ENGINE, "orders"));
+        service.getStatistics(ENGINE, "orders", "id");
+        assertEquals(3, collector.collections.get());
+    }
+
+    @Test
+    public void testStale() throws Exception {
+        CountDownLatch release = new CountDownLatch(0);
+        CountingCollector collector = new CountingCollector(release);
+        StatisticsService service = new StatisticsService(collector, 0, 1);
+        service.getStatistics(ENGINE, "orders", "id");
+        Thread.sleep(5);
+        service.getStatistics(ENGINE, "orders", "id");
+        assertEquals(2, collector.collections.get());
+    }
+
+    @Test(expected = StatisticsService.StatisticsException.class)
+    public void testFailure() throws Exception {
+        StatisticsService service = new StatisticsService(new StatisticsService.Collector() {
+            @Override
+            public ColumnStatistics collect(ConnectionInfo engine, String object, String attribute) throws Exception {
+                throw new Exception("no such table");
+            }
+
+            @Override
+            public Long getRowCount(ConnectionInfo engine, String object) {
+                return null;
+            }
+        }, 60000, 1);
+        service.getStatistics(ENGINE, "orders", "id");
+    }
+
+    @Test
+    public void testHistogram() {
+        ColumnStatistics statistics = new ColumnStatistics(40, 20, Collections.singletonMap(7L, 5L),
+                Arrays.asList(0L, 10L, 20L), new long[] { 20, 15 });
+        assertEquals(0, statistics.getRange().getMin());
+        assertEquals(20, statistics.getRange().getMax());
+        assertArrayEquals(new long[] { 10, 10, 8, 7 }, statistics.getHistogram(0, 20, 4));
+    }
+}